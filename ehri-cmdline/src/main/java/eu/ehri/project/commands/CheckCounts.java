@@ -0,0 +1,55 @@
+package eu.ehri.project.commands;
+
+import com.tinkerpop.blueprints.TransactionalGraph;
+import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.core.GraphCounterRepairer;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+
+/**
+ * Check, and optionally repair, the stored child and
+ * relationship counts of items in the graph.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class CheckCounts extends BaseCommand implements Command {
+
+    final static String NAME = "check-counts";
+
+    /**
+     * Constructor.
+     */
+    public CheckCounts() {
+    }
+
+    @Override
+    public String getHelp() {
+        return "check stored item counts against the actual number of relationships" +
+                "\n" + getUsage();
+    }
+
+    @Override
+    public String getUsage() {
+        return "Usage: check-counts [OPTIONS]";
+    }
+
+    @Override
+    protected void setCustomOptions() {
+        options.addOption(new Option("r", "repair", false,
+                "Store the correct count for all items"));
+    }
+
+    @Override
+    public int execWithOptions(final FramedGraph<? extends TransactionalGraph> graph,
+            CommandLine cmdLine) throws Exception {
+        GraphCounterRepairer repairer = new GraphCounterRepairer(graph);
+        if (cmdLine.hasOption("repair")) {
+            System.out.println("Repaired counts: " + repairer.repair());
+            return 0;
+        } else {
+            long inconsistent = repairer.check();
+            System.out.println("Inconsistent counts: " + inconsistent);
+            return inconsistent == 0 ? 0 : 1;
+        }
+    }
+}
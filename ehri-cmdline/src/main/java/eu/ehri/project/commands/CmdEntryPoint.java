@@ -82,6 +82,7 @@ public class CmdEntryPoint extends BaseCommand {
         mmap.put(EadAsVirtualCollectionImport.NAME, EadAsVirtualCollectionImport.class);
         mmap.put(GraphSON.NAME, GraphSON.class);
         mmap.put(Check.NAME, Check.class);
+        mmap.put(CheckCounts.NAME, CheckCounts.class);
 
         COMMANDS = Collections.unmodifiableMap(mmap);
     }
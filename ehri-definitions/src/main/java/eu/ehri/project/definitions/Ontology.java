@@ -91,9 +91,12 @@ public class Ontology {
     public static final String EVENT_HAS_ACTIONER = "hasActioner";
     public static final String EVENT_HAS_SCOPE = "hasEventScope";
     public static final String EVENT_TIMESTAMP = "timestamp";
+    public static final String EVENT_SEQUENCE = "sequence";
+    public static final String EVENT_TIMESTAMP_MILLIS = "timestampMillis";
     public static final String EVENT_LOG_MESSAGE = "logMessage";
     public static final String EVENT_TYPE = "eventType";
     public static final String EVENT_HAS_FIRST_SUBJECT = "hasFirstSubject";
+    public static final String EVENT_HAS_SUBJECT = "hasSubject";
     public static final String EVENT_PRIOR_VERSION = "priorVersion";
     public static final String ACTIONER_HAS_LIFECYCLE_ACTION = "lifecycleAction";
     public static final String ENTITY_HAS_LIFECYCLE_EVENT = "lifecycleEvent";
@@ -104,6 +107,7 @@ public class Ontology {
     public static final String VERSION_ENTITY_CLASS = "entityType";
     public static final String VERSION_ENTITY_ID = "entityId";
     public static final String VERSION_ENTITY_DATA = "entityData";
+    public static final String VERSION_ENTITY_PATCH = "entityPatch";
 
     // Virtual collections
     public static final String VC_IS_PART_OF = "isPartOf";
@@ -99,7 +99,7 @@ public class AbstractAccessibleEntityResource<E extends AccessibleEntity>
      */
     public long countItems() throws BadRequester {
         graph.getBaseGraph().checkNotInTransaction();
-        return getQuery(cls).count();
+        return getQuery(cls).count(getRequesterUserProfile());
     }
 
     /**
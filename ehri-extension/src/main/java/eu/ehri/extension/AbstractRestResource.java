@@ -2,7 +2,9 @@ package eu.ehri.extension;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
 import com.tinkerpop.frames.FramedGraphFactory;
@@ -19,8 +21,10 @@ import eu.ehri.project.models.UserProfile;
 import eu.ehri.project.models.base.AccessibleEntity;
 import eu.ehri.project.models.base.Accessor;
 import eu.ehri.project.models.base.Frame;
+import eu.ehri.project.persistence.BundleCache;
 import eu.ehri.project.persistence.Serializer;
 import eu.ehri.project.utils.TxCheckedNeo4jGraph;
+import eu.ehri.project.views.PageCursor;
 import eu.ehri.project.views.Query;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
@@ -29,19 +33,25 @@ import org.neo4j.graphdb.GraphDatabaseService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.core.Variant;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StringWriter;
 import java.net.URI;
-import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.List;
 
 
@@ -54,9 +64,11 @@ public abstract class AbstractRestResource implements TxCheckedResource {
 
     public static final int DEFAULT_LIST_LIMIT = 20;
     public static final int ITEM_CACHE_TIME = 60 * 5; // 5 minutes
+    private static final long REQUEST_CACHE_WEIGHT = 1000L; // items in cached bundles
 
     protected static final ObjectMapper jsonMapper = new ObjectMapper();
     protected static final JsonFactory jsonFactory = new JsonFactory();
+    protected static final XMLOutputFactory xmlFactory = XMLOutputFactory.newInstance();
 
     protected static final Logger logger = LoggerFactory.getLogger(TxCheckedResource.class);
     private static final FramedGraphFactory graphFactory = new FramedGraphFactory(new JavaHandlerModule());
@@ -68,6 +80,7 @@ public abstract class AbstractRestResource implements TxCheckedResource {
     public static final String FILTER_PARAM = "filter";
     public static final String LIMIT_PARAM = "limit";
     public static final String OFFSET_PARAM = "offset";
+    public static final String CURSOR_PARAM = "cursor";
     public static final String ACCESSOR_PARAM = "accessibleTo";
     public static final String GROUP_PARAM = "group";
     public static final String ALL_PARAM = "all";
@@ -77,6 +90,8 @@ public abstract class AbstractRestResource implements TxCheckedResource {
      * Serialization config parameters.
      */
     public static final String INCLUDE_PROPS_PARAM = "_ip";
+    public static final String INCLUDE_META_PARAM = "_im";
+    public static final String PRETTY_PARAM = "_pretty";
 
     /**
      * Header names
@@ -86,6 +101,7 @@ public abstract class AbstractRestResource implements TxCheckedResource {
     public static final String PATCH_HEADER_NAME = "Patch";
     public static final String LOG_MESSAGE_HEADER_NAME = "logMessage";
     public static final String STREAM_HEADER_NAME = "X-Stream";
+    public static final String NEXT_CURSOR_HEADER_NAME = "X-Next-Cursor";
 
 
     /**
@@ -149,17 +165,65 @@ public abstract class AbstractRestResource implements TxCheckedResource {
     /**
      * Get a serializer according to passed-in serialization config.
      * <p/>
-     * Currently the only parameter is <code>_ip=[propertyName]</code> which
-     * ensures a given property is always included in the output.
+     * The parameter <code>_ip=[propertyName]</code> ensures a given property
+     * is always included in the output. If any <code>_im=[metaKey]</code>
+     * parameters are given, only those computed metadata values, e.g.
+     * <code>childCount</code>, are included; an empty <code>_im=</code>
+     * value excludes them all.
      *
      * @return a vertex serializer
      */
     protected Serializer getSerializer() {
-        Optional<List<String>> includeProps = Optional.fromNullable(uriInfo.getQueryParameters(true)
+        MultivaluedMap<String, String> params = uriInfo.getQueryParameters(true);
+        Optional<List<String>> includeProps = Optional.fromNullable(params
                 .get(INCLUDE_PROPS_PARAM));
-        return includeProps.isPresent()
+        Optional<List<String>> includeMeta = Optional.fromNullable(params
+                .get(INCLUDE_META_PARAM));
+        Serializer custom = includeProps.isPresent()
                 ? serializer.withIncludedProperties(includeProps.get())
                 : serializer;
+        return includeMeta.isPresent()
+                ? custom.withMetaKeys(includeMeta.get())
+                : custom;
+    }
+
+    /**
+     * Get the serializer used for the items in a list, which uses
+     * the shared {@link BundleCache} if that has been enabled, and
+     * otherwise a cache local to the request, so items related to
+     * many of those in the list are only serialized once.
+     *
+     * @param serializer a vertex serializer
+     * @return a vertex serializer
+     */
+    protected Serializer getListSerializer(Serializer serializer) {
+        return BundleCache.isEnabled()
+                ? serializer.withCache()
+                : serializer.withCache(new BundleCache(REQUEST_CACHE_WEIGHT));
+    }
+
+    /**
+     * Invalidate the cached bundles of items whose relationships
+     * have been changed other than via a bundle, once the current
+     * transaction commits.
+     *
+     * @param ids the IDs of the changed items
+     */
+    protected void invalidateOnCommit(Iterable<String> ids) {
+        BundleCache.getInstance().invalidateOnCommit(graph.getBaseGraph(), ids);
+    }
+
+    /**
+     * Invalidate the cached bundles of an item and the other items
+     * to which its relationships have been changed, once the current
+     * transaction commits.
+     *
+     * @param item     the changed item
+     * @param otherIds the IDs of the items at the other ends of
+     *                 the changed relationships
+     */
+    protected void invalidateOnCommit(Frame item, Iterable<String> otherIds) {
+        invalidateOnCommit(Iterables.concat(Collections.singleton(item.getId()), otherIds));
     }
 
     /**
@@ -203,7 +267,23 @@ public abstract class AbstractRestResource implements TxCheckedResource {
                 .setLimit(getIntQueryParam(LIMIT_PARAM, DEFAULT_LIST_LIMIT))
                 .filter(getStringListQueryParam(FILTER_PARAM))
                 .orderBy(getStringListQueryParam(SORT_PARAM))
-                .setStream(isStreaming());
+                .setStream(isStreaming())
+                .setCursor(getCursorQueryParam());
+    }
+
+    /**
+     * Get the page cursor given by the request, if any. An empty
+     * cursor parameter requests the first page of a cursor walk.
+     *
+     * @return a page cursor, or null if none was given
+     */
+    protected PageCursor getCursorQueryParam() {
+        String value = uriInfo.getQueryParameters().getFirst(CURSOR_PARAM);
+        try {
+            return value == null ? null : PageCursor.decode(value);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+        }
     }
 
     /**
@@ -296,6 +376,21 @@ public abstract class AbstractRestResource implements TxCheckedResource {
         return false;
     }
 
+    /**
+     * Determine if JSON output should be pretty printed, which
+     * is requested with the <code>_pretty=true</code> parameter.
+     * By default output is compact.
+     *
+     * @return Whether to pretty print output
+     */
+    protected boolean isPretty() {
+        return Boolean.valueOf(uriInfo.getQueryParameters().getFirst(PRETTY_PARAM));
+    }
+
+    private static JsonGenerator prettyPrint(JsonGenerator generator, boolean pretty) {
+        return pretty ? generator.useDefaultPrettyPrinter() : generator;
+    }
+
     /**
      * Retrieve the id string of the requester's user profile.
      *
@@ -380,26 +475,34 @@ public abstract class AbstractRestResource implements TxCheckedResource {
      * @return An XML response.
      */
     private <T extends Frame> Response getStreamingXmlOutput(final Query.Page<T> page, final Serializer serializer) {
-        final Charset utf8 = Charset.forName("UTF-8");
-        final String header = String.format("<list total=\"%d\" offset=\"%d\" limit=\"%d\">%n",
-                page.getTotal(), page.getOffset(), page.getLimit());
-        final String tail = String.format("</listItems>%n");
-
+        final Serializer cacheSerializer = getListSerializer(serializer);
         return Response.ok(new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException {
-                os.write(header.getBytes(utf8));
                 try {
+                    XMLStreamWriter writer = xmlFactory.createXMLStreamWriter(os, "UTF-8");
+                    writer.writeStartElement("list");
+                    writer.writeAttribute("total", String.valueOf(page.getTotal()));
+                    writer.writeAttribute("offset", String.valueOf(page.getOffset()));
+                    writer.writeAttribute("limit", String.valueOf(page.getLimit()));
                     for (T item : page.getIterable()) {
-                        os.write(serializer.vertexFrameToXmlString(item)
-                                .getBytes(utf8));
+                        writer.writeCharacters("\n");
+                        cacheSerializer.vertexFrameToXml(item, writer);
                     }
+                    writer.writeCharacters("\n");
+                    writer.writeEndElement();
+                    writer.writeCharacters("\n");
+                    writer.close();
+                } catch (XMLStreamException e) {
+                    throw new IOException(e);
                 } catch (SerializationError serializationError) {
                     throw new RuntimeException(serializationError);
+                } finally {
+                    page.close();
                 }
-                os.write(tail.getBytes(utf8));
             }
         }).header(RANGE_HEADER_NAME, getPaginationResponseHeader(page))
+                .header(NEXT_CURSOR_HEADER_NAME, page.getNextCursor().orNull())
                 .build();
     }
 
@@ -425,26 +528,32 @@ public abstract class AbstractRestResource implements TxCheckedResource {
      * @return A JSON response
      */
     private <T extends Frame> Response getStreamingJsonOutput(final Query.Page<T> page, final Serializer serializer) {
-        final Serializer cacheSerializer = serializer.withCache();
+        final Serializer cacheSerializer = getListSerializer(serializer);
+        final boolean pretty = isPretty();
         StreamingOutput output = new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException {
-                JsonGenerator g = jsonFactory.createJsonGenerator(os);
-                g.writeStartArray();
-                for (T item : page.getIterable()) {
-                    try {
-                        g.writeRaw('\n');
-                        jsonMapper.writeValue(g, cacheSerializer.vertexFrameToData(item));
-                    } catch (SerializationError e) {
-                        throw new RuntimeException(e);
+                try {
+                    JsonGenerator g = prettyPrint(jsonFactory.createJsonGenerator(os), pretty);
+                    g.writeStartArray();
+                    for (T item : page.getIterable()) {
+                        try {
+                            g.writeRaw('\n');
+                            cacheSerializer.vertexFrameToJson(item, g);
+                        } catch (SerializationError e) {
+                            throw new RuntimeException(e);
+                        }
                     }
+                    g.writeEndArray();
+                    g.close();
+                } finally {
+                    page.close();
                 }
-                g.writeEndArray();
-                g.close();
             }
         };
         return Response.ok(output)
                 .header(RANGE_HEADER_NAME, getPaginationResponseHeader(page))
+                .header(NEXT_CURSOR_HEADER_NAME, page.getNextCursor().orNull())
                 .build();
     }
 
@@ -474,49 +583,69 @@ public abstract class AbstractRestResource implements TxCheckedResource {
     }
 
     private <T extends Frame> Response getStreamingXmlOutput(final Iterable<T> list, final Serializer serializer) {
-        final Charset utf8 = Charset.forName("UTF-8");
-        final String header = "<list>\n";
-        final String tail = "</list>\n";
-
+        final Serializer cacheSerializer = getListSerializer(serializer);
         return Response.ok(new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException {
-                os.write(header.getBytes(utf8));
                 try {
+                    XMLStreamWriter writer = xmlFactory.createXMLStreamWriter(os, "UTF-8");
+                    writer.writeStartElement("list");
                     for (T item : list) {
-                        os.write(serializer.vertexFrameToXmlString(item)
-                                .getBytes(utf8));
+                        writer.writeCharacters("\n");
+                        cacheSerializer.vertexFrameToXml(item, writer);
                     }
+                    writer.writeCharacters("\n");
+                    writer.writeEndElement();
+                    writer.writeCharacters("\n");
+                    writer.close();
+                } catch (XMLStreamException e) {
+                    throw new IOException(e);
                 } catch (SerializationError e) {
                     throw new RuntimeException(e);
+                } finally {
+                    closeIfCloseable(list);
                 }
-                os.write(tail.getBytes(utf8));
             }
         }).build();
     }
 
     private <T extends Frame> Response getStreamingJsonOutput(final Iterable<T> list, final Serializer serializer) {
-        final Serializer cacheSerializer = serializer.withCache();
+        final Serializer cacheSerializer = getListSerializer(serializer);
+        final boolean pretty = isPretty();
         return Response.ok(new StreamingOutput() {
             @Override
             public void write(OutputStream arg0) throws IOException {
-                JsonGenerator g = jsonFactory.createJsonGenerator(arg0);
-                g.writeStartArray();
-                for (T item : list) {
-                    g.writeRaw('\n');
-                    try {
-                        jsonMapper.writeValue(g, cacheSerializer.vertexFrameToData(item));
-                    } catch (SerializationError e) {
-                        e.printStackTrace();
-                        throw new RuntimeException(e);
+                try {
+                    JsonGenerator g = prettyPrint(jsonFactory.createJsonGenerator(arg0), pretty);
+                    g.writeStartArray();
+                    for (T item : list) {
+                        g.writeRaw('\n');
+                        try {
+                            cacheSerializer.vertexFrameToJson(item, g);
+                        } catch (SerializationError e) {
+                            e.printStackTrace();
+                            throw new RuntimeException(e);
+                        }
                     }
+                    g.writeEndArray();
+                    g.close();
+                } finally {
+                    closeIfCloseable(list);
                 }
-                g.writeEndArray();
-                g.close();
             }
         }).build();
     }
 
+    /**
+     * Close a list once it has been written out, if it is read
+     * from a closeable source such as index hits.
+     */
+    private static void closeIfCloseable(Iterable<?> list) {
+        if (list instanceof CloseableIterable) {
+            ((CloseableIterable<?>) list).close();
+        }
+    }
+
     /**
      * Return a streaming response from an iterable, using the given
      * entity converter.
@@ -527,16 +656,17 @@ public abstract class AbstractRestResource implements TxCheckedResource {
      */
     protected Response streamingVertexList(
             final Iterable<Vertex> list, final Serializer serializer) {
-        final Serializer cacheSerializer = serializer.withCache();
+        final Serializer cacheSerializer = getListSerializer(serializer);
+        final boolean pretty = isPretty();
         return Response.ok(new StreamingOutput() {
             @Override
             public void write(OutputStream arg0) throws IOException {
-                JsonGenerator g = jsonFactory.createJsonGenerator(arg0);
+                JsonGenerator g = prettyPrint(jsonFactory.createJsonGenerator(arg0), pretty);
                 g.writeStartArray();
                 for (Vertex item : list) {
                     try {
                         g.writeRaw('\n');
-                        jsonMapper.writeValue(g, cacheSerializer.vertexToData(item));
+                        cacheSerializer.vertexToJson(item, g);
                     } catch (SerializationError e) {
                         throw new RuntimeException(e);
                     }
@@ -581,7 +711,7 @@ public abstract class AbstractRestResource implements TxCheckedResource {
     protected String getRepresentation(Vertex vertex) throws SerializationError {
         return MediaType.TEXT_XML_TYPE.equals(checkMediaType())
                 ? getSerializer().vertexToXmlString(vertex)
-                : getSerializer().vertexToJson(vertex);
+                : getJsonRepresentation(vertex);
     }
 
     /**
@@ -593,7 +723,26 @@ public abstract class AbstractRestResource implements TxCheckedResource {
     protected String getRepresentation(Frame frame) throws SerializationError {
         return MediaType.TEXT_XML_TYPE.equals(checkMediaType())
                 ? getSerializer().vertexFrameToXmlString(frame)
-                : getSerializer().vertexFrameToJson(frame);
+                : getJsonRepresentation(frame.asVertex());
+    }
+
+    /**
+     * Get a JSON representation of a given vertex, pretty printed
+     * if requested.
+     *
+     * @param vertex A vertex
+     * @return A JSON string
+     */
+    protected String getJsonRepresentation(Vertex vertex) throws SerializationError {
+        try {
+            StringWriter writer = new StringWriter();
+            JsonGenerator g = prettyPrint(jsonFactory.createJsonGenerator(writer), isPretty());
+            getSerializer().vertexToJson(vertex, g);
+            g.close();
+            return writer.toString();
+        } catch (IOException e) {
+            throw new SerializationError("Error writing JSON", e);
+        }
     }
 
     /**
@@ -1,5 +1,6 @@
 package eu.ehri.extension;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.tinkerpop.blueprints.CloseableIterable;
@@ -14,12 +15,15 @@ import eu.ehri.project.models.Group;
 import eu.ehri.project.models.UserProfile;
 import eu.ehri.project.models.base.Accessor;
 import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.BundleCache;
+import eu.ehri.project.persistence.EventLog;
 import eu.ehri.project.views.Crud;
 import eu.ehri.project.views.ViewFactory;
 import org.codehaus.jackson.type.TypeReference;
 import org.neo4j.graphdb.GraphDatabaseService;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
@@ -49,6 +53,7 @@ public class AdminResource extends AbstractRestResource {
     public static final String ENDPOINT = "admin";
     public static final String DEFAULT_USER_ID_PREFIX = "user";
     public static final String DEFAULT_USER_ID_FORMAT = "%s%06d";
+    public static final String BATCH_SIZE_PARAM = "batchSize";
 
     public AdminResource(@Context GraphDatabaseService database) {
         super(database);
@@ -72,6 +77,27 @@ public class AdminResource extends AbstractRestResource {
         }).build();
     }
 
+    /**
+     * Fetch hit and miss statistics for the shared
+     * serialization cache.
+     *
+     * @return A JSON object of cache statistics
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/_cacheStats")
+    public Response getCacheStats() throws Exception {
+        BundleCache cache = BundleCache.getInstance();
+        CacheStats stats = cache.stats();
+        Map<String, Object> data = Maps.newLinkedHashMap();
+        data.put("size", cache.size());
+        data.put("hitCount", stats.hitCount());
+        data.put("missCount", stats.missCount());
+        data.put("hitRate", stats.hitRate());
+        data.put("evictionCount", stats.evictionCount());
+        return Response.ok(jsonMapper.writeValueAsBytes(data)).build();
+    }
+
     /**
      * Re-build the graph's internal lucene index.
      * <p/>
@@ -94,6 +120,36 @@ public class AdminResource extends AbstractRestResource {
         }
     }
 
+    /**
+     * Re-build the event log from the global event chain,
+     * numbering all events afresh. Events are committed in
+     * batches, so this can be run again if it fails part
+     * of the way through, but it can't be run once the log
+     * is built. This should only be run when nothing else
+     * is writing to the graph.
+     *
+     * @param batchSize The number of events logged in each transaction
+     * @return The number of events logged, or a conflict error if
+     *         the log is already built
+     * @throws java.lang.Exception
+     */
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/_rebuildEventLog")
+    public Response rebuildEventLog(@QueryParam(BATCH_SIZE_PARAM)
+            @DefaultValue("" + EventLog.DEFAULT_REBUILD_BATCH_SIZE) int batchSize)
+            throws Exception {
+        try {
+            long count = new EventLog(graph).rebuild(batchSize);
+            return Response.ok(jsonMapper.writeValueAsBytes(count)).build();
+        } catch (IllegalStateException e) {
+            return Response.status(Status.CONFLICT.getStatusCode())
+                    .entity(e.getMessage()).build();
+        } finally {
+            cleanupTransaction();
+        }
+    }
+
     /**
      * Create a new user with a default name and identifier.
      *
@@ -128,6 +184,7 @@ public class AdminResource extends AbstractRestResource {
                 Group group = manager.getFrame(groupId, EntityClass.GROUP, Group.class);
                 group.addMember(user);
             }
+            invalidateOnCommit(groups);
 
             // Grant them owner permissions on their own account.
             new AclManager(graph).grantPermission(user, PermissionType.OWNER, user
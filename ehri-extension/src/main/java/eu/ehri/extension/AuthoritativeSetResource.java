@@ -104,7 +104,7 @@ public class AuthoritativeSetResource extends
             throws ItemNotFound, BadRequester {
         Accessor user = getRequesterUserProfile();
         AuthoritativeSet set = views.detail(id, user);
-        return getQuery(AuthoritativeItem.class).count(set.getAuthoritativeItems());
+        return getQuery(AuthoritativeItem.class).count(set.getAuthoritativeItems(), user);
     }
 
     @POST
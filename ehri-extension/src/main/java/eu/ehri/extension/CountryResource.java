@@ -99,7 +99,7 @@ public class CountryResource
         Accessor user = getRequesterUserProfile();
         Country country = views.detail(id, user);
         return getQuery(Repository.class)
-                .count(country.getRepositories());
+                .count(country.getRepositories(), user);
     }
 
     @POST
@@ -129,7 +129,7 @@ public class CvocConceptResource
             throws ItemNotFound, BadRequester {
         Accessor user = getRequesterUserProfile();
         Concept concept = views.detail(id, user);
-        return getQuery(Concept.class).count(concept.getNarrowerConcepts());
+        return getQuery(Concept.class).count(concept.getNarrowerConcepts(), user);
     }
 
     @POST
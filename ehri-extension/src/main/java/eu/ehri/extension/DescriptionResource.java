@@ -131,7 +131,7 @@ public class DescriptionResource extends AbstractAccessibleEntityResource<Descri
     private Response buildResponse(DescribedEntity item, Frame data, Response.Status status)
             throws SerializationError {
         return Response.status(status).location(getItemUri(item))
-                .entity((getSerializer().vertexFrameToJson(data))
+                .entity((getJsonRepresentation(data.asVertex()))
                         .getBytes(Charsets.UTF_8)).build();
     }
 
@@ -99,7 +99,7 @@ public class DocumentaryUnitResource
         Iterable<DocumentaryUnit> units = all
                 ? parent.getAllChildren()
                 : parent.getChildren();
-        return getQuery(cls).count(units);
+        return getQuery(cls).count(units, getRequesterUserProfile());
     }
 
     @PUT
@@ -199,7 +199,7 @@ public class GroupResource
                 ? group.getAllUserProfileMembers()
                 : group.getMembersAsEntities();
         return getQuery(AccessibleEntity.class)
-                .count(members);
+                .count(members, user);
     }
 
     /**
@@ -101,7 +101,7 @@ public class RepositoryResource extends AbstractAccessibleEntityResource<Reposit
         Iterable<DocumentaryUnit> units = all
                 ? repository.getAllCollections()
                 : repository.getCollections();
-        return getQuery(DocumentaryUnit.class).count(units);
+        return getQuery(DocumentaryUnit.class).count(units, user);
     }
 
     @PUT
@@ -184,7 +184,7 @@ public class SystemEventResource extends AbstractAccessibleEntityResource<System
         Accessor user = getRequesterUserProfile();
         SystemEvent event = views.detail(id, user);
         return streamingPage(getQuery(AccessibleEntity.class)
-                .page(event.getSubjects(), user), subjectSerializer.withCache());
+                .page(event.getSubjects(), user), subjectSerializer);
     }
 
     /**
@@ -203,8 +203,8 @@ public class SystemEventResource extends AbstractAccessibleEntityResource<System
         Accessor user = getRequesterUserProfile();
         AccessibleEntity item = new LoggingCrudViews<AccessibleEntity>(graph,
                 AccessibleEntity.class).detail(id, user);
-        return streamingPage(getQuery(cls).setStream(true)
-                .page(item.getHistory(), user));
+        return streamingPage(new EventViews(graph)
+                .listForItem(getQuery(cls).setStream(true), item, user));
     }
 
     /**
@@ -200,6 +200,7 @@ public class UserProfileResource extends AbstractAccessibleEntityResource<UserPr
             for (String id : otherIds) {
                 user.addFollowing(manager.getFrame(id, UserProfile.class));
             }
+            invalidateOnCommit(user, otherIds);
             graph.getBaseGraph().commit();
             return Response.status(Status.OK).build();
         }  finally {
@@ -219,6 +220,7 @@ public class UserProfileResource extends AbstractAccessibleEntityResource<UserPr
             for (String id : otherIds) {
                 user.removeFollowing(manager.getFrame(id, UserProfile.class));
             }
+            invalidateOnCommit(user, otherIds);
             graph.getBaseGraph().commit();
             return Response.status(Status.OK).build();
         }  finally {
@@ -260,6 +262,7 @@ public class UserProfileResource extends AbstractAccessibleEntityResource<UserPr
             for (String id : otherIds) {
                 user.addBlocked(manager.getFrame(id, UserProfile.class));
             }
+            invalidateOnCommit(user, otherIds);
             graph.getBaseGraph().commit();
             return Response.status(Status.OK).build();
         }  finally {
@@ -279,6 +282,7 @@ public class UserProfileResource extends AbstractAccessibleEntityResource<UserPr
             for (String id : otherIds) {
                 user.removeBlocked(manager.getFrame(id, UserProfile.class));
             }
+            invalidateOnCommit(user, otherIds);
             graph.getBaseGraph().commit();
             return Response.status(Status.OK).build();
         }  finally {
@@ -309,6 +313,7 @@ public class UserProfileResource extends AbstractAccessibleEntityResource<UserPr
             for (String id : otherIds) {
                 user.addWatching(manager.getFrame(id, Watchable.class));
             }
+            invalidateOnCommit(user, otherIds);
             graph.getBaseGraph().commit();
             return Response.status(Status.OK).build();
         }  finally {
@@ -328,6 +333,7 @@ public class UserProfileResource extends AbstractAccessibleEntityResource<UserPr
             for (String id :  otherIds) {
                 user.removeWatching(manager.getFrame(id, Watchable.class));
             }
+            invalidateOnCommit(user, otherIds);
             graph.getBaseGraph().commit();
             return Response.status(Status.OK).build();
         }  finally {
@@ -171,7 +171,7 @@ public final class VirtualUnitResource extends
         Iterable<VirtualUnit> units = all
                 ? parent.getAllChildren()
                 : parent.getChildren();
-        return getQuery(cls).count(units);
+        return getQuery(cls).count(units, getRequesterUserProfile());
     }
 
     @POST
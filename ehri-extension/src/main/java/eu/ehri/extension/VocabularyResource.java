@@ -90,7 +90,7 @@ public class VocabularyResource extends AbstractAccessibleEntityResource<Vocabul
             throws ItemNotFound, BadRequester {
         Accessor user = getRequesterUserProfile();
         Vocabulary vocabulary = views.detail(id, user);
-        return getQuery(cls).count(vocabulary.getConcepts());
+        return getQuery(cls).count(vocabulary.getConcepts(), user);
     }
 
     @GET
@@ -3,12 +3,16 @@ package eu.ehri.extension.test;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import eu.ehri.extension.AdminResource;
+import eu.ehri.project.definitions.Entities;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.BundleCache;
+import org.codehaus.jackson.JsonNode;
 import org.junit.Test;
 
 import javax.ws.rs.core.MediaType;
 
+import static com.sun.jersey.api.client.ClientResponse.Status.CONFLICT;
 import static com.sun.jersey.api.client.ClientResponse.Status.CREATED;
 import static com.sun.jersey.api.client.ClientResponse.Status.OK;
 import static org.junit.Assert.assertEquals;
@@ -52,6 +56,41 @@ public class AdminRestClientTest extends BaseRestClientTest {
 
     }
 
+    @Test
+    public void testCacheStats() throws Exception {
+        // List some items, which will serialize their
+        // repositories using the shared cache, if enabled...
+        System.setProperty(BundleCache.ENABLED_PROPERTY, "true");
+        try {
+            getEntityList(Entities.DOCUMENTARY_UNIT, getAdminUserProfileId());
+        } finally {
+            System.clearProperty(BundleCache.ENABLED_PROPERTY);
+        }
+        WebResource resource = client.resource(ehriUri(ENDPOINT, "_cacheStats"));
+        ClientResponse response = resource.accept(MediaType.APPLICATION_JSON)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        JsonNode stats = jsonMapper.readTree(response.getEntity(String.class));
+        assertTrue(stats.path("size").isNumber());
+        assertTrue(stats.path("hitRate").isNumber());
+        assertTrue(stats.path("hitCount").asLong() + stats.path("missCount").asLong() > 0);
+    }
+
+    @Test
+    public void testRebuildEventLog() throws Exception {
+        // Log an event...
+        client.resource(ehriUri(ENDPOINT, "createDefaultUserProfile"))
+                .accept(MediaType.APPLICATION_JSON)
+                .type(MediaType.APPLICATION_JSON).post(ClientResponse.class);
+        // The test graph is initialised with a complete log, and
+        // since events are no longer linked into the global event
+        // chain it can't be rebuilt from it.
+        WebResource resource = client.resource(ehriUri(ENDPOINT, "_rebuildEventLog"));
+        ClientResponse response = resource.accept(MediaType.APPLICATION_JSON)
+                .post(ClientResponse.class);
+        assertStatus(CONFLICT, response);
+    }
+
     // Helpers
     private long parseUserId(String ident) {
         return Long.parseLong(ident.replace(
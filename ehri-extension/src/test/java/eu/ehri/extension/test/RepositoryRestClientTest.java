@@ -1,19 +1,30 @@
 package eu.ehri.extension.test;
 
 import com.sun.jersey.api.client.ClientResponse;
+import eu.ehri.extension.AbstractRestResource;
 import eu.ehri.project.definitions.Entities;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.DeserializationError;
+import eu.ehri.project.models.base.ItemHolder;
+import eu.ehri.project.models.base.Watchable;
 import eu.ehri.project.persistence.Bundle;
 import org.codehaus.jackson.JsonNode;
 import org.junit.Before;
 import org.junit.Test;
-
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.ws.rs.core.MediaType;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
 import java.net.URI;
 
 import static com.sun.jersey.api.client.ClientResponse.Status.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class RepositoryRestClientTest extends BaseRestClientTest {
 
@@ -103,6 +114,74 @@ public class RepositoryRestClientTest extends BaseRestClientTest {
                 errValue.asText());
     }
 
+    @Test
+    public void testSelectMetaKeys() throws Exception {
+        URI uri = ehriUri(Entities.REPOSITORY, ID);
+        ClientResponse response = jsonCallAs(getAdminUserProfileId(), uri)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        JsonNode meta = jsonMapper.readTree(response.getEntity(String.class))
+                .path(Bundle.META_KEY);
+        assertEquals(3, meta.path(ItemHolder.CHILD_COUNT).asInt());
+        assertTrue(meta.has(Watchable.WATCHED_COUNT));
+
+        URI childCountUri = ehriUriBuilder(Entities.REPOSITORY, ID)
+                .queryParam(AbstractRestResource.INCLUDE_META_PARAM, ItemHolder.CHILD_COUNT)
+                .build();
+        response = jsonCallAs(getAdminUserProfileId(), childCountUri)
+                .get(ClientResponse.class);
+        meta = jsonMapper.readTree(response.getEntity(String.class))
+                .path(Bundle.META_KEY);
+        assertEquals(3, meta.path(ItemHolder.CHILD_COUNT).asInt());
+        assertFalse(meta.has(Watchable.WATCHED_COUNT));
+
+        URI noMetaUri = ehriUriBuilder(Entities.REPOSITORY, ID)
+                .queryParam(AbstractRestResource.INCLUDE_META_PARAM, "")
+                .build();
+        response = jsonCallAs(getAdminUserProfileId(), noMetaUri)
+                .get(ClientResponse.class);
+        meta = jsonMapper.readTree(response.getEntity(String.class))
+                .path(Bundle.META_KEY);
+        assertFalse(meta.has(ItemHolder.CHILD_COUNT));
+        assertFalse(meta.has(Watchable.WATCHED_COUNT));
+    }
+
+    @Test
+    public void testPrettyPrinting() throws Exception {
+        URI uri = ehriUri(Entities.REPOSITORY, ID);
+        ClientResponse response = jsonCallAs(getAdminUserProfileId(), uri)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        String compact = response.getEntity(String.class);
+        assertFalse(compact.contains("\n"));
+
+        URI prettyUri = ehriUriBuilder(Entities.REPOSITORY, ID)
+                .queryParam(AbstractRestResource.PRETTY_PARAM, true)
+                .build();
+        response = jsonCallAs(getAdminUserProfileId(), prettyUri)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        String pretty = response.getEntity(String.class);
+        assertTrue(pretty.contains("\n"));
+        assertEquals(jsonMapper.readTree(compact), jsonMapper.readTree(pretty));
+    }
+
+    @Test
+    public void testListRepositoriesAsXml() throws Exception {
+        URI uri = ehriUri(Entities.REPOSITORY, "list");
+        ClientResponse response = callAs(getAdminUserProfileId(), uri)
+                .accept(MediaType.TEXT_XML)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(response.getEntity(String.class))));
+        Element root = document.getDocumentElement();
+        assertEquals("list", root.getTagName());
+        NodeList items = root.getElementsByTagName("item");
+        assertTrue(items.getLength() > 0);
+        assertEquals(String.valueOf(getPaginationTotal(response)), root.getAttribute("total"));
+    }
+
     @Test
     public void testDeleteRepository() throws Exception {
         // Create
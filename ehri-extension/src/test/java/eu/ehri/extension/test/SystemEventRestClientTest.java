@@ -5,6 +5,7 @@ import com.sun.jersey.core.util.MultivaluedMapImpl;
 import eu.ehri.extension.SystemEventResource;
 import eu.ehri.project.definitions.Entities;
 import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.persistence.ActionManager;
 import eu.ehri.project.persistence.Bundle;
 import eu.ehri.project.views.EventViews;
 import org.codehaus.jackson.JsonNode;
@@ -124,6 +125,39 @@ public class SystemEventRestClientTest extends BaseRestClientTest {
         assertStatus(OK, response);
     }
 
+    @Test
+    public void testGetPatchedVersionsForItem() throws Exception {
+        System.setProperty(ActionManager.VERSION_SNAPSHOT_INTERVAL_PROPERTY, "3");
+        try {
+            for (int i = 0; i < 4; i++) {
+                ClientResponse response = jsonCallAs(getAdminUserProfileId(),
+                        ehriUri(Entities.REPOSITORY, "r1"))
+                        .entity("{\"type\": \"repository\", \"data\":{\"identifier\": \"jmp\", " +
+                                "\"foo\": \"bar" + i + "\"}}")
+                        .put(ClientResponse.class);
+                assertStatus(OK, response);
+            }
+
+            ClientResponse response = jsonCallAs(getAdminUserProfileId(),
+                    ehriUri(Entities.SYSTEM_EVENT, "versions", "r1"))
+                    .get(ClientResponse.class);
+            assertStatus(OK, response);
+
+            // Versions are returned latest first, each with its
+            // full data, whether or not it is stored as a patch.
+            JsonNode rootNode = jsonMapper.readValue(response.getEntity(String.class), JsonNode.class);
+            assertEquals(4, rootNode.size());
+            for (int i = 0; i < 4; i++) {
+                JsonNode data = rootNode.path(i).path(Bundle.DATA_KEY);
+                assertTrue(data.path(Ontology.VERSION_ENTITY_PATCH).isMissingNode());
+                Bundle version = Bundle.fromString(data.path(Ontology.VERSION_ENTITY_DATA).getTextValue());
+                assertEquals(i < 3 ? "bar" + (2 - i) : null, version.getDataValue("foo"));
+            }
+        } finally {
+            System.clearProperty(ActionManager.VERSION_SNAPSHOT_INTERVAL_PROPERTY);
+        }
+    }
+
     @Test
     public void testPersonalisedEventList() throws Exception {
 
@@ -0,0 +1,40 @@
+package eu.ehri.project.acl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A counter of changes to the structure on which ACL decisions
+ * depend, such as group memberships and permission grants. Anything
+ * that caches derived ACL information records the generation at
+ * which it was computed and recomputes it once the generation has
+ * moved on.
+ * <p/>
+ * The counter is only ever incremented, so a change that is later
+ * rolled back merely causes some unnecessary recomputation.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class AclGeneration {
+
+    private static final AtomicLong generation = new AtomicLong();
+
+    private AclGeneration() {
+    }
+
+    /**
+     * Get the current ACL generation.
+     *
+     * @return The generation number
+     */
+    public static long current() {
+        return generation.get();
+    }
+
+    /**
+     * Signal that the ACL structure has changed, invalidating
+     * any information derived from it.
+     */
+    public static void increment() {
+        generation.incrementAndGet();
+    }
+}
@@ -2,9 +2,12 @@ package eu.ehri.project.acl;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
 import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
@@ -26,10 +29,11 @@ import eu.ehri.project.models.base.PermissionGrantTarget;
 import eu.ehri.project.models.base.PermissionScope;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
@@ -45,31 +49,44 @@ public final class AclManager {
     private final PermissionScope scope;
     private final HashSet<PermissionScope> scopes;
 
-    // Lookups to convert between the enum and node representations
-    // of content and permission types.
-    private final Map<PermissionType, Permission> enumPermissionMap = Maps
-            .newEnumMap(PermissionType.class);
-    private final Map<ContentTypes, ContentType> enumContentTypeMap = Maps
-            .newEnumMap(ContentTypes.class);
-    private final Map<Permission, PermissionType> permissionEnumMap = Maps
-            .newHashMap();
-    private final Map<ContentType, ContentTypes> contentTypeEnumMap = Maps
-            .newHashMap();
-    private final Set<String> typeStrings = Sets.newHashSet();
+    // Accessor closures, keyed by the accessor's vertex ID. Since
+    // a manager typically lives for the duration of a request these
+    // are computed once per request.
+    private final Map<Object, AccessorClosure> closures = Maps.newConcurrentMap();
+
+    // Memoised permission decisions and item permission lists, valid
+    // as of the given ACL generation.
+    private final boolean cacheDecisions;
+    private final Map<List<Object>, Boolean> decisions = Maps.newConcurrentMap();
+    private final Map<List<Object>, List<PermissionType>> itemPermissions = Maps.newConcurrentMap();
+    private volatile long decisionGeneration = AclGeneration.current();
+
+    private static final Set<String> typeStrings = getContentTypeNames();
 
     /**
      * Scoped constructor.
      *
-     * @param graph The framed graph
-     * @param scope The ACL scope
+     * @param graph          The framed graph
+     * @param scope          The ACL scope
+     * @param cacheDecisions Whether to memoise permission decisions
      */
-    public AclManager(FramedGraph<?> graph, PermissionScope scope) {
+    public AclManager(FramedGraph<?> graph, PermissionScope scope, boolean cacheDecisions) {
         this.graph = graph;
         this.manager = GraphManagerFactory.getInstance(graph);
         this.scope = Optional.<PermissionScope>fromNullable(scope).or(
                 SystemScope.getInstance());
         this.scopes = getAllScopes();
-        populateEnumNodeLookups();
+        this.cacheDecisions = cacheDecisions;
+    }
+
+    /**
+     * Scoped constructor.
+     *
+     * @param graph The framed graph
+     * @param scope The ACL scope
+     */
+    public AclManager(FramedGraph<?> graph, PermissionScope scope) {
+        this(graph, scope, true);
     }
 
     /**
@@ -88,15 +105,7 @@ public final class AclManager {
      * @return User belongs to the admin group
      */
     public boolean belongsToAdmin(Accessor accessor) {
-        if (accessor.isAdmin()) {
-            return true;
-        }
-        for (Accessor parent : accessor.getParents()) {
-            if (belongsToAdmin(parent)) {
-                return true;
-            }
-        }
-        return false;
+        return accessor.isAdmin() || getAccessorClosure(accessor).isAdmin();
     }
 
     /**
@@ -240,10 +249,13 @@ public final class AclManager {
         checkNoGrantOnAdminOrAnon(accessor);
         Map<ContentTypes, Collection<PermissionType>> globalsMap = globals.asMap();
 
-        for (Entry<ContentTypes, ContentType> centry : enumContentTypeMap.entrySet()) {
-            ContentType target = centry.getValue();
-            Collection<PermissionType> pset = globalsMap.containsKey(centry.getKey())
-                    ? globalsMap.get(centry.getKey())
+        for (ContentTypes contentType : ContentTypes.values()) {
+            ContentType target = vertexForContentType(contentType);
+            if (target == null) {
+                continue;
+            }
+            Collection<PermissionType> pset = globalsMap.containsKey(contentType)
+                    ? globalsMap.get(contentType)
                     : Sets.<PermissionType>newHashSet();
             for (PermissionType perm : PermissionType.values()) {
                 if (pset.contains(perm)) {
@@ -278,6 +290,7 @@ public final class AclManager {
             if (!isSystemScope()) {
                 grant.setScope(scope);
             }
+            AclGeneration.increment();
             return grant;
         }
     }
@@ -333,27 +346,24 @@ public final class AclManager {
             return noopFilterFunction();
         }
 
-        final HashSet<Vertex> all = getAllAccessors(accessor);
+        final Set<Object> all = isAnonymous(accessor)
+                ? Collections.<Object>emptySet()
+                : getAccessorClosure(accessor).getIds();
         return new PipeFunction<Vertex, Boolean>() {
             public Boolean compute(Vertex v) {
-                Iterable<Vertex> verts = v.getVertices(Direction.OUT,
-                        Ontology.IS_ACCESSIBLE_TO);
                 // If there's no Access conditions, it's
-                // read-only...
-                if (!verts.iterator().hasNext()) {
-                    return true;
-                }
-                // If it's promoted it's publically accessible
-                if (isPromoted(v)) {
-                    return true;
-                }
-                // Otherwise, check relevant accessors...
-                for (Vertex other : verts) {
-                    if (all.contains(other)) {
+                // read-only, otherwise check for any relevant
+                // accessor in a single pass over the edges...
+                boolean restricted = false;
+                for (Vertex other : v.getVertices(Direction.OUT,
+                        Ontology.IS_ACCESSIBLE_TO)) {
+                    if (all.contains(other.getId())) {
                         return true;
                     }
+                    restricted = true;
                 }
-                return false;
+                // If it's promoted it's publically accessible
+                return !restricted || isPromoted(v);
             }
         };
     }
@@ -407,7 +417,17 @@ public final class AclManager {
      * @return A new ACL Manager
      */
     public AclManager withScope(PermissionScope scope) {
-        return new AclManager(graph, scope);
+        return new AclManager(graph, scope, cacheDecisions);
+    }
+
+    /**
+     * Enable or disable the memoisation of permission decisions.
+     *
+     * @param cacheDecisions Whether to cache permission decisions
+     * @return A new ACL Manager
+     */
+    public AclManager withDecisionCache(boolean cacheDecisions) {
+        return new AclManager(graph, scope, cacheDecisions);
     }
 
     /**
@@ -431,7 +451,7 @@ public final class AclManager {
     private boolean hasPermission(ContentTypes contentType, PermissionType permissionType, Accessor accessor,
             Collection<PermissionScope> scopes) {
 
-        ContentType contentTypeNode = enumContentTypeMap.get(contentType);
+        ContentType contentTypeNode = vertexForContentType(contentType);
         // Check the user themselves...
         return belongsToAdmin(accessor)
                 || hasScopedPermission(contentTypeNode, permissionType, accessor, scopes);
@@ -449,6 +469,28 @@ public final class AclManager {
     private boolean hasScopedPermission(PermissionGrantTarget target,
             PermissionType permissionType, Accessor accessor,
             Collection<PermissionScope> scopes) {
+        if (!cacheDecisions || target == null || accessor instanceof AnonymousAccessor) {
+            return findScopedPermission(target, permissionType, accessor, scopes);
+        }
+        List<Object> key = ImmutableList.of(accessor.asVertex().getId(),
+                target.asVertex().getId(), permissionType, ImmutableSet.copyOf(scopes));
+        long generation = checkDecisionGeneration();
+        Boolean decision = decisions.get(key);
+        if (decision == null) {
+            decision = findScopedPermission(target, permissionType, accessor, scopes);
+            if (generation == AclGeneration.current()) {
+                decisions.put(key, decision);
+            }
+        }
+        return decision;
+    }
+
+    /**
+     * Uncached implementation of {@link #hasScopedPermission}.
+     */
+    private boolean findScopedPermission(PermissionGrantTarget target,
+            PermissionType permissionType, Accessor accessor,
+            Collection<PermissionScope> scopes) {
 
         for (PermissionGrant grant : accessor.getPermissionGrants()) {
             PermissionType grantPermissionType
@@ -484,17 +526,26 @@ public final class AclManager {
     }
 
     /**
-     * Get the permission type enum for a given node.
+     * Get the node for a given permission type enum.
      */
     private Permission vertexForPermission(PermissionType perm) {
-        return enumPermissionMap.get(perm);
+        Vertex vertex = AclNodeCache.getPermissionVertex(graph, perm);
+        return vertex == null ? null : graph.frame(vertex, Permission.class);
+    }
+
+    /**
+     * Get the node for a given content type enum.
+     */
+    private ContentType vertexForContentType(ContentTypes type) {
+        Vertex vertex = AclNodeCache.getContentTypeVertex(graph, type);
+        return vertex == null ? null : graph.frame(vertex, ContentType.class);
     }
 
     /**
      * Get the permission type enum for a given node.
      */
     private PermissionType enumForPermission(Permission perm) {
-        return permissionEnumMap.get(perm);
+        return perm == null ? null : PermissionType.withName(perm.getId());
     }
 
     /**
@@ -507,6 +558,27 @@ public final class AclManager {
      */
     private List<PermissionType> getItemPermissions(Accessor accessor,
             AccessibleEntity entity) {
+        if (!cacheDecisions || accessor instanceof AnonymousAccessor) {
+            return findItemPermissions(accessor, entity);
+        }
+        List<Object> key = ImmutableList.of(accessor.asVertex().getId(),
+                entity.asVertex().getId());
+        long generation = checkDecisionGeneration();
+        List<PermissionType> permissions = itemPermissions.get(key);
+        if (permissions == null) {
+            permissions = findItemPermissions(accessor, entity);
+            if (generation == AclGeneration.current()) {
+                itemPermissions.put(key, permissions);
+            }
+        }
+        return Lists.newArrayList(permissions);
+    }
+
+    /**
+     * Uncached implementation of {@link #getItemPermissions}.
+     */
+    private List<PermissionType> findItemPermissions(Accessor accessor,
+            AccessibleEntity entity) {
         // If we're admin, add it regardless.
         if (belongsToAdmin(accessor)) {
             return Lists.newArrayList(PermissionType.values());
@@ -544,7 +616,7 @@ public final class AclManager {
         PermissionGrantTarget target = manager.cast(entity,
                 PermissionGrantTarget.class);
 
-        Permission perm = enumPermissionMap.get(permType);
+        Permission perm = vertexForPermission(permType);
         for (PermissionGrant grant : accessor.getPermissionGrants()) {
             if (isInScope(grant)
                     && Iterables.contains(grant.getTargets(), target)
@@ -591,25 +663,40 @@ public final class AclManager {
     }
 
     /**
-     * For a given user, fetch a lookup of all the inherited accessors it
-     * belongs to. NB: This returns a lookup of raw Vertices because it's
-     * used by the a Gremlin filter function, which likewise operates
-     * directly on vertices.
+     * Discard memoised decisions if the ACL structure has changed
+     * since they were made.
+     *
+     * @return The generation of the remaining decisions
+     */
+    private long checkDecisionGeneration() {
+        long current = AclGeneration.current();
+        if (decisionGeneration != current) {
+            decisions.clear();
+            itemPermissions.clear();
+            decisionGeneration = current;
+        }
+        return current;
+    }
+
+    /**
+     * Fetch the closure of an accessor and all the groups it inherits
+     * from, computing it if it has not been seen before or the ACL
+     * structure has changed since.
      *
      * @param accessor The user/group
-     * @return A lookup of accessor vertices
+     * @return The accessor's closure
      */
-    private HashSet<Vertex> getAllAccessors(Accessor accessor) {
-
-        final HashSet<Vertex> all = Sets.newHashSet();
-        if (!isAnonymous(accessor)) {
-            Iterable<Accessor> parents = accessor.getAllParents();
-            for (Accessor a : parents) {
-                all.add(a.asVertex());
-            }
-            all.add(accessor.asVertex());
+    private AccessorClosure getAccessorClosure(Accessor accessor) {
+        if (accessor instanceof AnonymousAccessor) {
+            return AccessorClosure.EMPTY;
         }
-        return all;
+        Vertex vertex = accessor.asVertex();
+        AccessorClosure closure = closures.get(vertex.getId());
+        if (closure == null || closure.getGeneration() != AclGeneration.current()) {
+            closure = AccessorClosure.of(vertex);
+            closures.put(vertex.getId(), closure);
+        }
+        return closure;
     }
 
     /**
@@ -629,8 +716,8 @@ public final class AclManager {
                         Permission permission = grant.getPermission();
                         if (permission != null) {
                             builder.set(
-                                    contentTypeEnumMap.get(contentType),
-                                    permissionEnumMap.get(permission));
+                                    ContentTypes.withName(contentType.getId()),
+                                    enumForPermission(permission));
                         }
                     }
                 }
@@ -667,24 +754,12 @@ public final class AclManager {
         };
     }
 
-    private void populateEnumNodeLookups() {
-        // Build a lookup of content types and permissions keyed by their
-        // identifier.
-        for (ContentType c : manager.getFrames(EntityClass.CONTENT_TYPE,
-                ContentType.class)) {
-            ContentTypes ct = ContentTypes.withName(c.getId());
-            enumContentTypeMap.put(ct, c);
-            contentTypeEnumMap.put(c, ct);
-        }
-        for (Permission p : manager.getFrames(EntityClass.PERMISSION,
-                Permission.class)) {
-            PermissionType pt = PermissionType.withName(p.getId());
-            enumPermissionMap.put(pt, p);
-            permissionEnumMap.put(p, pt);
-        }
+    private static Set<String> getContentTypeNames() {
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
         for (ContentTypes t : ContentTypes.values()) {
-            typeStrings.add(t.getName());
+            builder.add(t.getName());
         }
+        return builder.build();
     }
 
     // Get a list of the current scope and its parents
@@ -735,4 +810,56 @@ public final class AclManager {
         return promotions > 0
                 && promotions > Iterables.size(v.getEdges(Direction.OUT, Ontology.DEMOTED_BY));
     }
+
+    /**
+     * The IDs of an accessor vertex and all the groups it belongs
+     * to, directly or indirectly, and whether any of them is the
+     * admin group.
+     */
+    private static final class AccessorClosure {
+        private static final AccessorClosure EMPTY
+                = new AccessorClosure(ImmutableSet.<Object>of(), false, -1L);
+
+        private final Set<Object> ids;
+        private final boolean admin;
+        private final long generation;
+
+        private AccessorClosure(Set<Object> ids, boolean admin, long generation) {
+            this.ids = ids;
+            this.admin = admin;
+            this.generation = generation;
+        }
+
+        static AccessorClosure of(Vertex accessor) {
+            long generation = AclGeneration.current();
+            Set<Object> ids = Sets.newHashSet();
+            boolean admin = false;
+            Deque<Vertex> queue = Queues.newArrayDeque();
+            queue.add(accessor);
+            while (!queue.isEmpty()) {
+                Vertex next = queue.remove();
+                if (ids.add(next.getId())) {
+                    admin = admin || Group.ADMIN_GROUP_IDENTIFIER
+                            .equals(next.getProperty(Ontology.IDENTIFIER_KEY));
+                    for (Vertex parent : next.getVertices(Direction.OUT,
+                            Ontology.ACCESSOR_BELONGS_TO_GROUP)) {
+                        queue.add(parent);
+                    }
+                }
+            }
+            return new AccessorClosure(ImmutableSet.copyOf(ids), admin, generation);
+        }
+
+        Set<Object> getIds() {
+            return ids;
+        }
+
+        boolean isAdmin() {
+            return admin;
+        }
+
+        long getGeneration() {
+            return generation;
+        }
+    }
 }
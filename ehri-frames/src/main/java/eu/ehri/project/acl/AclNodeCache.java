@@ -0,0 +1,184 @@
+package eu.ehri.project.acl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.neo4j.Neo4jGraph;
+import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.core.GraphManager;
+import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.EntityType;
+import eu.ehri.project.utils.TxCheckedNeo4jGraph;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A graph-scoped, thread-safe cache of the vertices that represent
+ * the {@link ContentTypes} and {@link PermissionType} enums.
+ * <p/>
+ * Only the graph-level IDs of the vertices are held, so cached
+ * entries can be shared between the framed graph instances that
+ * wrap the same underlying database (i.e. across requests.) The
+ * cache is invalidated by the graph manager whenever content type
+ * or permission vertices are created or deleted, and again once the
+ * transaction doing so has committed. As a safety
+ * net a stale entry, such as one left by a rolled-back transaction,
+ * triggers a refresh when it is resolved. Types which have no vertex
+ * are remembered as such until the cache is next invalidated, so
+ * looking them up does not rescan the graph.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class AclNodeCache {
+
+    private static final Cache<Object, Lookups> cache = CacheBuilder.newBuilder()
+            .weakKeys().build();
+
+    private AclNodeCache() {
+    }
+
+    /**
+     * Get the vertex for a given content type.
+     *
+     * @param graph       The framed graph
+     * @param contentType The content type
+     * @return The content type vertex, or null if it does not exist.
+     */
+    public static Vertex getContentTypeVertex(FramedGraph<?> graph, ContentTypes contentType) {
+        return resolve(graph, EntityClass.CONTENT_TYPE, contentType.getName());
+    }
+
+    /**
+     * Get the vertex for a given permission type.
+     *
+     * @param graph          The framed graph
+     * @param permissionType The permission type
+     * @return The permission vertex, or null if it does not exist.
+     */
+    public static Vertex getPermissionVertex(FramedGraph<?> graph, PermissionType permissionType) {
+        return resolve(graph, EntityClass.PERMISSION, permissionType.getName());
+    }
+
+    /**
+     * Discard the cached lookups for the given graph.
+     *
+     * @param graph The framed graph
+     */
+    public static void invalidate(FramedGraph<?> graph) {
+        cache.invalidate(getKey(graph));
+    }
+
+    /**
+     * Discard the cached lookups for the given graph now and, if the
+     * graph is in a transaction, again once it has committed, since
+     * until then other readers can still cache the prior set of nodes.
+     *
+     * @param graph The framed graph
+     */
+    public static void invalidateOnCommit(final FramedGraph<?> graph) {
+        invalidate(graph);
+        Graph baseGraph = graph.getBaseGraph();
+        if (baseGraph instanceof TxCheckedNeo4jGraph
+                && ((TxCheckedNeo4jGraph) baseGraph).isInTransaction()) {
+            ((TxCheckedNeo4jGraph) baseGraph).afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    invalidate(graph);
+                }
+            });
+        }
+    }
+
+    /**
+     * Determine whether there are lookups cached for the given graph.
+     *
+     * @param graph The framed graph
+     * @return Whether the graph's lookups are cached
+     */
+    static boolean isCached(FramedGraph<?> graph) {
+        return cache.getIfPresent(getKey(graph)) != null;
+    }
+
+    private static Vertex resolve(FramedGraph<?> graph, EntityClass type, String name) {
+        Object id = getLookups(graph).getIds(type).get(name);
+        if (id == null) {
+            return null;
+        }
+        Vertex vertex = tryResolve(graph, id, type, name);
+        if (vertex == null) {
+            invalidate(graph);
+            id = getLookups(graph).getIds(type).get(name);
+            vertex = id == null ? null : tryResolve(graph, id, type, name);
+        }
+        return vertex;
+    }
+
+    private static Vertex tryResolve(FramedGraph<?> graph, Object id, EntityClass type, String name) {
+        Vertex vertex = graph.getVertex(id);
+        return vertex != null
+                && name.equals(vertex.getProperty(EntityType.ID_KEY))
+                && type.getName().equals(vertex.getProperty(EntityType.TYPE_KEY))
+                ? vertex : null;
+    }
+
+    private static Lookups getLookups(final FramedGraph<?> graph) {
+        try {
+            return cache.get(getKey(graph), new Callable<Lookups>() {
+                @Override
+                public Lookups call() {
+                    return new Lookups(GraphManagerFactory.getInstance(graph));
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Since a new Blueprints graph is typically created for each
+     * request, Neo4j graphs are keyed on the underlying database.
+     */
+    private static Object getKey(FramedGraph<?> graph) {
+        Graph baseGraph = graph.getBaseGraph();
+        return baseGraph instanceof Neo4jGraph
+                ? ((Neo4jGraph) baseGraph).getRawGraph()
+                : baseGraph;
+    }
+
+    /**
+     * Lookups of content type and permission identifiers to
+     * their vertex IDs.
+     */
+    private static final class Lookups {
+        private final Map<String, Object> contentTypes;
+        private final Map<String, Object> permissions;
+
+        Lookups(GraphManager manager) {
+            contentTypes = getVertexIds(manager, EntityClass.CONTENT_TYPE);
+            permissions = getVertexIds(manager, EntityClass.PERMISSION);
+        }
+
+        Map<String, Object> getIds(EntityClass type) {
+            return type.equals(EntityClass.CONTENT_TYPE) ? contentTypes : permissions;
+        }
+
+        private static Map<String, Object> getVertexIds(GraphManager manager, EntityClass type) {
+            ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+            CloseableIterable<Vertex> vertices = manager.getVertices(type);
+            try {
+                for (Vertex vertex : vertices) {
+                    builder.put(manager.getId(vertex), vertex.getId());
+                }
+            } finally {
+                vertices.close();
+            }
+            return builder.build();
+        }
+    }
+}
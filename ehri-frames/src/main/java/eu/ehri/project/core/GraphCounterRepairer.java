@@ -0,0 +1,82 @@
+package eu.ehri.project.core;
+
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.TransactionalGraph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.utils.EdgeCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+
+/**
+ * Check and repair the stored edge counts of all items in the graph.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class GraphCounterRepairer {
+
+    private static final Logger logger = LoggerFactory.getLogger(GraphCounterRepairer.class);
+
+    private final FramedGraph<? extends TransactionalGraph> graph;
+    private final GraphManager manager;
+
+    public GraphCounterRepairer(FramedGraph<? extends TransactionalGraph> graph) {
+        this.graph = graph;
+        manager = GraphManagerFactory.getInstance(graph);
+    }
+
+    /**
+     * Count the stored counts that do not match the actual
+     * number of edges, without changing them.
+     *
+     * @return The number of inconsistent counts
+     */
+    public long check() {
+        return run(false);
+    }
+
+    /**
+     * Store the actual number of edges for every counter of every
+     * item, including those for which no count has been stored yet.
+     *
+     * @return The number of counts that were missing or wrong
+     */
+    public long repair() {
+        try {
+            long repaired = run(true);
+            graph.getBaseGraph().commit();
+            return repaired;
+        } catch (RuntimeException e) {
+            graph.getBaseGraph().rollback();
+            throw e;
+        }
+    }
+
+    private long run(boolean repair) {
+        long changed = 0;
+        for (EntityClass entityClass : EntityClass.values()) {
+            Collection<EdgeCounter> counters = EdgeCounter.forType(entityClass);
+            if (counters.isEmpty()) {
+                continue;
+            }
+            CloseableIterable<Vertex> vertices = manager.getVertices(entityClass);
+            try {
+                for (Vertex vertex : vertices) {
+                    for (EdgeCounter counter : counters) {
+                        if (repair ? counter.repair(vertex) : !counter.isConsistent(vertex)) {
+                            logger.debug("Inconsistent count '{}' for {}",
+                                    counter.getName(), vertex);
+                            changed++;
+                        }
+                    }
+                }
+            } finally {
+                vertices.close();
+            }
+        }
+        return changed;
+    }
+}
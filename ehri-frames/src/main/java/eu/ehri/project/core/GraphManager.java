@@ -117,7 +117,22 @@ public interface GraphManager {
      * @param type The entity type
      * @return An iterable of vertices belonging to that entity class
      */
-    public CloseableIterable<Vertex> getVertices(EntityClass type);
+    public SizedCloseableIterable<Vertex> getVertices(EntityClass type);
+
+    /**
+     * Get a CloseableIterable of vertices with the given entity class,
+     * in ascending order of ID, starting after the given ID.
+     * <p/>
+     * NB: Implementations that cannot read the index in order, such as
+     * the plain Blueprints one, read and sort every vertex of the type
+     * in memory each time this is called, i.e. for every page.
+     *
+     * @param type   The entity type
+     * @param fromId The ID after which to start, or null to start
+     *               from the first vertex
+     * @return An iterable of vertices belonging to that entity class
+     */
+    public CloseableIterable<Vertex> getVerticesAfter(EntityClass type, String fromId);
 
     /**
      * Get a CloseableIterable of vertices with the given ids.
@@ -134,7 +149,7 @@ public interface GraphManager {
      * @param type The entity type
      * @return An iterable of vertices with the given key/value properties
      */
-    public CloseableIterable<Vertex> getVertices(String key,
+    public SizedCloseableIterable<Vertex> getVertices(String key,
             Object value, EntityClass type);
 
     /**
@@ -5,6 +5,7 @@ import com.tinkerpop.blueprints.IndexableGraph;
 import com.tinkerpop.blueprints.impls.neo4j.Neo4jGraph;
 import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.core.impl.BlueprintsGraphManager;
+import eu.ehri.project.core.impl.BufferedIndex;
 import eu.ehri.project.core.impl.Neo4jGraphManager;
 
 /**
@@ -20,11 +21,24 @@ public class GraphManagerFactory {
      * @param graph An indexable and transactional Blueprints graph.
      * @return A graph manager instance.
      */
+    public static GraphManager getInstance(FramedGraph<?> graph) {
+        return getInstance(graph, null);
+    }
+
+    /**
+     * Obtain an instance of a graph manager which writes index
+     * entries to a buffer, to be flushed by the caller.
+     *
+     * @param graph  An indexable and transactional Blueprints graph.
+     * @param buffer An index buffer for the graph, or null to write
+     *               index entries directly.
+     * @return A graph manager instance.
+     */
     // NB: Because Java doesn't support multiple wildcard bounds we do some checking
     // of the bounds manually ourselves, which is ugly but should ensure it's safe
     // to do an unchecked cast here.
     @SuppressWarnings("unchecked")
-    public static GraphManager getInstance(FramedGraph<?> graph) {
+    public static GraphManager getInstance(FramedGraph<?> graph, BufferedIndex buffer) {
         Graph baseGraph = graph.getBaseGraph();
 
         if (!IndexableGraph.class.isAssignableFrom(baseGraph.getClass())) {
@@ -32,9 +46,9 @@ public class GraphManagerFactory {
         }
 
         if (Neo4jGraph.class.isAssignableFrom(baseGraph.getClass())) {
-            return new Neo4jGraphManager(graph);
+            return new Neo4jGraphManager(graph, buffer);
         } else {
-            return new BlueprintsGraphManager(graph);
+            return new BlueprintsGraphManager(graph, buffer);
         }
     }
 }
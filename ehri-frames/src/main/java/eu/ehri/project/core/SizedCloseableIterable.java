@@ -0,0 +1,19 @@
+package eu.ehri.project.core;
+
+import com.tinkerpop.blueprints.CloseableIterable;
+
+/**
+ * A closeable iterable of index hits that also knows how
+ * many items it contains without having to be iterated.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public interface SizedCloseableIterable<T> extends CloseableIterable<T> {
+
+    /**
+     * Get the number of hits, as reported by the index.
+     *
+     * @return The number of items in this iterable
+     */
+    public long size();
+}
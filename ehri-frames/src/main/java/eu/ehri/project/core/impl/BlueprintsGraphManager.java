@@ -1,5 +1,6 @@
 package eu.ehri.project.core.impl;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -10,16 +11,27 @@ import com.tinkerpop.blueprints.IndexableGraph;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.util.WrappingCloseableIterable;
 import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.acl.AclGeneration;
+import eu.ehri.project.acl.AclNodeCache;
 import eu.ehri.project.core.GraphManager;
+import eu.ehri.project.core.SizedCloseableIterable;
+import eu.ehri.project.definitions.Entities;
+import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.IntegrityError;
 import eu.ehri.project.exceptions.ItemNotFound;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.base.Frame;
 import eu.ehri.project.models.utils.ClassUtils;
+import eu.ehri.project.models.utils.EdgeCounter;
 import eu.ehri.project.models.utils.EmptyIterable;
+import eu.ehri.project.models.utils.HierarchyIndex;
+import eu.ehri.project.models.utils.ScopeChainCache;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -38,13 +50,27 @@ public class BlueprintsGraphManager<T extends IndexableGraph> implements GraphMa
     protected static final String METADATA_PREFIX = "_";
 
     protected final FramedGraph<T> graph;
+    private final BufferedIndex buffer;
 
     public FramedGraph<T> getGraph() {
         return graph;
     }
 
     public BlueprintsGraphManager(FramedGraph<T> graph) {
+        this(graph, null);
+    }
+
+    /**
+     * Constructor for a manager that writes index entries
+     * to the given buffer, rather than directly to the index.
+     *
+     * @param graph  The framed graph
+     * @param buffer A buffer wrapping this manager's index, or
+     *               null to write to the index directly
+     */
+    public BlueprintsGraphManager(FramedGraph<T> graph, BufferedIndex buffer) {
         this.graph = graph;
+        this.buffer = buffer;
     }
 
     @Override
@@ -129,8 +155,47 @@ public class BlueprintsGraphManager<T extends IndexableGraph> implements GraphMa
     }
 
     @Override
-    public CloseableIterable<Vertex> getVertices(EntityClass type) {
-        return getIndex().get(EntityType.TYPE_KEY, type.getName());
+    public SizedCloseableIterable<Vertex> getVertices(final EntityClass type) {
+        final Index<Vertex> index = getIndex();
+        final CloseableIterable<Vertex> query = index.get(EntityType.TYPE_KEY, type.getName());
+        return new SizedCloseableIterable<Vertex>() {
+            @Override
+            public long size() {
+                return index.count(EntityType.TYPE_KEY, type.getName());
+            }
+
+            @Override
+            public void close() {
+                query.close();
+            }
+
+            @Override
+            public Iterator<Vertex> iterator() {
+                return query.iterator();
+            }
+        };
+    }
+
+    @Override
+    public CloseableIterable<Vertex> getVerticesAfter(EntityClass type, String fromId) {
+        List<Vertex> elems = Lists.newArrayList();
+        CloseableIterable<Vertex> query = getVertices(type);
+        try {
+            for (Vertex v : query) {
+                if (fromId == null || getId(v).compareTo(fromId) > 0) {
+                    elems.add(v);
+                }
+            }
+        } finally {
+            query.close();
+        }
+        Collections.sort(elems, new Comparator<Vertex>() {
+            @Override
+            public int compare(Vertex a, Vertex b) {
+                return getId(a).compareTo(getId(b));
+            }
+        });
+        return new WrappingCloseableIterable<Vertex>(elems);
     }
 
     @Override
@@ -146,10 +211,10 @@ public class BlueprintsGraphManager<T extends IndexableGraph> implements GraphMa
     }
 
     @Override
-    public CloseableIterable<Vertex> getVertices(String key, Object value, final EntityClass type) {
+    public SizedCloseableIterable<Vertex> getVertices(String key, Object value, final EntityClass type) {
         // NB: This is rather annoying.
         CloseableIterable<Vertex> query = getIndex().get(key, value);
-        List<Vertex> elems = Lists.newArrayList();
+        final List<Vertex> elems = Lists.newArrayList();
         try {
             for (Vertex v : query) {
                 if (getEntityClass(v).equals(type)) {
@@ -159,7 +224,21 @@ public class BlueprintsGraphManager<T extends IndexableGraph> implements GraphMa
         } finally {
             query.close();
         }
-        return new WrappingCloseableIterable<Vertex>(elems);
+        return new SizedCloseableIterable<Vertex>() {
+            @Override
+            public long size() {
+                return elems.size();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public Iterator<Vertex> iterator() {
+                return elems.iterator();
+            }
+        };
     }
 
     @Override
@@ -177,6 +256,7 @@ public class BlueprintsGraphManager<T extends IndexableGraph> implements GraphMa
         Map<String, ?> indexData = getVertexData(id, type, data);
         Collection<String> indexKeys = getVertexKeys(keys);
         checkExists(index, id);
+        invalidateCaches(type.getName());
         Vertex node = graph.addVertex(null);
         for (Map.Entry<String, ?> entry : indexData.entrySet()) {
             if (entry.getValue() == null)
@@ -207,7 +287,12 @@ public class BlueprintsGraphManager<T extends IndexableGraph> implements GraphMa
         try {
             try {
                 Vertex node = get.iterator().next();
+                Object identifier = node.getProperty(Ontology.IDENTIFIER_KEY);
                 replaceProperties(index, node, indexData, indexKeys);
+                node.removeProperty(EntityType.HASH_KEY);
+                if (!Objects.equal(identifier, node.getProperty(Ontology.IDENTIFIER_KEY))) {
+                    ScopeChainCache.invalidate(graph.getBaseGraph(), node);
+                }
                 return node;
             } catch (NoSuchElementException e) {
                 throw new ItemNotFound(id);
@@ -236,6 +321,13 @@ public class BlueprintsGraphManager<T extends IndexableGraph> implements GraphMa
             vertex.setProperty(key, value);
             index.put(key, value, vertex);
         }
+        if (key.equals(Ontology.IDENTIFIER_KEY)) {
+            ScopeChainCache.invalidate(graph.getBaseGraph(), vertex);
+        }
+        // The vertex's data no longer matches its stored hash.
+        if (!key.startsWith(METADATA_PREFIX)) {
+            vertex.removeProperty(EntityType.HASH_KEY);
+        }
     }
 
     @Override
@@ -243,9 +335,13 @@ public class BlueprintsGraphManager<T extends IndexableGraph> implements GraphMa
         Preconditions.checkNotNull(vertex);
         Preconditions.checkNotNull(newId);
         Index<Vertex> index = getIndex();
+        HierarchyIndex hierarchy = new HierarchyIndex(graph);
+        List<Vertex> descendants = hierarchy.getDescendants(vertex);
         index.remove(EntityType.ID_KEY, oldId, vertex);
         vertex.setProperty(EntityType.ID_KEY, newId);
         index.put(EntityType.ID_KEY, newId, vertex);
+        // Descendants store the old ID among their ancestors.
+        hierarchy.refresh(descendants);
     }
 
     @Override
@@ -255,21 +351,34 @@ public class BlueprintsGraphManager<T extends IndexableGraph> implements GraphMa
 
     @Override
     public void deleteVertex(Vertex vertex) {
+        invalidateCaches(getType(vertex));
         Index<Vertex> index = getIndex();
+        HierarchyIndex hierarchy = new HierarchyIndex(graph);
+        List<Vertex> descendants = hierarchy.remove(vertex);
+        ScopeChainCache.invalidate(graph.getBaseGraph(), vertex);
         for (String key : vertex.getPropertyKeys()) {
             index.remove(key, vertex.getProperty(key), vertex);
         }
+        // Remove edges individually to keep the counts
+        // of related items up-to-date.
+        EdgeCounter.removeEdges(vertex);
         vertex.remove();
+        hierarchy.refresh(descendants);
     }
 
     @Override
     public void rebuildIndex() {
+        // Everything is re-indexed from the vertices themselves.
+        if (buffer != null) {
+            buffer.discard();
+        }
         graph.getBaseGraph().dropIndex(INDEX_NAME);
         Index<Vertex> index = graph.getBaseGraph().createIndex(INDEX_NAME, Vertex.class);
         // index vertices
         for (Vertex vertex : graph.getVertices()) {
             reindex(index, vertex);
         }
+        new HierarchyIndex(graph).rebuild();
     }
 
     private <E extends Element> void replaceProperties(Index<E> index, E item,
@@ -302,6 +411,19 @@ public class BlueprintsGraphManager<T extends IndexableGraph> implements GraphMa
         }
     }
 
+    /**
+     * Invalidate any graph-scoped caches that depend on
+     * vertices of the given type.
+     */
+    private void invalidateCaches(String type) {
+        if (Entities.CONTENT_TYPE.equals(type) || Entities.PERMISSION.equals(type)) {
+            AclNodeCache.invalidateOnCommit(graph);
+        } else if (Entities.GROUP.equals(type) || Entities.USER_PROFILE.equals(type)
+                || Entities.PERMISSION_GRANT.equals(type)) {
+            AclGeneration.increment();
+        }
+    }
+
     private void checkExists(Index<Vertex> index, String id)
             throws IntegrityError {
         if (index.count(EntityType.ID_KEY, id) != 0) {
@@ -324,7 +446,20 @@ public class BlueprintsGraphManager<T extends IndexableGraph> implements GraphMa
         return vkeys;
     }
 
+    /**
+     * Determine whether index entries are being buffered and
+     * there are some which have not yet been written to the index,
+     * in which case only lookups via {@link #getIndex()} will see
+     * the current state of the graph.
+     */
+    protected boolean hasPendingIndexEntries() {
+        return buffer != null && buffer.hasPending();
+    }
+
     private Index<Vertex> getIndex() {
+        if (buffer != null) {
+            return buffer;
+        }
         Index<Vertex> index = graph.getBaseGraph().getIndex(INDEX_NAME,
                 Vertex.class);
         if (index == null) {
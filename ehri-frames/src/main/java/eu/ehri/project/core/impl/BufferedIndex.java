@@ -0,0 +1,179 @@
+package eu.ehri.project.core.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Index;
+import com.tinkerpop.blueprints.IndexableGraph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.WrappingCloseableIterable;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A wrapper around the graph manager's index that holds additions
+ * and removals in memory until they are flushed, so that bulk writes
+ * can update the underlying index in one go rather than as each
+ * property is set.
+ * <p/>
+ * Lookups by key and value take pending changes into account, so an
+ * item added via the buffer can be found, and its uniqueness checked,
+ * before it has been flushed. Full-text queries cannot be, so pending
+ * changes are flushed before running one. Other graph managers, and
+ * anything else that reads the index directly, will not see pending
+ * changes until they are flushed.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class BufferedIndex implements Index<Vertex> {
+
+    private final IndexableGraph graph;
+    private final SetMultimap<Map.Entry<String, String>, Vertex> additions = LinkedHashMultimap.create();
+    private final SetMultimap<Map.Entry<String, String>, Vertex> removals = LinkedHashMultimap.create();
+
+    /**
+     * Constructor.
+     *
+     * @param graph The indexable graph holding the graph manager's index
+     */
+    public BufferedIndex(IndexableGraph graph) {
+        this.graph = Preconditions.checkNotNull(graph);
+    }
+
+    /**
+     * Determine whether there are any changes that have yet to
+     * be flushed.
+     *
+     * @return Whether anything is pending
+     */
+    public boolean hasPending() {
+        return !(additions.isEmpty() && removals.isEmpty());
+    }
+
+    /**
+     * Get the number of pending additions and removals.
+     *
+     * @return The number of pending changes
+     */
+    public int pendingCount() {
+        return additions.size() + removals.size();
+    }
+
+    /**
+     * Write pending changes to the underlying index, removals
+     * first.
+     *
+     * @return The number of changes written
+     */
+    public int flush() {
+        int count = pendingCount();
+        if (count > 0) {
+            Index<Vertex> index = getIndex();
+            for (Map.Entry<Map.Entry<String, String>, Vertex> entry : removals.entries()) {
+                index.remove(entry.getKey().getKey(), entry.getKey().getValue(), entry.getValue());
+            }
+            for (Map.Entry<Map.Entry<String, String>, Vertex> entry : additions.entries()) {
+                index.put(entry.getKey().getKey(), entry.getKey().getValue(), entry.getValue());
+            }
+            discard();
+        }
+        return count;
+    }
+
+    /**
+     * Throw away any pending changes.
+     */
+    public void discard() {
+        additions.clear();
+        removals.clear();
+    }
+
+    @Override
+    public String getIndexName() {
+        return BlueprintsGraphManager.INDEX_NAME;
+    }
+
+    @Override
+    public Class<Vertex> getIndexClass() {
+        return Vertex.class;
+    }
+
+    @Override
+    public void put(String key, Object value, Vertex element) {
+        Map.Entry<String, String> entry = entry(key, value);
+        removals.remove(entry, element);
+        additions.put(entry, element);
+    }
+
+    @Override
+    public CloseableIterable<Vertex> get(String key, Object value) {
+        Map.Entry<String, String> entry = entry(key, value);
+        if (!(additions.containsKey(entry) || removals.containsKey(entry))) {
+            return getIndex().get(key, value);
+        }
+        Set<Vertex> elements = Sets.newLinkedHashSet();
+        CloseableIterable<Vertex> indexed = getIndex().get(key, value);
+        try {
+            for (Vertex element : indexed) {
+                if (!removals.containsEntry(entry, element)) {
+                    elements.add(element);
+                }
+            }
+        } finally {
+            indexed.close();
+        }
+        elements.addAll(additions.get(entry));
+        return new WrappingCloseableIterable<Vertex>(elements);
+    }
+
+    @Override
+    public CloseableIterable<Vertex> query(String key, Object query) {
+        flush();
+        return getIndex().query(key, query);
+    }
+
+    @Override
+    public long count(String key, Object value) {
+        Map.Entry<String, String> entry = entry(key, value);
+        if (!(additions.containsKey(entry) || removals.containsKey(entry))) {
+            return getIndex().count(key, value);
+        }
+        CloseableIterable<Vertex> elements = get(key, value);
+        try {
+            long count = 0;
+            for (Vertex ignored : elements) {
+                count++;
+            }
+            return count;
+        } finally {
+            elements.close();
+        }
+    }
+
+    @Override
+    public void remove(String key, Object value, Vertex element) {
+        // NB: The element may have been added to the underlying index
+        // as well as the buffer, so the removal is recorded regardless.
+        Map.Entry<String, String> entry = entry(key, value);
+        additions.remove(entry, element);
+        removals.put(entry, element);
+    }
+
+    // NB: The underlying index stores values as strings, so the
+    // buffer does likewise.
+    private static Map.Entry<String, String> entry(String key, Object value) {
+        return Maps.immutableEntry(key, String.valueOf(value));
+    }
+
+    private Index<Vertex> getIndex() {
+        Index<Vertex> index = graph.getIndex(BlueprintsGraphManager.INDEX_NAME, Vertex.class);
+        if (index == null) {
+            index = graph.createIndex(BlueprintsGraphManager.INDEX_NAME, Vertex.class);
+        }
+        return index;
+    }
+}
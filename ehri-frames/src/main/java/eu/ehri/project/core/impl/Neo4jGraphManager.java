@@ -8,14 +8,22 @@ import com.tinkerpop.blueprints.impls.neo4j.Neo4jVertex;
 import com.tinkerpop.blueprints.impls.neo4j.Neo4jVertexIterable;
 import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.core.GraphManager;
+import eu.ehri.project.core.SizedCloseableIterable;
 import eu.ehri.project.exceptions.ItemNotFound;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.annotations.EntityType;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.index.lucene.QueryContext;
 
+import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
@@ -30,10 +38,22 @@ public final class Neo4jGraphManager<T extends Neo4jGraph> extends BlueprintsGra
         super(graph);
     }
 
+    public Neo4jGraphManager(FramedGraph<T> graph, BufferedIndex buffer) {
+        super(graph, buffer);
+    }
+
     @Override
     public Vertex getVertex(String id, EntityClass type) throws ItemNotFound {
         Preconditions
                 .checkNotNull(id, "attempt to fetch vertex with a null id");
+        if (hasPendingIndexEntries()) {
+            // IDs are unique, so just check the type.
+            Vertex vertex = getVertex(id);
+            if (!getEntityClass(vertex).equals(type)) {
+                throw new ItemNotFound(id);
+            }
+            return vertex;
+        }
         String queryStr = getLuceneQuery(EntityType.ID_KEY, id, type.getName());
         IndexHits<Node> rawQuery = getRawIndex().query(queryStr);
         // NB: Not using rawQuery.getSingle here so we throw NoSuchElement
@@ -52,10 +72,51 @@ public final class Neo4jGraphManager<T extends Neo4jGraph> extends BlueprintsGra
     // Neo4jVertex extends Vertex.
     @Override
     @SuppressWarnings("unchecked")
-    public CloseableIterable<Vertex> getVertices(String key, Object value,
+    public SizedCloseableIterable<Vertex> getVertices(String key, Object value,
             EntityClass type) {
+        if (hasPendingIndexEntries()) {
+            return super.getVertices(key, value, type);
+        }
         String queryStr = getLuceneQuery(key, value, type.getName());
-        IndexHits<Node> rawQuery = getRawIndex().query(queryStr);
+        final IndexHits<Node> rawQuery = getRawIndex().query(queryStr);
+        final CloseableIterable<Vertex> vertices = (CloseableIterable<Vertex>) new Neo4jVertexIterable(rawQuery,
+                graph.getBaseGraph(), false);
+        return new SizedCloseableIterable<Vertex>() {
+            @Override
+            public long size() {
+                return rawQuery.size();
+            }
+
+            @Override
+            public void close() {
+                vertices.close();
+            }
+
+            @Override
+            public Iterator<Vertex> iterator() {
+                return vertices.iterator();
+            }
+        };
+    }
+
+    // NB: Lucene sorts string terms in the same (UTF-16) order as
+    // String.compareTo, so the results are in the same order as the
+    // unindexed version.
+    @Override
+    @SuppressWarnings("unchecked")
+    public CloseableIterable<Vertex> getVerticesAfter(EntityClass type, String fromId) {
+        if (hasPendingIndexEntries()) {
+            return super.getVerticesAfter(type, fromId);
+        }
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term(EntityType.TYPE_KEY, type.getName())),
+                BooleanClause.Occur.MUST);
+        if (fromId != null) {
+            query.add(new TermRangeQuery(EntityType.ID_KEY, fromId, null, false, false),
+                    BooleanClause.Occur.MUST);
+        }
+        IndexHits<Node> rawQuery = getRawIndex().query(
+                new QueryContext(query).sort(EntityType.ID_KEY));
         return (CloseableIterable<Vertex>) new Neo4jVertexIterable(rawQuery,
                 graph.getBaseGraph(), false);
     }
@@ -14,6 +14,7 @@ import eu.ehri.project.models.base.AccessibleEntity;
 import eu.ehri.project.models.base.IdentifiableEntity;
 import eu.ehri.project.models.base.ItemHolder;
 import eu.ehri.project.models.base.PermissionScope;
+import eu.ehri.project.models.utils.EdgeCounter;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
 
 /**
@@ -46,6 +47,9 @@ public interface Country extends IdentifiableEntity, AccessibleEntity,
     @JavaHandler
     public long getChildCount();
 
+    public static final EdgeCounter CHILD_COUNTER
+            = new EdgeCounter(CHILD_COUNT, Direction.IN, Ontology.REPOSITORY_HAS_COUNTRY);
+
     /**
      * Fetch all repositories in this country.
      *
@@ -68,7 +72,7 @@ public interface Country extends IdentifiableEntity, AccessibleEntity,
     abstract class Impl implements JavaHandlerContext<Vertex>, Country {
 
         public long getChildCount() {
-            return gremlin().inE(Ontology.REPOSITORY_HAS_COUNTRY).count();
+            return CHILD_COUNTER.get(it());
         }
 
         public void addRepository(final Repository repository) {
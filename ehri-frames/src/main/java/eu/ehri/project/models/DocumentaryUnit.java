@@ -1,23 +1,25 @@
 package eu.ehri.project.models;
 
+import com.google.common.collect.Lists;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.Adjacency;
 import com.tinkerpop.frames.modules.javahandler.JavaHandler;
 import com.tinkerpop.frames.modules.javahandler.JavaHandlerContext;
-import com.tinkerpop.gremlin.java.GremlinPipeline;
-import com.tinkerpop.pipes.PipeFunction;
-import com.tinkerpop.pipes.branch.LoopPipe;
-import com.tinkerpop.pipes.util.Pipeline;
+import eu.ehri.project.definitions.Entities;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.annotations.Fetch;
 import eu.ehri.project.models.annotations.Meta;
 import eu.ehri.project.models.base.AbstractUnit;
+import eu.ehri.project.models.utils.EdgeCounter;
+import eu.ehri.project.models.utils.HierarchyIndex;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 /**
  * A frame class for graph nodes representing documentary
  * unit items.
@@ -81,6 +83,9 @@ public interface DocumentaryUnit extends AbstractUnit {
     @JavaHandler
     public long getChildCount();
 
+    public static final EdgeCounter CHILD_COUNTER
+            = new EdgeCounter(CHILD_COUNT, Direction.IN, Ontology.DOC_IS_CHILD_OF);
+
     /**
      * Get child documentary units
      *
@@ -112,7 +117,7 @@ public interface DocumentaryUnit extends AbstractUnit {
     abstract class Impl implements JavaHandlerContext<Vertex>, DocumentaryUnit {
 
         public long getChildCount() {
-            return gremlin().inE(Ontology.DOC_IS_CHILD_OF).count();
+            return CHILD_COUNTER.get(it());
         }
 
         public Iterable<DocumentaryUnit> getChildren() {
@@ -120,19 +125,16 @@ public interface DocumentaryUnit extends AbstractUnit {
         }
 
         public void addChild(final DocumentaryUnit child) {
-            JavaHandlerUtils
-                    .addSingleRelationship(child.asVertex(), it(), Ontology.DOC_IS_CHILD_OF);
+            if (JavaHandlerUtils.addSingleRelationship(child.asVertex(), it(),
+                    Ontology.DOC_IS_CHILD_OF)) {
+                new HierarchyIndex(g()).update(child.asVertex());
+            }
         }
 
         public Iterable<DocumentaryUnit> getAllChildren() {
-            Pipeline<Vertex, Vertex> otherPipe = gremlin().as("n").in(Ontology.DOC_IS_CHILD_OF)
-                    .loop("n", JavaHandlerUtils.noopLoopFunc, JavaHandlerUtils.noopLoopFunc);
-
-            return frameVertices(gremlin().in(Ontology.DOC_IS_CHILD_OF).cast(Vertex.class).copySplit(gremlin(), otherPipe)
-                    .fairMerge().cast(Vertex.class));
+            return frameVertices(new HierarchyIndex(g()).getDescendants(it()));
         }
 
-
         public void setRepository(final Repository repository) {
             // NB: Convenience methods that proxies addCollection (which
             // in turn maintains the child item cache.)
@@ -140,25 +142,20 @@ public interface DocumentaryUnit extends AbstractUnit {
         }
 
         public Repository getRepository() {
-            Pipeline<Vertex, Vertex> otherPipe = gremlin().as("n").out(Ontology.DOC_IS_CHILD_OF)
-                    .loop("n", JavaHandlerUtils.defaultMaxLoops, new PipeFunction<LoopPipe.LoopBundle<Vertex>, Boolean>() {
-                        @Override
-                        public Boolean compute(LoopPipe.LoopBundle<Vertex> vertexLoopBundle) {
-                            return !vertexLoopBundle.getObject().getVertices(Direction.OUT,
-                                    Ontology.DOC_IS_CHILD_OF).iterator().hasNext();
-                        }
-                    });
-
-            GremlinPipeline<Vertex, Vertex> out = gremlin().cast(Vertex.class).copySplit(gremlin(), otherPipe)
-                    .exhaustMerge().out(Ontology.DOC_HELD_BY_REPOSITORY);
-
-            return (Repository) (out.hasNext() ? frame(out.next()) : null);
+            Vertex root = new HierarchyIndex(g()).getRoot(it());
+            return root != null && Entities.REPOSITORY.equals(root.getProperty(EntityType.TYPE_KEY))
+                    ? frame(root, Repository.class)
+                    : null;
         }
 
         public Iterable<DocumentaryUnit> getAncestors() {
-            return frameVertices(gremlin().as("n")
-                    .out(Ontology.DOC_IS_CHILD_OF)
-                    .loop("n", JavaHandlerUtils.defaultMaxLoops, JavaHandlerUtils.noopLoopFunc));
+            List<Vertex> ancestors = Lists.newArrayList();
+            for (Vertex ancestor : new HierarchyIndex(g()).getAncestors(it())) {
+                if (Entities.DOCUMENTARY_UNIT.equals(ancestor.getProperty(EntityType.TYPE_KEY))) {
+                    ancestors.add(ancestor);
+                }
+            }
+            return frameVertices(ancestors);
         }
     }
 }
@@ -8,6 +8,7 @@ import com.tinkerpop.frames.modules.javahandler.JavaHandlerContext;
 import com.tinkerpop.gremlin.java.GremlinPipeline;
 import com.tinkerpop.pipes.PipeFunction;
 import com.tinkerpop.pipes.branch.LoopPipe;
+import eu.ehri.project.acl.AclGeneration;
 import eu.ehri.project.definitions.Entities;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.annotations.EntityType;
@@ -19,6 +20,7 @@ import eu.ehri.project.models.base.IdentifiableEntity;
 import eu.ehri.project.models.base.ItemHolder;
 import eu.ehri.project.models.base.NamedEntity;
 import eu.ehri.project.models.base.PermissionScope;
+import eu.ehri.project.models.utils.EdgeCounter;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
 
 /**
@@ -67,6 +69,9 @@ public interface Group extends Accessor, AccessibleEntity, IdentifiableEntity,
     @JavaHandler
     public long getChildCount();
 
+    public static final EdgeCounter CHILD_COUNTER
+            = new EdgeCounter(CHILD_COUNT, Direction.IN, Ontology.ACCESSOR_BELONGS_TO_GROUP);
+
     /**
      * Adds a Accessor as a member to this Group, so it has the permissions of the Group.
      *
@@ -98,17 +103,20 @@ public interface Group extends Accessor, AccessibleEntity, IdentifiableEntity,
     abstract class Impl implements JavaHandlerContext<Vertex>, Group {
 
         public long getChildCount() {
-            return gremlin().inE(Ontology.ACCESSOR_BELONGS_TO_GROUP).count();
+            return CHILD_COUNTER.get(it());
         }
 
         public void addMember(final Accessor accessor) {
-            JavaHandlerUtils.addUniqueRelationship(accessor.asVertex(), it(),
-                    Ontology.ACCESSOR_BELONGS_TO_GROUP);
+            if (JavaHandlerUtils.addUniqueRelationship(accessor.asVertex(), it(),
+                    Ontology.ACCESSOR_BELONGS_TO_GROUP)) {
+                AclGeneration.increment();
+            }
         }
 
         public void removeMember(final Accessor accessor) {
             JavaHandlerUtils.removeAllRelationships(accessor.asVertex(),
                     it(), Ontology.ACCESSOR_BELONGS_TO_GROUP);
+            AclGeneration.increment();
         }
 
         public Iterable<AccessibleEntity> getAllUserProfileMembers() {
@@ -5,7 +5,6 @@ import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.Adjacency;
 import com.tinkerpop.frames.modules.javahandler.JavaHandler;
 import com.tinkerpop.frames.modules.javahandler.JavaHandlerContext;
-import com.tinkerpop.pipes.util.Pipeline;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.annotations.Fetch;
@@ -16,6 +15,8 @@ import eu.ehri.project.models.base.DescribedEntity;
 import eu.ehri.project.models.base.ItemHolder;
 import eu.ehri.project.models.base.PermissionScope;
 import eu.ehri.project.models.base.Watchable;
+import eu.ehri.project.models.utils.EdgeCounter;
+import eu.ehri.project.models.utils.HierarchyIndex;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
 
 
@@ -39,6 +40,9 @@ public interface Repository extends AccessibleEntity, DescribedEntity,
     @JavaHandler
     public long getChildCount();
 
+    public static final EdgeCounter CHILD_COUNTER
+            = new EdgeCounter(CHILD_COUNT, Direction.IN, Ontology.DOC_HELD_BY_REPOSITORY);
+
     /**
      * Fetch all top-level documentary unit items within this
      * repository.
@@ -89,12 +93,14 @@ public interface Repository extends AccessibleEntity, DescribedEntity,
     abstract class Impl implements JavaHandlerContext<Vertex>, Repository {
 
         public long getChildCount() {
-            return gremlin().inE(Ontology.DOC_HELD_BY_REPOSITORY).count();
+            return CHILD_COUNTER.get(it());
         }
 
         public void addCollection(final DocumentaryUnit unit) {
-            JavaHandlerUtils.addSingleRelationship(unit.asVertex(), it(),
-                    Ontology.DOC_HELD_BY_REPOSITORY);
+            if (JavaHandlerUtils.addSingleRelationship(unit.asVertex(), it(),
+                    Ontology.DOC_HELD_BY_REPOSITORY)) {
+                new HierarchyIndex(g()).update(unit.asVertex());
+            }
         }
 
         public void setCountry(final Country country) {
@@ -102,12 +108,7 @@ public interface Repository extends AccessibleEntity, DescribedEntity,
         }
 
         public Iterable<DocumentaryUnit> getAllCollections() {
-            Pipeline<Vertex, Vertex> otherPipe = gremlin().as("n").in(Ontology.DOC_IS_CHILD_OF)
-                    .loop("n", JavaHandlerUtils.noopLoopFunc, JavaHandlerUtils.noopLoopFunc);
-
-            return frameVertices(gremlin().in(Ontology.DOC_HELD_BY_REPOSITORY)
-                    .cast(Vertex.class).copySplit(gremlin(), otherPipe)
-                    .fairMerge().cast(Vertex.class));
+            return frameVertices(new HierarchyIndex(g()).getDescendants(it()));
         }
     }
 }
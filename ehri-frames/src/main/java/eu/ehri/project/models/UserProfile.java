@@ -18,6 +18,7 @@ import eu.ehri.project.models.base.Annotator;
 import eu.ehri.project.models.base.IdentifiableEntity;
 import eu.ehri.project.models.base.NamedEntity;
 import eu.ehri.project.models.base.Watchable;
+import eu.ehri.project.models.utils.EdgeCounter;
 
 import static eu.ehri.project.definitions.Ontology.ACCESSOR_BELONGS_TO_GROUP;
 import static eu.ehri.project.definitions.Ontology.USER_FOLLOWS_USER;
@@ -49,6 +50,13 @@ public interface UserProfile extends Accessor, AccessibleEntity, IdentifiableEnt
     @JavaHandler
     public long getWatchingCount();
 
+    public static final EdgeCounter FOLLOWER_COUNTER
+            = new EdgeCounter(FOLLOWER_COUNT, Direction.IN, USER_FOLLOWS_USER);
+    public static final EdgeCounter FOLLOWING_COUNTER
+            = new EdgeCounter(FOLLOWING_COUNT, Direction.OUT, USER_FOLLOWS_USER);
+    public static final EdgeCounter WATCHING_COUNTER
+            = new EdgeCounter(WATCHING_COUNT, Direction.OUT, USER_WATCHING_ITEM);
+
     /**
      * Get the groups to which this user belongs.
      *
@@ -211,17 +219,17 @@ public interface UserProfile extends Accessor, AccessibleEntity, IdentifiableEnt
 
         @Override
         public long getFollowerCount() {
-            return gremlin().inE(USER_FOLLOWS_USER).count();
+            return FOLLOWER_COUNTER.get(it());
         }
 
         @Override
         public long getFollowingCount() {
-            return gremlin().outE(USER_FOLLOWS_USER).count();
+            return FOLLOWING_COUNTER.get(it());
         }
 
         @Override
         public long getWatchingCount() {
-            return gremlin().outE(USER_WATCHING_ITEM).count();
+            return WATCHING_COUNTER.get(it());
         }
 
         @Override
@@ -1,20 +1,18 @@
 package eu.ehri.project.models;
 
-import com.google.common.collect.Iterables;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.Adjacency;
 import com.tinkerpop.frames.modules.javahandler.JavaHandler;
 import com.tinkerpop.frames.modules.javahandler.JavaHandlerContext;
-import com.tinkerpop.gremlin.java.GremlinPipeline;
-import com.tinkerpop.pipes.util.Pipeline;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.annotations.Fetch;
 import eu.ehri.project.models.annotations.Meta;
 import eu.ehri.project.models.base.AbstractUnit;
 import eu.ehri.project.models.base.Accessor;
-import eu.ehri.project.models.utils.JavaHandlerUtils;
+import eu.ehri.project.models.utils.EdgeCounter;
+import eu.ehri.project.models.utils.HierarchyIndex;
 
 import static eu.ehri.project.models.utils.JavaHandlerUtils.addSingleRelationship;
 import static eu.ehri.project.models.utils.JavaHandlerUtils.addUniqueRelationship;
@@ -40,6 +38,11 @@ public interface VirtualUnit extends AbstractUnit {
     @JavaHandler
     public long getChildCount();
 
+    public static final EdgeCounter CHILD_COUNTER
+            = new EdgeCounter(CHILD_COUNT, Direction.IN, Ontology.VC_IS_PART_OF);
+    public static final EdgeCounter INCLUDED_UNIT_COUNTER
+            = new EdgeCounter("includedUnitCount", Direction.OUT, Ontology.VC_INCLUDES_UNIT);
+
     @Fetch(Ontology.VC_IS_PART_OF)
     @Adjacency(label = Ontology.VC_IS_PART_OF)
     public VirtualUnit getParent();
@@ -167,36 +170,33 @@ public interface VirtualUnit extends AbstractUnit {
                 // Self-referential.
                 return false;
             }
-            for (Vertex parent : traverseAncestors()) {
-                if (child.asVertex().equals(parent)) {
-                    // Loop
-                    return false;
-                }
+            HierarchyIndex hierarchy = new HierarchyIndex(g());
+            if (hierarchy.getAncestorIds(it()).contains(child.getId())) {
+                // Loop
+                return false;
             }
 
-            return addUniqueRelationship(child.asVertex(), it(), Ontology.VC_IS_PART_OF);
+            if (addUniqueRelationship(child.asVertex(), it(), Ontology.VC_IS_PART_OF)) {
+                hierarchy.update(child.asVertex());
+                return true;
+            }
+            return false;
         }
 
         public boolean removeChild(final VirtualUnit child) {
-            return removeAllRelationships(child.asVertex(), it(), Ontology.VC_IS_PART_OF);
-        }
-
-        private GremlinPipeline<Vertex, Vertex> traverseAncestors() {
-            return gremlin().as("n")
-                    .out(Ontology.VC_IS_PART_OF)
-                    .loop("n", JavaHandlerUtils.defaultMaxLoops, JavaHandlerUtils.noopLoopFunc);
+            if (removeAllRelationships(child.asVertex(), it(), Ontology.VC_IS_PART_OF)) {
+                new HierarchyIndex(g()).update(child.asVertex());
+                return true;
+            }
+            return false;
         }
 
         public Iterable<VirtualUnit> getAllChildren() {
-            Pipeline<Vertex, Vertex> otherPipe = gremlin().as("n").in(Ontology.VC_IS_PART_OF)
-                    .loop("n", JavaHandlerUtils.noopLoopFunc, JavaHandlerUtils.noopLoopFunc);
-
-            return frameVertices(gremlin().in(Ontology.VC_IS_PART_OF).cast(Vertex.class).copySplit(gremlin(), otherPipe)
-                    .fairMerge().cast(Vertex.class));
+            return frameVertices(new HierarchyIndex(g()).getDescendants(it()));
         }
 
         public Iterable<VirtualUnit> getAncestors() {
-            return frameVertices(traverseAncestors());
+            return frameVertices(new HierarchyIndex(g()).getAncestors(it()));
         }
 
         public boolean addIncludedUnit(final DocumentaryUnit unit) {
@@ -204,9 +204,7 @@ public interface VirtualUnit extends AbstractUnit {
         }
 
         public long getChildCount() {
-            long incCount = gremlin().outE(Ontology.VC_INCLUDES_UNIT).count();
-            long vcCount = gremlin().inE(Ontology.VC_IS_PART_OF).count();
-            return incCount + vcCount;
+            return INCLUDED_UNIT_COUNTER.get(it()) + CHILD_COUNTER.get(it());
         }
     }
 }
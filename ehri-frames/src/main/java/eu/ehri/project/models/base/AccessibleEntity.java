@@ -1,5 +1,6 @@
 package eu.ehri.project.models.base;
 
+import com.google.common.collect.ImmutableList;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.Adjacency;
@@ -7,9 +8,12 @@ import com.tinkerpop.frames.modules.javahandler.JavaHandler;
 import com.tinkerpop.frames.modules.javahandler.JavaHandlerContext;
 import com.tinkerpop.gremlin.java.GremlinPipeline;
 import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.annotations.Fetch;
 import eu.ehri.project.models.events.SystemEvent;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
+import eu.ehri.project.models.utils.ScopeChainCache;
+import eu.ehri.project.persistence.EventLog;
 
 import static eu.ehri.project.models.utils.JavaHandlerUtils.addSingleRelationship;
 import static eu.ehri.project.models.utils.JavaHandlerUtils.addUniqueRelationship;
@@ -42,7 +46,9 @@ public interface AccessibleEntity extends PermissionGrantTarget, VersionedEntity
     public Iterable<PermissionScope> getPermissionScopes();
 
     /**
-     * Fetch a list of Actions for this entity in order.
+     * Fetch a list of Actions for this entity in order, from the
+     * event log if it is built, or otherwise by walking the entity's
+     * chain of lifecycle events.
      * 
      * @return
      */
@@ -67,11 +73,18 @@ public interface AccessibleEntity extends PermissionGrantTarget, VersionedEntity
         }
 
         public void setPermissionScope(final PermissionScope scope) {
-            addSingleRelationship(it(), scope.asVertex(),
-                    Ontology.HAS_PERMISSION_SCOPE);
+            if (addSingleRelationship(it(), scope.asVertex(),
+                    Ontology.HAS_PERMISSION_SCOPE)) {
+                ScopeChainCache.invalidate(g().getBaseGraph(), it());
+            }
         }
 
         public SystemEvent getLatestEvent() {
+            EventLog eventLog = new EventLog(g());
+            if (eventLog.isBuilt()) {
+                return EventLog.readFirst(eventLog.getEventsForSubjects(
+                        ImmutableList.of(it().<String>getProperty(EntityType.ID_KEY))));
+            }
             GremlinPipeline<Vertex, Vertex> out = gremlin()
                     .out(Ontology.ENTITY_HAS_LIFECYCLE_EVENT)
                     .out(Ontology.ENTITY_HAS_EVENT);
@@ -79,12 +92,15 @@ public interface AccessibleEntity extends PermissionGrantTarget, VersionedEntity
         }
 
         public Iterable<PermissionScope> getPermissionScopes() {
-            return frameVertices(gremlin().as("n")
-                    .out(Ontology.HAS_PERMISSION_SCOPE)
-                    .loop("n", JavaHandlerUtils.defaultMaxLoops, JavaHandlerUtils.noopLoopFunc));
+            return frameVertices(ScopeChainCache.getScopes(g(), it()));
         }
 
         public Iterable<SystemEvent> getHistory() {
+            EventLog eventLog = new EventLog(g());
+            if (eventLog.isBuilt()) {
+                return EventLog.readAll(eventLog.getEventsForSubjects(
+                        ImmutableList.of(it().<String>getProperty(EntityType.ID_KEY))));
+            }
             return frameVertices(gremlin().as("n").out(Ontology.ENTITY_HAS_LIFECYCLE_EVENT)
                     .loop("n", JavaHandlerUtils.noopLoopFunc, JavaHandlerUtils.noopLoopFunc)
                     .out(Ontology.ENTITY_HAS_EVENT));
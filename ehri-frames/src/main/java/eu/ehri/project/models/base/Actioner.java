@@ -1,15 +1,20 @@
 package eu.ehri.project.models.base;
 
+import com.google.common.collect.ImmutableList;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.modules.javahandler.JavaHandler;
 import com.tinkerpop.frames.modules.javahandler.JavaHandlerContext;
 import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.events.SystemEvent;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
+import eu.ehri.project.persistence.EventLog;
 
 public interface Actioner extends NamedEntity {
     /**
-     * Fetch a list of Actions for this user in newest-first order.
+     * Fetch a list of Actions for this user in newest-first order,
+     * from the event log if it is built, or otherwise by walking
+     * the user's chain of actions.
      * 
      * @return
      */
@@ -24,12 +29,25 @@ public interface Actioner extends NamedEntity {
      */
     abstract class Impl implements JavaHandlerContext<Vertex>, Actioner {
         public Iterable<SystemEvent> getLatestAction() {
+            EventLog eventLog = new EventLog(g());
+            if (eventLog.isBuilt()) {
+                SystemEvent latest = EventLog.readFirst(eventLog.getEventsByActioners(
+                        ImmutableList.of(it().<String>getProperty(EntityType.ID_KEY))));
+                return latest == null
+                        ? ImmutableList.<SystemEvent>of()
+                        : ImmutableList.of(latest);
+            }
             return frameVertices(gremlin()
                     .out(Ontology.ACTIONER_HAS_LIFECYCLE_ACTION)
                     .out(Ontology.ENTITY_HAS_EVENT));
         }
 
         public Iterable<SystemEvent> getActions() {
+            EventLog eventLog = new EventLog(g());
+            if (eventLog.isBuilt()) {
+                return EventLog.readAll(eventLog.getEventsByActioners(
+                        ImmutableList.of(it().<String>getProperty(EntityType.ID_KEY))));
+            }
             return frameVertices(gremlin().as("n").out(Ontology.ACTIONER_HAS_LIFECYCLE_ACTION)
                     .loop("n", JavaHandlerUtils.noopLoopFunc, JavaHandlerUtils.noopLoopFunc)
                     .out(Ontology.ENTITY_HAS_EVENT));
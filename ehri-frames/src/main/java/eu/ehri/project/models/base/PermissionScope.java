@@ -6,13 +6,12 @@ import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.Adjacency;
 import com.tinkerpop.frames.modules.javahandler.JavaHandler;
 import com.tinkerpop.frames.modules.javahandler.JavaHandlerContext;
-import com.tinkerpop.pipes.PipeFunction;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.PermissionGrant;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
+import eu.ehri.project.models.utils.ScopeChainCache;
 
 import java.util.Collection;
-import java.util.List;
 
 /**
  * The scope of permissions granted to users. A permission scope always has an identifier.
@@ -44,24 +43,11 @@ public interface PermissionScope extends IdentifiableEntity {
         }
 
         public Iterable<PermissionScope> getPermissionScopes() {
-            return frameVertices(gremlin().as("n")
-                    .out(Ontology.HAS_PERMISSION_SCOPE)
-                    .loop("n", JavaHandlerUtils.defaultMaxLoops, JavaHandlerUtils.noopLoopFunc));
+            return frameVertices(ScopeChainCache.getScopes(g(), it()));
         }
 
         public Collection<String> idPath() {
-            // Sigh - duplication...
-            List<String> pIds = Lists.reverse(gremlin().as("n")
-                    .out(Ontology.HAS_PERMISSION_SCOPE)
-                    .loop("n", JavaHandlerUtils.defaultMaxLoops, JavaHandlerUtils.noopLoopFunc)
-                    .transform(new PipeFunction<Vertex, String>() {
-                        @Override
-                        public String compute(Vertex vertex) {
-                            return vertex.getProperty(Ontology.IDENTIFIER_KEY);
-                        }
-                    }).toList());
-            pIds.add((String) it().getProperty(Ontology.IDENTIFIER_KEY));
-            return pIds;
+            return Lists.newArrayList(ScopeChainCache.getIdPath(g(), it()));
         }
     }
 }
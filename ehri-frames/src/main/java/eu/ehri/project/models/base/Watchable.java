@@ -7,6 +7,7 @@ import com.tinkerpop.frames.modules.javahandler.JavaHandler;
 import com.tinkerpop.frames.modules.javahandler.JavaHandlerContext;
 import eu.ehri.project.models.UserProfile;
 import eu.ehri.project.models.annotations.Meta;
+import eu.ehri.project.models.utils.EdgeCounter;
 
 import static eu.ehri.project.definitions.Ontology.USER_WATCHING_ITEM;
 
@@ -23,11 +24,14 @@ public interface Watchable extends AccessibleEntity {
     @JavaHandler
     public long getWatchedCount();
 
+    public static final EdgeCounter WATCHED_COUNTER
+            = new EdgeCounter(WATCHED_COUNT, Direction.IN, USER_WATCHING_ITEM);
+
     abstract class Impl implements JavaHandlerContext<Vertex>, Watchable {
 
         @Override
         public long getWatchedCount() {
-            return gremlin().inE(USER_WATCHING_ITEM).count();
+            return WATCHED_COUNTER.get(it());
         }
     }
 }
@@ -3,17 +3,18 @@ package eu.ehri.project.models.cvoc;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.Adjacency;
-import com.tinkerpop.frames.Property;
 import com.tinkerpop.frames.modules.javahandler.JavaHandler;
 import com.tinkerpop.frames.modules.javahandler.JavaHandlerContext;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.annotations.Fetch;
+import eu.ehri.project.models.annotations.Meta;
 import eu.ehri.project.models.base.AccessibleEntity;
 import eu.ehri.project.models.base.DescribedEntity;
 import eu.ehri.project.models.base.IdentifiableEntity;
 import eu.ehri.project.models.base.ItemHolder;
+import eu.ehri.project.models.utils.EdgeCounter;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
 
 /**
@@ -42,9 +43,13 @@ public interface Concept extends AccessibleEntity, IdentifiableEntity,
     @Adjacency(label = Ontology.ITEM_IN_AUTHORITATIVE_SET)
     public void setVocabulary(final Vocabulary vocabulary);
 
-    @Property(CHILD_COUNT)
+    @Meta(CHILD_COUNT)
+    @JavaHandler
     public long getChildCount();
 
+    public static final EdgeCounter CHILD_COUNTER
+            = new EdgeCounter(CHILD_COUNT, Direction.OUT, Ontology.CONCEPT_HAS_NARROWER);
+
     // relations to other concepts
     
     // Note that multiple broader concepts are possible
@@ -83,7 +88,7 @@ public interface Concept extends AccessibleEntity, IdentifiableEntity,
     abstract class Impl  implements JavaHandlerContext<Vertex>, Concept {
 
         public long getChildCount() {
-            return gremlin().outE(Ontology.CONCEPT_HAS_NARROWER).count();
+            return CHILD_COUNTER.get(it());
         }
 
         public void addRelatedConcept(final Concept related) {
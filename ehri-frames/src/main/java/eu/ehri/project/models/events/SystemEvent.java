@@ -20,6 +20,8 @@ import eu.ehri.project.models.base.Actioner;
 import eu.ehri.project.models.base.Frame;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
 
+import static eu.ehri.project.models.utils.JavaHandlerUtils.hasEdge;
+
 /**
  * Frame class representing an event that happened in the
  * graph.
@@ -38,6 +40,23 @@ public interface SystemEvent extends AccessibleEntity {
     @Property(Ontology.EVENT_TIMESTAMP)
     public String getTimestamp();
 
+    /**
+     * Fetch the time of this event in milliseconds since the epoch.
+     *
+     * @return a number of milliseconds, or null for events created
+     * before this was stored
+     */
+    @Property(Ontology.EVENT_TIMESTAMP_MILLIS)
+    public Long getTimestampMillis();
+
+    /**
+     * Fetch the sequence number of this event in the event log.
+     *
+     * @return a sequence number, or null if the event has not been logged
+     */
+    @Property(Ontology.EVENT_SEQUENCE)
+    public Long getSequence();
+
     /**
      * Fetch the event type of this event.
      *
@@ -114,7 +133,13 @@ public interface SystemEvent extends AccessibleEntity {
      * Implementation of complex methods.
      */
     abstract class Impl implements JavaHandlerContext<Vertex>, SystemEvent {
+        // NB: Events are linked directly to their subjects and actioner,
+        // but those created before this was so are found by walking up
+        // the event chains to their heads.
         public Iterable<AccessibleEntity> getSubjects() {
+            if (hasEdge(it(), Direction.OUT, Ontology.EVENT_HAS_SUBJECT)) {
+                return frameVertices(gremlin().out(Ontology.EVENT_HAS_SUBJECT));
+            }
             return frameVertices(gremlin().in(Ontology.ENTITY_HAS_EVENT)
                     .as("n").in(Ontology.ENTITY_HAS_LIFECYCLE_EVENT)
                     .loop("n", JavaHandlerUtils.noopLoopFunc, new PipeFunction<LoopPipe.LoopBundle<Vertex>, Boolean>() {
@@ -126,6 +151,10 @@ public interface SystemEvent extends AccessibleEntity {
         }
 
         public AccessibleEntity getFirstSubject() {
+            if (hasEdge(it(), Direction.OUT, Ontology.EVENT_HAS_SUBJECT)) {
+                return (AccessibleEntity)frame(it().getVertices(Direction.OUT,
+                        Ontology.EVENT_HAS_SUBJECT).iterator().next());
+            }
             // Ugh: horrible code duplication is horrible - unfortunately
             // just calling getSubjects() fails for an obscure reason to do
             // with Frames not being thinking it has an iterable???
@@ -143,6 +172,10 @@ public interface SystemEvent extends AccessibleEntity {
         }
 
         public Actioner getActioner() {
+            if (hasEdge(it(), Direction.OUT, Ontology.EVENT_HAS_ACTIONER)) {
+                return (Actioner)frame(it().getVertices(Direction.OUT,
+                        Ontology.EVENT_HAS_ACTIONER).iterator().next());
+            }
             GremlinPipeline<Vertex, Vertex> actioners = gremlin().in(Ontology.ENTITY_HAS_EVENT)
                     .as("n").in(Ontology.ACTIONER_HAS_LIFECYCLE_ACTION)
                     .loop("n", JavaHandlerUtils.noopLoopFunc, new PipeFunction<LoopPipe.LoopBundle<Vertex>, Boolean>() {
@@ -1,5 +1,6 @@
 package eu.ehri.project.models.events;
 
+import com.google.common.collect.Lists;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.Adjacency;
@@ -16,6 +17,10 @@ import eu.ehri.project.models.annotations.Fetch;
 import eu.ehri.project.models.annotations.Mandatory;
 import eu.ehri.project.models.base.AccessibleEntity;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
+import eu.ehri.project.persistence.utils.JsonPatch;
+
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Frame class representing a serialized version of
@@ -46,13 +51,31 @@ public interface Version extends AccessibleEntity {
 
     /**
      * Fetch a serialized snapshot of the item's data in JSON format.
+     * If this version is stored as a patch against the one prior to
+     * it, the snapshot is reconstructed from the nearest full one.
      *
      * @return JSON data representing a sub-graph
      */
-    @Mandatory
-    @Property(Ontology.VERSION_ENTITY_DATA)
+    @JavaHandler
     public String getEntityData();
 
+    /**
+     * Fetch the JSON patch which turns the prior version's data into
+     * this version's, if it is not stored as a full snapshot.
+     *
+     * @return a JSON patch, or null
+     */
+    @Property(Ontology.VERSION_ENTITY_PATCH)
+    public String getEntityPatch();
+
+    /**
+     * Fetch the version prior to this one.
+     *
+     * @return a version, or null
+     */
+    @Adjacency(label = Ontology.ENTITY_HAS_PRIOR_VERSION, direction = Direction.OUT)
+    public Version getPriorVersion();
+
     /**
      * Fetch the event that triggered this version.
      *
@@ -75,6 +98,23 @@ public interface Version extends AccessibleEntity {
      * Implementation of complex methods.
      */
     abstract class Impl implements JavaHandlerContext<Vertex>, Version {
+        public String getEntityData() {
+            List<String> patches = Lists.newArrayList();
+            Vertex version = it();
+            while (version.getProperty(Ontology.VERSION_ENTITY_DATA) == null) {
+                String patch = version.getProperty(Ontology.VERSION_ENTITY_PATCH);
+                Iterator<Vertex> prior = version.getVertices(Direction.OUT,
+                        Ontology.ENTITY_HAS_PRIOR_VERSION).iterator();
+                if (patch == null || !prior.hasNext()) {
+                    throw new IllegalStateException("No snapshot found for version: " + it());
+                }
+                patches.add(patch);
+                version = prior.next();
+            }
+            String data = version.getProperty(Ontology.VERSION_ENTITY_DATA);
+            return patches.isEmpty() ? data : JsonPatch.apply(data, Lists.reverse(patches));
+        }
+
         public AccessibleEntity getEntity() {
             Pipeline<Vertex,Vertex> out =  gremlin().as("n").in(Ontology.ENTITY_HAS_PRIOR_VERSION)
                     .loop("n", JavaHandlerUtils.noopLoopFunc, new PipeFunction<LoopPipe.LoopBundle<Vertex>, Boolean>() {
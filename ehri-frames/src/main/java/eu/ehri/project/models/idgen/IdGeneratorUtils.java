@@ -14,7 +14,6 @@ import org.slf4j.LoggerFactory;
 
 import java.text.MessageFormat;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -50,12 +49,9 @@ public class IdGeneratorUtils {
      * @param ident  the item's identifier
      */
     public static String generateId(PermissionScope scope, Bundle bundle, String ident) {
-        LinkedList<String> scopeIds = Lists.newLinkedList();
-        if (scope != null && !scope.equals(SystemScope.getInstance())) {
-            for (PermissionScope s : scope.getPermissionScopes())
-                scopeIds.addFirst(s.getIdentifier());
-            scopeIds.add(scope.getIdentifier());
-        }
+        Collection<String> scopeIds = scope == null || scope.equals(SystemScope.getInstance())
+                ? Lists.<String>newArrayList()
+                : scope.idPath();
         return generateId(scopeIds, bundle, ident);
     }
 
@@ -0,0 +1,250 @@
+package eu.ehri.project.models.utils;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.EntityType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A count of a vertex's edges with a given label and direction,
+ * stored as a hidden vertex property so that it doesn't have to
+ * be computed by traversing the edges every time it is read.
+ * <p/>
+ * Counters are declared as public static fields on entity
+ * interfaces. Edges added or removed via {@link JavaHandlerUtils},
+ * and edges removed when a vertex is deleted by the graph manager,
+ * update the counters of the vertices at either end within the
+ * same transaction. Until a vertex's counter has been stored, e.g.
+ * for items created by the fixture loader, reading it falls back
+ * to counting edges, and the first change stores the full count.
+ * <p/>
+ * Edges changed by other means will cause counters to drift, which
+ * can be fixed with {@link #repair(Vertex)}.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class EdgeCounter {
+
+    private static final Logger logger = LoggerFactory.getLogger(EdgeCounter.class);
+
+    private static final ConcurrentMap<EntityClass, Collection<EdgeCounter>> counters
+            = Maps.newConcurrentMap();
+
+    private final String name;
+    private final String propertyName;
+    private final Direction direction;
+    private final String label;
+
+    /**
+     * Constructor.
+     *
+     * @param name      The counter name, typically its meta key
+     * @param direction The direction of the counted edges, relative
+     *                  to the vertex holding the count
+     * @param label     The label of the counted edges
+     */
+    public EdgeCounter(String name, Direction direction, String label) {
+        this.name = name;
+        this.propertyName = "__" + name + "__";
+        this.direction = direction;
+        this.label = label;
+    }
+
+    /**
+     * Get the counters declared on a given entity class, and the
+     * interfaces it extends.
+     *
+     * @param type An entity class
+     * @return A collection of counters
+     */
+    public static Collection<EdgeCounter> forType(EntityClass type) {
+        Collection<EdgeCounter> typeCounters = counters.get(type);
+        if (typeCounters == null) {
+            Set<EdgeCounter> found = Sets.newLinkedHashSet();
+            for (Field field : type.getEntityClass().getFields()) {
+                if (Modifier.isStatic(field.getModifiers())
+                        && EdgeCounter.class.equals(field.getType())) {
+                    try {
+                        found.add((EdgeCounter) field.get(null));
+                    } catch (IllegalAccessException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+            typeCounters = ImmutableSet.copyOf(found);
+            Collection<EdgeCounter> existing = counters.putIfAbsent(type, typeCounters);
+            if (existing != null) {
+                typeCounters = existing;
+            }
+        }
+        return typeCounters;
+    }
+
+    /**
+     * Get the counters for a vertex, according to its type.
+     *
+     * @param vertex A vertex
+     * @return A collection of counters
+     */
+    public static Collection<EdgeCounter> forVertex(Vertex vertex) {
+        String type = vertex.getProperty(EntityType.TYPE_KEY);
+        return type == null
+                ? ImmutableSet.<EdgeCounter>of()
+                : forType(EntityClass.withName(type));
+    }
+
+    /**
+     * Update counters after an edge has been added.
+     *
+     * @param edge The new edge
+     */
+    public static void edgeAdded(Edge edge) {
+        edgeChanged(edge.getVertex(Direction.OUT), edge.getVertex(Direction.IN),
+                edge.getLabel(), 1);
+    }
+
+    /**
+     * Remove an edge and update counters accordingly.
+     *
+     * @param edge The edge
+     */
+    public static void removeEdge(Edge edge) {
+        Vertex out = edge.getVertex(Direction.OUT);
+        Vertex in = edge.getVertex(Direction.IN);
+        String label = edge.getLabel();
+        edge.remove();
+        edgeChanged(out, in, label, -1);
+    }
+
+    /**
+     * Remove all of a vertex's edges, updating the counters of
+     * the vertices at the other ends. This should be used before
+     * deleting the vertex.
+     *
+     * @param vertex The vertex
+     */
+    public static void removeEdges(Vertex vertex) {
+        for (Edge edge : Lists.newArrayList(vertex.getEdges(Direction.BOTH))) {
+            Vertex out = edge.getVertex(Direction.OUT);
+            Vertex in = edge.getVertex(Direction.IN);
+            String label = edge.getLabel();
+            edge.remove();
+            if (!out.equals(vertex)) {
+                adjust(out, Direction.OUT, label, -1);
+            }
+            if (!in.equals(vertex)) {
+                adjust(in, Direction.IN, label, -1);
+            }
+        }
+    }
+
+    private static void edgeChanged(Vertex out, Vertex in, String label, int delta) {
+        adjust(out, Direction.OUT, label, delta);
+        adjust(in, Direction.IN, label, delta);
+    }
+
+    private static void adjust(Vertex vertex, Direction direction, String label, int delta) {
+        for (EdgeCounter counter : forVertex(vertex)) {
+            if (counter.direction == direction && counter.label.equals(label)) {
+                counter.adjust(vertex, delta);
+            }
+        }
+    }
+
+    /**
+     * Get the counter's name.
+     *
+     * @return The name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the name of the property in which counts are stored.
+     *
+     * @return The property name
+     */
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    /**
+     * Get the count for a vertex, counting edges if it has not
+     * yet been stored.
+     *
+     * @param vertex The vertex
+     * @return The number of counted edges
+     */
+    public long get(Vertex vertex) {
+        Object value = vertex.getProperty(propertyName);
+        return value instanceof Number ? ((Number) value).longValue() : count(vertex);
+    }
+
+    /**
+     * Count a vertex's edges, ignoring any stored count.
+     *
+     * @param vertex The vertex
+     * @return The number of counted edges
+     */
+    public long count(Vertex vertex) {
+        return vertex.query().direction(direction).labels(label).count();
+    }
+
+    /**
+     * Set a vertex's stored count to the actual number of edges.
+     *
+     * @param vertex The vertex
+     * @return Whether the stored count was missing or wrong
+     */
+    public boolean repair(Vertex vertex) {
+        long actual = count(vertex);
+        Object value = vertex.getProperty(propertyName);
+        if (value instanceof Number && ((Number) value).longValue() == actual) {
+            return false;
+        }
+        vertex.setProperty(propertyName, actual);
+        return true;
+    }
+
+    /**
+     * Check whether a vertex's stored count is correct.
+     *
+     * @param vertex The vertex
+     * @return Whether the count has not been stored, or is correct
+     */
+    public boolean isConsistent(Vertex vertex) {
+        Object value = vertex.getProperty(propertyName);
+        return !(value instanceof Number) || ((Number) value).longValue() == count(vertex);
+    }
+
+    private void adjust(Vertex vertex, int delta) {
+        Object value = vertex.getProperty(propertyName);
+        long count = value instanceof Number
+                ? ((Number) value).longValue() + delta
+                : count(vertex);
+        if (count < 0) {
+            logger.warn("Negative count for '{}' on {}: recounting", name, vertex);
+            count = count(vertex);
+        }
+        vertex.setProperty(propertyName, count);
+    }
+
+    @Override
+    public String toString() {
+        return "<EdgeCounter " + name + ": " + direction + " " + label + ">";
+    }
+}
@@ -0,0 +1,356 @@
+package eu.ehri.project.models.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Index;
+import com.tinkerpop.blueprints.IndexableGraph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.definitions.Entities;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.annotations.EntityType;
+import eu.ehri.project.persistence.ActionManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A closure of the documentary unit and virtual unit hierarchies,
+ * which allows finding an item's ancestors, or all of its descendants,
+ * without traversing the graph.
+ * <p/>
+ * Each hierarchical item stores the IDs of all its ancestors, nearest
+ * first, as a hidden property, and each ancestor ID is added to the
+ * graph manager's index under the same key. The ancestors of a
+ * documentary unit end with the repository that holds its top-level
+ * unit. A virtual unit can have several parents, in which case its
+ * ancestors are those of each parent in turn.
+ * <p/>
+ * The closure must be updated whenever an item's parents change, which
+ * the model classes do when adding or removing children, and the graph
+ * manager does when deleting or renaming items. Items for which nothing
+ * has been stored yet have their ancestors found by traversal, and the
+ * whole closure is rebuilt when the graph manager rebuilds its index.
+ * <p/>
+ * Descendants can only be found via the index once the closure has been
+ * stored for every item, which is marked by the {@value #BUILT_KEY}
+ * property of the graph's system node. It is set when the graph is
+ * initialised, or the closure is rebuilt; until then descendants are
+ * also found by traversal.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class HierarchyIndex {
+
+    public static final String ANCESTORS_KEY = "__ancestors__";
+    public static final String BUILT_KEY = "__hierarchyIndexBuilt__";
+
+    // The graph manager's index, in which ancestor IDs are stored.
+    private static final String INDEX_NAME = "entities";
+
+    private static final Map<String, List<String>> parentLabels = ImmutableMap.<String, List<String>>of(
+            Entities.DOCUMENTARY_UNIT, ImmutableList.of(
+                    Ontology.DOC_IS_CHILD_OF, Ontology.DOC_HELD_BY_REPOSITORY),
+            Entities.VIRTUAL_UNIT, ImmutableList.of(Ontology.VC_IS_PART_OF));
+
+    private static final String[] allParentLabels = Sets.newHashSet(
+            Iterables.concat(parentLabels.values())).toArray(new String[0]);
+
+    private final IndexableGraph graph;
+
+    /**
+     * Constructor.
+     *
+     * @param graph A framed graph, which must wrap an indexable graph
+     */
+    public HierarchyIndex(FramedGraph<?> graph) {
+        this(graph.getBaseGraph());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param graph An indexable graph
+     */
+    public HierarchyIndex(Graph graph) {
+        Preconditions.checkArgument(graph instanceof IndexableGraph,
+                "Hierarchy index requires an indexable graph: %s", graph);
+        this.graph = (IndexableGraph) graph;
+    }
+
+    /**
+     * Determine whether a vertex's type belongs to a maintained hierarchy.
+     *
+     * @param vertex A vertex
+     * @return Whether its ancestors are stored
+     */
+    public static boolean isHierarchical(Vertex vertex) {
+        return parentLabels.containsKey(vertex.<String>getProperty(EntityType.TYPE_KEY));
+    }
+
+    /**
+     * Get the IDs of an item's ancestors, nearest first.
+     *
+     * @param vertex The item's vertex
+     * @return A list of ancestor IDs
+     */
+    public List<String> getAncestorIds(Vertex vertex) {
+        return vertex.getProperty(ANCESTORS_KEY) != null
+                ? getStored(vertex)
+                : computeAncestorIds(vertex, false, Sets.<Vertex>newHashSet());
+    }
+
+    /**
+     * Get an item's ancestors, nearest first.
+     *
+     * @param vertex The item's vertex
+     * @return A list of ancestor vertices
+     */
+    public List<Vertex> getAncestors(Vertex vertex) {
+        List<Vertex> ancestors = Lists.newArrayList();
+        for (String id : getAncestorIds(vertex)) {
+            Vertex ancestor = getVertex(id);
+            if (ancestor != null) {
+                ancestors.add(ancestor);
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * Get an item's furthest ancestor, which for a documentary
+     * unit is normally its repository.
+     *
+     * @param vertex The item's vertex
+     * @return The last ancestor vertex, or null if there is none
+     */
+    public Vertex getRoot(Vertex vertex) {
+        List<String> ids = getAncestorIds(vertex);
+        return ids.isEmpty() ? null : getVertex(ids.get(ids.size() - 1));
+    }
+
+    /**
+     * Determine whether the closure has been stored for every item,
+     * so that descendants can be found via the index.
+     *
+     * @return Whether the closure has been built
+     */
+    public boolean isBuilt() {
+        Vertex system = getVertex(ActionManager.GLOBAL_EVENT_ROOT);
+        return system != null && Boolean.TRUE.equals(system.getProperty(BUILT_KEY));
+    }
+
+    /**
+     * Get all of an item's descendants, to any depth. The item need
+     * not itself be hierarchical, i.e. this will find all the units
+     * held by a repository.
+     *
+     * @param vertex The item's vertex
+     * @return A list of descendant vertices, in no particular order
+     */
+    public List<Vertex> getDescendants(Vertex vertex) {
+        if (!isBuilt()) {
+            return findDescendants(vertex);
+        }
+        CloseableIterable<Vertex> hits = getIndex()
+                .get(ANCESTORS_KEY, vertex.getProperty(EntityType.ID_KEY));
+        try {
+            return Lists.newArrayList(hits.iterator());
+        } finally {
+            hits.close();
+        }
+    }
+
+    /**
+     * Update the stored ancestors of an item, and all of its
+     * descendants, after its parents have changed.
+     *
+     * @param vertex The item's vertex
+     */
+    public void update(Vertex vertex) {
+        List<Vertex> descendants = getDescendants(vertex);
+        store(vertex, computeAncestorIds(vertex, true, Sets.<Vertex>newHashSet()), false);
+        refresh(descendants);
+    }
+
+    /**
+     * Update the stored ancestors of the given items from those
+     * of their parents. Parents must be updated before their
+     * children, which is the case if the items are ordered by the
+     * number of ancestors they had before the change, as they are
+     * here.
+     *
+     * @param vertices A collection of item vertices
+     */
+    public void refresh(Iterable<Vertex> vertices) {
+        List<Vertex> sorted = Lists.newArrayList(vertices);
+        Collections.sort(sorted, new Comparator<Vertex>() {
+            @Override
+            public int compare(Vertex a, Vertex b) {
+                return getStored(a).size() - getStored(b).size();
+            }
+        });
+        for (Vertex vertex : sorted) {
+            store(vertex, computeAncestorIds(vertex, true, Sets.<Vertex>newHashSet()), false);
+        }
+    }
+
+    /**
+     * Remove an item's stored ancestors prior to its deletion,
+     * returning its descendants, which should be refreshed once
+     * it has been removed.
+     *
+     * @param vertex The item's vertex
+     * @return The item's descendants
+     */
+    public List<Vertex> remove(Vertex vertex) {
+        List<Vertex> descendants = getDescendants(vertex);
+        Index<Vertex> index = getIndex();
+        for (String id : getStored(vertex)) {
+            index.remove(ANCESTORS_KEY, id, vertex);
+        }
+        vertex.removeProperty(ANCESTORS_KEY);
+        return descendants;
+    }
+
+    /**
+     * Recompute the ancestors of every hierarchical item by
+     * traversal, ignoring anything that has been stored, and
+     * re-add them to the index, marking the closure as built.
+     *
+     * @return The number of items whose stored ancestors were
+     *         missing or wrong
+     */
+    public long rebuild() {
+        long changed = 0;
+        Index<Vertex> index = getIndex();
+        for (String type : parentLabels.keySet()) {
+            CloseableIterable<Vertex> vertices = index.get(EntityType.TYPE_KEY, type);
+            try {
+                for (Vertex vertex : vertices) {
+                    if (store(vertex, computeAncestorIds(vertex, false,
+                            Sets.<Vertex>newHashSet()), true)) {
+                        changed++;
+                    }
+                }
+            } finally {
+                vertices.close();
+            }
+        }
+        markBuilt(graph);
+        return changed;
+    }
+
+    /**
+     * Mark the closure as built, which must only be done once
+     * it has been stored for every item.
+     *
+     * @param graph The graph, which must have been initialised
+     */
+    public static void markBuilt(Graph graph) {
+        Vertex system = new HierarchyIndex(graph).getVertex(ActionManager.GLOBAL_EVENT_ROOT);
+        if (system != null) {
+            system.setProperty(BUILT_KEY, true);
+        }
+    }
+
+    // Find an item's descendants by traversal, for when the
+    // closure has not been built.
+    private List<Vertex> findDescendants(Vertex vertex) {
+        Set<Vertex> found = Sets.newLinkedHashSet();
+        LinkedList<Vertex> queue = Lists.newLinkedList();
+        queue.add(vertex);
+        while (!queue.isEmpty()) {
+            for (Edge edge : queue.remove().getEdges(Direction.IN, allParentLabels)) {
+                Vertex child = edge.getVertex(Direction.OUT);
+                List<String> labels = parentLabels.get(child.<String>getProperty(EntityType.TYPE_KEY));
+                if (labels != null && labels.contains(edge.getLabel())
+                        && !child.equals(vertex) && found.add(child)) {
+                    queue.add(child);
+                }
+            }
+        }
+        return Lists.newArrayList(found);
+    }
+
+    private List<String> computeAncestorIds(Vertex vertex, boolean useStored, Set<Vertex> seen) {
+        Set<String> ids = Sets.newLinkedHashSet();
+        List<String> labels = parentLabels.get(vertex.<String>getProperty(EntityType.TYPE_KEY));
+        if (labels != null && seen.add(vertex)) {
+            for (String label : labels) {
+                for (Vertex parent : vertex.getVertices(Direction.OUT, label)) {
+                    ids.add(parent.<String>getProperty(EntityType.ID_KEY));
+                    ids.addAll(useStored
+                            ? getAncestorIds(parent)
+                            : computeAncestorIds(parent, false, seen));
+                }
+            }
+        }
+        return Lists.newArrayList(ids);
+    }
+
+    private boolean store(Vertex vertex, List<String> ids, boolean reindex) {
+        List<String> current = getStored(vertex);
+        boolean changed = !current.equals(ids);
+        if (!(changed || reindex)) {
+            return false;
+        }
+        Index<Vertex> index = getIndex();
+        for (String id : current) {
+            index.remove(ANCESTORS_KEY, id, vertex);
+        }
+        vertex.setProperty(ANCESTORS_KEY, ids.toArray(new String[ids.size()]));
+        for (String id : ids) {
+            index.put(ANCESTORS_KEY, id, vertex);
+        }
+        return changed;
+    }
+
+    private static List<String> getStored(Vertex vertex) {
+        // NB: Depending on the graph implementation array
+        // properties may be read back as lists.
+        Object stored = vertex.getProperty(ANCESTORS_KEY);
+        if (stored instanceof String[]) {
+            return Arrays.asList((String[]) stored);
+        } else if (stored instanceof List) {
+            List<String> ids = Lists.newArrayList();
+            for (Object id : (List<?>) stored) {
+                ids.add(String.valueOf(id));
+            }
+            return ids;
+        }
+        return Collections.emptyList();
+    }
+
+    private Vertex getVertex(String id) {
+        CloseableIterable<Vertex> query = getIndex().get(EntityType.ID_KEY, id);
+        try {
+            Iterator<Vertex> iterator = query.iterator();
+            return iterator.hasNext() ? iterator.next() : null;
+        } finally {
+            query.close();
+        }
+    }
+
+    private Index<Vertex> getIndex() {
+        Index<Vertex> index = graph.getIndex(INDEX_NAME, Vertex.class);
+        if (index == null) {
+            index = graph.createIndex(INDEX_NAME, Vertex.class);
+        }
+        return index;
+    }
+}
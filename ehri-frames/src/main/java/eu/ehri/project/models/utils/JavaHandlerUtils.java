@@ -13,6 +13,9 @@ import org.slf4j.LoggerFactory;
 /**
  * Utilities for dealing with Gremlin pipelines and common
  * graph-manipulation functions.
+ * <p/>
+ * Relationships added and removed via these functions keep
+ * the {@link EdgeCounter}s of the vertices involved up-to-date.
  *
  * @author Mike Bryant (http://github.com/mikesname)
  */
@@ -82,12 +85,12 @@ public final class JavaHandlerUtils {
                     logger.warn("Attempting to add relationship '{}' that already exists: {}", label, to);
                     return false;
                 } else {
-                    edge.remove();
+                    EdgeCounter.removeEdge(edge);
                     logger.warn("Removed prior '{}' relationship added in single mode: {}",
                             label, from);
                 }
             }
-            from.addEdge(label, to);
+            EdgeCounter.edgeAdded(from.addEdge(label, to));
             return true;
         } else {
             logger.warn("Attempt to add self-referential '{}' relationship " +
@@ -111,7 +114,7 @@ public final class JavaHandlerUtils {
                 return false;
             }
         }
-        from.addEdge(label, to);
+        EdgeCounter.edgeAdded(from.addEdge(label, to));
         return true;
     }
 
@@ -145,7 +148,7 @@ public final class JavaHandlerUtils {
         int removed = 0;
         for (Edge edge : from.getEdges(Direction.OUT, labels)) {
             if (edge.getVertex(Direction.IN).equals(to)) {
-                edge.remove();
+                EdgeCounter.removeEdge(edge);
                 removed++;
             }
         }
@@ -0,0 +1,199 @@
+package eu.ehri.project.models.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.neo4j.Neo4jGraph;
+import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.utils.TxCheckedNeo4jGraph;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.transaction.SystemException;
+import javax.transaction.TransactionManager;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A transaction-scoped memo of permission scope chains, i.e. the
+ * scope of an item, the scope of that scope, and so on, and of the
+ * identifier paths of scopes.
+ * <p/>
+ * Scope chains are needed when generating IDs, creating items
+ * within a scope, and checking scoped permissions, which during
+ * an import happens for every item, typically with the same scope.
+ * <p/>
+ * Memos are held per transaction, and only within one, so nothing
+ * computed within a transaction that is rolled back outlives it, and
+ * readers outside a transaction always see committed changes. They are
+ * also discarded whenever scope relationships or identifiers change,
+ * which the model classes and the graph manager signal via
+ * {@link #invalidate(Graph, Vertex)}, and again once the changes have
+ * been committed, since until then other transactions can still read,
+ * and memoize, the prior state.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class ScopeChainCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScopeChainCache.class);
+
+    private static final AtomicLong generation = new AtomicLong();
+
+    // Memos, and transactions whose changes must invalidate
+    // all memos once committed, keyed by transaction.
+    private static final Cache<Object, Memo> memos = CacheBuilder.newBuilder()
+            .weakKeys().build();
+    private static final Cache<Object, Boolean> changed = CacheBuilder.newBuilder()
+            .weakKeys().build();
+
+    private ScopeChainCache() {
+    }
+
+    /**
+     * Signal that scope relationships or the identifiers of scopes
+     * have changed, invalidating all memos.
+     */
+    public static void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Signal that the scope or identifier of an item has changed. If
+     * the item is not itself the scope of other items only its own
+     * memoized chain is discarded, so that setting the scope of new
+     * items, e.g. during an import, does not invalidate the chains of
+     * the scopes they are being added to. Once the graph's current
+     * transaction commits all memos are invalidated.
+     *
+     * @param graph  The graph in which the item has changed
+     * @param vertex The item's vertex
+     */
+    public static void invalidate(Graph graph, Vertex vertex) {
+        if (vertex.getEdges(Direction.IN, Ontology.HAS_PERMISSION_SCOPE).iterator().hasNext()) {
+            invalidate();
+        } else {
+            for (Memo memo : memos.asMap().values()) {
+                memo.scopes.remove(vertex.getId());
+                memo.idPaths.remove(vertex.getId());
+            }
+        }
+        if (graph instanceof TxCheckedNeo4jGraph) {
+            Object transaction = getTransaction(graph);
+            if (transaction != null
+                    && changed.asMap().putIfAbsent(transaction, Boolean.TRUE) == null) {
+                ((TxCheckedNeo4jGraph) graph).afterCommit(new Runnable() {
+                    @Override
+                    public void run() {
+                        invalidate();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Get the chain of scopes for an item, nearest first.
+     *
+     * @param graph  The framed graph
+     * @param vertex The item's vertex
+     * @return A list of scope vertices
+     */
+    public static List<Vertex> getScopes(FramedGraph<?> graph, Vertex vertex) {
+        return getScopes(getMemo(graph.getBaseGraph()), vertex, Sets.<Object>newHashSet());
+    }
+
+    /**
+     * Get the identifiers of a scope's chain of scopes, furthest
+     * first, followed by that of the scope itself.
+     *
+     * @param graph The framed graph
+     * @param scope The scope's vertex
+     * @return A list of identifiers
+     */
+    public static List<String> getIdPath(FramedGraph<?> graph, Vertex scope) {
+        Memo memo = getMemo(graph.getBaseGraph());
+        List<String> path = memo.idPaths.get(scope.getId());
+        if (path == null) {
+            List<String> ids = Lists.newArrayList();
+            for (Vertex parent : Lists.reverse(getScopes(memo, scope, Sets.<Object>newHashSet()))) {
+                ids.add(parent.<String>getProperty(Ontology.IDENTIFIER_KEY));
+            }
+            ids.add(scope.<String>getProperty(Ontology.IDENTIFIER_KEY));
+            path = ImmutableList.copyOf(ids);
+            memo.idPaths.put(scope.getId(), path);
+        }
+        return path;
+    }
+
+    private static List<Vertex> getScopes(Memo memo, Vertex vertex, Set<Object> seen) {
+        List<Vertex> scopes = memo.scopes.get(vertex.getId());
+        if (scopes == null) {
+            ImmutableList.Builder<Vertex> builder = ImmutableList.builder();
+            if (seen.add(vertex.getId())) {
+                for (Vertex parent : vertex.getVertices(Direction.OUT, Ontology.HAS_PERMISSION_SCOPE)) {
+                    builder.add(parent).addAll(getScopes(memo, parent, seen));
+                }
+            } else {
+                logger.warn("Loop in permission scopes at: {}", vertex);
+            }
+            scopes = builder.build();
+            memo.scopes.put(vertex.getId(), scopes);
+        }
+        return scopes;
+    }
+
+    // Get the memo for the graph's current transaction. Outside
+    // a transaction a new memo is used for each call.
+    private static Memo getMemo(Graph graph) {
+        Object transaction = getTransaction(graph);
+        long current = generation.get();
+        if (transaction == null) {
+            return new Memo(current);
+        }
+        Memo memo = memos.getIfPresent(transaction);
+        if (memo == null || memo.generation != current) {
+            memo = new Memo(current);
+            memos.put(transaction, memo);
+        }
+        return memo;
+    }
+
+    private static Object getTransaction(Graph graph) {
+        if (graph instanceof Neo4jGraph) {
+            GraphDatabaseService rawGraph = ((Neo4jGraph) graph).getRawGraph();
+            if (rawGraph instanceof GraphDatabaseAPI) {
+                try {
+                    return ((GraphDatabaseAPI) rawGraph).getDependencyResolver()
+                            .resolveDependency(TransactionManager.class).getTransaction();
+                } catch (SystemException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return null;
+    }
+
+    // NB: Memos must not refer to their transaction, which
+    // would stop it from being collected.
+    private static final class Memo {
+        private final long generation;
+        private final ConcurrentMap<Object, List<Vertex>> scopes = Maps.newConcurrentMap();
+        private final ConcurrentMap<Object, List<String>> idPaths = Maps.newConcurrentMap();
+
+        private Memo(long generation) {
+            this.generation = generation;
+        }
+    }
+}
@@ -2,10 +2,14 @@ package eu.ehri.project.persistence;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Graph;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.WrappingCloseableIterable;
 import com.tinkerpop.frames.FramedGraph;
+import com.tinkerpop.gremlin.java.GremlinPipeline;
 import eu.ehri.project.acl.SystemScope;
 import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.core.GraphManagerFactory;
@@ -22,9 +26,14 @@ import eu.ehri.project.models.base.ItemHolder;
 import eu.ehri.project.models.events.SystemEvent;
 import eu.ehri.project.models.events.SystemEventQueue;
 import eu.ehri.project.models.events.Version;
+import eu.ehri.project.models.utils.JavaHandlerUtils;
+import eu.ehri.project.persistence.utils.JsonPatch;
+import eu.ehri.project.utils.GraphLocks;
+import eu.ehri.project.utils.TxCheckedNeo4jGraph;
 import org.joda.time.DateTime;
 import org.joda.time.format.ISODateTimeFormat;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -58,6 +67,14 @@ import java.util.Set;
  * e1--[hasActioner]-<-- Event 1 ---[hasEvent]--<--e1
  * </code>
  * </pre>
+ * <p/>
+ * Each event is also linked directly to its actioner and subjects, and
+ * appended to the {@link EventLog}, from which the events of a user or
+ * an item can be read without walking the chains. Since the chains'
+ * heads are a point of contention for concurrent writers, once the log
+ * is built events are no longer linked into the chains unless the
+ * {@value #EVENT_CHAINS_PROPERTY} system property is set, e.g. to keep
+ * them complete while the log is being tried out.
  *
  * @author Mike Bryant (http://github.com/mikesname)
  */
@@ -71,21 +88,59 @@ public final class ActionManager {
     public static final String LINK_TYPE = "_linkType";
     public static final String SUBJECT_COUNT = "_childCount";
 
+    // System property giving the default version snapshot interval.
+    public static final String VERSION_SNAPSHOT_INTERVAL_PROPERTY = "ehri.versionSnapshotInterval";
+
+    // System property which, if true, keeps events linked into the
+    // event chains once the event log is built.
+    public static final String EVENT_CHAINS_PROPERTY = "ehri.eventChains";
+
     private final FramedGraph<?> graph;
     private final GraphManager manager;
     private final Frame scope;
     private final Serializer versionSerializer;
+    private final EventLog eventLog;
+    // If greater than one, the number of versions in an item's history
+    // between full snapshots, the others being stored as patches.
+    private final int versionSnapshotInterval;
 
     /**
-     * Constructor with scope.
+     * Constructor with scope and version snapshot interval. With
+     * an interval of n, each nth version of an item is a full
+     * snapshot of its data and the others are stored as JSON
+     * patches against the version prior to them, which is a good
+     * deal smaller for items that are edited often. Versions are
+     * reconstructed on access, at the cost of applying up to n - 1
+     * patches. An interval of 1 stores every version in full.
      *
-     * @param graph The framed graph
+     * @param graph                   The framed graph
+     * @param scope                   The current permission scope
+     * @param versionSnapshotInterval The version snapshot interval
      */
-    public ActionManager(final FramedGraph<?> graph, final Frame scope) {
+    public ActionManager(final FramedGraph<?> graph, final Frame scope,
+            int versionSnapshotInterval) {
+        if (versionSnapshotInterval < 1) {
+            throw new IllegalArgumentException(
+                    "Snapshot interval must be at least 1: " + versionSnapshotInterval);
+        }
         this.graph = graph;
         this.manager = GraphManagerFactory.getInstance(graph);
         this.scope = Optional.fromNullable(scope).or(SystemScope.getInstance());
         this.versionSerializer = new Serializer.Builder(graph).dependentOnly().build();
+        this.eventLog = new EventLog(graph);
+        this.versionSnapshotInterval = versionSnapshotInterval;
+    }
+
+    /**
+     * Constructor with scope. The version snapshot interval is given
+     * by the {@value #VERSION_SNAPSHOT_INTERVAL_PROPERTY} system
+     * property, if set, and is otherwise 1.
+     *
+     * @param graph The framed graph
+     * @param scope The current permission scope
+     */
+    public ActionManager(final FramedGraph<?> graph, final Frame scope) {
+        this(graph, scope, Integer.getInteger(VERSION_SNAPSHOT_INTERVAL_PROPERTY, 1));
     }
 
     /**
@@ -97,6 +152,25 @@ public final class ActionManager {
         this(graph, SystemScope.getInstance());
     }
 
+    /**
+     * Get how often versions of an item are stored as full snapshots.
+     *
+     * @return The snapshot interval
+     */
+    public int getVersionSnapshotInterval() {
+        return versionSnapshotInterval;
+    }
+
+    /**
+     * Set how often versions of an item are stored as full snapshots.
+     *
+     * @param interval The snapshot interval
+     * @return A new ActionManager instance
+     */
+    public ActionManager withVersionSnapshotInterval(int interval) {
+        return new ActionManager(graph, scope, interval);
+    }
+
     /**
      * EventContext is a handle to a particular action to which additional
      * subjects can be added.
@@ -110,6 +184,7 @@ public final class ActionManager {
         private final EventTypes actionType;
         private final Optional<String> logMessage;
         private final Set<Frame> subjects;
+        private final boolean chained;
 
         /**
          * Create a new event context.
@@ -128,6 +203,7 @@ public final class ActionManager {
             this.actioner = actioner;
             this.logMessage = logMessage;
             this.subjects = Sets.newHashSet();
+            this.chained = actionManager.linksChains();
         }
 
         public SystemEvent getSystemEvent() {
@@ -178,11 +254,14 @@ public final class ActionManager {
          */
         public EventContext createVersion(Frame frame, Bundle bundle) {
             try {
-                Bundle version = Bundle.Builder.withClass(EntityClass.VERSION)
+                String data = bundle.toJson();
+                Bundle.Builder builder = Bundle.Builder.withClass(EntityClass.VERSION)
                         .addDataValue(Ontology.VERSION_ENTITY_ID, frame.getId())
-                        .addDataValue(Ontology.VERSION_ENTITY_CLASS, frame.getType())
-                        .addDataValue(Ontology.VERSION_ENTITY_DATA, bundle.toJson())
-                        .build();
+                        .addDataValue(Ontology.VERSION_ENTITY_CLASS, frame.getType());
+                String patch = actionManager.getVersionPatch(frame, data);
+                Bundle version = patch != null
+                        ? builder.addDataValue(Ontology.VERSION_ENTITY_PATCH, patch).build()
+                        : builder.addDataValue(Ontology.VERSION_ENTITY_DATA, data).build();
                 Version ev = new BundleDAO(actionManager.graph)
                         .create(version, Version.class);
                 actionManager.replaceAtHead(frame.asVertex(), ev.asVertex(),
@@ -206,13 +285,24 @@ public final class ActionManager {
         public EventContext addSubjects(AccessibleEntity... entities) {
             for (AccessibleEntity entity : entities) {
                 if (!subjects.contains(entity)) {
-                    Vertex vertex = actionManager.getLinkNode(
-                            Ontology.ENTITY_HAS_LIFECYCLE_EVENT);
-                    actionManager.replaceAtHead(entity.asVertex(), vertex,
-                            Ontology.ENTITY_HAS_LIFECYCLE_EVENT,
-                            Ontology.ENTITY_HAS_LIFECYCLE_EVENT, Direction.OUT);
-                    actionManager.addSubjectAndIncrementCount(systemEvent.asVertex(), vertex);
+                    if (chained) {
+                        Vertex vertex = actionManager.getLinkNode(
+                                Ontology.ENTITY_HAS_LIFECYCLE_EVENT);
+                        actionManager.replaceAtHead(entity.asVertex(), vertex,
+                                Ontology.ENTITY_HAS_LIFECYCLE_EVENT,
+                                Ontology.ENTITY_HAS_LIFECYCLE_EVENT, Direction.OUT);
+                        actionManager.addEventLink(systemEvent.asVertex(), vertex);
+                    }
+                    actionManager.addSubjectAndIncrementCount(systemEvent.asVertex(),
+                            entity.asVertex());
+                    actionManager.eventLog.addSubject(systemEvent, entity);
                     subjects.add(entity);
+                    // Changes made without a bundle, such as to access
+                    // controls or promotions, are logged here, so make
+                    // sure they're not masked by cached copies.
+                    BundleCache.getInstance().invalidateOnCommit(
+                            actionManager.graph.getBaseGraph(),
+                            Collections.singleton(entity.getId()));
                 }
             }
             return this;
@@ -229,11 +319,15 @@ public final class ActionManager {
     }
 
     /**
-     * Get the latest global event.
+     * Get the latest global event, from the event log if it is built,
+     * or otherwise the global event chain.
      *
      * @return The latest event node
      */
     public SystemEvent getLatestGlobalEvent() {
+        if (eventLog.isBuilt()) {
+            return EventLog.readFirst(eventLog.getEvents());
+        }
         try {
             SystemEventQueue sys = manager.getFrame(GLOBAL_EVENT_ROOT, EntityClass.SYSTEM, SystemEventQueue.class);
             Iterable<SystemEvent> latest = sys.getSystemEvents();
@@ -245,11 +339,25 @@ public final class ActionManager {
     }
 
     /**
-     * Get an iterable of global events in most-recent-first order.
+     * Get an iterable of global events in most-recent-first order,
+     * from the event log if it is built, or otherwise the global
+     * event chain.
      *
      * @return A iterable of event nodes
      */
-    public Iterable<SystemEvent> getLatestGlobalEvents() {
+    public CloseableIterable<SystemEvent> getLatestGlobalEvents() {
+        return eventLog.isBuilt()
+                ? eventLog.getEvents()
+                : new WrappingCloseableIterable<SystemEvent>(getGlobalEventChain());
+    }
+
+    /**
+     * Get an iterable of the events linked into the global event
+     * chain, in most-recent-first order.
+     *
+     * @return A iterable of event nodes
+     */
+    public Iterable<SystemEvent> getGlobalEventChain() {
         try {
             SystemEventQueue queue = manager.getFrame(
                     GLOBAL_EVENT_ROOT, EntityClass.SYSTEM, SystemEventQueue.class);
@@ -259,28 +367,77 @@ public final class ActionManager {
         }
     }
 
+    /**
+     * Get an iterable of the events linked into an actioner's
+     * chain of actions, in most-recent-first order.
+     *
+     * @param actioner The actioner
+     * @return A iterable of event nodes
+     */
+    public Iterable<SystemEvent> getActionChain(Actioner actioner) {
+        return getChain(actioner.asVertex(), Ontology.ACTIONER_HAS_LIFECYCLE_ACTION);
+    }
+
+    /**
+     * Get an iterable of the events linked into an item's chain
+     * of lifecycle events, in most-recent-first order.
+     *
+     * @param subject The item
+     * @return A iterable of event nodes
+     */
+    public Iterable<SystemEvent> getEventChain(AccessibleEntity subject) {
+        return getChain(subject.asVertex(), Ontology.ENTITY_HAS_LIFECYCLE_EVENT);
+    }
+
     /**
      * Create a global event and insert it at the head of the system queue. The
      * relationship from the <em>system</em> node to the new latest action is
      * <em>type</em><strong>Stream</strong>.
+     * <p/>
+     * On a {@link TxCheckedNeo4jGraph} that does not lock the system queue
+     * for the whole transaction the event is only inserted just before the
+     * transaction commits, so the queue is locked for as short a time as
+     * possible. If the event chains are not maintained it is not inserted
+     * at all. The event is also appended to the {@link EventLog}.
      *
      * @param type       The event type
      * @param logMessage An optional log message
+     * @param chained    Whether to insert the event into the queue
      * @return A new SystemEvent node
      */
-    private SystemEvent createGlobalEvent(EventTypes type, Optional<String> logMessage) {
+    private SystemEvent createGlobalEvent(EventTypes type, Optional<String> logMessage,
+            boolean chained) {
         try {
-            Vertex system = manager.getVertex(GLOBAL_EVENT_ROOT, EntityClass.SYSTEM);
+            final Vertex system = manager.getVertex(GLOBAL_EVENT_ROOT, EntityClass.SYSTEM);
+            DateTime now = DateTime.now();
             Bundle ge = Bundle.Builder.withClass(EntityClass.SYSTEM_EVENT)
                     .addDataValue(Ontology.EVENT_TYPE, type.toString())
-                    .addDataValue(Ontology.EVENT_TIMESTAMP, getTimestamp())
+                    .addDataValue(Ontology.EVENT_TIMESTAMP, ISODateTimeFormat.dateTime().print(now))
+                    .addDataValue(Ontology.EVENT_TIMESTAMP_MILLIS, now.getMillis())
+                    .addDataValue(Ontology.EVENT_SEQUENCE, eventLog.nextSequence())
                     .addDataValue(Ontology.EVENT_LOG_MESSAGE, logMessage.or(""))
                     .build();
-            SystemEvent ev = new BundleDAO(graph).create(ge, SystemEvent.class);
+            final SystemEvent ev = new BundleDAO(graph).create(ge, SystemEvent.class);
+            eventLog.append(ev);
             if (!scope.equals(SystemScope.getInstance())) {
                 ev.setEventScope(scope);
             }
-            replaceAtHead(system, ev.asVertex(), Ontology.ACTIONER_HAS_LIFECYCLE_ACTION + "Stream", Ontology.ACTIONER_HAS_LIFECYCLE_ACTION, Direction.OUT);
+            Graph baseGraph = graph.getBaseGraph();
+            if (!chained) {
+                return ev;
+            } else if (baseGraph instanceof TxCheckedNeo4jGraph
+                    && !((TxCheckedNeo4jGraph) baseGraph).hasGlobalEventLock()) {
+                ((TxCheckedNeo4jGraph) baseGraph).beforeCommit(new Runnable() {
+                    @Override
+                    public void run() {
+                        replaceAtHead(system, ev.asVertex(), Ontology.ACTIONER_HAS_LIFECYCLE_ACTION + "Stream",
+                                Ontology.ACTIONER_HAS_LIFECYCLE_ACTION, Direction.OUT);
+                    }
+                });
+            } else {
+                replaceAtHead(system, ev.asVertex(), Ontology.ACTIONER_HAS_LIFECYCLE_ACTION + "Stream",
+                        Ontology.ACTIONER_HAS_LIFECYCLE_ACTION, Direction.OUT);
+            }
             return ev;
         } catch (ItemNotFound e) {
             e.printStackTrace();
@@ -325,12 +482,20 @@ public final class ActionManager {
      * @return An EventContext object
      */
     public EventContext logEvent(Actioner user, EventTypes type, Optional<String> logMessage) {
-        Vertex vertex = getLinkNode(Ontology.ACTIONER_HAS_LIFECYCLE_ACTION);
-        replaceAtHead(user.asVertex(), vertex,
-                Ontology.ACTIONER_HAS_LIFECYCLE_ACTION,
-                Ontology.ACTIONER_HAS_LIFECYCLE_ACTION, Direction.OUT);
-        SystemEvent globalEvent = createGlobalEvent(type, logMessage);
-        addActionerLink(globalEvent.asVertex(), vertex);
+        boolean chained = linksChains();
+        Vertex vertex = null;
+        if (chained) {
+            vertex = getLinkNode(Ontology.ACTIONER_HAS_LIFECYCLE_ACTION);
+            replaceAtHead(user.asVertex(), vertex,
+                    Ontology.ACTIONER_HAS_LIFECYCLE_ACTION,
+                    Ontology.ACTIONER_HAS_LIFECYCLE_ACTION, Direction.OUT);
+        }
+        SystemEvent globalEvent = createGlobalEvent(type, logMessage, chained);
+        if (chained) {
+            addEventLink(globalEvent.asVertex(), vertex);
+        }
+        graph.addEdge(null, globalEvent.asVertex(), user.asVertex(), Ontology.EVENT_HAS_ACTIONER);
+        eventLog.addActioner(globalEvent, user);
         return new EventContext(this, globalEvent, user, type, logMessage);
     }
 
@@ -385,12 +550,28 @@ public final class ActionManager {
      */
     public ActionManager setScope(Frame frame) {
         return new ActionManager(graph,
-                Optional.fromNullable(frame).or(SystemScope.getInstance()));
+                Optional.fromNullable(frame).or(SystemScope.getInstance()),
+                versionSnapshotInterval);
     }
 
 
     // Helpers.
 
+    /**
+     * Determine whether new events should be linked into the event
+     * chains, which is so until the event log is built, or if the
+     * {@value #EVENT_CHAINS_PROPERTY} system property is set.
+     */
+    private boolean linksChains() {
+        return Boolean.getBoolean(EVENT_CHAINS_PROPERTY) || !eventLog.isBuilt();
+    }
+
+    private Iterable<SystemEvent> getChain(Vertex head, String relation) {
+        return graph.frameVertices(new GremlinPipeline<Vertex, Vertex>(head).as("n").out(relation)
+                .loop("n", JavaHandlerUtils.noopLoopFunc, JavaHandlerUtils.noopLoopFunc)
+                .out(Ontology.ENTITY_HAS_EVENT), SystemEvent.class);
+    }
+
     /**
      * Create a link vertex. This we stamp with a descriptive
      * type purely for debugging purposes.
@@ -403,14 +584,14 @@ public final class ActionManager {
     }
 
     /**
-     * Add a subjectLinkNode node to an event and increment the subjectLinkNode count cache.
+     * Add a subject to an event and increment the subject count cache.
      *
-     * @param event           The event node
-     * @param subjectLinkNode The subjectLinkNode node
+     * @param event   The event node
+     * @param subject The subject node
      */
-    private void addSubjectAndIncrementCount(Vertex event, Vertex subjectLinkNode) {
+    private void addSubjectAndIncrementCount(Vertex event, Vertex subject) {
         Long count = event.getProperty(SUBJECT_COUNT);
-        graph.addEdge(null, subjectLinkNode, event, Ontology.ENTITY_HAS_EVENT);
+        graph.addEdge(null, event, subject, Ontology.EVENT_HAS_SUBJECT);
         if (count == null) {
             event.setProperty(SUBJECT_COUNT, 1L);
         } else {
@@ -418,8 +599,43 @@ public final class ActionManager {
         }
     }
 
-    private void addActionerLink(Vertex event, Vertex actionerLinkNode) {
-        graph.addEdge(null, actionerLinkNode, event, Ontology.ENTITY_HAS_EVENT);
+    private void addEventLink(Vertex event, Vertex linkNode) {
+        graph.addEdge(null, linkNode, event, Ontology.ENTITY_HAS_EVENT);
+    }
+
+    /**
+     * Get a patch from the data of an item's latest version to its
+     * new version's data, or null if the new version should be stored
+     * as a full snapshot, either because it is due one, or because the
+     * patch would be no smaller.
+     *
+     * @param frame The versioned item
+     * @param data  The new version's data
+     * @return A JSON patch, or null
+     */
+    private String getVersionPatch(Frame frame, String data) {
+        if (versionSnapshotInterval < 2) {
+            return null;
+        }
+        // NB: The item must be locked before its latest version is read,
+        // or a concurrent version could be inserted between the two.
+        GraphLocks.writeLock(frame.asVertex());
+        Iterator<Vertex> latest = frame.asVertex().getVertices(Direction.OUT,
+                Ontology.ENTITY_HAS_PRIOR_VERSION).iterator();
+        if (!latest.hasNext()) {
+            return null;
+        }
+        Version prior = graph.frame(latest.next(), Version.class);
+        int patches = 1;
+        for (Version version = prior; version != null && version.getEntityPatch() != null;
+                version = version.getPriorVersion()) {
+            patches++;
+        }
+        if (patches >= versionSnapshotInterval) {
+            return null;
+        }
+        String patch = JsonPatch.diff(prior.getEntityData(), data);
+        return patch.length() < data.length() ? patch : null;
     }
 
     /**
@@ -434,6 +650,9 @@ public final class ActionManager {
      */
     private void replaceAtHead(Vertex head, Vertex newHead, String headRelation,
                                String relation, Direction direction) {
+        // NB: The head must be locked before its current chain is read,
+        // or concurrent transactions could both insert after the same item.
+        GraphLocks.writeLock(head);
         Iterator<Vertex> iter = head.getVertices(direction, headRelation).iterator();
         if (iter.hasNext()) {
             Vertex current = iter.next();
@@ -1,5 +1,6 @@
 package eu.ehri.project.persistence;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
@@ -7,6 +8,8 @@ import com.google.common.collect.LinkedHashMultiset;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.tinkerpop.blueprints.Direction;
 import eu.ehri.project.exceptions.DeserializationError;
 import eu.ehri.project.exceptions.SerializationError;
@@ -16,6 +19,7 @@ import eu.ehri.project.models.utils.ClassUtils;
 import org.w3c.dom.Document;
 
 import java.io.InputStream;
+import java.lang.reflect.Array;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -631,6 +635,22 @@ public final class Bundle {
         return new Bundle(newId, type, data, idRels, meta, isTemp);
     }
 
+    /**
+     * Get a hash of the bundle's type and data, excluding managed
+     * and null values, as a hex string. This does not depend on the
+     * order of data keys, and values are compared by their string
+     * representation, so e.g. integer and long numbers of the same
+     * value hash alike.
+     *
+     * @return A hash string
+     */
+    public String getDataHash() {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hashValue(hasher, type.getName());
+        hashValue(hasher, unmanagedData(data));
+        return hasher.hash().toString();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -666,6 +686,39 @@ public final class Bundle {
         return ImmutableMap.copyOf(filtered);
     }
 
+    /**
+     * Add a data value to a hash, prefixing each part with its kind
+     * and size so that differently structured values cannot collide.
+     */
+    private static void hashValue(Hasher hasher, Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> sorted = Maps.newTreeMap();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+            hasher.putChar('m').putInt(sorted.size());
+            for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+                hashValue(hasher, entry.getKey());
+                hashValue(hasher, entry.getValue());
+            }
+        } else if (value instanceof Iterable) {
+            List<?> items = Lists.newArrayList((Iterable<?>) value);
+            hasher.putChar('l').putInt(items.size());
+            for (Object item : items) {
+                hashValue(hasher, item);
+            }
+        } else if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            hasher.putChar('l').putInt(length);
+            for (int i = 0; i < length; i++) {
+                hashValue(hasher, Array.get(value, i));
+            }
+        } else {
+            String str = String.valueOf(value);
+            hasher.putChar('s').putInt(str.length()).putString(str, Charsets.UTF_8);
+        }
+    }
+
     /**
      * Return a set of data with 'managed' items (prefixed by a particular
      * key) removed.
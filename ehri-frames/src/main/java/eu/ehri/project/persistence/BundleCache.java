@@ -0,0 +1,390 @@
+package eu.ehri.project.persistence;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.collect.SetMultimap;
+import com.tinkerpop.blueprints.Graph;
+import eu.ehri.project.utils.TxCheckedNeo4jGraph;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache of serialized bundles, which can be shared
+ * between serializers and across requests.
+ * <p/>
+ * The cache is bounded by weight, where the weight of an entry is
+ * the number of items in its bundle tree, i.e. the item itself
+ * plus all the related items serialized with it. Entries are also
+ * expired a fixed time after being written, which bounds how long
+ * they can be stale when the graph is changed without going
+ * through {@link BundleDAO}.
+ * <p/>
+ * When an item is changed every cached bundle that includes it is
+ * invalidated, not just the bundles for the item itself. Items
+ * that are serialized while an invalidation occurs are not cached,
+ * since they may have been read before the change. Other readers
+ * see an item's prior state until the writer's transaction commits,
+ * so writers should invalidate items with
+ * {@link #invalidateOnCommit(Graph, Iterable)}, which does so again
+ * once the transaction has committed.
+ * <p/>
+ * Since changes made by other processes, such as command-line
+ * imports, are only seen when entries expire, sharing the cache
+ * between requests is opt-in, via the {@value #ENABLED_PROPERTY}
+ * system property. Unless it is enabled, the {@link BundleDAO} does
+ * not spend time invalidating the shared cache on writes. The size of the shared instance can be set with
+ * the {@value #MAX_WEIGHT_PROPERTY} system property and the expiry
+ * time, in seconds, with {@value #EXPIRY_PROPERTY}.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class BundleCache {
+
+    public static final String ENABLED_PROPERTY = "ehri.bundleCache.enabled";
+    public static final String MAX_WEIGHT_PROPERTY = "ehri.bundleCache.maxWeight";
+    public static final String EXPIRY_PROPERTY = "ehri.bundleCache.expirySeconds";
+    public static final long DEFAULT_MAX_WEIGHT = 50000L;
+    public static final long DEFAULT_EXPIRY_SECONDS = 600L;
+
+    private static final BundleCache sharedInstance = new BundleCache(
+            Long.getLong(MAX_WEIGHT_PROPERTY, DEFAULT_MAX_WEIGHT),
+            Long.getLong(EXPIRY_PROPERTY, DEFAULT_EXPIRY_SECONDS));
+
+    private final Cache<Key, Entry> cache;
+    private final AtomicLong generation = new AtomicLong();
+
+    // Index of item IDs against the keys of bundles that contain
+    // them. Guarded by itself.
+    private final SetMultimap<String, Key> index = HashMultimap.create();
+
+    /**
+     * Constructor.
+     *
+     * @param maxWeight     The maximum total number of items in cached
+     *                      bundle trees
+     * @param expirySeconds The time after which entries are expired
+     */
+    public BundleCache(long maxWeight, long expirySeconds) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher(new Weigher<Key, Entry>() {
+                    public int weigh(Key key, Entry entry) {
+                        return entry.weight;
+                    }
+                })
+                .expireAfterWrite(expirySeconds, TimeUnit.SECONDS)
+                .removalListener(new RemovalListener<Key, Entry>() {
+                    public void onRemoval(RemovalNotification<Key, Entry> notification) {
+                        // A replaced entry has the same key, which has
+                        // already been indexed for the new entry.
+                        if (notification.getCause() != RemovalCause.REPLACED) {
+                            unindex(notification.getKey(), notification.getValue());
+                        }
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Constructor with the default expiry time.
+     *
+     * @param maxWeight The maximum total number of items in cached
+     *                  bundle trees
+     */
+    public BundleCache(long maxWeight) {
+        this(maxWeight, DEFAULT_EXPIRY_SECONDS);
+    }
+
+    /**
+     * Get the instance shared across the application.
+     *
+     * @return The shared bundle cache
+     */
+    public static BundleCache getInstance() {
+        return sharedInstance;
+    }
+
+    /**
+     * Determine whether the shared instance should be used to cache
+     * bundles across requests, as set by the {@value #ENABLED_PROPERTY}
+     * system property. Off by default.
+     *
+     * @return Whether the shared cache is enabled
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Get the current generation, which should be fetched before
+     * serializing a bundle that is to be cached.
+     *
+     * @return The invalidation generation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Fetch a cached bundle.
+     *
+     * @param key The cache key
+     * @return The bundle, or null if it is not cached
+     */
+    public Bundle get(Key key) {
+        Entry entry = cache.getIfPresent(key);
+        return entry == null ? null : entry.bundle;
+    }
+
+    /**
+     * Cache a bundle, unless any items have been invalidated since
+     * the given generation.
+     *
+     * @param key        The cache key
+     * @param bundle     The bundle
+     * @param generation The generation at which serializing began
+     */
+    public void put(Key key, Bundle bundle, long generation) {
+        Entry entry = new Entry(bundle);
+        synchronized (index) {
+            if (generation != this.generation.get()) {
+                return;
+            }
+            for (String id : entry.ids) {
+                index.put(id, key);
+            }
+            cache.put(key, entry);
+        }
+    }
+
+    /**
+     * Invalidate all cached bundles that include any of the
+     * given items.
+     *
+     * @param ids A set of item IDs
+     */
+    public void invalidate(Iterable<String> ids) {
+        List<Key> keys = Lists.newArrayList();
+        synchronized (index) {
+            generation.incrementAndGet();
+            for (String id : ids) {
+                keys.addAll(index.removeAll(id));
+            }
+        }
+        cache.invalidateAll(keys);
+    }
+
+    /**
+     * Invalidate all cached bundles that include the given item.
+     *
+     * @param id An item ID
+     */
+    public void invalidate(String id) {
+        invalidate(Collections.singleton(id));
+    }
+
+    /**
+     * Invalidate all cached bundles that include the item
+     * represented by a bundle, or any of its related items.
+     *
+     * @param bundle A bundle
+     */
+    public void invalidate(Bundle bundle) {
+        invalidate(getIds(bundle, Sets.<String>newHashSet()));
+    }
+
+    /**
+     * Invalidate all cached bundles.
+     */
+    public void invalidateAll() {
+        synchronized (index) {
+            generation.incrementAndGet();
+        }
+        cache.invalidateAll();
+    }
+
+    /**
+     * Invalidate all cached bundles that include any of the given
+     * items now and, if the graph is in a transaction, again once it
+     * has committed, since until then other readers can still read and
+     * cache the items' prior state.
+     *
+     * @param graph The graph in which the items are being changed
+     * @param ids   A set of item IDs
+     */
+    public void invalidateOnCommit(Graph graph, Iterable<String> ids) {
+        final Set<String> changed = ImmutableSet.copyOf(ids);
+        invalidate(changed);
+        if (graph instanceof TxCheckedNeo4jGraph
+                && ((TxCheckedNeo4jGraph) graph).isInTransaction()) {
+            ((TxCheckedNeo4jGraph) graph).afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    invalidate(changed);
+                }
+            });
+        }
+    }
+
+    /**
+     * Invalidate all cached bundles now and, if the graph is in
+     * a transaction, again once it has committed.
+     *
+     * @param graph The graph being changed
+     */
+    public void invalidateAllOnCommit(Graph graph) {
+        invalidateAll();
+        if (graph instanceof TxCheckedNeo4jGraph
+                && ((TxCheckedNeo4jGraph) graph).isInTransaction()) {
+            ((TxCheckedNeo4jGraph) graph).afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    invalidateAll();
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the IDs of the item represented by a bundle and all
+     * of its related items.
+     *
+     * @param bundle A bundle
+     * @return A set of item IDs
+     */
+    public static Set<String> getIds(Bundle bundle) {
+        return getIds(bundle, Sets.<String>newHashSet());
+    }
+
+    /**
+     * Get the cache's hit and miss statistics.
+     *
+     * @return Cache statistics
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * Get the number of cached bundles.
+     *
+     * @return The approximate number of entries
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    private void unindex(Key key, Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        synchronized (index) {
+            // Notifications can arrive after the key has been cached
+            // again, in which case its index entries are still needed.
+            Entry current = cache.asMap().get(key);
+            if (current != null && current != entry) {
+                return;
+            }
+            for (String id : entry.ids) {
+                index.remove(id, key);
+            }
+        }
+    }
+
+    private static Set<String> getIds(Bundle bundle, Set<String> ids) {
+        if (bundle.getId() != null) {
+            ids.add(bundle.getId());
+        }
+        for (Bundle related : bundle.getRelations().values()) {
+            getIds(related, ids);
+        }
+        return ids;
+    }
+
+    private static int getWeight(Bundle bundle) {
+        int weight = 1;
+        for (Bundle related : bundle.getRelations().values()) {
+            weight += getWeight(related);
+        }
+        return weight;
+    }
+
+    private static final class Entry {
+        private final Bundle bundle;
+        private final Set<String> ids;
+        private final int weight;
+
+        private Entry(Bundle bundle) {
+            this.bundle = bundle;
+            this.ids = ImmutableSet.copyOf(getIds(bundle, Sets.<String>newHashSet()));
+            this.weight = getWeight(bundle);
+        }
+    }
+
+    /**
+     * The key for a bundle, comprising the item ID, the parameters
+     * with which it was serialized, and the serializer's options.
+     */
+    public static final class Key {
+        private final String id;
+        private final int depth;
+        private final int maxDepth;
+        private final boolean lite;
+        private final List<Object> options;
+
+        /**
+         * Constructor.
+         *
+         * @param id       The item ID
+         * @param depth    The depth at which the item was serialized
+         * @param maxDepth The maximum depth of the serialization
+         * @param lite     Whether the item was serialized in lite mode
+         * @param options  Any serializer options that affect the result
+         */
+        public Key(String id, int depth, int maxDepth, boolean lite, Object... options) {
+            this.id = id;
+            this.depth = depth;
+            this.maxDepth = maxDepth;
+            this.lite = lite;
+            this.options = ImmutableList.copyOf(options);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key other = (Key) o;
+            return depth == other.depth
+                    && maxDepth == other.maxDepth
+                    && lite == other.lite
+                    && id.equals(other.id)
+                    && options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(id, depth, maxDepth, lite, options);
+        }
+
+        @Override
+        public String toString() {
+            return "<Key " + id + " " + depth + "/" + maxDepth + (lite ? " lite " : " ") + options + ">";
+        }
+    }
+}
@@ -1,22 +1,31 @@
 package eu.ehri.project.persistence;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.IndexableGraph;
+import com.tinkerpop.blueprints.TransactionalGraph;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.core.impl.BufferedIndex;
 import eu.ehri.project.exceptions.IntegrityError;
 import eu.ehri.project.exceptions.ItemNotFound;
 import eu.ehri.project.exceptions.SerializationError;
 import eu.ehri.project.exceptions.ValidationError;
+import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.base.Frame;
 import eu.ehri.project.models.utils.ClassUtils;
+import eu.ehri.project.utils.TxCheckedNeo4jGraph;
+import org.neo4j.graphdb.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -35,6 +44,11 @@ public final class BundleDAO {
     private final GraphManager manager;
     private final Serializer serializer;
     private final BundleValidator validator;
+    private final BundleCache cache = BundleCache.getInstance();
+    private final BufferedIndex buffer;
+    private final int batchSize;
+    private int batched = 0;
+    private Transaction flushTransaction = null;
 
     /**
      * Constructor with a given scope.
@@ -43,8 +57,38 @@ public final class BundleDAO {
      * @param scopeIds The ID set for the current scope.
      */
     public BundleDAO(FramedGraph<?> graph, Iterable<String> scopeIds) {
+        this(graph, scopeIds, null, 0);
+    }
+
+    /**
+     * Constructor for batched writes with a given scope. Index entries
+     * for created, updated and deleted items are held in memory and
+     * written to the index every <code>batchSize</code> bundles, or
+     * when {@link #flush()} is called. Until then items written by this
+     * DAO are visible to it, e.g. for uniqueness checks, but will not
+     * be found by ID elsewhere, so callers must flush before the batch
+     * is used by other code. On a {@link TxCheckedNeo4jGraph} pending
+     * entries are flushed just before the transaction commits; on other
+     * graphs callers must also flush before committing.
+     * <p/>
+     * If a write fails after validation the batch, and the rest of the
+     * current transaction, is rolled back.
+     *
+     * @param graph The graph
+     * @param scopeIds The ID set for the current scope.
+     * @param batchSize The number of bundles to write between flushes
+     */
+    public BundleDAO(FramedGraph<?> graph, Iterable<String> scopeIds, int batchSize) {
+        this(graph, scopeIds, newBuffer(graph), batchSize);
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive: %s", batchSize);
+    }
+
+    private BundleDAO(FramedGraph<?> graph, Iterable<String> scopeIds,
+            BufferedIndex buffer, int batchSize) {
         this.graph = graph;
-        manager = GraphManagerFactory.getInstance(graph);
+        this.buffer = buffer;
+        this.batchSize = batchSize;
+        manager = GraphManagerFactory.getInstance(graph, buffer);
         serializer = new Serializer.Builder(graph).dependentOnly().build();
         validator = new BundleValidator(manager, scopeIds);
     }
@@ -60,6 +104,10 @@ public final class BundleDAO {
 
     /**
      * Entry-point for updating a bundle.
+     * <p/>
+     * If this DAO is batched and the write fails other than by
+     * validation, the graph's current transaction is rolled back,
+     * including any writes made before this call.
      *
      * @param bundle The bundle to create or update
      * @param cls The frame class of the return type
@@ -70,13 +118,24 @@ public final class BundleDAO {
     public <T extends Frame> Mutation<T> update(Bundle bundle, Class<T> cls)
             throws ValidationError, ItemNotFound {
         Bundle bundleWithIds = validator.validateForUpdate(bundle);
-        Mutation<Vertex> mutation = updateInner(bundleWithIds);
+        Mutation<Vertex> mutation;
+        try {
+            mutation = updateInner(bundleWithIds);
+        } catch (RuntimeException e) {
+            throw abort(e);
+        }
+        invalidate(bundleWithIds, mutation);
+        batched();
         return new Mutation<T>(graph.frame(mutation.getNode(), cls),
                 mutation.getState(), mutation.getPrior());
     }
 
     /**
      * Entry-point for creating a bundle.
+     * <p/>
+     * If this DAO is batched and the write fails other than by
+     * validation, the graph's current transaction is rolled back,
+     * including any writes made before this call.
      *
      * @param bundle The bundle to create or update
      * @param cls The frame class of the return type
@@ -86,11 +145,23 @@ public final class BundleDAO {
     public <T extends Frame> T create(Bundle bundle, Class<T> cls)
             throws ValidationError {
         Bundle bundleWithIds = validator.validateForCreate(bundle);
-        return graph.frame(createInner(bundleWithIds), cls);
+        Vertex node;
+        try {
+            node = createInner(bundleWithIds);
+        } catch (RuntimeException e) {
+            throw abort(e);
+        }
+        invalidate(bundleWithIds, new Mutation<Vertex>(node, MutationState.CREATED));
+        batched();
+        return graph.frame(node, cls);
     }
 
     /**
      * Entry point for creating or updating a bundle, depending on whether it has a supplied id.
+     * <p/>
+     * If this DAO is batched and the write fails other than by
+     * validation, the graph's current transaction is rolled back,
+     * including any writes made before this call.
      *
      * @param bundle The bundle to create or update
      * @param cls The frame class of the return type
@@ -100,26 +171,200 @@ public final class BundleDAO {
     public <T extends Frame> Mutation<T> createOrUpdate(Bundle bundle, Class<T> cls)
             throws ValidationError {
         Bundle bundleWithIds = validator.validateForUpdate(bundle);
-        Mutation<Vertex> vertexMutation = createOrUpdateInner(bundleWithIds);
+        Mutation<Vertex> vertexMutation;
+        try {
+            vertexMutation = createOrUpdateInner(bundleWithIds);
+        } catch (RuntimeException e) {
+            throw abort(e);
+        }
+        invalidate(bundleWithIds, vertexMutation);
+        batched();
         return new Mutation<T>(graph.frame(vertexMutation.getNode(), cls), vertexMutation.getState(),
                 vertexMutation.getPrior());
     }
 
     /**
      * Delete a bundle and dependent items, returning the total number of vertices deleted.
+     * <p/>
+     * If this DAO is batched and the write fails other than by
+     * validation, the graph's current transaction is rolled back,
+     * including any writes made before this call.
      *
      * @param bundle The bundle to delete
      * @return The number of vertices deleted
      */
     public int delete(Bundle bundle) {
+        // NB: Find the items connected to those being deleted, such
+        // as their parents, before their edges are removed.
+        Set<String> affected = BundleCache.isEnabled()
+                ? getAffectedIds(bundle)
+                : Collections.<String>emptySet();
         try {
-            return deleteCount(bundle, 0);
+            int count = deleteCount(bundle, 0);
+            batched();
+            return count;
         } catch (Exception e) {
-            throw new RuntimeException(e);
+            throw abort(new RuntimeException(e));
+        } finally {
+            if (!affected.isEmpty()) {
+                cache.invalidateOnCommit(graph.getBaseGraph(), affected);
+            }
+        }
+    }
+
+    /**
+     * Write any index entries held by a batched DAO to the index.
+     * For a DAO which is not batched this does nothing.
+     *
+     * @return The number of index entries added or removed
+     */
+    public int flush() {
+        batched = 0;
+        if (buffer == null) {
+            return 0;
         }
+        // Creating items can affect cached bundles other than their
+        // own, which is deferred until now for batched writes.
+        if (BundleCache.isEnabled()) {
+            cache.invalidateAllOnCommit(graph.getBaseGraph());
+        }
+        return buffer.flush();
+    }
+
+    /**
+     * Discard any index entries held by a batched DAO and roll
+     * back the graph's current transaction, undoing all writes
+     * made within it.
+     */
+    public void rollback() {
+        batched = 0;
+        if (buffer != null) {
+            buffer.discard();
+        }
+        if (graph.getBaseGraph() instanceof TransactionalGraph) {
+            ((TransactionalGraph) graph.getBaseGraph()).rollback();
+        }
+    }
+
+    /**
+     * Determine whether this DAO batches index writes.
+     *
+     * @return Whether the DAO is batched
+     */
+    public boolean isBatched() {
+        return buffer != null;
     }
 
     // Helpers
+
+    private static BufferedIndex newBuffer(FramedGraph<?> graph) {
+        Preconditions.checkArgument(graph.getBaseGraph() instanceof IndexableGraph,
+                "Batched writes require an indexable graph: %s", graph.getBaseGraph());
+        return new BufferedIndex((IndexableGraph) graph.getBaseGraph());
+    }
+
+    /**
+     * Count a successful write, flushing a batched DAO's
+     * index entries when the batch is full.
+     */
+    private void batched() {
+        if (buffer != null && ++batched >= batchSize) {
+            flush();
+        }
+        flushBeforeCommit();
+    }
+
+    /**
+     * If a batched DAO has pending index entries, make sure that they
+     * are flushed before the current transaction commits, if the graph
+     * supports that.
+     */
+    private void flushBeforeCommit() {
+        if (buffer == null || !buffer.hasPending()
+                || !(graph.getBaseGraph() instanceof TxCheckedNeo4jGraph)) {
+            return;
+        }
+        TxCheckedNeo4jGraph txGraph = (TxCheckedNeo4jGraph) graph.getBaseGraph();
+        Transaction transaction = txGraph.getTransaction();
+        if (transaction != null && transaction != flushTransaction) {
+            flushTransaction = transaction;
+            txGraph.beforeCommit(new Runnable() {
+                @Override
+                public void run() {
+                    if (buffer.hasPending()) {
+                        flush();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Roll back a batched DAO's writes after an unexpected
+     * error, since its pending index entries would otherwise
+     * be lost while the items they refer to remain.
+     */
+    private RuntimeException abort(RuntimeException e) {
+        if (buffer != null) {
+            logger.error("Rolling back batched writes after error", e);
+            rollback();
+        }
+        return e;
+    }
+
+    /**
+     * Invalidate cached bundles that may have been affected by a
+     * mutation, once the current transaction commits. Creating an
+     * item can change the metadata of the items it is connected to,
+     * such as its parent's child count, so those are invalidated too.
+     * For a batched DAO all cached bundles are invalidated when the
+     * batch is flushed instead.
+     * <p/>
+     * Nothing is done unless the shared cache is enabled.
+     */
+    private void invalidate(Bundle bundle, Mutation<Vertex> mutation) {
+        if (!BundleCache.isEnabled()) {
+            return;
+        }
+        switch (mutation.getState()) {
+            case CREATED:
+                if (buffer == null) {
+                    cache.invalidateOnCommit(graph.getBaseGraph(), getAffectedIds(bundle));
+                }
+                break;
+            case UPDATED:
+                Set<String> ids = BundleCache.getIds(bundle);
+                if (mutation.getPrior().isPresent()) {
+                    ids.addAll(BundleCache.getIds(mutation.getPrior().get()));
+                }
+                cache.invalidateOnCommit(graph.getBaseGraph(), ids);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Get the IDs of the items in a bundle and of all the items
+     * connected to them, whose cached bundles can be affected by
+     * creating or deleting the bundle.
+     */
+    private Set<String> getAffectedIds(Bundle bundle) {
+        Set<String> ids = BundleCache.getIds(bundle);
+        for (String id : Lists.newArrayList(ids)) {
+            try {
+                for (Vertex other : manager.getVertex(id).getVertices(Direction.BOTH)) {
+                    String otherId = other.getProperty(EntityType.ID_KEY);
+                    if (otherId != null) {
+                        ids.add(otherId);
+                    }
+                }
+            } catch (ItemNotFound e) {
+                // Not (or no longer) in the graph, so nothing
+                // can be connected to it.
+            }
+        }
+        return ids;
+    }
     private int deleteCount(Bundle bundle, int count) throws Exception {
         Integer c = count;
 
@@ -163,6 +408,7 @@ public final class BundleDAO {
         try {
             Vertex node = manager.createVertex(bundle.getId(), bundle.getType(),
                     bundle.getData(), bundle.getPropertyKeys());
+            node.setProperty(EntityType.HASH_KEY, bundle.getDataHash());
             createDependents(node, bundle.getBundleClass(), bundle.getRelations());
             return node;
         } catch (IntegrityError e) {
@@ -174,7 +420,10 @@ public final class BundleDAO {
     }
 
     /**
-     * Update a bundle and save its dependent items.
+     * Update a bundle and save its dependent items. Whether the
+     * bundle is unchanged is first determined from the data hashes
+     * stored on its vertex and those of its dependents, and only if
+     * that fails by comparing it with the serialized vertex.
      *
      * @param bundle The bundle to update
      * @return A vertex mutation
@@ -182,16 +431,22 @@ public final class BundleDAO {
      */
     private Mutation<Vertex> updateInner(Bundle bundle) throws ItemNotFound {
         Vertex node = manager.getVertex(bundle.getId());
+        if (hashesMatch(node, bundle)) {
+            logger.debug("Not updating bundle with matching hashes {}", bundle.getId());
+            return new Mutation<Vertex>(node, MutationState.UNCHANGED);
+        }
         try {
             Bundle nodeBundle = serializer.vertexFrameToBundle(node);
             if (!nodeBundle.equals(bundle)) {
                 logger.trace("Bundles differ\n\n{}\n\n{}", bundle.toJson(), nodeBundle.toJson());
                 node = manager.updateVertex(bundle.getId(), bundle.getType(),
                         bundle.getData(), bundle.getPropertyKeys());
+                node.setProperty(EntityType.HASH_KEY, bundle.getDataHash());
                 updateDependents(node, bundle.getBundleClass(), bundle.getRelations());
                 return new Mutation<Vertex>(node, MutationState.UPDATED, nodeBundle);
             } else {
                 logger.debug("Not updating equivalent bundle {}", bundle.getId());
+                storeHashes(node, bundle);
                 return new Mutation<Vertex>(node, MutationState.UNCHANGED);
             }
         } catch (SerializationError serializationError) {
@@ -200,6 +455,77 @@ public final class BundleDAO {
         }
     }
 
+    /**
+     * Determine whether a bundle is unchanged from the data hashes
+     * stored on a vertex and its dependents. This requires that the
+     * vertex and each of its dependents have a hash, that the hashes
+     * match those of the bundle's data, and that the dependents have
+     * the same IDs as those in the bundle, but not that anything is
+     * serialized.
+     *
+     * @param node The existing vertex
+     * @param bundle The bundle being saved
+     * @return Whether the bundle is known to be unchanged
+     */
+    private boolean hashesMatch(Vertex node, Bundle bundle) {
+        Object hash = node.getProperty(EntityType.HASH_KEY);
+        if (hash == null || !hash.equals(bundle.getDataHash())) {
+            return false;
+        }
+        Map<String, Direction> dependents = ClassUtils
+                .getDependentRelations(bundle.getBundleClass());
+        Multimap<String, Bundle> relations = bundle.getRelations();
+        if (!dependents.keySet().containsAll(relations.keySet())) {
+            return false;
+        }
+        for (Entry<String, Direction> relEntry : dependents.entrySet()) {
+            Map<String, Vertex> current = Maps.newHashMap();
+            for (Vertex v : node.getVertices(relEntry.getValue(), relEntry.getKey())) {
+                current.put(manager.getId(v), v);
+            }
+            for (Bundle child : relations.get(relEntry.getKey())) {
+                Vertex v = current.remove(child.getId());
+                if (v == null || !hashesMatch(v, child)) {
+                    return false;
+                }
+            }
+            if (!current.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Store data hashes for a vertex, and those of its dependents
+     * which have the same IDs as in the bundle, when the bundle has
+     * been found to be equivalent to them, so that next time they
+     * need not be compared.
+     *
+     * @param node The existing vertex
+     * @param bundle An equivalent bundle
+     */
+    private void storeHashes(Vertex node, Bundle bundle) {
+        String hash = bundle.getDataHash();
+        if (!hash.equals(node.getProperty(EntityType.HASH_KEY))) {
+            node.setProperty(EntityType.HASH_KEY, hash);
+        }
+        Map<String, Direction> dependents = ClassUtils
+                .getDependentRelations(bundle.getBundleClass());
+        for (Entry<String, Direction> relEntry : dependents.entrySet()) {
+            Map<String, Bundle> children = Maps.newHashMap();
+            for (Bundle child : bundle.getRelations().get(relEntry.getKey())) {
+                children.put(child.getId(), child);
+            }
+            for (Vertex v : node.getVertices(relEntry.getValue(), relEntry.getKey())) {
+                Bundle child = children.get(manager.getId(v));
+                if (child != null) {
+                    storeHashes(v, child);
+                }
+            }
+        }
+    }
+
     /**
      * Saves the dependent relations within a given bundle. Relations that are not dependent are ignored.
      *
@@ -1,5 +1,7 @@
 package eu.ehri.project.persistence;
 
+import com.google.common.base.Predicates;
+import com.google.common.base.Strings;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -8,6 +10,7 @@ import eu.ehri.project.exceptions.DeserializationError;
 import eu.ehri.project.exceptions.SerializationError;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.persistence.utils.DataUtils;
+import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.ObjectWriter;
 import org.w3c.dom.Document;
@@ -16,17 +19,20 @@ import org.w3c.dom.Element;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +41,7 @@ import java.util.Map.Entry;
 class DataConverter {
 
     private static ObjectMapper mapper = new ObjectMapper();
+    private static XMLOutputFactory xmlFactory = XMLOutputFactory.newInstance();
 
     /**
      * Convert an error set to a generic data structure.
@@ -107,26 +114,104 @@ class DataConverter {
     }
 
     /**
-     * Convert a bundle to JSON.
+     * Convert a bundle to compact JSON.
      *
      * @param bundle The bundle
      * @return A JSON string representing the bundle
      * @throws SerializationError
      */
     public static String bundleToJson(Bundle bundle) throws SerializationError {
-        Map<String, Object> data = bundleToData(bundle);
+        return bundleToJson(bundle, false);
+    }
+
+    /**
+     * Convert a bundle to JSON.
+     *
+     * @param bundle The bundle
+     * @param pretty Whether to pretty print the output
+     * @return A JSON string representing the bundle
+     * @throws SerializationError
+     */
+    public static String bundleToJson(Bundle bundle, boolean pretty) throws SerializationError {
         try {
-            // Note: defaultPrettyPrintWriter has been replaced by
-            // writerWithDefaultPrettyPrinter in newer versions of
-            // Jackson, though not the one available in Neo4j.
-            @SuppressWarnings("deprecation")
-            ObjectWriter writer = mapper.defaultPrettyPrintingWriter();
-            return writer.writeValueAsString(data);
-        } catch (Exception e) {
+            StringWriter writer = new StringWriter();
+            JsonGenerator generator = mapper.getJsonFactory().createJsonGenerator(writer);
+            if (pretty) {
+                generator.useDefaultPrettyPrinter();
+            }
+            bundleToJson(bundle, generator);
+            generator.close();
+            return writer.toString();
+        } catch (IOException e) {
             throw new SerializationError("Error writing bundle to JSON", e);
         }
     }
 
+    /**
+     * Write a bundle as JSON to a generator, without first converting
+     * it to a generic data structure. The output has the same structure
+     * as that of {@link #bundleToData(Bundle)}.
+     *
+     * @param bundle    The bundle
+     * @param generator A JSON generator
+     * @throws IOException
+     */
+    public static void bundleToJson(Bundle bundle, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(Bundle.ID_KEY, bundle.getId());
+        generator.writeStringField(Bundle.TYPE_KEY, bundle.getType().getName());
+        generator.writeFieldName(Bundle.DATA_KEY);
+        valuesToJson(bundle.getData(), generator);
+        if (bundle.hasMetaData()) {
+            generator.writeFieldName(Bundle.META_KEY);
+            valuesToJson(bundle.getMetaData(), generator);
+        }
+        generator.writeObjectFieldStart(Bundle.REL_KEY);
+        for (Entry<String, Collection<Bundle>> entry : bundle.getRelations().asMap().entrySet()) {
+            generator.writeArrayFieldStart(entry.getKey());
+            for (Bundle subbundle : entry.getValue()) {
+                bundleToJson(subbundle, generator);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    private static void valuesToJson(Map<String, Object> values, JsonGenerator generator)
+            throws IOException {
+        generator.writeStartObject();
+        for (Entry<String, Object> entry : values.entrySet()) {
+            generator.writeFieldName(entry.getKey());
+            valueToJson(entry.getValue(), generator);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void valueToJson(Object value, JsonGenerator generator) throws IOException {
+        // Write the common property types directly, and let the
+        // mapper deal with anything more exotic.
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Integer) {
+            generator.writeNumber((Integer) value);
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Object[]) {
+            generator.writeStartArray();
+            for (Object item : (Object[]) value) {
+                valueToJson(item, generator);
+            }
+            generator.writeEndArray();
+        } else {
+            mapper.writeValue(generator, value);
+        }
+    }
+
     /**
      * Convert some JSON into an EntityBundle.
      *
@@ -285,19 +370,118 @@ class DataConverter {
         }
     }
 
+    /**
+     * Convert a bundle to an indented XML string, with the same
+     * structure as the document given by {@link #bundleToXml(Bundle)}.
+     *
+     * @param bundle The bundle
+     * @return An XML string
+     */
     public static String bundleToXmlString(Bundle bundle) {
-        Document doc = bundleToXml(bundle);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        StringWriter stringWriter = new StringWriter();
         try {
-            printDocument(doc, baos);
-            return baos.toString("UTF-8");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } catch (TransformerException e) {
+            XMLStreamWriter writer = xmlFactory.createXMLStreamWriter(stringWriter);
+            bundleToXml(bundle, writer);
+            writer.writeCharacters("\n");
+            writer.close();
+            return stringWriter.toString();
+        } catch (XMLStreamException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Write a bundle as XML to a stream writer, without building
+     * an intermediate document. The item's start tag is written at
+     * the writer's current position and its content is indented
+     * relative to that.
+     *
+     * @param bundle The bundle
+     * @param writer An XML stream writer
+     * @throws XMLStreamException
+     */
+    public static void bundleToXml(Bundle bundle, XMLStreamWriter writer) throws XMLStreamException {
+        bundleToXml(bundle, writer, 0);
+    }
+
+    private static void bundleToXml(Bundle bundle, XMLStreamWriter writer, int level)
+            throws XMLStreamException {
+        if (level > 0) {
+            indent(writer, level);
+        }
+        writer.writeStartElement("item");
+        writer.writeAttribute(Bundle.ID_KEY, Strings.nullToEmpty(bundle.getId()));
+        writer.writeAttribute(Bundle.TYPE_KEY, bundle.getType().getName());
+        Map<String, Object> data = Maps.filterValues(bundle.getData(), Predicates.notNull());
+        indent(writer, level + 1);
+        if (data.isEmpty()) {
+            writer.writeEmptyElement(Bundle.DATA_KEY);
+        } else {
+            writer.writeStartElement(Bundle.DATA_KEY);
+            for (Entry<String, Object> entry : data.entrySet()) {
+                bundleDataValueToXml(writer, entry.getKey(), entry.getValue(), level + 2);
+            }
+            indent(writer, level + 1);
+            writer.writeEndElement();
+        }
+        if (!bundle.getRelations().isEmpty()) {
+            indent(writer, level + 1);
+            writer.writeStartElement(Bundle.REL_KEY);
+            for (Entry<String, Collection<Bundle>> entry : bundle.getRelations().asMap().entrySet()) {
+                indent(writer, level + 2);
+                writer.writeStartElement(entry.getKey());
+                for (Bundle relationBundle : entry.getValue()) {
+                    bundleToXml(relationBundle, writer, level + 3);
+                }
+                indent(writer, level + 2);
+                writer.writeEndElement();
+            }
+            indent(writer, level + 1);
+            writer.writeEndElement();
+        }
+        indent(writer, level);
+        writer.writeEndElement();
+    }
+
+    private static void bundleDataValueToXml(XMLStreamWriter writer, String key, Object value, int level)
+            throws XMLStreamException {
+        indent(writer, level);
+        if (value instanceof Object[]) {
+            Object[] values = (Object[]) value;
+            if (values.length == 0) {
+                writer.writeEmptyElement("propertySequence");
+            } else {
+                writer.writeStartElement("propertySequence");
+                for (Object item : values) {
+                    bundleDataValueToXml(writer, key, item, level + 1);
+                }
+                indent(writer, level);
+                writer.writeEndElement();
+            }
+        } else {
+            writer.writeStartElement("property");
+            if (value instanceof String) {
+                writer.writeAttribute("name", key);
+                writer.writeAttribute("type", "xs:string");
+            } else if (value instanceof Integer) {
+                writer.writeAttribute("name", key);
+                writer.writeAttribute("type", "xs:int");
+            } else if (value instanceof Long) {
+                writer.writeAttribute("name", key);
+                writer.writeAttribute("type", "xs:long");
+            } else {
+                writer.writeAttribute("type", "unknown");
+            }
+            writer.writeCharacters(String.valueOf(value));
+            writer.writeEndElement();
+        }
+    }
+
+    private static void indent(XMLStreamWriter writer, int level) throws XMLStreamException {
+        writer.writeCharacters("\n");
+        writer.writeCharacters(Strings.repeat("  ", level));
+    }
+
     /**
      * Pretty-print an XML document.
      *
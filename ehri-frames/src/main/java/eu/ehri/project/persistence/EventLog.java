@@ -0,0 +1,653 @@
+package eu.ehri.project.persistence;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.PeekingIterator;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Index;
+import com.tinkerpop.blueprints.IndexableGraph;
+import com.tinkerpop.blueprints.TransactionalGraph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.neo4j.Neo4jGraph;
+import com.tinkerpop.blueprints.util.WrappingCloseableIterable;
+import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.core.GraphManager;
+import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.exceptions.ItemNotFound;
+import eu.ehri.project.models.base.AccessibleEntity;
+import eu.ehri.project.models.base.Actioner;
+import eu.ehri.project.models.events.SystemEvent;
+import eu.ehri.project.models.events.SystemEventQueue;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.neo4j.index.lucene.QueryContext;
+import org.neo4j.index.lucene.ValueContext;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An append-only log of system events, stored in an index of its own
+ * and ordered by a sequence number given to each event when it is
+ * created.
+ * <p/>
+ * Alongside its sequence number each event is indexed by its time,
+ * in milliseconds since the epoch, and by the ID of its actioner and
+ * of each of its subjects, so the events of a user, or concerning an
+ * item, or within a period of time, can be read most-recent-first
+ * straight from the index rather than by walking the event chains
+ * maintained by the {@link ActionManager}. Appending to the log never changes
+ * existing vertices, so it has no head for concurrent writers to
+ * contend for, and once the log is built the chains are no longer
+ * maintained.
+ * <p/>
+ * Sequence numbers are taken from a counter shared by all logs on
+ * the same database, seeded from the latest indexed event, so they
+ * increase in the order events are created. Since that is not
+ * necessarily the order in which they are committed, an event may
+ * appear in the log after one with a greater sequence number.
+ * Numbers taken by transactions that are rolled back are not reused.
+ * <p/>
+ * Events created before the log existed can be added to it with
+ * {@link #rebuild(int)}, which numbers all events afresh in the order
+ * of the global event chain. Until then the log is incomplete, so
+ * readers should check it {@link #isBuilt()}, which is marked by the
+ * {@value #BUILT_KEY} property of the graph's system node, and walk
+ * the event chains if not.
+ * <p/>
+ * Events are read lazily from index hits, which must be closed
+ * once they have been read.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class EventLog {
+
+    public static final String INDEX_NAME = "eventLog";
+    public static final String ACTIONER_KEY = "actioner";
+    public static final String SUBJECT_KEY = "subject";
+    public static final String BUILT_KEY = "__eventLogBuilt__";
+
+    // The default number of events logged in each transaction
+    // of a rebuild.
+    public static final int DEFAULT_REBUILD_BATCH_SIZE = 10000;
+
+    // The number of IDs looked up in a single index query. Streams
+    // for more IDs than this are merged from several queries.
+    private static final int MAX_QUERY_TERMS = 512;
+
+    private static final Cache<Object, AtomicLong> sequences = CacheBuilder.newBuilder()
+            .weakKeys().build();
+
+    private static final DateTimeFormatter timestampParser = ISODateTimeFormat
+            .dateTimeParser().withZoneUTC();
+
+    private static final Sort latestFirstSort = new Sort(
+            new SortField(Ontology.EVENT_SEQUENCE, SortField.LONG, true));
+
+    private static final Ordering<Vertex> latestFirst = new Ordering<Vertex>() {
+        @Override
+        public int compare(Vertex v1, Vertex v2) {
+            return Long.valueOf(getSequence(v2)).compareTo(getSequence(v1));
+        }
+    };
+
+    private static final Ordering<SystemEvent> latestEventFirst = latestFirst.onResultOf(
+            new Function<SystemEvent, Vertex>() {
+                @Override
+                public Vertex apply(SystemEvent event) {
+                    return event.asVertex();
+                }
+            });
+
+    private final FramedGraph<?> graph;
+    private final IndexableGraph indexableGraph;
+    private final GraphManager manager;
+    private final Function<Vertex, SystemEvent> frameEvent = new Function<Vertex, SystemEvent>() {
+        @Override
+        public SystemEvent apply(Vertex vertex) {
+            return graph.frame(vertex, SystemEvent.class);
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param graph A framed graph, which must wrap an indexable graph
+     */
+    public EventLog(FramedGraph<?> graph) {
+        Preconditions.checkArgument(graph.getBaseGraph() instanceof IndexableGraph,
+                "Event log requires an indexable graph: %s", graph.getBaseGraph());
+        this.graph = graph;
+        this.indexableGraph = (IndexableGraph) graph.getBaseGraph();
+        this.manager = GraphManagerFactory.getInstance(graph);
+    }
+
+    /**
+     * Determine whether every event is in the log, which is so for
+     * graphs initialised with it, and those on which it has been
+     * rebuilt.
+     *
+     * @return Whether the log is complete
+     */
+    public boolean isBuilt() {
+        try {
+            Vertex system = manager.getVertex(ActionManager.GLOBAL_EVENT_ROOT);
+            return Boolean.TRUE.equals(system.getProperty(BUILT_KEY));
+        } catch (ItemNotFound e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parse an ISO 8601 timestamp, or date, as milliseconds since
+     * the epoch. Timestamps without an offset are taken to be UTC.
+     *
+     * @param timestamp A timestamp string
+     * @return A number of milliseconds
+     * @throws IllegalArgumentException if the timestamp is invalid
+     */
+    public static long parseTimestamp(String timestamp) {
+        return timestampParser.parseMillis(timestamp);
+    }
+
+    /**
+     * Get the sequence number for a new event.
+     *
+     * @return A number greater than that of any existing event
+     */
+    public long nextSequence() {
+        return getCounter().incrementAndGet();
+    }
+
+    /**
+     * Add an event to the log. The event must have a sequence number.
+     *
+     * @param event The event
+     */
+    public void append(SystemEvent event) {
+        Long sequence = event.getSequence();
+        Preconditions.checkArgument(sequence != null,
+                "Event has no sequence number: %s", event.getId());
+        Index<Vertex> index = getIndex();
+        index.put(Ontology.EVENT_SEQUENCE, ValueContext.numeric(sequence), event.asVertex());
+        index.put(Ontology.EVENT_TIMESTAMP_MILLIS, ValueContext.numeric(getTimestampMillis(event)),
+                event.asVertex());
+    }
+
+    /**
+     * Record the actioner of a logged event.
+     *
+     * @param event    The event
+     * @param actioner The actioner
+     */
+    public void addActioner(SystemEvent event, Actioner actioner) {
+        getIndex().put(ACTIONER_KEY, actioner.getId(), event.asVertex());
+    }
+
+    /**
+     * Record a subject of a logged event.
+     *
+     * @param event   The event
+     * @param subject The subject
+     */
+    public void addSubject(SystemEvent event, AccessibleEntity subject) {
+        getIndex().put(SUBJECT_KEY, subject.getId(), event.asVertex());
+    }
+
+    /**
+     * Get all logged events, most recent first.
+     *
+     * @return An iterable of events
+     */
+    public CloseableIterable<SystemEvent> getEvents() {
+        return getEvents(null, null);
+    }
+
+    /**
+     * Get the logged events within a range of sequence numbers,
+     * most recent first.
+     *
+     * @param from The lowest sequence number, inclusive, or null
+     * @param to   The highest sequence number, inclusive, or null
+     * @return An iterable of events
+     */
+    public CloseableIterable<SystemEvent> getEvents(Long from, Long to) {
+        return new LoggedEvents(null, Collections.<List<String>>emptyList(), from, to, null, null);
+    }
+
+    /**
+     * Get the logged events within a period of time, most recent first.
+     *
+     * @param fromMillis The earliest time, inclusive, or null
+     * @param toMillis   The latest time, inclusive, or null
+     * @return An iterable of events
+     */
+    public CloseableIterable<SystemEvent> getEventsBetween(Long fromMillis, Long toMillis) {
+        return new LoggedEvents(null, Collections.<List<String>>emptyList(), null, null,
+                fromMillis, toMillis);
+    }
+
+    /**
+     * Get the logged events of an actioner, most recent first.
+     *
+     * @param actioner The actioner
+     * @return An iterable of events
+     */
+    public CloseableIterable<SystemEvent> getEventsByActioner(Actioner actioner) {
+        return getEventsByActioners(ImmutableList.of(actioner.getId()));
+    }
+
+    /**
+     * Get the logged events of any of several actioners, most
+     * recent first.
+     *
+     * @param ids The actioners' IDs
+     * @return An iterable of events
+     */
+    public CloseableIterable<SystemEvent> getEventsByActioners(Collection<String> ids) {
+        return getEventsByActioners(ids, null, null);
+    }
+
+    /**
+     * Get the logged events of any of several actioners within a
+     * period of time, most recent first.
+     *
+     * @param ids        The actioners' IDs
+     * @param fromMillis The earliest time, inclusive, or null
+     * @param toMillis   The latest time, inclusive, or null
+     * @return An iterable of events
+     */
+    public CloseableIterable<SystemEvent> getEventsByActioners(Collection<String> ids,
+            Long fromMillis, Long toMillis) {
+        return getEventsFor(ACTIONER_KEY, ids, fromMillis, toMillis);
+    }
+
+    /**
+     * Get the logged events concerning an item, most recent first.
+     *
+     * @param subject The item
+     * @return An iterable of events
+     */
+    public CloseableIterable<SystemEvent> getEventsForSubject(AccessibleEntity subject) {
+        return getEventsForSubjects(ImmutableList.of(subject.getId()));
+    }
+
+    /**
+     * Get the logged events concerning any of several items, most
+     * recent first. Events concerning more than one of the items
+     * are returned once.
+     *
+     * @param ids The items' IDs
+     * @return An iterable of events
+     */
+    public CloseableIterable<SystemEvent> getEventsForSubjects(Collection<String> ids) {
+        return getEventsForSubjects(ids, null, null);
+    }
+
+    /**
+     * Get the logged events concerning any of several items within
+     * a period of time, most recent first.
+     *
+     * @param ids        The items' IDs
+     * @param fromMillis The earliest time, inclusive, or null
+     * @param toMillis   The latest time, inclusive, or null
+     * @return An iterable of events
+     */
+    public CloseableIterable<SystemEvent> getEventsForSubjects(Collection<String> ids,
+            Long fromMillis, Long toMillis) {
+        return getEventsFor(SUBJECT_KEY, ids, fromMillis, toMillis);
+    }
+
+    /**
+     * Merge several streams of logged events, each most recent first,
+     * into one, in which events found in more than one stream are
+     * returned once. Closing the merged stream closes each of them.
+     *
+     * @param streams The event streams
+     * @return An iterable of events
+     */
+    public CloseableIterable<SystemEvent> merge(
+            final Collection<? extends CloseableIterable<SystemEvent>> streams) {
+        if (streams.size() == 1) {
+            return streams.iterator().next();
+        }
+        return new CloseableIterable<SystemEvent>() {
+            @Override
+            public Iterator<SystemEvent> iterator() {
+                List<Iterator<SystemEvent>> iterators = Lists.newArrayList();
+                for (Iterable<SystemEvent> stream : streams) {
+                    iterators.add(stream.iterator());
+                }
+                return distinct(Iterators.mergeSorted(iterators, latestEventFirst));
+            }
+
+            @Override
+            public void close() {
+                for (CloseableIterable<SystemEvent> stream : streams) {
+                    stream.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Rebuild the log from the global event chain, with the default
+     * batch size.
+     *
+     * @return The number of events logged
+     * @see #rebuild(int)
+     */
+    public long rebuild() {
+        return rebuild(DEFAULT_REBUILD_BATCH_SIZE);
+    }
+
+    /**
+     * Rebuild the log from the global event chain, numbering every
+     * event afresh from oldest to newest, storing the times of events
+     * created before they were stored as numbers, and linking events
+     * created before they were linked directly to their actioners and
+     * subjects, and mark the log as built.
+     * <p/>
+     * The chain is walked once to count its events and again to log
+     * them, newest first, and on a transactional graph the changes are
+     * committed after each batch of events and once the log is marked
+     * as built, so the events are never all held in memory or in one
+     * transaction. If the rebuild fails part of the way through it can
+     * be run again from the start.
+     * <p/>
+     * Since events are no longer added to the chain once the log is
+     * built, a built log cannot be rebuilt. This should only be done
+     * when nothing else is writing to the graph.
+     *
+     * @param batchSize The number of events logged in each transaction
+     * @return The number of events logged
+     * @throws IllegalStateException if the log is already built
+     */
+    public long rebuild(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "Batch size must be positive: %s", batchSize);
+        Preconditions.checkState(!isBuilt(), "Event log is already built");
+        Vertex system;
+        try {
+            system = manager.getVertex(ActionManager.GLOBAL_EVENT_ROOT);
+        } catch (ItemNotFound e) {
+            throw new RuntimeException("Couldn't find system event queue!");
+        }
+        indexableGraph.dropIndex(INDEX_NAME);
+        Index<Vertex> index = indexableGraph.createIndex(INDEX_NAME, Vertex.class);
+        long count = 0;
+        for (Vertex event = getNextEvent(system, SystemEventQueue.STREAM_START); event != null;
+                event = getNextEvent(event, Ontology.ACTIONER_HAS_LIFECYCLE_ACTION)) {
+            count++;
+        }
+        long sequence = count;
+        for (Vertex vertex = getNextEvent(system, SystemEventQueue.STREAM_START); vertex != null;
+                vertex = getNextEvent(vertex, Ontology.ACTIONER_HAS_LIFECYCLE_ACTION)) {
+            SystemEvent event = graph.frame(vertex, SystemEvent.class);
+            vertex.setProperty(Ontology.EVENT_SEQUENCE, sequence);
+            index.put(Ontology.EVENT_SEQUENCE, ValueContext.numeric(sequence), vertex);
+            long millis = getTimestampMillis(event);
+            vertex.setProperty(Ontology.EVENT_TIMESTAMP_MILLIS, millis);
+            index.put(Ontology.EVENT_TIMESTAMP_MILLIS, ValueContext.numeric(millis), vertex);
+            Actioner actioner = event.getActioner();
+            if (actioner != null) {
+                index.put(ACTIONER_KEY, actioner.getId(), vertex);
+                linkOnce(vertex, actioner.asVertex(), Ontology.EVENT_HAS_ACTIONER);
+            }
+            boolean linked = vertex.getEdges(Direction.OUT, Ontology.EVENT_HAS_SUBJECT)
+                    .iterator().hasNext();
+            for (AccessibleEntity subject : event.getSubjects()) {
+                index.put(SUBJECT_KEY, subject.getId(), vertex);
+                if (!linked) {
+                    graph.addEdge(null, vertex, subject.asVertex(), Ontology.EVENT_HAS_SUBJECT);
+                }
+            }
+            if (--sequence % batchSize == 0) {
+                commit();
+            }
+        }
+        // NB: The counter is re-seeded from the index on next use.
+        sequences.invalidate(getCounterKey());
+        system.setProperty(BUILT_KEY, true);
+        commit();
+        return count;
+    }
+
+    /**
+     * Read all of a stream of logged events into a list, and close it.
+     *
+     * @param events An iterable of events
+     * @return A list of events
+     */
+    public static List<SystemEvent> readAll(CloseableIterable<SystemEvent> events) {
+        try {
+            return Lists.newArrayList(events);
+        } finally {
+            events.close();
+        }
+    }
+
+    /**
+     * Read the first of a stream of logged events, and close it.
+     *
+     * @param events An iterable of events
+     * @return The first event, or null if there are none
+     */
+    public static SystemEvent readFirst(CloseableIterable<SystemEvent> events) {
+        try {
+            return Iterables.getFirst(events, null);
+        } finally {
+            events.close();
+        }
+    }
+
+    // Get the next vertex on an event chain, or null at its end. NB: Each
+    // step is read afresh, so the chain can be walked across commits.
+    private static Vertex getNextEvent(Vertex vertex, String relation) {
+        return Iterables.getFirst(vertex.getVertices(Direction.OUT, relation), null);
+    }
+
+    private void linkOnce(Vertex event, Vertex other, String relation) {
+        if (!event.getEdges(Direction.OUT, relation).iterator().hasNext()) {
+            graph.addEdge(null, event, other, relation);
+        }
+    }
+
+    private void commit() {
+        if (graph.getBaseGraph() instanceof TransactionalGraph) {
+            ((TransactionalGraph) graph.getBaseGraph()).commit();
+        }
+    }
+
+    private CloseableIterable<SystemEvent> getEventsFor(String key, Collection<String> ids,
+            Long fromMillis, Long toMillis) {
+        List<List<String>> chunks = Lists.partition(Lists.newArrayList(ids), MAX_QUERY_TERMS);
+        if (chunks.isEmpty()) {
+            return new WrappingCloseableIterable<SystemEvent>(
+                    Collections.<SystemEvent>emptyList());
+        }
+        return new LoggedEvents(key, chunks, null, null, fromMillis, toMillis);
+    }
+
+    /**
+     * Logged events, most recent first, read from a query of the log
+     * for each chunk of IDs, or from a single query if there are no
+     * IDs. Closing it closes the index hits of every iterator it has
+     * returned, whether or not they have been read to the end.
+     */
+    private final class LoggedEvents implements CloseableIterable<SystemEvent> {
+        private final String key;
+        private final List<List<String>> chunks;
+        private final Long from;
+        private final Long to;
+        private final Long fromMillis;
+        private final Long toMillis;
+        private final List<CloseableIterable<Vertex>> opened = Lists.newArrayList();
+
+        LoggedEvents(String key, List<List<String>> chunks, Long from, Long to,
+                Long fromMillis, Long toMillis) {
+            this.key = key;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+
+        @Override
+        public Iterator<SystemEvent> iterator() {
+            Iterator<Vertex> vertices;
+            if (chunks.isEmpty()) {
+                vertices = open(Collections.<String>emptyList());
+            } else if (chunks.size() < 2) {
+                vertices = open(chunks.get(0));
+            } else {
+                List<Iterator<Vertex>> streams = Lists.newArrayList();
+                for (List<String> chunk : chunks) {
+                    streams.add(open(chunk));
+                }
+                vertices = distinct(Iterators.mergeSorted(streams, latestFirst));
+            }
+            return Iterators.transform(vertices, frameEvent);
+        }
+
+        @Override
+        public void close() {
+            for (CloseableIterable<Vertex> hits : opened) {
+                hits.close();
+            }
+            opened.clear();
+        }
+
+        private Iterator<Vertex> open(List<String> ids) {
+            CloseableIterable<Vertex> hits = query(key, ids, from, to, fromMillis, toMillis);
+            opened.add(hits);
+            return hits.iterator();
+        }
+    }
+
+    private CloseableIterable<Vertex> query(String key, Collection<String> ids, Long from, Long to,
+            Long fromMillis, Long toMillis) {
+        BooleanQuery query = new BooleanQuery();
+        query.add(NumericRangeQuery.newLongRange(Ontology.EVENT_SEQUENCE, from, to, true, true),
+                BooleanClause.Occur.MUST);
+        if (fromMillis != null || toMillis != null) {
+            query.add(NumericRangeQuery.newLongRange(Ontology.EVENT_TIMESTAMP_MILLIS,
+                    fromMillis, toMillis, true, true), BooleanClause.Occur.MUST);
+        }
+        if (key != null) {
+            BooleanQuery terms = new BooleanQuery();
+            for (String id : ids) {
+                terms.add(new TermQuery(new Term(key, id)), BooleanClause.Occur.SHOULD);
+            }
+            query.add(terms, BooleanClause.Occur.MUST);
+        }
+        // NB: Reads must not create the index, since that would start
+        // a transaction, so until an event is logged there are none.
+        Index<Vertex> index = indexableGraph.getIndex(INDEX_NAME, Vertex.class);
+        if (index == null) {
+            return new WrappingCloseableIterable<Vertex>(Collections.<Vertex>emptyList());
+        }
+        return index.query(Ontology.EVENT_SEQUENCE, new QueryContext(query).sort(latestFirstSort));
+    }
+
+    // Drop adjacent duplicates from a sorted iterator.
+    private static <T> Iterator<T> distinct(final Iterator<T> sorted) {
+        final PeekingIterator<T> iterator = Iterators.peekingIterator(sorted);
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                T next = iterator.next();
+                while (iterator.hasNext() && iterator.peek().equals(next)) {
+                    iterator.next();
+                }
+                return next;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Get the time of an event in milliseconds since the epoch,
+     * parsing its timestamp string if the time has not been stored.
+     *
+     * @param event The event
+     * @return A number of milliseconds
+     */
+    public static long getTimestampMillis(SystemEvent event) {
+        Long millis = event.getTimestampMillis();
+        return millis != null ? millis : parseTimestamp(event.getTimestamp());
+    }
+
+    private static long getSequence(Vertex vertex) {
+        Long sequence = vertex.getProperty(Ontology.EVENT_SEQUENCE);
+        return sequence == null ? 0L : sequence;
+    }
+
+    private AtomicLong getCounter() {
+        try {
+            return sequences.get(getCounterKey(), new Callable<AtomicLong>() {
+                @Override
+                public AtomicLong call() throws Exception {
+                    CloseableIterable<Vertex> events = query(null,
+                            Collections.<String>emptyList(), null, null, null, null);
+                    try {
+                        Vertex latest = Iterables.getFirst(events, null);
+                        return new AtomicLong(latest == null ? 0L : getSequence(latest));
+                    } finally {
+                        events.close();
+                    }
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // NB: Several graph instances can wrap the same database, e.g. one
+    // per REST request, so the counter belongs to the database itself.
+    private Object getCounterKey() {
+        Graph baseGraph = graph.getBaseGraph();
+        return baseGraph instanceof Neo4jGraph
+                ? ((Neo4jGraph) baseGraph).getRawGraph()
+                : baseGraph;
+    }
+
+    private Index<Vertex> getIndex() {
+        Index<Vertex> index = indexableGraph.getIndex(INDEX_NAME, Vertex.class);
+        if (index == null) {
+            index = indexableGraph.createIndex(INDEX_NAME, Vertex.class);
+        }
+        return index;
+    }
+}
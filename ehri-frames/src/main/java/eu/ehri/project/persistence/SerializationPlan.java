@@ -0,0 +1,273 @@
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.frames.Adjacency;
+import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.Dependent;
+import eu.ehri.project.models.annotations.Fetch;
+import eu.ehri.project.models.base.Frame;
+import eu.ehri.project.models.utils.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The relationships and metadata to serialize for a given entity
+ * class, worked out once from its {@link Fetch} and
+ * {@link eu.ehri.project.models.annotations.Meta} annotations.
+ * <p/>
+ * Relationships that are plain {@link Adjacency} methods are read
+ * directly from the vertex's edges, which gives the same vertices
+ * in the same order as the framed method would, without framing
+ * the item or invoking the method reflectively. Relationships
+ * fetched via Java handlers or Gremlin still go through the framed
+ * method.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+final class SerializationPlan {
+
+    private static final ConcurrentMap<EntityClass, SerializationPlan> plans
+            = Maps.newConcurrentMap();
+
+    private final Class<? extends Frame> cls;
+    private final List<Relation> relations;
+    private final Map<String, Method> metaMethods;
+
+    private SerializationPlan(Class<? extends Frame> cls) {
+        this.cls = cls;
+        List<Relation> rels = Lists.newArrayList();
+        for (Map.Entry<String, Method> entry : ClassUtils.getFetchMethods(cls).entrySet()) {
+            Method method = entry.getValue();
+            Fetch fetch = method.getAnnotation(Fetch.class);
+            // Dependent relations that aren't fetched are never
+            // serialized, so ignore them...
+            if (fetch != null) {
+                rels.add(new Relation(entry.getKey(), method, fetch));
+            }
+        }
+        this.relations = Collections.unmodifiableList(rels);
+        this.metaMethods = ImmutableMap.copyOf(ClassUtils.getMetaMethods(cls));
+    }
+
+    /**
+     * Get the plan for a given entity class.
+     *
+     * @param type An entity class
+     * @return A serialization plan
+     */
+    public static SerializationPlan forType(EntityClass type) {
+        SerializationPlan plan = plans.get(type);
+        if (plan == null) {
+            plan = new SerializationPlan(type.getEntityClass());
+            SerializationPlan existing = plans.putIfAbsent(type, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Get the entity class's Java class.
+     *
+     * @return A frame class
+     */
+    public Class<? extends Frame> getEntityClass() {
+        return cls;
+    }
+
+    /**
+     * Get the @Fetch'd relationships, in the order in which
+     * they are serialized.
+     *
+     * @return A list of relations
+     */
+    public List<Relation> getRelations() {
+        return relations;
+    }
+
+    /**
+     * Get the methods that supply metadata values, keyed against
+     * the metadata name.
+     *
+     * @return A name-method map
+     */
+    public Map<String, Method> getMetaMethods() {
+        return metaMethods;
+    }
+
+    /**
+     * A @Fetch'd relationship.
+     */
+    static final class Relation {
+        private final String name;
+        private final Method method;
+        private final boolean dependent;
+        private final int ifBelowLevel;
+        private final int ifLevel;
+        private final int numLevels;
+        private final boolean whenNotLite;
+        private final boolean lite;
+        private final String label;
+        private final Direction direction;
+        private final boolean single;
+
+        private Relation(String name, Method method, Fetch fetch) {
+            this.name = name;
+            this.method = method;
+            this.dependent = method.getAnnotation(Dependent.class) != null;
+            this.ifBelowLevel = fetch.ifBelowLevel();
+            this.ifLevel = fetch.ifLevel();
+            this.numLevels = fetch.numLevels();
+            this.whenNotLite = fetch.whenNotLite();
+            this.lite = !dependent && !fetch.full();
+            Adjacency adjacency = method.getAnnotation(Adjacency.class);
+            this.label = adjacency != null ? adjacency.label() : null;
+            this.direction = adjacency != null ? adjacency.direction() : null;
+            this.single = !Iterable.class.isAssignableFrom(method.getReturnType());
+        }
+
+        /**
+         * The relation name used in serialized bundles.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The annotated frame method.
+         */
+        public Method getMethod() {
+            return method;
+        }
+
+        /**
+         * Whether this relation is marked as {@link Dependent}.
+         */
+        public boolean isDependent() {
+            return dependent;
+        }
+
+        /**
+         * Whether related items should be serialized in lite
+         * mode, i.e. they are neither dependent nor marked
+         * to be fetched in full.
+         */
+        public boolean isLite() {
+            return lite;
+        }
+
+        /**
+         * Whether this relation is read directly from edges.
+         */
+        public boolean isAdjacency() {
+            return label != null;
+        }
+
+        /**
+         * Determine whether this relation should be followed
+         * at a given level.
+         *
+         * @param level         The current depth
+         * @param lite          Whether the current item is serialized lite
+         * @param dependentOnly Whether only dependent relations are followed
+         * @return Whether to traverse the relation
+         */
+        public boolean shouldTraverse(int level, boolean lite, boolean dependentOnly) {
+            // In order to avoid @Fetching the whole graph we track the
+            // depth parameter and increase it for every traversal.
+            // However the @Fetch annotation can also specify a maximum
+            // level of traversal beyond which we don't serialize.
+            if (dependentOnly && !dependent) {
+                return false;
+            }
+            if (lite && whenNotLite) {
+                return false;
+            }
+            if (level >= ifBelowLevel) {
+                return false;
+            }
+            // If the fetch should only be serialized at a certain level and
+            // we've exceeded that, don't serialize.
+            return ifLevel == -1 || level <= ifLevel;
+        }
+
+        /**
+         * Get the maximum depth for items fetched via this relation.
+         *
+         * @param nextDepth       The depth of the related items
+         * @param currentMaxDepth The current maximum depth
+         * @return The new maximum depth
+         */
+        public int getMaxDepth(int nextDepth, int currentMaxDepth) {
+            return numLevels == -1
+                    ? currentMaxDepth
+                    : Math.min(nextDepth + numLevels, currentMaxDepth);
+        }
+
+        /**
+         * Get the vertices related to an item via this relation.
+         *
+         * @param graph The framed graph
+         * @param item  The item vertex
+         * @param cls   The item's frame class
+         * @return A list of related vertices
+         */
+        public List<Vertex> getVertices(FramedGraph<?> graph, Vertex item,
+                Class<? extends Frame> cls) throws Exception {
+            if (label != null) {
+                Iterable<Vertex> vertices = item.getVertices(direction, label);
+                if (single) {
+                    Vertex first = Iterables.getFirst(vertices, null);
+                    return first == null
+                            ? ImmutableList.<Vertex>of()
+                            : ImmutableList.of(first);
+                }
+                return Lists.newArrayList(vertices);
+            }
+            return getFramedVertices(graph, item, cls);
+        }
+
+        /**
+         * Get the vertices related to an item by invoking the framed
+         * method, whether or not it is a plain adjacency.
+         *
+         * @param graph The framed graph
+         * @param item  The item vertex
+         * @param cls   The item's frame class
+         * @return A list of related vertices
+         */
+        public List<Vertex> getFramedVertices(FramedGraph<?> graph, Vertex item,
+                Class<? extends Frame> cls) throws Exception {
+            // The result of one of these fetch methods should either
+            // be a single Frame, or a Iterable<Frame>. A single relation
+            // could be NULL if, e.g. a collection has no holder.
+            Object result = method.invoke(graph.frame(item, cls));
+            List<Vertex> vertices = Lists.newArrayList();
+            if (result instanceof Iterable<?>) {
+                for (Object frame : (Iterable<?>) result) {
+                    vertices.add(((Frame) frame).asVertex());
+                }
+            } else if (result != null) {
+                vertices.add(((Frame) result).asVertex());
+            }
+            return vertices;
+        }
+
+        @Override
+        public String toString() {
+            return name + (isAdjacency() ? " (" + direction + " " + label + ")" : "");
+        }
+    }
+}
@@ -1,27 +1,36 @@
 package eu.ehri.project.persistence;
 
+import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.SerializationError;
 import eu.ehri.project.models.EntityClass;
-import eu.ehri.project.models.annotations.Dependent;
 import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.annotations.Fetch;
 import eu.ehri.project.models.base.Frame;
+import eu.ehri.project.models.events.Version;
 import eu.ehri.project.models.utils.ClassUtils;
+import org.codehaus.jackson.JsonGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
 import java.lang.reflect.Method;
-import java.util.LinkedHashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Class containing static methods to convert between FramedVertex instances,
@@ -33,29 +42,14 @@ public final class Serializer {
 
     private static final Logger logger = LoggerFactory.getLogger(Serializer.class);
 
-    private static final int DEFAULT_CACHE_SIZE = 100;
-
-    private static class LruCache<A, B> extends LinkedHashMap<A, B> {
-        private final int maxEntries;
-
-        public LruCache(final int maxEntries) {
-            super(maxEntries + 1, 1.0f, true);
-            this.maxEntries = maxEntries;
-        }
-
-        @Override
-        protected boolean removeEldestEntry(final Map.Entry<A, B> eldest) {
-            return super.size() > maxEntries;
-        }
-    }
-
     private final FramedGraph<?> graph;
     private final int maxTraversals;
     private final boolean dependentOnly;
     private final boolean liteMode;
     private final List<String> includeProps;
-    private final LruCache<String, Bundle> cache;
-
+    private final Optional<Set<String>> metaKeys;
+    private final BundleCache cache;
+    private final boolean framedRelations;
 
     /**
      * Basic constructor.
@@ -73,7 +67,9 @@ public final class Serializer {
         private boolean dependentOnly = false;
         private boolean liteMode = false;
         private List<String> includeProps = Lists.newArrayList();
-        private LruCache<String, Bundle> cache = null;
+        private Optional<Set<String>> metaKeys = Optional.absent();
+        private BundleCache cache = null;
+        private boolean framedRelations = false;
 
         public Builder(FramedGraph<?> graph) {
             this.graph = graph;
@@ -100,11 +96,11 @@ public final class Serializer {
         }
 
         public Builder withCache() {
-            return withCache(DEFAULT_CACHE_SIZE);
+            return withCache(BundleCache.getInstance());
         }
 
-        public Builder withCache(int size) {
-            this.cache = new LruCache<String, Bundle>(size);
+        public Builder withCache(BundleCache cache) {
+            this.cache = cache;
             return this;
         }
 
@@ -113,6 +109,21 @@ public final class Serializer {
             return this;
         }
 
+        public Builder withMetaKeys(final Collection<String> keys) {
+            this.metaKeys = Optional.<Set<String>>of(ImmutableSet.copyOf(keys));
+            return this;
+        }
+
+        /**
+         * Fetch all relations by invoking their framed methods, rather
+         * than reading plain adjacencies directly from edges, so that
+         * the two can be checked against each other.
+         */
+        Builder withFramedRelations() {
+            this.framedRelations = true;
+            return this;
+        }
+
         public Serializer build() {
             return new Serializer(this);
         }
@@ -121,7 +132,8 @@ public final class Serializer {
 
     public Serializer(Builder builder) {
         this(builder.graph, builder.dependentOnly,
-                builder.maxTraversals, builder.liteMode, builder.includeProps, builder.cache);
+                builder.maxTraversals, builder.liteMode, builder.includeProps,
+                builder.metaKeys, builder.cache, builder.framedRelations);
     }
 
     /**
@@ -132,17 +144,24 @@ public final class Serializer {
      * @param dependentOnly Only serialize dependent nodes
      * @param depth         Depth at which to stop recursion
      * @param lite          Only serialize mandatory properties
-     * @param cache         Use a cache - use for single operations serializing many vertices
-     *                      with common attributes, and NOT for reusable serializers
+     * @param includeProps  Properties to include in lite mode
+     * @param metaKeys      The computed metadata values to include, or
+     *                      absent to include all of them
+     * @param cache         A bundle cache, or null. Only use a cache for reading
+     *                      committed data, and NOT within a write transaction
+     * @param framedRelations Fetch all relations via their framed methods
      */
     private Serializer(FramedGraph<?> graph, boolean dependentOnly, int depth, boolean lite,
-            List<String> includeProps, LruCache<String, Bundle> cache) {
+            List<String> includeProps, Optional<Set<String>> metaKeys, BundleCache cache,
+            boolean framedRelations) {
         this.graph = graph;
         this.dependentOnly = dependentOnly;
         this.maxTraversals = depth;
         this.liteMode = lite;
         this.includeProps = includeProps;
+        this.metaKeys = metaKeys;
         this.cache = cache;
+        this.framedRelations = framedRelations;
     }
 
     /**
@@ -153,7 +172,7 @@ public final class Serializer {
      */
     public Serializer withIncludedProperties(List<String> includeProps) {
         return new Serializer(graph, dependentOnly, maxTraversals, liteMode,
-                includeProps, cache);
+                includeProps, metaKeys, cache, framedRelations);
     }
 
     /**
@@ -166,16 +185,50 @@ public final class Serializer {
     }
 
     /**
-     * Return a serializer that caches recently-serialized items.
+     * Create a new serializer from this one which only includes
+     * the given computed metadata values, e.g. child counts.
+     * Metadata stored on items is always included.
+     *
+     * @param metaKeys A set of metadata keys
+     * @return A new serializer
+     */
+    public Serializer withMetaKeys(Collection<String> metaKeys) {
+        return new Serializer(graph, dependentOnly, maxTraversals, liteMode,
+                includeProps, Optional.<Set<String>>of(ImmutableSet.copyOf(metaKeys)), cache,
+                framedRelations);
+    }
+
+    /**
+     * Get the set of computed metadata keys this serializer includes,
+     * if it is restricted.
+     *
+     * @return a set of metadata keys, or absent if all are included
+     */
+    public Optional<Set<String>> getMetaKeys() {
+        return metaKeys;
+    }
+
+    /**
+     * Return a serializer that caches recently-serialized items
+     * in the shared {@link BundleCache}. Writes only invalidate
+     * the shared cache if it is enabled.
+     *
      * @return a new serializer
      */
     public Serializer withCache() {
-        return new Builder(graph)
-                .withIncludedProperties(includeProps)
-                .withLiteMode(liteMode)
-                .dependentOnly(dependentOnly)
-                .withDepth(maxTraversals)
-                .withCache().build();
+        return withCache(BundleCache.getInstance());
+    }
+
+    /**
+     * Return a serializer that caches recently-serialized items
+     * in the given {@link BundleCache}.
+     *
+     * @param cache a bundle cache
+     * @return a new serializer
+     */
+    public Serializer withCache(BundleCache cache) {
+        return new Serializer(graph, dependentOnly, maxTraversals, liteMode,
+                includeProps, metaKeys, cache, framedRelations);
     }
 
     /**
@@ -252,6 +305,32 @@ public final class Serializer {
         return DataConverter.bundleToJson(vertexFrameToBundle(item));
     }
 
+    /**
+     * Write a vertex frame as JSON directly to a generator.
+     *
+     * @param item      The framed item
+     * @param generator A JSON generator
+     * @throws SerializationError
+     * @throws IOException
+     */
+    public <T extends Frame> void vertexFrameToJson(T item, JsonGenerator generator)
+            throws SerializationError, IOException {
+        DataConverter.bundleToJson(vertexFrameToBundle(item), generator);
+    }
+
+    /**
+     * Write a vertex as JSON directly to a generator.
+     *
+     * @param item      The item vertex
+     * @param generator A JSON generator
+     * @throws SerializationError
+     * @throws IOException
+     */
+    public void vertexToJson(Vertex item, JsonGenerator generator)
+            throws SerializationError, IOException {
+        DataConverter.bundleToJson(vertexFrameToBundle(item), generator);
+    }
+
     /**
      * Serialise a vertex frame to XML.
      *
@@ -300,6 +379,32 @@ public final class Serializer {
         return DataConverter.bundleToXmlString(vertexFrameToBundle(item));
     }
 
+    /**
+     * Write a vertex frame as XML directly to a stream writer.
+     *
+     * @param item   The framed item
+     * @param writer An XML stream writer
+     * @throws SerializationError
+     * @throws XMLStreamException
+     */
+    public <T extends Frame> void vertexFrameToXml(T item, XMLStreamWriter writer)
+            throws SerializationError, XMLStreamException {
+        DataConverter.bundleToXml(vertexFrameToBundle(item), writer);
+    }
+
+    /**
+     * Write a vertex as XML directly to a stream writer.
+     *
+     * @param item   The item vertex
+     * @param writer An XML stream writer
+     * @throws SerializationError
+     * @throws XMLStreamException
+     */
+    public void vertexToXml(Vertex item, XMLStreamWriter writer)
+            throws SerializationError, XMLStreamException {
+        DataConverter.bundleToXml(vertexFrameToBundle(item), writer);
+    }
+
     /**
      * Run a callback every time a node in a subtree is encountered,
      * excepting the top-level node.
@@ -329,16 +434,15 @@ public final class Serializer {
             String id = item.getProperty(EntityType.ID_KEY);
             logger.trace("Serializing {} ({}) at depth {}", id, type, depth);
 
-            Class<? extends Frame> cls = type.getEntityClass();
+            SerializationPlan plan = SerializationPlan.forType(type);
             Bundle.Builder builder = Bundle.Builder.withClass(type)
                     .setId(id)
                     .addData(getVertexData(item, type, lite))
                     .addRelations(getRelationData(item,
-                            depth, maxDepth, lite, cls))
-                    .addMetaData(getVertexMeta(item, cls));
+                            depth, maxDepth, lite, plan))
+                    .addMetaData(getVertexMeta(item, plan));
             if (!lite) {
-                builder.addMetaData(getVertexMeta(item, cls))
-                        .addMetaDataValue("gid", item.getId());
+                builder.addMetaDataValue("gid", item.getId());
             }
             return builder.build();
         } catch (IllegalArgumentException e) {
@@ -347,64 +451,37 @@ public final class Serializer {
         }
     }
 
-    private Bundle fetch(Frame frame, int depth, int maxDepth, boolean isLite) throws SerializationError {
+    private Bundle fetch(Vertex item, int depth, int maxDepth, boolean isLite) throws SerializationError {
         if (cache != null) {
-            String key = frame.getId() + depth + isLite;
-            if (cache.containsKey(key))
-                return cache.get(key);
-            Bundle bundle = vertexToBundle(frame.asVertex(), depth, maxDepth, isLite);
-            cache.put(key, bundle);
+            BundleCache.Key key = new BundleCache.Key(
+                    (String) item.getProperty(EntityType.ID_KEY), depth, maxDepth, isLite,
+                    dependentOnly, liteMode, includeProps, metaKeys);
+            Bundle cached = cache.get(key);
+            if (cached != null)
+                return cached;
+            long generation = cache.getGeneration();
+            Bundle bundle = vertexToBundle(item, depth, maxDepth, isLite);
+            cache.put(key, bundle, generation);
             return bundle;
         }
-        return vertexToBundle(frame.asVertex(), depth, maxDepth, isLite);
+        return vertexToBundle(item, depth, maxDepth, isLite);
     }
 
-    // TODO: Profiling shows that (unsurprisingly) this method is a
-    // performance hotspot. Rewrite it so that instead of using Frames
-    // method invocations to do the traversal, we use regular traversals
-    // whereever possible. Unfortunately the use of @JavaHandler Frame
-    // annotations will make this difficult.
     private ListMultimap<String, Bundle> getRelationData(
-            Vertex item, int depth, int maxDepth, boolean lite, Class<?> cls) {
+            Vertex item, int depth, int maxDepth, boolean lite, SerializationPlan plan)
+            throws SerializationError {
         ListMultimap<String, Bundle> relations = ArrayListMultimap.create();
         if (depth < maxDepth) {
-            Map<String, Method> fetchMethods = ClassUtils.getFetchMethods(cls);
-            logger.trace(" - Fetch methods: {}", fetchMethods);
-            for (Map.Entry<String, Method> entry : fetchMethods.entrySet()) {
-                String relationName = entry.getKey();
-                Method method = entry.getValue();
-
-                boolean isLite = liteMode || lite
-                        || shouldSerializeLite(method);
-
-                if (shouldTraverse(relationName, method, depth, isLite)) {
+            logger.trace(" - Fetch relations: {}", plan.getRelations());
+            for (SerializationPlan.Relation relation : plan.getRelations()) {
+                boolean isLite = liteMode || lite || relation.isLite();
+                if (relation.shouldTraverse(depth, isLite, dependentOnly)) {
                     int nextDepth = depth + 1;
-                    int nextMaxDepth = getNewMaxDepth(method, nextDepth, maxDepth);
-                    logger.trace("Fetching relation: {}, depth {}, {}",
-                            relationName, depth, method.getName());
-                    try {
-                        Object result = method.invoke(graph.frame(
-                                item, cls));
-                        // The result of one of these fetchMethods should either
-                        // be a single Frame, or a Iterable<Frame>.
-                        if (result instanceof Iterable<?>) {
-                            for (Object d : (Iterable<?>) result) {
-                                relations.put(relationName, fetch((Frame) d, nextDepth, nextMaxDepth, isLite));
-                            }
-                        } else {
-                            // This relationship could be NULL if, e.g. a
-                            // collection has no holder.
-                            if (result != null) {
-                                relations.put(relationName, fetch((Frame) result, nextDepth, nextMaxDepth, isLite));
-                            }
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        logger.error("Error serializing relationship for {} ({}): {}, depth {}, {}",
-                                item, item.getProperty(EntityType.TYPE_KEY),
-                                relationName, depth, method.getName());
-                        throw new RuntimeException(
-                                "Unexpected error serializing Frame " + item, e);
+                    int nextMaxDepth = relation.getMaxDepth(nextDepth, maxDepth);
+                    logger.trace("Fetching relation: {}, depth {}", relation, depth);
+                    for (Vertex related : getRelatedVertices(item, relation, plan)) {
+                        relations.put(relation.getName(),
+                                fetch(related, nextDepth, nextMaxDepth, isLite));
                     }
                 }
             }
@@ -412,66 +489,18 @@ public final class Serializer {
         return relations;
     }
 
-    private int getNewMaxDepth(Method fetchMethod, int currentDepth, int currentMaxDepth) {
-        Fetch fetchProps = fetchMethod.getAnnotation(Fetch.class);
-        int max = fetchProps.numLevels();
-        int newMax = max == -1
-                ? currentMaxDepth
-                : Math.min(currentDepth + max, currentMaxDepth);
-        logger.trace("Current depth {}, fetch levels: {}, current max: {}, new max: {}, {}", currentDepth, max,
-                currentMaxDepth, newMax, fetchMethod.getName());
-        return newMax;
-    }
-
-    private boolean shouldSerializeLite(Method method) {
-        Dependent dep = method.getAnnotation(Dependent.class);
-        Fetch fetch = method.getAnnotation(Fetch.class);
-        return dep == null && (fetch == null || !fetch.full());
-    }
-
-    private boolean shouldTraverse(String relationName, Method method, int level, boolean lite) {
-        // In order to avoid @Fetching the whole graph we track the
-        // depth parameter and increase it for every traversal.
-        // However the @Fetch annotation can also specify a maximum
-        // level of traversal beyond which we don't serialize.
-        Fetch fetchProps = method.getAnnotation(Fetch.class);
-        Dependent dep = method.getAnnotation(Dependent.class);
-
-        if (fetchProps == null) {
-            return false;
-        }
-
-        if (dependentOnly && dep == null) {
-            logger.trace(
-                    "Terminating fetch dependent only is specified: {}, ifBelowLevel {}, limit {}, {}",
-                    relationName, level, fetchProps.ifBelowLevel());
-            return false;
-        }
-
-        if (lite && fetchProps.whenNotLite()) {
-            logger.trace(
-                    "Terminating fetch because it specifies whenNotLite: {}, ifBelowLevel {}, limit {}, {}",
-                    relationName, level, fetchProps.ifBelowLevel());
-            return false;
-        }
-
-        if (level >= fetchProps.ifBelowLevel()) {
-            logger.trace(
-                    "Terminating fetch because level exceeded ifBelowLevel on fetch clause: {}, ifBelowLevel {}, " +
-                            "limit {}, {}",
-                    relationName, level, fetchProps.ifBelowLevel());
-            return false;
-        }
-
-        // If the fetch should only be serialized at a certain ifBelowLevel and
-        // we've exceeded that, don't serialize.
-        if (fetchProps.ifLevel() != -1 && level > fetchProps.ifLevel()) {
-            logger.trace(
-                    "Terminating fetch because ifLevel clause found on {}, ifBelowLevel {}, {}",
-                    relationName, level);
-            return false;
+    private List<Vertex> getRelatedVertices(Vertex item, SerializationPlan.Relation relation,
+            SerializationPlan plan) {
+        try {
+            return framedRelations
+                    ? relation.getFramedVertices(graph, item, plan.getEntityClass())
+                    : relation.getVertices(graph, item, plan.getEntityClass());
+        } catch (Exception e) {
+            logger.error("Error serializing relationship for {} ({}): {}",
+                    item, item.getProperty(EntityType.TYPE_KEY), relation);
+            throw new RuntimeException(
+                    "Unexpected error serializing Frame " + item, e);
         }
-        return true;
     }
 
     /**
@@ -488,6 +517,13 @@ public final class Serializer {
                     .equals(EntityType.TYPE_KEY) || key.startsWith("_")))
                 data.put(key, item.getProperty(key));
         }
+        // Versions may be stored as patches against the prior version,
+        // so their data is reconstructed rather than read directly.
+        if (type.equals(EntityClass.VERSION)) {
+            data.remove(Ontology.VERSION_ENTITY_PATCH);
+            data.put(Ontology.VERSION_ENTITY_DATA,
+                    graph.frame(item, Version.class).getEntityData());
+        }
         return data;
     }
 
@@ -508,19 +544,22 @@ public final class Serializer {
     /**
      * Fetch a map of metadata sourced from vertex properties.
      * This is anything that begins with an underscore (but now
-     * two underscores)
+     * two underscores), plus the values of the type's @Meta
+     * methods, if this serializer includes them.
      */
-    private Map<String, Object> getVertexMeta(Vertex item, Class<?> cls) {
+    private Map<String, Object> getVertexMeta(Vertex item, SerializationPlan plan) {
         Map<String, Object> data = Maps.newHashMap();
         for (String key : item.getPropertyKeys()) {
             if (!key.startsWith("__") && key.startsWith("_")) {
                 data.put(key.substring(1), item.getProperty(key));
             }
         }
-        Map<String, Method> metaMethods = ClassUtils.getMetaMethods(cls);
+        Map<String, Method> metaMethods = metaKeys.isPresent()
+                ? Maps.filterKeys(plan.getMetaMethods(), Predicates.in(metaKeys.get()))
+                : plan.getMetaMethods();
         if (!metaMethods.isEmpty()) {
             try {
-                Object frame = graph.frame(item, cls);
+                Object frame = graph.frame(item, plan.getEntityClass());
                 for (Map.Entry<String, Method> metaEntry : metaMethods.entrySet()) {
                     Object value = metaEntry.getValue().invoke(frame);
                     if (value != null) {
@@ -550,38 +589,16 @@ public final class Serializer {
             final TraversalCallback cb) {
 
         if (depth < maxTraversals) {
-            Class<?> cls = EntityClass.withName(
-                    (String) item.asVertex().getProperty(EntityType.TYPE_KEY))
-                    .getEntityClass();
-            Map<String, Method> fetchMethods = ClassUtils.getFetchMethods(cls);
-            for (Map.Entry<String, Method> entry : fetchMethods.entrySet()) {
-
-                String relationName = entry.getKey();
-                Method method = entry.getValue();
-                if (shouldTraverse(relationName, method, depth, false)) {
-                    try {
-                        Object result = method.invoke(graph.frame(
-                                item.asVertex(), cls));
-                        if (result instanceof Iterable<?>) {
-                            int rnum = 0;
-                            for (Object d : (Iterable<?>) result) {
-                                cb.process((Frame) d, depth,
-                                        entry.getKey(), rnum);
-                                traverseSubtree((Frame) d, depth + 1, cb);
-                                rnum++;
-                            }
-                        } else {
-                            if (result != null) {
-                                cb.process((Frame) result, depth,
-                                        entry.getKey(), 0);
-                                traverseSubtree((Frame) result,
-                                        depth + 1, cb);
-                            }
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        throw new RuntimeException(
-                                "Unexpected error serializing Frame", e);
+            SerializationPlan plan = SerializationPlan.forType(EntityClass.withName(
+                    (String) item.asVertex().getProperty(EntityType.TYPE_KEY)));
+            for (SerializationPlan.Relation relation : plan.getRelations()) {
+                if (relation.shouldTraverse(depth, false, dependentOnly)) {
+                    int rnum = 0;
+                    for (Vertex related : getRelatedVertices(item.asVertex(), relation, plan)) {
+                        Frame frame = graph.frame(related, Frame.class);
+                        cb.process(frame, depth, relation.getName(), rnum);
+                        traverseSubtree(frame, depth + 1, cb);
+                        rnum++;
                     }
                 }
             }
@@ -0,0 +1,246 @@
+package eu.ehri.project.persistence.utils;
+
+import com.google.common.collect.Lists;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compute and apply differences between JSON documents, in
+ * the form of JSON Patch (RFC 6902) operations.
+ * <p/>
+ * Only the add, remove and replace operations are produced
+ * or understood. Objects are compared key by key and arrays
+ * index by index, so a value inserted at the start of an array
+ * results in each of the following values being replaced.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class JsonPatch {
+
+    public static final String OP = "op";
+    public static final String PATH = "path";
+    public static final String VALUE = "value";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final JsonNodeFactory factory = JsonNodeFactory.instance;
+
+    private JsonPatch() {
+    }
+
+    /**
+     * Get the patch which turns one JSON document into another.
+     *
+     * @param source A JSON document
+     * @param target A JSON document
+     * @return A JSON patch
+     */
+    public static String diff(String source, String target) {
+        return write(diff(read(source), read(target)));
+    }
+
+    /**
+     * Get the patch which turns one JSON tree into another.
+     *
+     * @param source A JSON tree
+     * @param target A JSON tree
+     * @return An array of patch operations
+     */
+    public static ArrayNode diff(JsonNode source, JsonNode target) {
+        ArrayNode patch = factory.arrayNode();
+        diff(patch, "", source, target);
+        return patch;
+    }
+
+    /**
+     * Apply a sequence of patches, in order, to a JSON document.
+     *
+     * @param document A JSON document
+     * @param patches  A list of JSON patches
+     * @return The patched JSON document
+     */
+    public static String apply(String document, List<String> patches) {
+        JsonNode node = read(document);
+        for (String patch : patches) {
+            node = apply(node, read(patch));
+        }
+        return write(node);
+    }
+
+    /**
+     * Apply a patch to a JSON tree. The tree is modified in place
+     * unless the patch replaces its root.
+     *
+     * @param document A JSON tree
+     * @param patch    An array of patch operations
+     * @return The patched tree
+     */
+    public static JsonNode apply(JsonNode document, JsonNode patch) {
+        if (!patch.isArray()) {
+            throw new IllegalArgumentException("Patch is not an array of operations: " + patch);
+        }
+        JsonNode root = document;
+        for (JsonNode operation : patch) {
+            String op = operation.path(OP).getTextValue();
+            List<String> path = parsePath(operation.path(PATH).getTextValue());
+            if (path.isEmpty()) {
+                if ("remove".equals(op)) {
+                    throw new IllegalArgumentException("Cannot remove the document root");
+                }
+                root = operation.get(VALUE);
+                continue;
+            }
+            JsonNode parent = root;
+            for (String token : path.subList(0, path.size() - 1)) {
+                parent = parent.isArray()
+                        ? parent.get(parseIndex(token))
+                        : parent.get(token);
+                if (parent == null) {
+                    throw new IllegalArgumentException("Path not found: " + operation);
+                }
+            }
+            String last = path.get(path.size() - 1);
+            if ("add".equals(op)) {
+                add(parent, last, operation.get(VALUE));
+            } else if ("replace".equals(op)) {
+                remove(parent, last);
+                add(parent, last, operation.get(VALUE));
+            } else if ("remove".equals(op)) {
+                remove(parent, last);
+            } else {
+                throw new IllegalArgumentException("Unsupported patch operation: " + operation);
+            }
+        }
+        return root;
+    }
+
+    private static void diff(ArrayNode patch, String path, JsonNode source, JsonNode target) {
+        if (source.equals(target)) {
+            return;
+        }
+        if (source.isObject() && target.isObject()) {
+            Iterator<String> sourceKeys = source.getFieldNames();
+            while (sourceKeys.hasNext()) {
+                String key = sourceKeys.next();
+                if (!target.has(key)) {
+                    patch.add(operation("remove", path + "/" + escape(key), null));
+                }
+            }
+            Iterator<String> targetKeys = target.getFieldNames();
+            while (targetKeys.hasNext()) {
+                String key = targetKeys.next();
+                if (source.has(key)) {
+                    diff(patch, path + "/" + escape(key), source.get(key), target.get(key));
+                } else {
+                    patch.add(operation("add", path + "/" + escape(key), target.get(key)));
+                }
+            }
+        } else if (source.isArray() && target.isArray()) {
+            int common = Math.min(source.size(), target.size());
+            for (int i = 0; i < common; i++) {
+                diff(patch, path + "/" + i, source.get(i), target.get(i));
+            }
+            // NB: Remove from the end so indices remain valid.
+            for (int i = source.size() - 1; i >= common; i--) {
+                patch.add(operation("remove", path + "/" + i, null));
+            }
+            for (int i = common; i < target.size(); i++) {
+                patch.add(operation("add", path + "/" + i, target.get(i)));
+            }
+        } else {
+            patch.add(operation("replace", path, target));
+        }
+    }
+
+    private static ObjectNode operation(String op, String path, JsonNode value) {
+        ObjectNode operation = factory.objectNode();
+        operation.put(OP, op);
+        operation.put(PATH, path);
+        if (value != null) {
+            operation.put(VALUE, value);
+        }
+        return operation;
+    }
+
+    private static void add(JsonNode parent, String token, JsonNode value) {
+        if (parent.isObject()) {
+            ((ObjectNode) parent).put(token, value);
+        } else if (parent.isArray()) {
+            ArrayNode array = (ArrayNode) parent;
+            if ("-".equals(token)) {
+                array.add(value);
+            } else {
+                array.insert(parseIndex(token), value);
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot add a value to: " + parent);
+        }
+    }
+
+    private static void remove(JsonNode parent, String token) {
+        JsonNode removed = null;
+        if (parent.isObject()) {
+            removed = ((ObjectNode) parent).remove(token);
+        } else if (parent.isArray()) {
+            int index = parseIndex(token);
+            if (index < parent.size()) {
+                removed = ((ArrayNode) parent).remove(index);
+            }
+        }
+        if (removed == null) {
+            throw new IllegalArgumentException("Nothing to remove at: " + token);
+        }
+    }
+
+    private static List<String> parsePath(String path) {
+        if (path == null || !(path.isEmpty() || path.startsWith("/"))) {
+            throw new IllegalArgumentException("Invalid patch path: " + path);
+        }
+        List<String> tokens = Lists.newArrayList();
+        if (!path.isEmpty()) {
+            for (String token : path.substring(1).split("/", -1)) {
+                tokens.add(unescape(token));
+            }
+        }
+        return tokens;
+    }
+
+    private static int parseIndex(String token) {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid array index: " + token);
+        }
+    }
+
+    // Escape path tokens as per JSON Pointer (RFC 6901.)
+    private static String escape(String token) {
+        return token.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static String unescape(String token) {
+        return token.replace("~1", "/").replace("~0", "~");
+    }
+
+    private static JsonNode read(String json) {
+        try {
+            return mapper.readTree(json);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + json, e);
+        }
+    }
+
+    private static String write(JsonNode node) {
+        try {
+            return mapper.writeValueAsString(node);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
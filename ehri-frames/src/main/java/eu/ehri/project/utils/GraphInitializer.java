@@ -11,7 +11,9 @@ import eu.ehri.project.core.GraphManagerFactory;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.Group;
+import eu.ehri.project.models.utils.HierarchyIndex;
 import eu.ehri.project.persistence.ActionManager;
+import eu.ehri.project.persistence.EventLog;
 
 import java.util.HashMap;
 
@@ -47,7 +49,11 @@ public class GraphInitializer {
                             // It might be useful to know when this graph was
                             // initialise. We can also put other metadata here.
                             Ontology.EVENT_TIMESTAMP, ActionManager.getTimestamp(),
-                            Ontology.EVENT_LOG_MESSAGE, INIT_MESSAGE
+                            Ontology.EVENT_LOG_MESSAGE, INIT_MESSAGE,
+                            // A new graph has no hierarchies or events yet,
+                            // so their closure and the event log are complete.
+                            HierarchyIndex.BUILT_KEY, true,
+                            EventLog.BUILT_KEY, true
                     ));
 
             // Create admin account
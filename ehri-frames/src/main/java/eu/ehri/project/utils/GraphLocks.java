@@ -0,0 +1,65 @@
+package eu.ehri.project.utils;
+
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.neo4j.Neo4jVertex;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+
+import javax.transaction.SystemException;
+import javax.transaction.TransactionManager;
+
+/**
+ * Helpers for explicit locking of graph elements.
+ * <p/>
+ * Neo4j only locks nodes when they are changed, so code which reads
+ * some state of a node and then changes it based on what it read,
+ * such as inserting an item at the head of a linked list, must lock
+ * the node before reading it or risk concurrent transactions reading
+ * the same state.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class GraphLocks {
+
+    private GraphLocks() {
+    }
+
+    /**
+     * Take a write lock on a vertex, which is held until the current
+     * transaction finishes. For non-Neo4j vertices, or outside a
+     * transaction, this does nothing.
+     *
+     * @param vertex The vertex
+     */
+    public static void writeLock(Vertex vertex) {
+        if (vertex instanceof Neo4jVertex) {
+            Node node = ((Neo4jVertex) vertex).getRawVertex();
+            GraphDatabaseService db = node.getGraphDatabase();
+            if (isInTransaction(db)) {
+                // NB: Within a transaction beginTx returns a placebo
+                // transaction whose locks belong to the enclosing one.
+                Transaction tx = db.beginTx();
+                try {
+                    tx.acquireWriteLock(node);
+                    tx.success();
+                } finally {
+                    tx.finish();
+                }
+            }
+        }
+    }
+
+    private static boolean isInTransaction(GraphDatabaseService db) {
+        if (db instanceof GraphDatabaseAPI) {
+            try {
+                return ((GraphDatabaseAPI) db).getDependencyResolver()
+                        .resolveDependency(TransactionManager.class).getTransaction() != null;
+            } catch (SystemException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return false;
+    }
+}
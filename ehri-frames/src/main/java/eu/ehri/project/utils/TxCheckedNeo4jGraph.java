@@ -1,5 +1,6 @@
 package eu.ehri.project.utils;
 
+import com.google.common.collect.Lists;
 import com.tinkerpop.blueprints.impls.neo4j.Neo4jGraph;
 import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.persistence.ActionManager;
@@ -8,21 +9,31 @@ import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.index.IndexHits;
 
+import java.util.List;
 import java.util.Map;
 
 /**
  * Wraps Neo4jGraph and adds an extra method to allow asserting
  * that it should not be in a transaction.
  * <p/>
- * When starting a transaction we also lock the top node of
- * the graph-global action event chain in a assumption that graph modifications
- * will be audited and thus modify this node's relationships. The default
+ * Audited writes insert an event at the head of the graph-global action
+ * event chain, which modifies the relationships of its top node. The default
  * <a href="http://neo4j.com/docs/1.9/transactions-locking.html">Neo4j behaviour</a>
- * is just to lock nodes which are changed, which can occasionally lead concurrent
- * transactions to fail when the TXs attempt to modify the global action root relation
- * simultaneously. This solution should trade concurrent write speed for less chance
- * audited write actions will have TXs fail. Deadlocks should be detected and resolved
- * by Neo4j by failing a TX, but this has not yet been observed in practice.
+ * is just to lock nodes which are changed, so that node is locked from the
+ * point an event is appended until the transaction finishes. To keep that
+ * as short as possible, and to avoid deadlocks with transactions holding
+ * locks on the items being changed, the action manager defers appending
+ * events to the chain until just before the transaction commits, via
+ * {@link #beforeCommit(Runnable)}. Events on the chain are therefore in
+ * commit order, and writes that are not audited never contend for it.
+ * <p/>
+ * Actions which must only happen once a transaction's changes are visible
+ * to other readers, such as evicting cached copies of changed items, can
+ * be registered with {@link #afterCommit(Runnable)}.
+ * <p/>
+ * Alternately, with {@link #setGlobalEventLock(boolean)}, the top node of
+ * the chain is locked when each transaction starts, which serialises all
+ * writers but appends events immediately.
  * <p/>
  * NB: On a cleanly initialised graph the action chain root node should be
  * node 0 but we cannot take this for granted. Instead we look the node
@@ -34,6 +45,22 @@ public class TxCheckedNeo4jGraph extends Neo4jGraph {
 
     private Node cachedEventChain = null;
 
+    private volatile boolean globalEventLock = false;
+
+    private final ThreadLocal<List<Runnable>> commitActions = new ThreadLocal<List<Runnable>>() {
+        @Override
+        protected List<Runnable> initialValue() {
+            return Lists.newArrayList();
+        }
+    };
+
+    private final ThreadLocal<List<Runnable>> afterCommitActions = new ThreadLocal<List<Runnable>>() {
+        @Override
+        protected List<Runnable> initialValue() {
+            return Lists.newArrayList();
+        }
+    };
+
     public TxCheckedNeo4jGraph(String directory) {
         super(directory);
     }
@@ -56,13 +83,97 @@ public class TxCheckedNeo4jGraph extends Neo4jGraph {
         if (transaction == null) {
             transaction = getRawGraph().beginTx();
             tx.set(transaction);
-            Node eventChain = getCachedEventChain();
-            if (eventChain != null) {
-                transaction.acquireWriteLock(eventChain);
+            if (globalEventLock) {
+                Node eventChain = getCachedEventChain();
+                if (eventChain != null) {
+                    transaction.acquireWriteLock(eventChain);
+                }
             }
         }
     }
 
+    /**
+     * Set whether the top node of the global event chain is locked
+     * at the start of every transaction. Off by default.
+     *
+     * @param lock whether to lock the event chain on starting a transaction
+     */
+    public void setGlobalEventLock(boolean lock) {
+        this.globalEventLock = lock;
+    }
+
+    /**
+     * Determine whether the top node of the global event chain is
+     * locked at the start of every transaction.
+     *
+     * @return whether the event chain is locked on starting a transaction
+     */
+    public boolean hasGlobalEventLock() {
+        return globalEventLock;
+    }
+
+    /**
+     * Register an action to run, in order of registration, just before
+     * the current transaction commits. Actions are discarded if the
+     * transaction is rolled back.
+     *
+     * @param action the action
+     */
+    public void beforeCommit(Runnable action) {
+        autoStartTransaction();
+        commitActions.get().add(action);
+    }
+
+    /**
+     * Register an action to run, in order of registration, once the
+     * current transaction has committed. Actions are discarded if the
+     * transaction is rolled back.
+     *
+     * @param action the action
+     */
+    public void afterCommit(Runnable action) {
+        autoStartTransaction();
+        afterCommitActions.get().add(action);
+    }
+
+    @Override
+    public void commit() {
+        // NB: The superclass constructor commits before our fields
+        // have been initialised.
+        if (commitActions == null || afterCommitActions == null) {
+            super.commit();
+            return;
+        }
+        List<Runnable> actions = commitActions.get();
+        try {
+            // NB: Actions may themselves register further actions.
+            for (int i = 0; i < actions.size(); i++) {
+                actions.get(i).run();
+            }
+        } catch (RuntimeException e) {
+            rollback();
+            throw e;
+        }
+        commitActions.remove();
+        super.commit();
+        List<Runnable> after = afterCommitActions.get();
+        afterCommitActions.remove();
+        for (Runnable action : after) {
+            action.run();
+        }
+    }
+
+    @Override
+    public void rollback() {
+        if (commitActions != null) {
+            commitActions.remove();
+        }
+        if (afterCommitActions != null) {
+            afterCommitActions.remove();
+        }
+        super.rollback();
+    }
+
     /**
      * Throw an exception if we're currently in a transaction
      */
@@ -91,6 +202,15 @@ public class TxCheckedNeo4jGraph extends Neo4jGraph {
         return tx.get() != null;
     }
 
+    /**
+     * Get the transaction held in this thread.
+     *
+     * @return the current transaction, or null if there is none.
+     */
+    public Transaction getTransaction() {
+        return tx.get();
+    }
+
     // Helper - look up the event chain in the index and cache it.
     private Node getCachedEventChain() {
         if (cachedEventChain == null) {
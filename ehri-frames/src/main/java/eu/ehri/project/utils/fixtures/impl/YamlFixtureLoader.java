@@ -16,6 +16,8 @@ import eu.ehri.project.exceptions.ItemNotFound;
 import eu.ehri.project.exceptions.ValidationError;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.base.Frame;
+import eu.ehri.project.models.utils.HierarchyIndex;
+import eu.ehri.project.models.utils.ScopeChainCache;
 import eu.ehri.project.persistence.Bundle;
 import eu.ehri.project.persistence.BundleDAO;
 import eu.ehri.project.persistence.Mutation;
@@ -67,6 +69,7 @@ public class YamlFixtureLoader implements FixtureLoader {
     private static final boolean DEFAULT_INIT = true;
     private static final String GENERATE_ID_PLACEHOLDER = "?";
     private static final String DEFAULT_FIXTURE_FILE = "testdata.yaml";
+    private static final int BATCH_SIZE = 1000;
 
     private static final Logger logger = LoggerFactory.getLogger(YamlFixtureLoader.class);
 
@@ -85,7 +88,7 @@ public class YamlFixtureLoader implements FixtureLoader {
         this.graph = graph;
         this.initialize = initialize;
         manager = GraphManagerFactory.getInstance(graph);
-        dao = new BundleDAO(graph);
+        dao = new BundleDAO(graph, Lists.<String>newArrayList(), BATCH_SIZE);
     }
 
     /**
@@ -187,7 +190,8 @@ public class YamlFixtureLoader implements FixtureLoader {
             }
 
             // Finally, go through and wire up all the non-dependent
-            // relationships
+            // relationships, once the nodes can be found by ID.
+            dao.flush();
             logger.trace("Linking data...");
             for (Entry<Vertex, Multimap<String, String>> entry : links.entrySet()) {
                 logger.trace("Setting links for: {}", entry.getKey());
@@ -200,6 +204,12 @@ public class YamlFixtureLoader implements FixtureLoader {
                     }
                 }
             }
+
+            // Since links are added directly, store the ancestors
+            // of hierarchical items once they are all in place, and
+            // discard any memoized scope chains.
+            new HierarchyIndex(graph).rebuild();
+            ScopeChainCache.invalidate();
         } catch (Exception e) {
             throw new RuntimeException("Error loading YAML fixture", e);
         }
@@ -1,9 +1,14 @@
 package eu.ehri.project.views;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.WrappingCloseableIterable;
 import com.tinkerpop.frames.FramedGraph;
 import com.tinkerpop.gremlin.java.GremlinPipeline;
 import com.tinkerpop.pipes.PipeFunction;
@@ -20,15 +25,20 @@ import eu.ehri.project.models.base.Frame;
 import eu.ehri.project.models.base.Watchable;
 import eu.ehri.project.models.events.SystemEvent;
 import eu.ehri.project.persistence.ActionManager;
+import eu.ehri.project.persistence.EventLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * View class for handling event streams.
+ * <p/>
+ * Events are read from the {@link EventLog} if it has been built,
+ * and otherwise by walking the event chains.
  *
  * @author Mike Bryant (http://github.com/mikesname)
  */
@@ -39,6 +49,7 @@ public class EventViews {
     private final FramedGraph<?> graph;
     private final GraphManager manager;
     private final ActionManager actionManager;
+    private final EventLog eventLog;
     private final AclManager aclManager;
     private final Set<String> users;
     private final Set<String> ids;
@@ -46,7 +57,10 @@ public class EventViews {
     private final Set<EventTypes> eventTypes;
     private final Optional<String> from;
     private final Optional<String> to;
+    private final Optional<Long> fromMillis;
+    private final Optional<Long> toMillis;
     private final Set<ShowType> showType;
+    private final boolean useEventLog;
 
     public static enum ShowType {
         watched, followed
@@ -60,9 +74,11 @@ public class EventViews {
             final Collection<EventTypes> eventTypes,
             final Optional<String> from,
             final Optional<String> to,
-            final Collection<ShowType> showType) {
+            final Collection<ShowType> showType,
+            final boolean useEventLog) {
         this.graph = graph;
         this.actionManager = new ActionManager(graph);
+        this.eventLog = new EventLog(graph);
         this.aclManager = new AclManager(graph);
         this.manager = GraphManagerFactory.getInstance(graph);
         this.users = Sets.newHashSet(users);
@@ -71,8 +87,10 @@ public class EventViews {
         this.eventTypes = Sets.newEnumSet(eventTypes, EventTypes.class);
         this.from = from;
         this.to = to;
+        this.fromMillis = parseTimestamp(from);
+        this.toMillis = parseTimestamp(to);
         this.showType = Sets.newEnumSet(showType, ShowType.class);
-
+        this.useEventLog = useEventLog;
     }
 
     public EventViews(FramedGraph<?> graph) {
@@ -82,16 +100,19 @@ public class EventViews {
                 Lists.<EventTypes>newArrayList(),
                 Optional.<String>absent(),
                 Optional.<String>absent(),
-                Lists.<ShowType>newArrayList());
+                Lists.<ShowType>newArrayList(),
+                new EventLog(graph).isBuilt());
     }
 
     public Iterable<SystemEvent> list(Query<SystemEvent> query, Accessor accessor) {
         // Add optional filters for event type, item type, and asUser...
+        CloseableIterable<SystemEvent> events = getLatestEvents();
         GremlinPipeline<SystemEvent,SystemEvent> pipe = new GremlinPipeline<SystemEvent, SystemEvent>(
-                actionManager.getLatestGlobalEvents());
+                events);
 
         // Add additional generic filters
-        return query.setStream(true).page(applyAclFilter(filterEvents(pipe), accessor), accessor);
+        return query.setStream(true).page(applyAclFilter(filterEvents(pipe), accessor),
+                events, accessor);
     }
 
     /**
@@ -100,63 +121,141 @@ public class EventViews {
      */
     public Iterable<SystemEvent> listAsUser(Query<SystemEvent> query, UserProfile asUser, Accessor accessor) {
 
-        // Set IDs to items this asUser is watching...
-        final List<String> watching = Lists.newArrayList();
-        for (Watchable item : asUser.getWatching()) {
-            watching.add(item.getId());
-        }
-
-        final List<String> following = Lists.newArrayList();
-        for (UserProfile other : asUser.getFollowing()) {
-            following.add(other.getId());
-        }
-
         // Add optional filters for event type, item type, and asUser...
+        CloseableIterable<SystemEvent> events = showType.isEmpty()
+                ? getLatestEvents()
+                : getFeedEvents(asUser);
         GremlinPipeline<SystemEvent,SystemEvent> pipe = new GremlinPipeline<SystemEvent, SystemEvent>(
-                actionManager.getLatestGlobalEvents());
+                events);
 
         // Add additional generic filters
         pipe = filterEvents(pipe);
 
-        // Filter out those we're not watching, or are actioned
-        // by users we're not following...
-        if (!showType.isEmpty()) {
-            pipe = pipe.filter(new PipeFunction<SystemEvent, Boolean>() {
-                @Override
-                public Boolean compute(SystemEvent event) {
-                    if (showType.contains(ShowType.watched)) {
-                        for (AccessibleEntity e : event.getSubjects()) {
-                            if (watching.contains(e.getId())) {
-                                return true;
-                            }
-                        }
-                    }
-                    if (showType.contains(ShowType.followed)) {
-                        Actioner actioner = event.getActioner();
-                        if (actioner != null && following.contains(actioner.getId())) {
-                            return true;
-                        }
-                    }
-                    return false;
-                }
-            });
-        }
-
-        return query.page(applyAclFilter(pipe, asUser), accessor);
+        return query.page(applyAclFilter(pipe, asUser), events, accessor);
     }
 
     public Iterable<SystemEvent> listByUser(Query<SystemEvent> query, UserProfile byUser, Accessor user) {
         // Add optional filters for event type, item type, and asUser...
+        Actioner actioner = manager.cast(byUser, Actioner.class);
+        CloseableIterable<SystemEvent> events = useEventLog
+                ? eventLog.getEventsByActioners(Lists.newArrayList(actioner.getId()),
+                        fromMillis.orNull(), toMillis.orNull())
+                : new WrappingCloseableIterable<SystemEvent>(actionManager.getActionChain(actioner));
         GremlinPipeline<SystemEvent,SystemEvent> pipe = new GremlinPipeline<SystemEvent, SystemEvent>(
-                manager.cast(byUser, Actioner.class).getActions());
+                events);
 
         // Add additional generic filters
-        return query.page(applyAclFilter(filterEvents(pipe), user), user);
+        return query.page(applyAclFilter(filterEvents(pipe), user), events, user);
+    }
+
+    /**
+     * List the events concerning an item, most recent first.
+     */
+    public Query.Page<SystemEvent> listForItem(Query<SystemEvent> query, AccessibleEntity item,
+            Accessor user) {
+        CloseableIterable<SystemEvent> events = useEventLog
+                ? eventLog.getEventsForSubject(item)
+                : new WrappingCloseableIterable<SystemEvent>(actionManager.getEventChain(item));
+        GremlinPipeline<SystemEvent,SystemEvent> pipe = new GremlinPipeline<SystemEvent, SystemEvent>(
+                events);
+        return query.page(filterEvents(pipe), events, user);
+    }
+
+    // NB: Events within a period of time are only read from the
+    // event log if it is complete; otherwise the chains are walked
+    // and events filtered by their times.
+    private CloseableIterable<SystemEvent> getLatestEvents() {
+        if (!useEventLog) {
+            return new WrappingCloseableIterable<SystemEvent>(
+                    actionManager.getGlobalEventChain());
+        } else if (!ids.isEmpty()) {
+            return eventLog.getEventsForSubjects(ids, fromMillis.orNull(), toMillis.orNull());
+        } else if (!users.isEmpty()) {
+            return eventLog.getEventsByActioners(users, fromMillis.orNull(), toMillis.orNull());
+        }
+        return eventLog.getEventsBetween(fromMillis.orNull(), toMillis.orNull());
+    }
+
+    private static Optional<Long> parseTimestamp(Optional<String> timestamp) {
+        if (timestamp.isPresent()) {
+            try {
+                return Optional.of(EventLog.parseTimestamp(timestamp.get()));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Ignoring invalid timestamp: {}", timestamp.get());
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Get events on items a user is watching, and/or actioned by users
+     * they are following, depending on the show type, by merging the
+     * event log streams for each rather than filtering the whole log.
+     * If the log is not built the global event chain is filtered
+     * instead.
+     */
+    private CloseableIterable<SystemEvent> getFeedEvents(UserProfile asUser) {
+        final Set<String> watching = Sets.newHashSet();
+        if (showType.contains(ShowType.watched)) {
+            for (Watchable item : asUser.getWatching()) {
+                watching.add(item.getId());
+            }
+        }
+        final Set<String> following = Sets.newHashSet();
+        if (showType.contains(ShowType.followed)) {
+            for (UserProfile other : asUser.getFollowing()) {
+                following.add(other.getId());
+            }
+        }
+        if (!useEventLog) {
+            return new WrappingCloseableIterable<SystemEvent>(Iterables.filter(
+                    actionManager.getGlobalEventChain(), new Predicate<SystemEvent>() {
+                        @Override
+                        public boolean apply(SystemEvent event) {
+                            Actioner actioner = event.getActioner();
+                            if (actioner != null && following.contains(actioner.getId())) {
+                                return true;
+                            }
+                            if (!watching.isEmpty()) {
+                                for (AccessibleEntity e : event.getSubjects()) {
+                                    if (watching.contains(e.getId())) {
+                                        return true;
+                                    }
+                                }
+                            }
+                            return false;
+                        }
+                    }));
+        }
+        List<CloseableIterable<SystemEvent>> streams = Lists.newArrayList();
+        if (showType.contains(ShowType.watched)) {
+            streams.add(eventLog.getEventsForSubjects(watching,
+                    fromMillis.orNull(), toMillis.orNull()));
+        }
+        if (showType.contains(ShowType.followed)) {
+            streams.add(eventLog.getEventsByActioners(following,
+                    fromMillis.orNull(), toMillis.orNull()));
+        }
+        return eventLog.merge(streams);
     }
 
     private GremlinPipeline<SystemEvent, SystemEvent> applyAclFilter(GremlinPipeline<SystemEvent, SystemEvent> pipe,
             Accessor asUser) {
-        final PipeFunction<Vertex, Boolean> aclFilterTest = aclManager.getAclFilterFunction(asUser);
+        final PipeFunction<Vertex, Boolean> aclFilter = aclManager.getAclFilterFunction(asUser);
+
+        // Many events share subjects, so remember the outcome for each.
+        final Map<Object, Boolean> accessible = Maps.newHashMap();
+        final PipeFunction<Vertex, Boolean> aclFilterTest = new PipeFunction<Vertex, Boolean>() {
+            @Override
+            public Boolean compute(Vertex vertex) {
+                Boolean ok = accessible.get(vertex.getId());
+                if (ok == null) {
+                    ok = aclFilter.compute(vertex);
+                    accessible.put(vertex.getId(), ok);
+                }
+                return ok;
+            }
+        };
 
         // Filter items accessible to this asUser... hide the
         // event if any subjects or the scope are inaccessible
@@ -229,23 +328,21 @@ public class EventViews {
             });
         }
 
-        // Add from/to filters (depends on timestamp strings comparing the right way!
-        if (from.isPresent()) {
+        // Add from/to filters
+        if (fromMillis.isPresent()) {
             pipe = pipe.filter(new PipeFunction<SystemEvent, Boolean>() {
                 @Override
                 public Boolean compute(SystemEvent event) {
-                    String timestamp = event.getTimestamp();
-                    return from.get().compareTo(timestamp) <= 0;
+                    return EventLog.getTimestampMillis(event) >= fromMillis.get();
                 }
             });
         }
 
-        if (to.isPresent()) {
+        if (toMillis.isPresent()) {
             pipe = pipe.filter(new PipeFunction<SystemEvent, Boolean>() {
                 @Override
                 public Boolean compute(SystemEvent event) {
-                    String timestamp = event.getTimestamp();
-                    return to.get().compareTo(timestamp) >= 0;
+                    return EventLog.getTimestampMillis(event) <= toMillis.get();
                 }
             });
         }
@@ -253,6 +350,14 @@ public class EventViews {
         return pipe;
     }
 
+    /**
+     * Only include events at or after a time, given as an ISO 8601
+     * timestamp or date. Timestamps without an offset are taken to
+     * be UTC.
+     *
+     * @param from A timestamp string
+     * @return A new EventViews instance
+     */
     public EventViews from(String from) {
         return new EventViews(graph, users,
                 ids,
@@ -260,9 +365,18 @@ public class EventViews {
                 eventTypes,
                 Optional.fromNullable(from),
                 to,
-                showType);
+                showType,
+                useEventLog);
     }
 
+    /**
+     * Only include events at or before a time, given as an ISO 8601
+     * timestamp or date. Timestamps without an offset are taken to
+     * be UTC.
+     *
+     * @param to A timestamp string
+     * @return A new EventViews instance
+     */
     public EventViews to(String to) {
         return new EventViews(graph,
                 users,
@@ -271,7 +385,8 @@ public class EventViews {
                 eventTypes,
                 from,
                 Optional.fromNullable(to),
-                showType);
+                showType,
+                useEventLog);
     }
 
     public EventViews withIds(String... ids) {
@@ -282,7 +397,8 @@ public class EventViews {
                 eventTypes,
                 from,
                 to,
-                showType);
+                showType,
+                useEventLog);
     }
 
     public EventViews withUsers(String... users) {
@@ -293,7 +409,8 @@ public class EventViews {
                 eventTypes,
                 from,
                 to,
-                showType);
+                showType,
+                useEventLog);
     }
 
     public EventViews withEntityClasses(EntityClass... entityTypes) {
@@ -304,7 +421,8 @@ public class EventViews {
                 eventTypes,
                 from,
                 to,
-                showType);
+                showType,
+                useEventLog);
     }
 
     public EventViews withEntityTypes(String... entityTypes) {
@@ -323,7 +441,8 @@ public class EventViews {
                 eventTypes,
                 from,
                 to,
-                showType);
+                showType,
+                useEventLog);
     }
 
     public EventViews withEventTypes(EventTypes... eventTypes) {
@@ -334,7 +453,8 @@ public class EventViews {
                 Lists.newArrayList(eventTypes),
                 from,
                 to,
-                showType);
+                showType,
+                useEventLog);
     }
 
     public EventViews withShowType(ShowType... type) {
@@ -345,6 +465,31 @@ public class EventViews {
                 eventTypes,
                 from,
                 to,
-                Lists.newArrayList(type));
+                Lists.newArrayList(type),
+                useEventLog);
+    }
+
+    /**
+     * Read events from the {@link EventLog} rather than by walking
+     * the event chains, or not. By default the log is used if it has
+     * been built. When filtering by item IDs or users, only their
+     * events are read from the log. Once the log is built events are
+     * only added to the chains if the
+     * {@value ActionManager#EVENT_CHAINS_PROPERTY} system property is
+     * set, so without it the chains will not be complete.
+     *
+     * @param useEventLog whether to read events from the event log
+     * @return A new EventViews instance
+     */
+    public EventViews withEventLog(boolean useEventLog) {
+        return new EventViews(graph,
+                users,
+                ids,
+                entityTypes,
+                eventTypes,
+                from,
+                to,
+                showType,
+                useEventLog);
     }
 }
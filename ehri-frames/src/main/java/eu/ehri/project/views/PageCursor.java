@@ -0,0 +1,120 @@
+package eu.ehri.project.views;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * An opaque position in an ordered set of query results, from
+ * which the next page can be resumed without skipping over the
+ * items on previous pages.
+ * <p/>
+ * A cursor holds the sort keys of the last item on a page, the
+ * last of which is always the item's ID, so that the ordering is
+ * total. It is only meaningful for a query with the same sort order
+ * as the query that produced it.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class PageCursor {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final BaseEncoding encoding = BaseEncoding.base64Url().omitPadding();
+
+    /**
+     * A cursor pointing before the first item.
+     */
+    public static final PageCursor START = new PageCursor(Collections.emptyList());
+
+    private final List<Object> keys;
+
+    PageCursor(List<?> keys) {
+        this.keys = Collections.unmodifiableList(Lists.newArrayList(keys));
+    }
+
+    /**
+     * Decode a cursor token. An empty token denotes the start
+     * of the results. The last key, which is an item ID, is kept
+     * as a string; the others are read as sort keys.
+     *
+     * @param token A cursor token
+     * @return A cursor
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static PageCursor decode(String token) {
+        if (token == null || token.trim().isEmpty()) {
+            return START;
+        }
+        Object payload;
+        try {
+            payload = mapper.readValue(encoding.decode(token.trim()), Object.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token, e);
+        }
+        if (!(payload instanceof List)) {
+            throw new IllegalArgumentException("Invalid cursor: " + token);
+        }
+        List<?> values = (List<?>) payload;
+        List<Object> keys = Lists.newArrayListWithCapacity(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            Object value = values.get(i);
+            if (i < values.size() - 1) {
+                keys.add(PropertyValueOrdering.sortKey(value));
+            } else {
+                keys.add(value == null ? null : value.toString());
+            }
+        }
+        return new PageCursor(keys);
+    }
+
+    /**
+     * Encode this cursor as a URL-safe token.
+     *
+     * @return A cursor token
+     */
+    public String encode() {
+        List<Object> values = Lists.newArrayListWithCapacity(keys.size());
+        for (Object key : keys) {
+            values.add(key instanceof Date
+                    ? new DateTime(key, DateTimeZone.UTC).toString()
+                    : key);
+        }
+        try {
+            return encoding.encode(mapper.writeValueAsString(values).getBytes(Charsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Determine if this cursor points before the first item.
+     *
+     * @return Whether this is the start cursor
+     */
+    public boolean isStart() {
+        return keys.isEmpty();
+    }
+
+    /**
+     * Get the sort keys of the item at this position, which
+     * may include nulls.
+     *
+     * @return A list of sort keys
+     */
+    public List<Object> getKeys() {
+        return keys;
+    }
+
+    @Override
+    public String toString() {
+        return isStart() ? "<PageCursor START>" : "<PageCursor " + keys + ">";
+    }
+}
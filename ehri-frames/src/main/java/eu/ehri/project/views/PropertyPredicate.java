@@ -0,0 +1,191 @@
+package eu.ehri.project.views;
+
+import com.google.common.base.Predicate;
+
+import java.util.Date;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link Query.FilterPredicate} compiled against the value it
+ * compares to, for testing raw vertex property values.
+ * <p/>
+ * Everything that can be worked out from the filter value alone,
+ * such as regular expression patterns, lower-cased strings and
+ * numeric or date interpretations, is done once at compile time,
+ * leaving only the comparison itself to be done per vertex.
+ * <p/>
+ * String predicates compare the string representation of property
+ * values. The ordering predicates (GT, GTE, LT, LTE) compare numbers
+ * numerically and ISO-8601 dates chronologically if both the property
+ * value and the filter value can be interpreted that way, and fall
+ * back to comparing strings otherwise. Since most properties are
+ * stored as strings, property values which are numeric strings are
+ * compared as numbers. Null property values never match.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public abstract class PropertyPredicate implements Predicate<Object> {
+
+    protected final Query.FilterPredicate predicate;
+    protected final String value;
+
+    private PropertyPredicate(Query.FilterPredicate predicate, String value) {
+        this.predicate = predicate;
+        this.value = value;
+    }
+
+    /**
+     * Compile a filter predicate.
+     *
+     * @param predicate The filter predicate
+     * @param value     The value to compare against
+     * @return A compiled predicate
+     */
+    public static PropertyPredicate compile(Query.FilterPredicate predicate, final String value) {
+        switch (predicate) {
+            case EQUALS:
+                return new PropertyPredicate(predicate, value) {
+                    protected boolean matches(String s) {
+                        return s.equals(value);
+                    }
+                };
+            case IEQUALS:
+                return new PropertyPredicate(predicate, value) {
+                    protected boolean matches(String s) {
+                        return s.equalsIgnoreCase(value);
+                    }
+                };
+            case STARTSWITH:
+                return new PropertyPredicate(predicate, value) {
+                    protected boolean matches(String s) {
+                        return s.startsWith(value);
+                    }
+                };
+            case ENDSWITH:
+                return new PropertyPredicate(predicate, value) {
+                    protected boolean matches(String s) {
+                        return s.endsWith(value);
+                    }
+                };
+            case CONTAINS:
+                return new PropertyPredicate(predicate, value) {
+                    protected boolean matches(String s) {
+                        return s.contains(value);
+                    }
+                };
+            case ICONTAINS:
+                final String lower = value.toLowerCase();
+                return new PropertyPredicate(predicate, value) {
+                    protected boolean matches(String s) {
+                        return s.toLowerCase().contains(lower);
+                    }
+                };
+            case MATCHES:
+                final Pattern pattern = Pattern.compile(value);
+                return new PropertyPredicate(predicate, value) {
+                    protected boolean matches(String s) {
+                        return pattern.matcher(s).matches();
+                    }
+                };
+            case GT:
+            case GTE:
+            case LT:
+            case LTE:
+                return new ComparisonPredicate(predicate, value);
+            default:
+                throw new IllegalArgumentException("Unexpected filter predicate: "
+                        + predicate);
+        }
+    }
+
+    /**
+     * Test a raw property value.
+     *
+     * @param propertyValue The property value, possibly null
+     * @return Whether the value matches
+     */
+    @Override
+    public boolean apply(Object propertyValue) {
+        return propertyValue != null && matches(propertyValue);
+    }
+
+    protected boolean matches(Object propertyValue) {
+        return matches(propertyValue.toString());
+    }
+
+    protected abstract boolean matches(String s);
+
+    @Override
+    public String toString() {
+        return predicate + ":" + value;
+    }
+
+    /**
+     * A type-aware comparison predicate.
+     */
+    private static final class ComparisonPredicate extends PropertyPredicate {
+        private static final Pattern NUMERIC = Pattern.compile("^-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?$");
+
+        private final Number number;
+        private final Object date;
+
+        private ComparisonPredicate(Query.FilterPredicate predicate, String value) {
+            super(predicate, value);
+            this.number = parseNumber(value);
+            Object key = PropertyValueOrdering.sortKey(value);
+            this.date = key instanceof Date ? key : null;
+        }
+
+        @Override
+        protected boolean matches(Object propertyValue) {
+            if (number != null) {
+                Number propertyNumber = propertyValue instanceof Number
+                        ? (Number) propertyValue
+                        : parseNumber(propertyValue.toString());
+                if (propertyNumber != null) {
+                    return test(PropertyValueOrdering.getInstance().compare(propertyNumber, number));
+                }
+            }
+            if (date != null) {
+                Object key = PropertyValueOrdering.sortKey(propertyValue);
+                if (key instanceof Date) {
+                    return test(PropertyValueOrdering.getInstance().compare(key, date));
+                }
+            }
+            return matches(propertyValue.toString());
+        }
+
+        @Override
+        protected boolean matches(String s) {
+            return test(s.compareTo(value));
+        }
+
+        private boolean test(int cmp) {
+            switch (predicate) {
+                case GT:
+                    return cmp > 0;
+                case GTE:
+                    return cmp >= 0;
+                case LT:
+                    return cmp < 0;
+                default:
+                    return cmp <= 0;
+            }
+        }
+
+        private static Number parseNumber(String value) {
+            if (!NUMERIC.matcher(value).matches()) {
+                return null;
+            }
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                try {
+                    return Double.parseDouble(value);
+                } catch (NumberFormatException e2) {
+                    return null;
+                }
+            }
+        }
+    }
+}
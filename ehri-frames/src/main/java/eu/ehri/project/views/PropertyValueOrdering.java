@@ -0,0 +1,132 @@
+package eu.ehri.project.views;
+
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Booleans;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.util.Date;
+import java.util.regex.Pattern;
+
+/**
+ * An ordering for raw vertex property values that respects
+ * their types, rather than treating everything as a string.
+ * <p/>
+ * Numbers are compared numerically, booleans with false first,
+ * and dates chronologically. Values of different types are
+ * grouped by type in that order, followed by strings, then
+ * anything else (compared by its string representation) and
+ * finally nulls.
+ * <p/>
+ * Since dates are stored as ISO-8601 strings, values should
+ * be converted with {@link #sortKey(Object)} before being
+ * compared. Doing that once per item, rather than once per
+ * comparison, keeps date parsing out of the sort itself.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class PropertyValueOrdering extends Ordering<Object> {
+
+    private static final PropertyValueOrdering INSTANCE = new PropertyValueOrdering();
+
+    // A cheap check for strings that might be dates, to
+    // avoid attempting to parse every string value.
+    private static final Pattern DATE_PREFIX = Pattern.compile("^\\d{4}-\\d{2}-\\d{2}");
+    private static final DateTimeFormatter DATE_PARSER = ISODateTimeFormat.dateTimeParser();
+
+    private static final int NUMBER = 0;
+    private static final int BOOLEAN = 1;
+    private static final int DATE = 2;
+    private static final int STRING = 3;
+    private static final int OTHER = 4;
+    private static final int NULL = 5;
+
+    private PropertyValueOrdering() {
+    }
+
+    /**
+     * Get the ordering instance.
+     *
+     * @return A property value ordering
+     */
+    public static PropertyValueOrdering getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Convert a raw property value into a key suitable for
+     * comparing with this ordering. ISO-8601 date strings
+     * are converted to dates; other values are unchanged.
+     *
+     * @param value A property value
+     * @return The value's sort key
+     */
+    public static Object sortKey(Object value) {
+        if (value instanceof String && DATE_PREFIX.matcher((String) value).find()) {
+            try {
+                return DATE_PARSER.parseDateTime((String) value).toDate();
+            } catch (IllegalArgumentException e) {
+                return value;
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public int compare(Object a, Object b) {
+        int typeA = typeOf(a);
+        int typeB = typeOf(b);
+        if (typeA != typeB) {
+            return Ints.compare(typeA, typeB);
+        }
+        switch (typeA) {
+            case NUMBER:
+                return compareNumbers((Number) a, (Number) b);
+            case BOOLEAN:
+                return Booleans.compare((Boolean) a, (Boolean) b);
+            case DATE:
+                return ((Date) a).compareTo((Date) b);
+            case STRING:
+                return ((String) a).compareTo((String) b);
+            case OTHER:
+                return a.toString().compareTo(b.toString());
+            default:
+                return 0;
+        }
+    }
+
+    private static int compareNumbers(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return Longs.compare(a.longValue(), b.longValue());
+        }
+        return Double.compare(a.doubleValue(), b.doubleValue());
+    }
+
+    private static boolean isIntegral(Number n) {
+        return n instanceof Long || n instanceof Integer
+                || n instanceof Short || n instanceof Byte;
+    }
+
+    private static int typeOf(Object value) {
+        if (value == null) {
+            return NULL;
+        } else if (value instanceof Number) {
+            return NUMBER;
+        } else if (value instanceof Boolean) {
+            return BOOLEAN;
+        } else if (value instanceof Date) {
+            return DATE;
+        } else if (value instanceof String) {
+            return STRING;
+        } else {
+            return OTHER;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PropertyValueOrdering";
+    }
+}
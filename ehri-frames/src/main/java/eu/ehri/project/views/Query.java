@@ -1,13 +1,16 @@
 package eu.ehri.project.views;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.collect.ComparisonChain;
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
+import com.google.common.primitives.Longs;
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
@@ -19,7 +22,9 @@ import eu.ehri.project.acl.AclManager;
 import eu.ehri.project.acl.SystemScope;
 import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.core.SizedCloseableIterable;
 import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.base.AccessibleEntity;
 import eu.ehri.project.models.base.Accessor;
 import eu.ehri.project.models.base.Frame;
@@ -28,7 +33,7 @@ import eu.ehri.project.models.utils.ClassUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -59,8 +64,9 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
     private final Optional<Pair<String, Sort>> defaultSort;
     private final SortedMap<String, Pair<FilterPredicate, String>> filters;
     private final ImmutableMap<Pair<String, Direction>, Integer> depthFilters;
-    private final List<GremlinPipeline<Vertex, Vertex>> traversalFilters;
-    private final boolean stream;
+    private final List<Pair<QueryUtils.TraversalPath, Pair<FilterPredicate, String>>> traversalFilters;
+    private final CountMode countMode;
+    private final Optional<PageCursor> cursor;
 
     private final FramedGraph<?> graph;
     private final GraphManager manager;
@@ -83,6 +89,33 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
         EQUALS, IEQUALS, STARTSWITH, ENDSWITH, CONTAINS, ICONTAINS, MATCHES, GT, GTE, LT, LTE
     }
 
+    /**
+     * Strategies for calculating the total number of items
+     * available when fetching a page.
+     */
+    public static enum CountMode {
+        /**
+         * Count every item visible to the accessor in the same
+         * pass that selects the requested page window. Since
+         * that means reading every item, pages fetched with a
+         * cursor are not counted in this mode.
+         */
+        EXACT,
+        /**
+         * Use the number of hits reported by the index, where
+         * available. This is cheap but does not take ACL
+         * restrictions or filters into account, so it is only
+         * an upper bound on the real total. Queries that are
+         * not index-backed fall back to an exact count.
+         */
+        ESTIMATED,
+        /**
+         * Don't count items at all, in which case the page
+         * total will be -1.
+         */
+        NONE
+    }
+
     /**
      * Full Constructor.
      */
@@ -96,8 +129,9 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
             final Optional<Pair<String, Sort>> defSort,
             final SortedMap<String, Pair<FilterPredicate, String>> filters,
             final Map<Pair<String, Direction>, Integer> depthFilters,
-            final List<GremlinPipeline<Vertex, Vertex>> traversalFilters,
-            final boolean stream) {
+            final List<Pair<QueryUtils.TraversalPath, Pair<FilterPredicate, String>>> traversalFilters,
+            final CountMode countMode,
+            final Optional<PageCursor> cursor) {
         this.graph = graph;
         this.cls = cls;
         this.scope = scope;
@@ -108,7 +142,8 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
         this.defaultSort = defSort;
         this.filters = ImmutableSortedMap
                 .copyOf(filters);
-        this.stream = stream;
+        this.countMode = countMode;
+        this.cursor = cursor;
         this.depthFilters = ImmutableMap.copyOf(depthFilters);
         this.traversalFilters = ImmutableList.copyOf(traversalFilters);
         manager = GraphManagerFactory.getInstance(graph);
@@ -125,7 +160,8 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
                 .<Pair<String, Sort>>absent(), ImmutableSortedMap
                 .<String, Pair<FilterPredicate, String>>of(), Maps
                 .<Pair<String, Direction>, Integer>newHashMap(),
-                ImmutableList.<GremlinPipeline<Vertex, Vertex>>of(), false);
+                ImmutableList.<Pair<QueryUtils.TraversalPath, Pair<FilterPredicate, String>>>of(), CountMode.EXACT,
+                Optional.<PageCursor>absent());
     }
 
     /**
@@ -134,7 +170,7 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
     public Query<E> copy(Query<E> other) {
         return new Query<E>(other.graph, other.cls, other.scope, other.offset,
                 other.limit, other.sort, other.traversalSort, other.defaultSort, other.filters,
-                other.depthFilters, other.traversalFilters, other.stream);
+                other.depthFilters, other.traversalFilters, other.countMode, other.cursor);
     }
 
 
@@ -143,17 +179,32 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
      *
      * @param <T> the item type
      */
-    public static class Page<T> implements Iterable<T> {
+    public static class Page<T> implements CloseableIterable<T> {
         private final Iterable<T> iterable;
         private final int page;
         private final int count;
         private final long total;
+        private final Optional<String> nextCursor;
+        private final Optional<CloseableIterable<?>> source;
 
         public Page(Iterable<T> iterable, int page, int count, long total) {
+            this(iterable, page, count, total, Optional.<String>absent());
+        }
+
+        public Page(Iterable<T> iterable, int page, int count, long total,
+                Optional<String> nextCursor) {
+            this(iterable, page, count, total, nextCursor,
+                    Optional.<CloseableIterable<?>>absent());
+        }
+
+        private Page(Iterable<T> iterable, int page, int count, long total,
+                Optional<String> nextCursor, Optional<CloseableIterable<?>> source) {
             this.iterable = iterable;
             this.total = total;
             this.page = page;
             this.count = count;
+            this.nextCursor = nextCursor;
+            this.source = source;
         }
 
         public Iterable<T> getIterable() {
@@ -172,11 +223,33 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
             return count;
         }
 
+        /**
+         * Get a cursor token from which the following page can be
+         * fetched, if the page was fetched with a cursor and is full.
+         *
+         * @return An optional cursor token
+         */
+        public Optional<String> getNextCursor() {
+            return nextCursor;
+        }
+
         @Override
         public Iterator<T> iterator() {
             return iterable.iterator();
         }
 
+        /**
+         * Release the index hits from which the page is read, if it
+         * is a lazily-read stream of them. Other pages are read when
+         * they are created, so closing them does nothing.
+         */
+        @Override
+        public void close() {
+            if (source.isPresent()) {
+                source.get().close();
+            }
+        }
+
         @Override
         public String toString() {
             return String.format("<Page[...] %d %d (%d)", page, count, total);
@@ -229,7 +302,10 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
      * for the given page/count.
      */
     public Page<E> page(EntityClass type, Accessor user) {
-        return page(manager.getFrames(type, cls), user);
+        if (cursor.isPresent() && !isOrdered()) {
+            return seekAndPage(type, user);
+        }
+        return pageIndexHits(manager.getVertices(type), user);
     }
 
     /**
@@ -242,29 +318,26 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
 
     /**
      * Return a Page instance containing a total of total items, and an iterable
-     * for the given page/count.
+     * for the given page/count. If the items are closeable, e.g. index hits,
+     * they are closed once the page has been read or, if it is a stream,
+     * when the page is closed.
      */
     public <T extends Frame> Page<T> page(Iterable<T> vertices,
             Accessor user, Class<T> cls) {
-        PipeFunction<Vertex, Boolean> aclFilterFunction = new AclManager(graph)
-                .getAclFilterFunction(user);
-
-        GremlinPipeline<E, Vertex> pipeline = new GremlinPipeline<E, Vertex>(
-                new FramedVertexIterableAdaptor<T>(vertices))
-                .filter(aclFilterFunction);
+        return pageVertices(new FramedVertexIterableAdaptor<T>(vertices), NO_COUNT, user, cls,
+                vertices instanceof CloseableIterable
+                        ? Optional.<CloseableIterable<?>>of((CloseableIterable<?>) vertices)
+                        : Optional.<CloseableIterable<?>>absent());
+    }
 
-        if (stream) {
-            return new Page<T>(graph.frameVertices(
-                    setPipelineRange(setOrder(applyFilters(pipeline))), cls), offset, limit, NO_COUNT);
-        } else {
-            // FIXME: We have to read the vertices into memory here since we
-            // can't re-use the iterator for counting and streaming.
-            ArrayList<Vertex> userVerts = Lists.newArrayList(applyFilters(pipeline).iterator());
-            Iterable<T> iterable = graph.frameVertices(
-                    setPipelineRange(setOrder(new GremlinPipeline<Vertex, Vertex>(
-                            userVerts))), cls);
-            return new Page<T>(iterable, offset, limit, userVerts.size());
-        }
+    /**
+     * Return a Page instance for items read, e.g. via a filtering pipeline,
+     * from a closeable source, which is closed once the page has been read
+     * or, if it is a stream, when the page is closed.
+     */
+    public Page<E> page(Iterable<E> vertices, CloseableIterable<?> source, Accessor user) {
+        return pageVertices(new FramedVertexIterableAdaptor<E>(vertices), NO_COUNT, user, cls,
+                Optional.<CloseableIterable<?>>of(source));
     }
 
     /**
@@ -272,30 +345,223 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
      * for the given page/count.
      */
     public Page<E> page(String key, String query, Accessor user) {
-        CloseableIterable<Vertex> countQ = manager.getVertices(key, query,
-                ClassUtils.getEntityType(cls));
+        return pageIndexHits(manager.getVertices(key, query,
+                ClassUtils.getEntityType(cls)), user);
+    }
+
+    /**
+     * Page a set of index hits, which are closed once the page has been
+     * read, or, if the page is an unbounded stream, when it is closed.
+     */
+    private Page<E> pageIndexHits(SizedCloseableIterable<Vertex> hits, Accessor user) {
+        return pageVertices(hits, estimateSize(hits), user, cls,
+                Optional.<CloseableIterable<?>>of(hits));
+    }
+
+    /**
+     * Page a set of raw vertices, reading them only once. If the
+     * count mode is {@link CountMode#ESTIMATED} and an estimated
+     * size is given that is used as the page total.
+     * <p/>
+     * Pages are read up front, apart from unbounded streams which
+     * are read lazily, so if the vertices are read from a closeable
+     * source it is closed here unless it is handed over to the page.
+     */
+    private <T extends Frame> Page<T> pageVertices(Iterable<Vertex> vertices,
+            long estimatedSize, Accessor user, Class<T> cls,
+            Optional<CloseableIterable<?>> source) {
+        boolean streaming = false;
         try {
-            CloseableIterable<Vertex> indexQ = manager.getVertices(key,
-                    query, ClassUtils.getEntityType(cls));
+            PipeFunction<Vertex, Boolean> aclFilterFunction = new AclManager(graph)
+                    .getAclFilterFunction(user);
+
+            boolean useEstimate = countMode == CountMode.NONE || cursor.isPresent()
+                    || (countMode == CountMode.ESTIMATED && estimatedSize != NO_COUNT);
+            Optional<Long> total = useEstimate
+                    ? Optional.of(countMode == CountMode.ESTIMATED ? estimatedSize : NO_COUNT)
+                    : Optional.<Long>absent();
+            if (cursor.isPresent() || isOrdered()) {
+                return sortAndPage(vertices, getVisibilityFunction(aclFilterFunction), total, cls);
+            }
+
+            GremlinPipeline<Vertex, Vertex> pipeline = applyFilters(new GremlinPipeline<Vertex, Vertex>(
+                    vertices).filter(aclFilterFunction));
+            if (!total.isPresent()) {
+                return countAndPage(pipeline, cls);
+            } else if (limit < 0) {
+                streaming = true;
+                return new Page<T>(graph.frameVertices(setPipelineRange(pipeline), cls),
+                        offset, limit, total.get(), Optional.<String>absent(), source);
+            } else {
+                List<Vertex> window = setPipelineRange(pipeline).toList();
+                return new Page<T>(graph.frameVertices(window, cls), offset, limit, total.get());
+            }
+        } finally {
+            if (source.isPresent() && !streaming) {
+                source.get().close();
+            }
+        }
+    }
+
+    /**
+     * Fetch the index size of a set of vertices, but only if
+     * we're going to use it.
+     */
+    private long estimateSize(SizedCloseableIterable<Vertex> vertices) {
+        return countMode == CountMode.ESTIMATED ? vertices.size() : NO_COUNT;
+    }
+
+    /**
+     * Page forward from the query's cursor through the vertices
+     * of the given type, read from the index in order of ID, which
+     * is the cursor order when the query has no other. Only as many
+     * items are read as are needed to fill the page.
+     */
+    private Page<E> seekAndPage(EntityClass type, Accessor user) {
+        Optional<SortEntry> from = getCursorEntry(getCursorSortFields());
+        String fromId = from.isPresent() ? String.valueOf(from.get().keys[0]) : null;
+        long total = NO_COUNT;
+        if (countMode == CountMode.ESTIMATED) {
+            SizedCloseableIterable<Vertex> hits = manager.getVertices(type);
             try {
-                PipeFunction<Vertex, Boolean> aclFilterFunction = new AclManager(
-                        graph).getAclFilterFunction(user);
-                long numItems = stream
-                        ? NO_COUNT
-                        : applyFilters(new GremlinPipeline<Vertex, Vertex>(countQ)
-                            .filter(aclFilterFunction)).count();
-
-                return new Page<E>(
-                        graph.frameVertices(
-                                setPipelineRange(setOrder(applyFilters(new GremlinPipeline<Vertex, Vertex>(
-                                        indexQ).filter(aclFilterFunction)))),
-                                cls), offset, limit, numItems);
+                total = hits.size();
             } finally {
-                indexQ.close();
+                hits.close();
+            }
+        }
+
+        PipeFunction<Vertex, Boolean> visible = getVisibilityFunction(
+                new AclManager(graph).getAclFilterFunction(user));
+        long low = Math.max(0, offset);
+        long position = 0L;
+        List<Vertex> items = Lists.newArrayList();
+        CloseableIterable<Vertex> vertices = manager.getVerticesAfter(type, fromId);
+        try {
+            for (Vertex vertex : vertices) {
+                if (limit >= 0 && items.size() >= limit) {
+                    break;
+                }
+                if (visible.compute(vertex) && position++ >= low) {
+                    items.add(vertex);
+                }
             }
         } finally {
-            countQ.close();
+            vertices.close();
+        }
+        Optional<String> nextCursor = limit > 0 && items.size() == limit
+                ? Optional.of(new PageCursor(Lists.<Object>newArrayList(
+                        manager.getId(items.get(items.size() - 1)))).encode())
+                : Optional.<String>absent();
+        return new Page<E>(graph.frameVertices(items, cls), offset, limit, total, nextCursor);
+    }
+
+    /**
+     * Count a set of (already filtered, unordered) vertices whilst
+     * selecting the requested page window in a single pass. Only
+     * the items in the window are retained.
+     */
+    private <T extends Frame> Page<T> countAndPage(Iterable<Vertex> vertices, Class<T> cls) {
+        long low = Math.max(0, offset);
+        long high = limit < 0 ? Long.MAX_VALUE : low + limit;
+        List<Vertex> window = Lists.newArrayList();
+        long total = 0L;
+        for (Vertex vertex : vertices) {
+            if (total >= low && total < high) {
+                window.add(vertex);
+            }
+            total++;
+        }
+        return new Page<T>(graph.frameVertices(window, cls), offset, limit, total);
+    }
+
+    /**
+     * Sort a set of vertices, filter them by visibility and select
+     * the requested page window. Each item's sort keys are read once,
+     * and when the page is limited only the first offset + limit
+     * items are retained while sorting. If no total is given the
+     * visible items are counted as they are read.
+     * <p/>
+     * If a cursor is set only items after it are selected, and those
+     * before it are skipped without checking their visibility.
+     */
+    private <T extends Frame> Page<T> sortAndPage(Iterable<Vertex> vertices,
+            final PipeFunction<Vertex, Boolean> visible, Optional<Long> total, Class<T> cls) {
+        final List<Pair<PipeFunction<Vertex, Object>, Sort>> fields = cursor.isPresent()
+                ? getCursorSortFields()
+                : getSortFields();
+        final Ordering<SortEntry> ordering = getSortEntryOrdering(fields);
+        final Optional<SortEntry> from = getCursorEntry(fields);
+        final boolean counting = !total.isPresent();
+        final long[] count = {0L};
+        Iterable<SortEntry> entries = Iterables.filter(
+                Iterables.transform(vertices, getSortEntryFunction(fields)),
+                new Predicate<SortEntry>() {
+                    public boolean apply(SortEntry entry) {
+                        boolean after = !from.isPresent()
+                                || compareKeys(fields, entry, from.get()) > 0;
+                        if ((after || counting) && visible.compute(entry.vertex)) {
+                            count[0]++;
+                            return after;
+                        }
+                        return false;
+                    }
+                });
+
+        int low = Math.max(0, offset);
+        List<SortEntry> sorted;
+        if (limit < 0) {
+            sorted = ordering.sortedCopy(entries);
+        } else if (low + (long) limit == 0L) {
+            sorted = Lists.newArrayList();
+            if (counting) {
+                Iterables.size(entries);
+            }
+        } else {
+            sorted = ordering.leastOf(entries,
+                    (int) Math.min(Integer.MAX_VALUE, low + (long) limit));
+        }
+
+        List<SortEntry> window = sorted.subList(Math.min(low, sorted.size()), sorted.size());
+        List<Vertex> items = Lists.newArrayListWithCapacity(window.size());
+        for (SortEntry entry : window) {
+            items.add(entry.vertex);
+        }
+        Optional<String> nextCursor = cursor.isPresent() && limit > 0 && window.size() == limit
+                ? Optional.of(new PageCursor(Arrays.asList(window.get(window.size() - 1).keys)).encode())
+                : Optional.<String>absent();
+        return new Page<T>(graph.frameVertices(items, cls), offset, limit,
+                total.or(count[0]), nextCursor);
+    }
+
+    /**
+     * Combine the ACL filter, if given, and the query's own filters
+     * into a single function.
+     */
+    private PipeFunction<Vertex, Boolean> getVisibilityFunction(
+            PipeFunction<Vertex, Boolean> aclFilterFunction) {
+        final List<PipeFunction<Vertex, Boolean>> functions = Lists.newArrayList();
+        if (aclFilterFunction != null) {
+            functions.add(aclFilterFunction);
+        }
+        if (!traversalFilters.isEmpty()) {
+            functions.add(getTraversalFilterFunction());
+        }
+        if (!depthFilters.isEmpty()) {
+            functions.add(getDepthFilterFunction());
+        }
+        if (!filters.isEmpty()) {
+            functions.add(getFilterFunction());
         }
+        return new PipeFunction<Vertex, Boolean>() {
+            public Boolean compute(Vertex vertex) {
+                for (PipeFunction<Vertex, Boolean> function : functions) {
+                    if (!function.compute(vertex)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
     }
 
     /**
@@ -306,32 +572,67 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
     }
 
     /**
-     * Count items.
-     * <p/>
-     * NB: Count doesn't 'account' for ACL privileges!
+     * Count items accessible to a given user.
      */
-    public long count() {
-        return count(ClassUtils.getEntityType(cls));
+    public long count(Accessor user) {
+        return count(ClassUtils.getEntityType(cls), user);
     }
 
     /**
      * Count items accessible to a given user.
+     */
+    public <T extends Frame> long count(Iterable<T> vertices, Accessor user) {
+        return countVertices(new FramedVertexIterableAdaptor<T>(vertices), user);
+    }
+
+    /**
+     * Count all items of a given type accessible to a given user.
      * <p/>
-     * NB: Count doesn't 'account' for ACL privileges!
+     * If the user is an admin and the query has no filters this
+     * is the size reported by the index, without reading any items.
      */
-    public <T> long count(Iterable<T> vertices) {
-        GremlinPipeline<T, Vertex> filter = new GremlinPipeline<T, Vertex>(vertices);
+    public long count(EntityClass type, Accessor user) {
+        SizedCloseableIterable<Vertex> vertices = manager.getVertices(type);
+        try {
+            if (!isFiltered() && new AclManager(graph).belongsToAdmin(user)) {
+                return vertices.size();
+            }
+            return countVertices(vertices, user);
+        } finally {
+            vertices.close();
+        }
+    }
 
-        return applyFilters(filter).count();
+    /**
+     * Count the vertices visible to a user in a single pass,
+     * without retaining any of them. Items are not checked
+     * against the ACL if the user is an admin, and if the
+     * query has no filters either they are simply counted.
+     */
+    private long countVertices(Iterable<Vertex> vertices, Accessor user) {
+        AclManager acl = new AclManager(graph);
+        boolean admin = acl.belongsToAdmin(user);
+        if (admin && !isFiltered()) {
+            return Iterables.size(vertices);
+        }
+        PipeFunction<Vertex, Boolean> visible = admin
+                ? getVisibilityFunction(null)
+                : getVisibilityFunction(acl.getAclFilterFunction(user));
+        long count = 0L;
+        for (Vertex vertex : vertices) {
+            if (visible.compute(vertex)) {
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
-     * Count all items of a given type.
-     * <p/>
-     * NB: Count doesn't 'account' for ACL privileges!
+     * Determine if this query filters items in any way, other
+     * than by access control.
      */
-    public long count(EntityClass type) {
-        return count(manager.getVertices(type));
+    private boolean isFiltered() {
+        return !filters.isEmpty() || !depthFilters.isEmpty() || !traversalFilters.isEmpty();
     }
 
     /**
@@ -341,7 +642,7 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
      */
     public Query<E> setOffset(int offset) {
         return new Query<E>(graph, cls, scope, offset,
-                limit, sort, traversalSort, defaultSort, filters, depthFilters, traversalFilters, stream);
+                limit, sort, traversalSort, defaultSort, filters, depthFilters, traversalFilters, countMode, cursor);
     }
 
     /**
@@ -352,7 +653,7 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
     public Query<E> setLimit(int limit) {
         return new Query<E>(graph, cls, scope, offset,
                 limit, sort, traversalSort, defaultSort, filters,
-                depthFilters, traversalFilters, stream);
+                depthFilters, traversalFilters, countMode, cursor);
     }
 
     /**
@@ -363,9 +664,40 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
      * @param stream Whether to stream results lazily.
      */
     public Query<E> setStream(boolean stream) {
+        return setCountMode(stream ? CountMode.NONE : CountMode.EXACT);
+    }
+
+    /**
+     * Set the strategy used to calculate page totals.
+     *
+     * @param countMode A count mode.
+     */
+    public Query<E> setCountMode(CountMode countMode) {
+        return new Query<E>(graph, cls, scope, offset,
+                limit, sort, traversalSort, defaultSort, filters,
+                depthFilters, traversalFilters, countMode, cursor);
+    }
+
+    /**
+     * Page from the given cursor position, as returned by
+     * {@link Page#getNextCursor()}, rather than from the start of
+     * the results. Use {@link PageCursor#START} for the first page.
+     * <p/>
+     * When a cursor is set results are always ordered, with the item
+     * ID as the final sort key (or the only one, if no other order is
+     * given), and the offset is relative to the cursor position. Items
+     * before the cursor are not checked against the ACL or filters, and
+     * so are not counted: the page total is -1, or the index estimate
+     * if the count mode is {@link CountMode#ESTIMATED}. Unordered pages
+     * of a given entity type seek to the cursor via the index.
+     *
+     * @param cursor A page cursor
+     */
+    public Query<E> setCursor(PageCursor cursor) {
         return new Query<E>(graph, cls, scope, offset,
                 limit, sort, traversalSort, defaultSort, filters,
-                depthFilters, traversalFilters, stream);
+                depthFilters, traversalFilters, countMode,
+                Optional.fromNullable(cursor));
     }
 
     /**
@@ -375,7 +707,7 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
 
         return new Query<E>(graph, cls, scope, offset, limit, sort, traversalSort,
                 Optional.of(new Pair<String, Sort>(field, order)), filters,
-                depthFilters, traversalFilters, stream);
+                depthFilters, traversalFilters, countMode, cursor);
     }
 
     /**
@@ -385,7 +717,7 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
         SortedMap<String, Sort> tmp = new ImmutableSortedMap.Builder<String, Sort>(
                 Ordering.natural()).putAll(sort).put(field, order).build();
         return new Query<E>(graph, cls, scope, offset, limit, tmp, traversalSort, defaultSort,
-                filters, depthFilters, traversalFilters, stream);
+                filters, depthFilters, traversalFilters, countMode, cursor);
     }
 
     public Query<E> orderByTraversal(QueryUtils.TraversalPath tp, Sort order) {
@@ -393,7 +725,7 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
                 Ordering.arbitrary()).putAll(traversalSort);
         tmp.put(tp, order);
         return new Query<E>(graph, cls, scope, offset, limit, sort, tmp.build(), defaultSort,
-                filters, depthFilters, traversalFilters, stream);
+                filters, depthFilters, traversalFilters, countMode, cursor);
     }
 
 
@@ -435,7 +767,7 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
                 defaultSort,
                 ImmutableSortedMap.<String, Pair<FilterPredicate, String>>of(),
                 depthFilters, traversalFilters,
-                stream);
+                countMode, cursor);
     }
 
     /**
@@ -453,7 +785,7 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
                 defaultSort,
                 filters,
                 depthFilters, traversalFilters,
-                stream);
+                countMode, cursor);
     }
 
     /**
@@ -464,7 +796,7 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
         Map<Pair<String, Direction>, Integer> tmp = Maps.newHashMap(depthFilters);
         tmp.put(new Pair<String, Direction>(label, direction), depth);
         return new Query<E>(graph, cls, scope, offset, limit, sort,
-                traversalSort, defaultSort, filters, tmp, traversalFilters, stream);
+                traversalSort, defaultSort, filters, tmp, traversalFilters, countMode, cursor);
     }
 
     /**
@@ -483,7 +815,7 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
         builder.put(property, new Pair<FilterPredicate, String>(predicate, value));
 
         return new Query<E>(graph, cls, scope, offset, limit, sort,
-                traversalSort, defaultSort, builder.build(), depthFilters, traversalFilters, stream);
+                traversalSort, defaultSort, builder.build(), depthFilters, traversalFilters, countMode, cursor);
     }
 
     /**
@@ -491,10 +823,11 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
      */
     public Query<E> filterTraversal(QueryUtils.TraversalPath path, FilterPredicate predicate,
             String value) {
-        ArrayList<GremlinPipeline<Vertex, Vertex>> tmp = Lists.newArrayList(traversalFilters);
-        tmp.add(getFilterTraversalPipeline(path, new Pair<FilterPredicate, String>(predicate, value)));
+        List<Pair<QueryUtils.TraversalPath, Pair<FilterPredicate, String>>> tmp = Lists.newArrayList(traversalFilters);
+        tmp.add(new Pair<QueryUtils.TraversalPath, Pair<FilterPredicate, String>>(path,
+                new Pair<FilterPredicate, String>(predicate, value)));
         return new Query<E>(graph, cls, scope, offset, limit, sort,
-                traversalSort, defaultSort, filters, depthFilters, tmp, stream);
+                traversalSort, defaultSort, filters, depthFilters, tmp, countMode, cursor);
     }
 
     /**
@@ -528,6 +861,10 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
 
     // Helpers
 
+    private boolean isOrdered() {
+        return !sort.isEmpty() || !traversalSort.isEmpty() || defaultSort.isPresent();
+    }
+
     private <EE> GremlinPipeline<EE, Vertex> setPipelineRange(
             GremlinPipeline<EE, Vertex> filter) {
         int low = Math.max(0, offset);
@@ -544,30 +881,6 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
         }
     }
 
-    private <EE> GremlinPipeline<EE, Vertex> setOrder(
-            GremlinPipeline<EE, Vertex> pipe) {
-        pipe = setTraversalOrdering(pipe);
-        if (sort.isEmpty()) {
-            if (defaultSort.isPresent()) {
-                return pipe
-                        .order(getOrderFunction(new ImmutableSortedMap.Builder<String, Sort>(
-                                Ordering.natural().nullsLast()).put(
-                                defaultSort.get().getA(),
-                                defaultSort.get().getB()).build()));
-            }
-            return pipe;
-        }
-        return pipe.order(getOrderFunction(sort));
-    }
-
-    private <EE> GremlinPipeline<EE, Vertex> setTraversalOrdering(
-            GremlinPipeline<EE, Vertex> pipe) {
-        for (Entry<QueryUtils.TraversalPath, Sort> entry : traversalSort.entrySet()) {
-            pipe = pipe.order(getTraversalOrderFunction(entry.getKey(), entry.getValue()));
-        }
-        return pipe;
-    }
-
     private <EE> GremlinPipeline<EE, Vertex> setFilters(
             GremlinPipeline<EE, Vertex> pipe) {
         if (filters.isEmpty())
@@ -590,23 +903,123 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
     }
 
     /**
-     * Get a PipeFunction which sorted vertices by the ordered list
-     * of sort parameters.
+     * Get the functions that extract the sort keys for each
+     * vertex, in order of precedence. Property orderings (or the
+     * default ordering, if there are none) come first, then traversal
+     * orderings, the most recently added of which takes precedence.
+     */
+    private List<Pair<PipeFunction<Vertex, Object>, Sort>> getSortFields() {
+        List<Pair<PipeFunction<Vertex, Object>, Sort>> fields = Lists.newArrayList();
+        if (sort.isEmpty() && defaultSort.isPresent()) {
+            fields.add(new Pair<PipeFunction<Vertex, Object>, Sort>(
+                    getSortKeyFunction(getPropertyFunction(defaultSort.get().getA())),
+                    defaultSort.get().getB()));
+        }
+        for (Entry<String, Sort> entry : sort.entrySet()) {
+            fields.add(new Pair<PipeFunction<Vertex, Object>, Sort>(
+                    getSortKeyFunction(getPropertyFunction(entry.getKey())), entry.getValue()));
+        }
+        for (Entry<QueryUtils.TraversalPath, Sort> entry
+                : Lists.reverse(Lists.newArrayList(traversalSort.entrySet()))) {
+            fields.add(new Pair<PipeFunction<Vertex, Object>, Sort>(
+                    getSortKeyFunction(getTraversalValueFunction(entry.getKey())),
+                    entry.getValue()));
+        }
+        return fields;
+    }
+
+    /**
+     * Get the sort fields used when paging with a cursor, which
+     * always end with the item ID so the ordering is total. The
+     * ID is compared as a string, as it is in a {@link PageCursor},
+     * rather than read as a sort key, which might be, e.g., a date.
      */
-    private PipeFunction<Pair<Vertex, Vertex>, Integer> getOrderFunction(
-            final SortedMap<String, Sort> sort) {
-        final Ordering<Comparable<?>> order = Ordering.natural().nullsLast();
-        return new PipeFunction<Pair<Vertex, Vertex>, Integer>() {
-            public Integer compute(Pair<Vertex, Vertex> pair) {
-                ComparisonChain chain = ComparisonChain.start();
-                for (Entry<String, Sort> entry : sort.entrySet()) {
-                    Vertex a = entry.getValue() == Sort.ASC ? pair.getA() : pair.getB();
-                    Vertex b = entry.getValue() == Sort.ASC ? pair.getB() : pair.getA();
-                    chain = chain.compare(
-                            (String) a.getProperty(entry.getKey()),
-                            (String) b.getProperty(entry.getKey()), order);
+    private List<Pair<PipeFunction<Vertex, Object>, Sort>> getCursorSortFields() {
+        List<Pair<PipeFunction<Vertex, Object>, Sort>> fields = getSortFields();
+        fields.add(new Pair<PipeFunction<Vertex, Object>, Sort>(
+                getPropertyFunction(EntityType.ID_KEY), Sort.ASC));
+        return fields;
+    }
+
+    /**
+     * Get a sort entry for the position of the query's cursor,
+     * if it has one that is not at the start.
+     */
+    private Optional<SortEntry> getCursorEntry(List<Pair<PipeFunction<Vertex, Object>, Sort>> fields) {
+        if (!cursor.isPresent() || cursor.get().isStart()) {
+            return Optional.absent();
+        }
+        List<Object> keys = cursor.get().getKeys();
+        if (keys.size() != fields.size()) {
+            throw new IllegalArgumentException("Cursor does not match the query's sort order");
+        }
+        return Optional.of(new SortEntry(null, keys.toArray(), -1L));
+    }
+
+    /**
+     * Get a function that reads a vertex's sort keys, numbering
+     * the entries in the order they are read.
+     */
+    private static Function<Vertex, SortEntry> getSortEntryFunction(
+            final List<Pair<PipeFunction<Vertex, Object>, Sort>> fields) {
+        return new Function<Vertex, SortEntry>() {
+            private long position = 0L;
+
+            public SortEntry apply(Vertex vertex) {
+                Object[] keys = new Object[fields.size()];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = fields.get(i).getA().compute(vertex);
                 }
-                return chain.result();
+                return new SortEntry(vertex, keys, position++);
+            }
+        };
+    }
+
+    /**
+     * Compare two sort entries by their keys alone.
+     */
+    private static int compareKeys(List<Pair<PipeFunction<Vertex, Object>, Sort>> fields,
+            SortEntry a, SortEntry b) {
+        Ordering<Object> order = PropertyValueOrdering.getInstance();
+        for (int i = 0; i < a.keys.length; i++) {
+            int cmp = order.compare(a.keys[i], b.keys[i]);
+            if (cmp != 0) {
+                return fields.get(i).getB() == Sort.ASC ? cmp : -cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get an ordering of sort entries by their keys, falling back
+     * on the order in which they were read so sorting is stable.
+     */
+    private static Ordering<SortEntry> getSortEntryOrdering(
+            final List<Pair<PipeFunction<Vertex, Object>, Sort>> fields) {
+        return new Ordering<SortEntry>() {
+            public int compare(SortEntry a, SortEntry b) {
+                int cmp = compareKeys(fields, a, b);
+                return cmp != 0 ? cmp : Longs.compare(a.index, b.index);
+            }
+        };
+    }
+
+    /**
+     * Get a function that reads a value as a sort key.
+     */
+    private static PipeFunction<Vertex, Object> getSortKeyFunction(
+            final PipeFunction<Vertex, Object> function) {
+        return new PipeFunction<Vertex, Object>() {
+            public Object compute(Vertex vertex) {
+                return PropertyValueOrdering.sortKey(function.compute(vertex));
+            }
+        };
+    }
+
+    private static PipeFunction<Vertex, Object> getPropertyFunction(final String key) {
+        return new PipeFunction<Vertex, Object>() {
+            public Object compute(Vertex vertex) {
+                return vertex.getProperty(key);
             }
         };
     }
@@ -648,15 +1061,18 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
 
     /**
      * Create a function that filters nodes given a string and a predicate.
+     * The predicates are compiled once, when the function is created.
      */
     private PipeFunction<Vertex, Boolean> getFilterFunction() {
+        final List<Pair<String, PropertyPredicate>> predicates = Lists.newArrayList();
+        for (Entry<String, Pair<FilterPredicate, String>> entry : filters.entrySet()) {
+            predicates.add(new Pair<String, PropertyPredicate>(entry.getKey(),
+                    PropertyPredicate.compile(entry.getValue().getA(), entry.getValue().getB())));
+        }
         return new PipeFunction<Vertex, Boolean>() {
             public Boolean compute(Vertex vertex) {
-                for (Entry<String, Pair<FilterPredicate, String>> entry : filters
-                        .entrySet()) {
-                    String p = vertex.getProperty(entry.getKey());
-                    if (p == null || !matches(p, entry.getValue()
-                            .getB(), entry.getValue().getA())) {
+                for (Pair<String, PropertyPredicate> predicate : predicates) {
+                    if (!predicate.getB().apply(vertex.getProperty(predicate.getA()))) {
                         return false;
                     }
                 }
@@ -665,13 +1081,22 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
         };
     }
 
+    /**
+     * Create a function that filters nodes by the values at the end of
+     * one or more traversal paths. Values reached via nodes shared between
+     * many items are only resolved once.
+     */
     private PipeFunction<Vertex, Boolean> getTraversalFilterFunction() {
-        // FIXME: Make this less horribly inefficient!
+        final List<Pair<TraversalPathEvaluator, PropertyPredicate>> evaluators = Lists.newArrayList();
+        for (Pair<QueryUtils.TraversalPath, Pair<FilterPredicate, String>> filter : traversalFilters) {
+            evaluators.add(new Pair<TraversalPathEvaluator, PropertyPredicate>(
+                    new TraversalPathEvaluator(filter.getA()),
+                    PropertyPredicate.compile(filter.getB().getA(), filter.getB().getB())));
+        }
         return new PipeFunction<Vertex, Boolean>() {
             public Boolean compute(Vertex vertex) {
-                for (GremlinPipeline<Vertex, Vertex> pipeline : traversalFilters) {
-                    pipeline.reset();
-                    if (!pipeline.start(vertex).hasNext()) {
+                for (Pair<TraversalPathEvaluator, PropertyPredicate> evaluator : evaluators) {
+                    if (!evaluator.getA().anyMatch(vertex, evaluator.getB())) {
                         return false;
                     }
                 }
@@ -680,117 +1105,18 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
         };
     }
 
-    private PipeFunction<Pair<Vertex, Vertex>, Integer> getTraversalOrderFunction(
-            final QueryUtils.TraversalPath tp, final Sort sort) {
-        // FIXME: Make this less horribly inefficient!
-        final GremlinPipeline<Vertex, String> pipe = getOrderTraversalPipeline(tp);
-        final Map<Vertex, String> cache = Maps.newHashMap();
-        final Ordering<Comparable<?>> order = Ordering.natural().nullsLast();
-        return new PipeFunction<Pair<Vertex, Vertex>, Integer>() {
-            public Integer compute(Pair<Vertex, Vertex> pair) {
-                String a = cache.get(pair.getA());
-                String b = cache.get(pair.getB());
-                if (!cache.containsKey(pair.getA())) {
-                    pipe.reset();
-                    if (pipe.start(pair.getA()).hasNext()) {
-                        a = pipe.next();
-                        cache.put(pair.getA(), a);
-                    }
-                }
-                if (!cache.containsKey(pair.getB())) {
-                    pipe.reset();
-                    if (pipe.start(pair.getB()).hasNext()) {
-                        b = pipe.next();
-                        cache.put(pair.getB(), b);
-                    }
-                }
-                return sort == Sort.ASC ? order.compare(a, b) : order.compare(b, a);
-            }
-        };
-    }
-
-    private GremlinPipeline<Vertex, String> getOrderTraversalPipeline(
-            final QueryUtils.TraversalPath traversalPath) {
-        GremlinPipeline<Vertex, Vertex> p = addTraversals(traversalPath.getTraversals(), false,
-                new GremlinPipeline<Vertex, Vertex>());
-        return p.transform(new PipeFunction<Vertex, String>() {
-            public String compute(Vertex vertex) {
-                return vertex.getProperty(traversalPath.getProperty());
-            }
-        });
-    }
-
-
-    private GremlinPipeline<Vertex, Vertex> getFilterTraversalPipeline(
-            final QueryUtils.TraversalPath traversalPath,
-            final Pair<FilterPredicate, String> filter) {
-        GremlinPipeline<Vertex, Vertex> p = addTraversals(traversalPath.getTraversals(), false,
-                new GremlinPipeline<Vertex, Vertex>());
-        return p.filter(new PipeFunction<Vertex, Boolean>() {
-            public Boolean compute(Vertex vertex) {
-                String p = vertex.getProperty(traversalPath.getProperty());
-                return p != null && matches(p, filter.getB(), filter.getA());
-            }
-        });
-    }
-
     /**
-     * Add traversals to a pipeline given a set of String/Direction pairs.
+     * Get a function that fetches the value at the end of a
+     * traversal path, or null if the path does not exist.
      */
-    private static <S> GremlinPipeline<S, Vertex> addTraversals(List<Pair<String, Direction>> paths,
-            Boolean reverse, GremlinPipeline<S, Vertex> pipe) {
-        List<Pair<String, Direction>> orderedPaths = reverse ? Lists.reverse(paths) : paths;
-        for (Pair<String, Direction> tp : orderedPaths) {
-            Direction direction = reverse ? tp.getB().opposite() : tp.getB();
-            String relation = tp.getA();
-            switch (direction) {
-                case IN:
-                    logger.debug("Adding {} relation: {}", relation, direction);
-                    pipe = pipe.in(relation);
-                    break;
-                case OUT:
-                    logger.debug("Adding {} relation: {}", relation, direction);
-                    pipe = pipe.out(relation);
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unexpected direction in traversal pipe function: " + tp.getB());
+    private static PipeFunction<Vertex, Object> getTraversalValueFunction(
+            final QueryUtils.TraversalPath tp) {
+        final TraversalPathEvaluator evaluator = new TraversalPathEvaluator(tp);
+        return new PipeFunction<Vertex, Object>() {
+            public Object compute(Vertex vertex) {
+                return evaluator.getFirstValue(vertex);
             }
-        }
-        return pipe;
-    }
-
-
-    // FIXME: This has several limitations so far.
-    // - only handles properties cast as strings
-    // - doesn't do case-insensitive regexp matching.
-    private boolean matches(String a, String b, FilterPredicate predicate) {
-        switch (predicate) {
-            case EQUALS:
-                return a.equals(b);
-            case IEQUALS:
-                return a.equalsIgnoreCase(b);
-            case STARTSWITH:
-                return a.startsWith(b);
-            case ENDSWITH:
-                return a.endsWith(b);
-            case CONTAINS:
-                return a.contains(b);
-            case ICONTAINS:
-                return a.toLowerCase().contains(b.toLowerCase());
-            case MATCHES:
-                return a.matches(b);
-            case GT:
-                return a.compareTo(b) > 0;
-            case GTE:
-                return a.compareTo(b) >= 0;
-            case LT:
-                return a.compareTo(b) < 0;
-            case LTE:
-                return a.compareTo(b) <= 0;
-            default:
-                throw new RuntimeException("Unexpected filter predicate: "
-                        + predicate);
-        }
+        };
     }
 
     @Override
@@ -806,6 +1132,22 @@ public final class Query<E extends AccessibleEntity> implements Scoped<Query> {
                 defaultSort,
                 filters,
                 depthFilters, traversalFilters,
-                stream);
+                countMode, cursor);
+    }
+
+    /**
+     * A vertex with its sort keys and the position at which
+     * it was read.
+     */
+    private static final class SortEntry {
+        private final Vertex vertex;
+        private final Object[] keys;
+        private final long index;
+
+        private SortEntry(Vertex vertex, Object[] keys, long index) {
+            this.vertex = vertex;
+            this.keys = keys;
+            this.index = index;
+        }
     }
 }
@@ -0,0 +1,109 @@
+package eu.ehri.project.views;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.pipes.util.structures.Pair;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the property values at the end of a traversal path
+ * for a series of vertices.
+ * <p/>
+ * The values reachable from each intermediate node are memoised,
+ * so when many vertices share nodes along the path, for example
+ * many documentary units held by the same repository, the rest
+ * of the path is only walked once per shared node. An evaluator
+ * is intended to be used for a single pass over a set of vertices
+ * (e.g. one query) and is not thread-safe.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public final class TraversalPathEvaluator {
+
+    private final List<Pair<String, Direction>> traversals;
+    private final String property;
+    private final List<Map<Object, List<Object>>> memo;
+
+    /**
+     * Constructor.
+     *
+     * @param path A traversal path
+     */
+    public TraversalPathEvaluator(QueryUtils.TraversalPath path) {
+        this.traversals = ImmutableList.copyOf(path.getTraversals());
+        this.property = path.getProperty();
+        this.memo = Lists.newArrayListWithCapacity(traversals.size());
+        for (int i = 0; i < traversals.size(); i++) {
+            memo.add(Maps.<Object, List<Object>>newHashMap());
+        }
+    }
+
+    /**
+     * Get the non-null values at the end of the path from a vertex,
+     * in the order they would be found by following its relationships.
+     *
+     * @param vertex The start vertex
+     * @return A list of property values
+     */
+    public List<Object> getValues(Vertex vertex) {
+        return getValues(vertex, 0);
+    }
+
+    /**
+     * Get the first value at the end of the path from a vertex.
+     *
+     * @param vertex The start vertex
+     * @return A property value, or null if there is none
+     */
+    public Object getFirstValue(Vertex vertex) {
+        return Iterables.getFirst(getValues(vertex), null);
+    }
+
+    /**
+     * Determine whether any value at the end of the path from a
+     * vertex satisfies the given predicate.
+     *
+     * @param vertex    The start vertex
+     * @param predicate A value predicate
+     * @return Whether a matching value exists
+     */
+    public boolean anyMatch(Vertex vertex, Predicate<Object> predicate) {
+        return Iterables.any(getValues(vertex), predicate);
+    }
+
+    private List<Object> getValues(Vertex vertex, int depth) {
+        if (depth == traversals.size()) {
+            Object value = vertex.getProperty(property);
+            return value == null
+                    ? ImmutableList.of()
+                    : ImmutableList.of(value);
+        }
+
+        // The start vertices are only seen once, so there's
+        // no point in memoising their values.
+        Map<Object, List<Object>> cache = depth > 0 ? memo.get(depth) : null;
+        if (cache != null) {
+            List<Object> cached = cache.get(vertex.getId());
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Pair<String, Direction> step = traversals.get(depth);
+        List<Object> values = Lists.newArrayList();
+        for (Vertex next : vertex.getVertices(step.getB(), step.getA())) {
+            values.addAll(getValues(next, depth + 1));
+        }
+        if (cache != null) {
+            cache.put(vertex.getId(), values);
+        }
+        return values;
+    }
+}
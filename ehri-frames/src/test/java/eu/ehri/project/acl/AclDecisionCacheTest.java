@@ -0,0 +1,114 @@
+package eu.ehri.project.acl;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import eu.ehri.project.models.Annotation;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.Group;
+import eu.ehri.project.models.PermissionGrant;
+import eu.ehri.project.models.Repository;
+import eu.ehri.project.models.UserProfile;
+import eu.ehri.project.models.base.AccessibleEntity;
+import eu.ehri.project.models.base.Accessor;
+import eu.ehri.project.models.base.PermissionScope;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cross-check memoised permission decisions against
+ * uncached ones over the fixture data.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class AclDecisionCacheTest extends AbstractFixtureTest {
+
+    @Test
+    public void testCachedDecisionsMatchUncached() throws Exception {
+        crossCheck(new AclManager(graph));
+    }
+
+    @Test
+    public void testScopedCachedDecisionsMatchUncached() throws Exception {
+        PermissionScope r1 = manager.getFrame("r1", PermissionScope.class);
+        crossCheck(new AclManager(graph, r1));
+        PermissionScope c1 = manager.getFrame("c1", PermissionScope.class);
+        crossCheck(new AclManager(graph, c1));
+    }
+
+    @Test
+    public void testGrantsInvalidateDecisions() throws Exception {
+        AclManager acl = new AclManager(graph);
+        assertFalse(acl.hasPermission(item, PermissionType.UPDATE, invalidUser));
+        PermissionGrant grant = acl.grantPermission(item, PermissionType.UPDATE, invalidUser);
+        assertTrue(acl.hasPermission(item, PermissionType.UPDATE, invalidUser));
+        assertTrue(acl.getInheritedItemPermissions(item, invalidUser)
+                .has(PermissionType.UPDATE));
+        acl.revokePermissionGrant(grant);
+        assertFalse(acl.hasPermission(item, PermissionType.UPDATE, invalidUser));
+        assertFalse(acl.getInheritedItemPermissions(item, invalidUser)
+                .has(PermissionType.UPDATE));
+    }
+
+    @Test
+    public void testMembershipChangesInvalidateDecisions() throws Exception {
+        // Moderators have a global grant to promote annotations
+        Annotation ann5 = manager.getFrame("ann5", Annotation.class);
+        Group moderators = manager.getFrame("moderators", Group.class);
+        AclManager acl = new AclManager(graph);
+        assertFalse(acl.hasPermission(ann5, PermissionType.PROMOTE, invalidUser));
+        moderators.addMember(invalidUser);
+        assertTrue(acl.hasPermission(ann5, PermissionType.PROMOTE, invalidUser));
+        moderators.removeMember(invalidUser);
+        assertFalse(acl.hasPermission(ann5, PermissionType.PROMOTE, invalidUser));
+    }
+
+    private void crossCheck(AclManager acl) throws Exception {
+        AclManager uncached = acl.withDecisionCache(false);
+        List<Accessor> accessors = getAccessors();
+        List<AccessibleEntity> items = getItems();
+        // Check each decision twice so the second answer
+        // comes from the cache.
+        for (int i = 0; i < 2; i++) {
+            for (Accessor accessor : accessors) {
+                for (PermissionType perm : PermissionType.values()) {
+                    for (ContentTypes ct : ContentTypes.values()) {
+                        assertEquals(String.format("%s %s %s", accessor.getId(), perm, ct),
+                                uncached.hasPermission(ct, perm, accessor),
+                                acl.hasPermission(ct, perm, accessor));
+                    }
+                    for (AccessibleEntity entity : items) {
+                        assertEquals(String.format("%s %s %s", accessor.getId(), perm, entity.getId()),
+                                uncached.hasPermission(entity, perm, accessor),
+                                acl.hasPermission(entity, perm, accessor));
+                    }
+                }
+                for (AccessibleEntity entity : items) {
+                    assertEquals(uncached.getInheritedItemPermissions(entity, accessor).serialize(),
+                            acl.getInheritedItemPermissions(entity, accessor).serialize());
+                }
+            }
+        }
+    }
+
+    private List<Accessor> getAccessors() {
+        List<Accessor> accessors = Lists.<Accessor>newArrayList(AnonymousAccessor.getInstance());
+        Iterables.addAll(accessors, manager.getFrames(EntityClass.USER_PROFILE, UserProfile.class));
+        Iterables.addAll(accessors, manager.getFrames(EntityClass.GROUP, Group.class));
+        return accessors;
+    }
+
+    private List<AccessibleEntity> getItems() {
+        List<AccessibleEntity> items = Lists.newArrayList();
+        Iterables.addAll(items, manager.getFrames(EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class));
+        Iterables.addAll(items, manager.getFrames(EntityClass.REPOSITORY, Repository.class));
+        Iterables.addAll(items, manager.getFrames(EntityClass.ANNOTATION, Annotation.class));
+        return items;
+    }
+}
@@ -100,6 +100,71 @@ public class AclManagerTest extends GraphTestBase {
         assertFalse(acl.canAccess(c1, user2));
     }
 
+    @Test
+    public void testAccessThroughNestedGroups() throws Exception {
+        loader.loadTestData();
+        Annotation ann5 = manager.getFrame("ann5", Annotation.class);
+        UserProfile reto = manager.getFrame("reto", UserProfile.class);
+        Group kcl = manager.getFrame("kcl", Group.class);
+        Group moderators = manager.getFrame("moderators", Group.class);
+        AclManager acl = new AclManager(graph);
+        assertFalse(acl.canAccess(ann5, reto));
+
+        // Reto belongs to KCL, so when KCL becomes a moderator
+        // group he gains access to the moderators' items.
+        moderators.addMember(kcl);
+        assertTrue(acl.canAccess(ann5, reto));
+        assertFalse(acl.belongsToAdmin(reto));
+        moderators.removeMember(kcl);
+        assertFalse(acl.canAccess(ann5, reto));
+    }
+
+    @Test
+    public void testAdminThroughNestedGroups() throws Exception {
+        loader.loadTestData();
+        DocumentaryUnit c1 = manager.getFrame("c1", DocumentaryUnit.class);
+        UserProfile reto = manager.getFrame("reto", UserProfile.class);
+        Group kcl = manager.getFrame("kcl", Group.class);
+        Group niod = manager.getFrame("niod", Group.class);
+        AclManager acl = new AclManager(graph);
+        assertFalse(acl.belongsToAdmin(reto));
+        assertFalse(acl.canAccess(c1, reto));
+
+        // NIOD belongs to admin, so if KCL joins NIOD
+        // Reto becomes an admin user.
+        niod.addMember(kcl);
+        assertTrue(acl.belongsToAdmin(reto));
+        assertTrue(acl.canAccess(c1, reto));
+        niod.removeMember(kcl);
+        assertFalse(acl.belongsToAdmin(reto));
+        assertFalse(acl.canAccess(c1, reto));
+    }
+
+    @Test
+    public void testAccessToPromotedItems() throws Exception {
+        loader.loadTestData();
+        // ann4 is promoted, ann5 is not, and ann6 is
+        // both promoted and demoted.
+        Annotation ann4 = manager.getFrame("ann4", Annotation.class);
+        Annotation ann5 = manager.getFrame("ann5", Annotation.class);
+        Annotation ann6 = manager.getFrame("ann6", Annotation.class);
+        UserProfile reto = manager.getFrame("reto", UserProfile.class);
+        UserProfile linda = manager.getFrame("linda", UserProfile.class);
+        Accessor anon = AnonymousAccessor.getInstance();
+        AclManager acl = new AclManager(graph);
+
+        for (Accessor accessor : Lists.newArrayList(reto, anon)) {
+            assertTrue(acl.canAccess(ann4, accessor));
+            assertFalse(acl.canAccess(ann5, accessor));
+            assertFalse(acl.canAccess(ann6, accessor));
+        }
+
+        // Linda is a moderator so can access them all
+        assertTrue(acl.canAccess(ann4, linda));
+        assertTrue(acl.canAccess(ann5, linda));
+        assertTrue(acl.canAccess(ann6, linda));
+    }
+
     @Test
     public void testRemoveAccessControl() throws Exception {
         loader.loadTestData();
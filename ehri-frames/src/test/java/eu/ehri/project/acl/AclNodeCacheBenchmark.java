@@ -0,0 +1,47 @@
+package eu.ehri.project.acl;
+
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Timing of ACL manager construction and lookups of the content
+ * type and permission nodes, with the node lookups cached and with
+ * them rebuilt for each manager, as they were before they were
+ * cached. This is excluded from the default test run; to run it:
+ * <p/>
+ * mvn test -pl ehri-frames -Dtest=AclNodeCacheBenchmark
+ */
+public class AclNodeCacheBenchmark extends AbstractFixtureTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(AclNodeCacheBenchmark.class);
+
+    private static final int COUNT = 10000;
+
+    @Test
+    public void benchmarkAclManagerConstruction() throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < COUNT; i++) {
+            AclNodeCache.invalidate(graph);
+            lookup(new AclManager(graph));
+        }
+        logger.info("Constructions with node scans, {} managers: {}ms", COUNT,
+                System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < COUNT; i++) {
+            lookup(new AclManager(graph));
+        }
+        logger.info("Constructions with cached nodes, {} managers: {}ms", COUNT,
+                System.currentTimeMillis() - start);
+    }
+
+    private void lookup(AclManager acl) {
+        assertNotNull(acl);
+        assertNotNull(AclNodeCache.getContentTypeVertex(graph, ContentTypes.DOCUMENTARY_UNIT));
+        assertNotNull(AclNodeCache.getPermissionVertex(graph, PermissionType.UPDATE));
+    }
+}
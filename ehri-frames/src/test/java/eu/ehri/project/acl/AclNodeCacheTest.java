@@ -0,0 +1,132 @@
+package eu.ehri.project.acl;
+
+import com.google.common.collect.Maps;
+import com.tinkerpop.blueprints.IndexableGraph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.frames.FramedGraph;
+import com.tinkerpop.frames.FramedGraphFactory;
+import com.tinkerpop.frames.modules.javahandler.JavaHandlerModule;
+import eu.ehri.project.core.GraphManager;
+import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.definitions.Entities;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.PermissionGrant;
+import eu.ehri.project.models.UserProfile;
+import eu.ehri.project.models.annotations.EntityType;
+import eu.ehri.project.test.AbstractFixtureTest;
+import eu.ehri.project.utils.TxCheckedNeo4jGraph;
+import org.junit.Test;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class AclNodeCacheTest extends AbstractFixtureTest {
+
+    @Test
+    public void testLookupsAreCached() throws Exception {
+        AclNodeCache.invalidate(graph);
+        assertFalse(AclNodeCache.isCached(graph));
+        Vertex create = AclNodeCache.getPermissionVertex(graph, PermissionType.CREATE);
+        assertTrue(AclNodeCache.isCached(graph));
+        assertEquals(manager.getVertex(PermissionType.CREATE.getName()), create);
+        assertEquals(manager.getVertex(ContentTypes.DOCUMENTARY_UNIT.getName()),
+                AclNodeCache.getContentTypeVertex(graph, ContentTypes.DOCUMENTARY_UNIT));
+
+        // Constructing an ACL manager does not touch the cache
+        AclNodeCache.invalidate(graph);
+        new AclManager(graph);
+        assertFalse(AclNodeCache.isCached(graph));
+    }
+
+    @Test
+    public void testDeletingPermissionInvalidatesCache() throws Exception {
+        assertNotNull(AclNodeCache.getPermissionVertex(graph, PermissionType.PROMOTE));
+        assertTrue(AclNodeCache.isCached(graph));
+        manager.deleteVertex(PermissionType.PROMOTE.getName());
+        assertFalse(AclNodeCache.isCached(graph));
+        assertNull(AclNodeCache.getPermissionVertex(graph, PermissionType.PROMOTE));
+    }
+
+    @Test
+    public void testCreatingPermissionInvalidatesCache() throws Exception {
+        manager.deleteVertex(PermissionType.PROMOTE.getName());
+        assertNull(AclNodeCache.getPermissionVertex(graph, PermissionType.PROMOTE));
+        assertTrue(AclNodeCache.isCached(graph));
+
+        Vertex promote = manager.createVertex(PermissionType.PROMOTE.getName(),
+                EntityClass.PERMISSION, Maps.<String, Object>newHashMap());
+        assertFalse(AclNodeCache.isCached(graph));
+        assertEquals(promote, AclNodeCache.getPermissionVertex(graph, PermissionType.PROMOTE));
+
+        // And grants use the new node
+        UserProfile user = manager.getFrame("reto", UserProfile.class);
+        PermissionGrant grant = new AclManager(graph).grantPermission(
+                item, PermissionType.PROMOTE, user);
+        assertEquals(promote, grant.getPermission().asVertex());
+    }
+
+    @Test
+    public void testMissingNodesAreCached() throws Exception {
+        manager.deleteVertex(PermissionType.PROMOTE.getName());
+        assertNull(AclNodeCache.getPermissionVertex(graph, PermissionType.PROMOTE));
+
+        // A node added behind the graph manager's back is not seen,
+        // because the miss is not followed by a rescan...
+        Vertex promote = graph.addVertex(null);
+        promote.setProperty(EntityType.ID_KEY, PermissionType.PROMOTE.getName());
+        promote.setProperty(EntityType.TYPE_KEY, Entities.PERMISSION);
+        ((IndexableGraph) graph.getBaseGraph()).getIndex("entities", Vertex.class)
+                .put(EntityType.TYPE_KEY, Entities.PERMISSION, promote);
+        assertNull(AclNodeCache.getPermissionVertex(graph, PermissionType.PROMOTE));
+        assertTrue(AclNodeCache.isCached(graph));
+
+        // ...until the cache is invalidated.
+        AclNodeCache.invalidate(graph);
+        assertEquals(promote, AclNodeCache.getPermissionVertex(graph, PermissionType.PROMOTE));
+    }
+
+    @Test
+    public void testStaleEntriesAreRefreshed() throws Exception {
+        manager.deleteVertex(PermissionType.PROMOTE.getName());
+        graph.getBaseGraph().commit();
+
+        // Cache a node that is subsequently rolled back
+        manager.createVertex(PermissionType.PROMOTE.getName(),
+                EntityClass.PERMISSION, Maps.<String, Object>newHashMap());
+        assertNotNull(AclNodeCache.getPermissionVertex(graph, PermissionType.PROMOTE));
+        graph.getBaseGraph().rollback();
+
+        assertTrue(AclNodeCache.isCached(graph));
+        assertNull(AclNodeCache.getPermissionVertex(graph, PermissionType.PROMOTE));
+        assertNotNull(AclNodeCache.getPermissionVertex(graph, PermissionType.CREATE));
+    }
+
+    @Test
+    public void testInvalidationIsRepeatedOnCommit() throws Exception {
+        TxCheckedNeo4jGraph txGraph = new TxCheckedNeo4jGraph(new TestGraphDatabaseFactory()
+                .newImpermanentDatabaseBuilder().newGraphDatabase());
+        try {
+            FramedGraph<TxCheckedNeo4jGraph> txFramed = new FramedGraphFactory(
+                    new JavaHandlerModule()).create(txGraph);
+            GraphManager txManager = GraphManagerFactory.getInstance(txFramed);
+            txManager.createVertex(PermissionType.PROMOTE.getName(),
+                    EntityClass.PERMISSION, Maps.<String, Object>newHashMap());
+            assertFalse(AclNodeCache.isCached(txFramed));
+            // Until the change is committed other readers can
+            // still see, and cache, the prior set of nodes...
+            AclNodeCache.getPermissionVertex(txFramed, PermissionType.CREATE);
+            assertTrue(AclNodeCache.isCached(txFramed));
+            txGraph.commit();
+            assertFalse(AclNodeCache.isCached(txFramed));
+        } finally {
+            txGraph.shutdown();
+        }
+    }
+}
@@ -241,6 +241,55 @@ public class GraphManagerTest {
             manager.setProperty(vertex, EntityType.ID_KEY, "foo");
         }
 
+        @Test
+        public void testGetVerticesSize() throws Exception {
+            manager.createVertex(TEST_ID1, TEST_TYPE,
+                    ImmutableMap.of(TEST_KEY, TEST_VALUE));
+            manager.createVertex("87654321", TEST_TYPE,
+                    ImmutableMap.of(TEST_KEY, TEST_VALUE));
+            manager.createVertex("00000001", EntityClass.GROUP,
+                    ImmutableMap.of(TEST_KEY, TEST_VALUE));
+
+            SizedCloseableIterable<Vertex> byType = manager.getVertices(TEST_TYPE);
+            assertEquals(2L, byType.size());
+            assertEquals(2, Lists.newArrayList(byType).size());
+            byType.close();
+
+            SizedCloseableIterable<Vertex> byKey = manager.getVertices(TEST_KEY,
+                    TEST_VALUE, EntityClass.GROUP);
+            assertEquals(1L, byKey.size());
+            assertEquals(1, Lists.newArrayList(byKey).size());
+            byKey.close();
+        }
+
+        @Test
+        public void testGetVerticesAfter() throws Exception {
+            for (String id : Lists.newArrayList("b", "d", "a", "c")) {
+                manager.createVertex(id, TEST_TYPE, ImmutableMap.of(TEST_KEY, TEST_VALUE));
+            }
+            manager.createVertex("bb", EntityClass.GROUP, ImmutableMap.of(TEST_KEY, TEST_VALUE));
+
+            assertEquals(Lists.newArrayList("a", "b", "c", "d"),
+                    getIds(manager.getVerticesAfter(TEST_TYPE, null)));
+            assertEquals(Lists.newArrayList("c", "d"),
+                    getIds(manager.getVerticesAfter(TEST_TYPE, "b")));
+            assertEquals(Lists.newArrayList("c", "d"),
+                    getIds(manager.getVerticesAfter(TEST_TYPE, "bb")));
+            assertTrue(getIds(manager.getVerticesAfter(TEST_TYPE, "d")).isEmpty());
+        }
+
+        private List<String> getIds(CloseableIterable<Vertex> vertices) {
+            List<String> ids = Lists.newArrayList();
+            try {
+                for (Vertex vertex : vertices) {
+                    ids.add(manager.getId(vertex));
+                }
+            } finally {
+                vertices.close();
+            }
+            return ids;
+        }
+
         @Test
         public void testSelectiveIndexing() throws Exception,
                 IntegrityError {
@@ -1,14 +1,24 @@
 package eu.ehri.project.models.events;
 
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
 import eu.ehri.project.definitions.EventTypes;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
 import eu.ehri.project.models.UserProfile;
 import eu.ehri.project.models.base.Actioner;
 import eu.ehri.project.persistence.*;
+import eu.ehri.project.persistence.utils.BundleUtils;
 import eu.ehri.project.test.AbstractFixtureTest;
 import eu.ehri.project.test.TestData;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.helpers.collection.Iterables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
 
 import static org.junit.Assert.*;
 import static org.junit.Assert.assertEquals;
@@ -17,8 +27,12 @@ import static org.junit.Assert.assertEquals;
  * @author Mike Bryant (http://github.com/mikesname)
  */
 public class VersionTest extends AbstractFixtureTest {
+    private static final Logger logger = LoggerFactory.getLogger(VersionTest.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
     private ActionManager actionManager;
     private BundleDAO bundleDAO;
+    private int edits;
 
     @Before
     public void setUp() throws Exception {
@@ -77,4 +91,132 @@ public class VersionTest extends AbstractFixtureTest {
         Bundle secondVersionData = Bundle.fromString(secondVersion.getEntityData());
         assertEquals("bar1", secondVersionData.getDataValue("foo"));
     }
+
+    @Test
+    public void testFullSnapshotsByDefault() throws Exception {
+        List<Bundle> snapshots = editDescription(actionManager, "c1", 3);
+        List<Version> versions = Lists.newArrayList(
+                manager.getFrame("c1", DocumentaryUnit.class).getAllPriorVersions());
+        assertEquals(snapshots.size(), versions.size());
+        for (Version version : versions) {
+            assertNull(version.getEntityPatch());
+            assertNotNull(version.asVertex().getProperty(Ontology.VERSION_ENTITY_DATA));
+        }
+    }
+
+    @Test
+    public void testPatchedVersions() throws Exception {
+        List<Bundle> snapshots = editDescription(
+                actionManager.withVersionSnapshotInterval(10), "c1", 100);
+        List<Version> versions = Lists.reverse(Lists.newArrayList(
+                manager.getFrame("c1", DocumentaryUnit.class).getAllPriorVersions()));
+        assertEquals(snapshots.size(), versions.size());
+
+        // Every tenth version is stored in full, and all of
+        // them reconstruct to the data they were created with.
+        long stored = 0;
+        long snapshotted = 0;
+        for (int i = 0; i < versions.size(); i++) {
+            Version version = versions.get(i);
+            assertEquals(i % 10 != 0, version.getEntityPatch() != null);
+            String data = version.getEntityData();
+            assertEquals(mapper.readTree(snapshots.get(i).toJson()), mapper.readTree(data));
+            assertEquals(snapshots.get(i), Bundle.fromString(data));
+            String patch = version.getEntityPatch();
+            stored += patch != null ? patch.length() : data.length();
+            snapshotted += data.length();
+        }
+        assertTrue(stored < snapshotted);
+        logger.info("Stored version data for {} edits: {} chars with patches, {} chars as snapshots",
+                versions.size(), stored, snapshotted);
+
+        // Serialized versions contain the full data.
+        Bundle serialized = new Serializer(graph).vertexFrameToBundle(versions.get(55));
+        assertEquals(snapshots.get(55), Bundle.fromString(
+                (String) serialized.getDataValue(Ontology.VERSION_ENTITY_DATA)));
+        assertNull(serialized.getDataValue(Ontology.VERSION_ENTITY_PATCH));
+    }
+
+    @Test
+    public void testPatchedVersionsOfOtherItems() throws Exception {
+        // Versions of different items do not interfere.
+        ActionManager patching = actionManager.withVersionSnapshotInterval(5);
+        List<Bundle> snapshots1 = editDescription(patching, "c1", 3);
+        List<Bundle> snapshots2 = editDescription(patching, "c4", 3);
+        List<Bundle> snapshots3 = editDescription(patching, "c1", 3);
+        snapshots1.addAll(snapshots3);
+        assertEquals(snapshots1, versionData("c1"));
+        assertEquals(snapshots2, versionData("c4"));
+    }
+
+    @Test
+    public void testSnapshotIntervalIsPerInstance() throws Exception {
+        ActionManager patching = actionManager.withVersionSnapshotInterval(5);
+        assertEquals(5, patching.getVersionSnapshotInterval());
+        assertEquals(5, patching.setScope(null).getVersionSnapshotInterval());
+        assertEquals(1, actionManager.getVersionSnapshotInterval());
+        editDescription(actionManager, "c1", 3);
+        for (Version version : manager.getFrame("c1", DocumentaryUnit.class).getAllPriorVersions()) {
+            assertNull(version.getEntityPatch());
+        }
+    }
+
+    @Test
+    public void testSnapshotIntervalFromConfiguration() throws Exception {
+        System.setProperty(ActionManager.VERSION_SNAPSHOT_INTERVAL_PROPERTY, "3");
+        try {
+            assertEquals(3, new ActionManager(graph).getVersionSnapshotInterval());
+        } finally {
+            System.clearProperty(ActionManager.VERSION_SNAPSHOT_INTERVAL_PROPERTY);
+        }
+        assertEquals(1, new ActionManager(graph).getVersionSnapshotInterval());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSnapshotInterval() throws Exception {
+        actionManager.withVersionSnapshotInterval(0);
+    }
+
+    // Edit an item's description a number of times, changing a word of
+    // one of its text fields each time, and logging a version with the
+    // given action manager, and return a snapshot of the item prior to
+    // each edit.
+    private List<Bundle> editDescription(ActionManager actions, String id, int count)
+            throws Exception {
+        Actioner actioner = graph.frame(validUser.asVertex(), Actioner.class);
+        Serializer serializer = new Serializer.Builder(graph).dependentOnly().build();
+        List<String> fields = Lists.newArrayList("scopeAndContent", "biographicalHistory",
+                "archivalHistory", "acquisition", "appraisal", "accruals",
+                "systemOfArrangement", "conditionsOfAccess");
+        List<List<String>> texts = Lists.newArrayList();
+        for (String field : fields) {
+            List<String> words = Lists.newArrayList();
+            for (int i = 0; i < 100; i++) {
+                words.add(field + i);
+            }
+            texts.add(words);
+        }
+        List<Bundle> snapshots = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            Bundle bundle = serializer.vertexFrameToBundle(
+                    manager.getFrame(id, DocumentaryUnit.class));
+            snapshots.add(bundle);
+            List<String> words = texts.get(i % fields.size());
+            words.set(i % words.size(), "edit" + edits++);
+            Mutation<DocumentaryUnit> update = bundleDAO.update(BundleUtils.set(bundle,
+                    "describes[0]/" + fields.get(i % fields.size()),
+                    Joiner.on(" ").join(words)), DocumentaryUnit.class);
+            actions.logEvent(update.getNode(), actioner, EventTypes.modification)
+                    .createVersion(update.getNode(), bundle);
+        }
+        return snapshots;
+    }
+
+    private List<Bundle> versionData(String id) throws Exception {
+        List<Bundle> data = Lists.newArrayList();
+        for (Version version : manager.getFrame(id, DocumentaryUnit.class).getAllPriorVersions()) {
+            data.add(Bundle.fromString(version.getEntityData()));
+        }
+        return Lists.reverse(data);
+    }
 }
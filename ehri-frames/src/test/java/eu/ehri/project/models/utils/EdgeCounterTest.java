@@ -0,0 +1,139 @@
+package eu.ehri.project.models.utils;
+
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.core.GraphCounterRepairer;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.Country;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.Repository;
+import eu.ehri.project.models.UserProfile;
+import eu.ehri.project.models.base.Watchable;
+import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.BundleDAO;
+import eu.ehri.project.persistence.Serializer;
+import eu.ehri.project.test.AbstractFixtureTest;
+import eu.ehri.project.test.TestData;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class EdgeCounterTest extends AbstractFixtureTest {
+
+    @Test
+    public void testForType() throws Exception {
+        assertTrue(EdgeCounter.forType(EntityClass.REPOSITORY)
+                .contains(Repository.CHILD_COUNTER));
+        assertTrue(EdgeCounter.forType(EntityClass.REPOSITORY)
+                .contains(Watchable.WATCHED_COUNTER));
+        assertTrue(EdgeCounter.forType(EntityClass.ADDRESS).isEmpty());
+    }
+
+    @Test
+    public void testCountIsStoredOnChange() throws Exception {
+        DocumentaryUnit c1 = manager.getFrame("c1", DocumentaryUnit.class);
+        Vertex vertex = c1.asVertex();
+        assertNull(vertex.getProperty(DocumentaryUnit.CHILD_COUNTER.getPropertyName()));
+        assertEquals(1L, c1.getChildCount());
+
+        DocumentaryUnit child = createUnit("new-child");
+        c1.addChild(child);
+        assertEquals(2L, vertex.getProperty(DocumentaryUnit.CHILD_COUNTER.getPropertyName()));
+        assertEquals(2L, c1.getChildCount());
+        assertConsistent();
+    }
+
+    @Test
+    public void testCountsThroughCreateAndDelete() throws Exception {
+        DocumentaryUnit c1 = manager.getFrame("c1", DocumentaryUnit.class);
+        DocumentaryUnit child = createUnit("new-child");
+        c1.addChild(child);
+        assertEquals(2L, c1.getChildCount());
+
+        Bundle bundle = new Serializer.Builder(graph).dependentOnly().build()
+                .vertexFrameToBundle(child);
+        new BundleDAO(graph).delete(bundle);
+        assertEquals(1L, c1.getChildCount());
+        assertEquals(1L, c1.asVertex().getProperty(DocumentaryUnit.CHILD_COUNTER.getPropertyName()));
+        assertConsistent();
+    }
+
+    @Test
+    public void testCountsThroughMove() throws Exception {
+        DocumentaryUnit c1 = manager.getFrame("c1", DocumentaryUnit.class);
+        DocumentaryUnit c2 = manager.getFrame("c2", DocumentaryUnit.class);
+        DocumentaryUnit c3 = manager.getFrame("c3", DocumentaryUnit.class);
+        assertEquals(1L, c1.getChildCount());
+        assertEquals(1L, c2.getChildCount());
+
+        // Move c3 up a level...
+        c1.addChild(c3);
+        assertEquals(2L, c1.getChildCount());
+        assertEquals(0L, c2.getChildCount());
+        assertConsistent();
+
+        // ...and back again.
+        c2.addChild(c3);
+        assertEquals(1L, c1.getChildCount());
+        assertEquals(1L, c2.getChildCount());
+        assertConsistent();
+    }
+
+    @Test
+    public void testCountsForBothEnds() throws Exception {
+        UserProfile reto = manager.getFrame("reto", UserProfile.class);
+        Repository r1 = manager.getFrame("r1", Repository.class);
+        validUser.addFollowing(reto);
+        validUser.addWatching(r1);
+        assertEquals(1L, validUser.asVertex()
+                .getProperty(UserProfile.FOLLOWING_COUNTER.getPropertyName()));
+        assertEquals(1L, reto.asVertex()
+                .getProperty(UserProfile.FOLLOWER_COUNTER.getPropertyName()));
+        assertEquals(1L, r1.asVertex()
+                .getProperty(Watchable.WATCHED_COUNTER.getPropertyName()));
+
+        manager.deleteVertex(validUser.asVertex());
+        assertEquals(0L, reto.getFollowerCount());
+        assertEquals(0L, r1.getWatchedCount());
+        assertConsistent();
+    }
+
+    @Test
+    public void testRepair() throws Exception {
+        Country nl = manager.getFrame("nl", Country.class);
+        Repository repo = new BundleDAO(graph)
+                .create(Bundle.fromData(TestData.getTestAgentBundle()), Repository.class);
+        nl.addRepository(repo);
+        assertEquals(3L, nl.getChildCount());
+        assertConsistent();
+
+        // Adding an edge directly leaves the stored count stale.
+        Repository other = new BundleDAO(graph)
+                .create(Bundle.fromData(TestData.getTestAgentBundle())
+                        .withDataValue(Ontology.IDENTIFIER_KEY, "other"), Repository.class);
+        other.asVertex().addEdge(Ontology.REPOSITORY_HAS_COUNTRY, nl.asVertex());
+        assertEquals(3L, nl.getChildCount());
+        assertNotNull(nl.asVertex().getProperty(Country.CHILD_COUNTER.getPropertyName()));
+
+        GraphCounterRepairer repairer = new GraphCounterRepairer(graph);
+        assertEquals(1L, repairer.check());
+        assertTrue(repairer.repair() > 0);
+        assertEquals(4L, nl.getChildCount());
+        assertEquals(0L, repairer.check());
+    }
+
+    private DocumentaryUnit createUnit(String identifier) throws Exception {
+        return new BundleDAO(graph).create(Bundle.fromData(TestData.getTestDocBundle())
+                .withDataValue(Ontology.IDENTIFIER_KEY, identifier), DocumentaryUnit.class);
+    }
+
+    private void assertConsistent() {
+        assertEquals(0L, new GraphCounterRepairer(graph).check());
+    }
+}
@@ -0,0 +1,226 @@
+package eu.ehri.project.models.utils;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.Repository;
+import eu.ehri.project.models.VirtualUnit;
+import eu.ehri.project.persistence.ActionManager;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class HierarchyIndexTest extends AbstractFixtureTest {
+
+    private HierarchyIndex hierarchy;
+    private Repository r1;
+    private DocumentaryUnit c1;
+    private DocumentaryUnit c2;
+    private DocumentaryUnit c3;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        hierarchy = new HierarchyIndex(graph);
+        r1 = manager.getFrame("r1", Repository.class);
+        c1 = manager.getFrame("c1", DocumentaryUnit.class);
+        c2 = manager.getFrame("c2", DocumentaryUnit.class);
+        c3 = manager.getFrame("c3", DocumentaryUnit.class);
+    }
+
+    @Test
+    public void testFixturesAreIndexed() throws Exception {
+        assertTrue(hierarchy.isBuilt());
+        assertEquals(Lists.newArrayList("c2", "c1", "r1"),
+                hierarchy.getAncestorIds(c3.asVertex()));
+        assertEquals(Lists.newArrayList(c2, c1), Lists.newArrayList(c3.getAncestors()));
+        assertEquals(r1, c3.getRepository());
+        assertEquals(Lists.newArrayList(c3), Lists.newArrayList(c2.getAllChildren()));
+        assertEquals(2, Iterables.size(c1.getAllChildren()));
+        assertEquals(0L, hierarchy.rebuild());
+    }
+
+    @Test
+    public void testReparent() throws Exception {
+        Repository r2 = manager.getFrame("r2", Repository.class);
+        DocumentaryUnit c4 = manager.getFrame("c4", DocumentaryUnit.class);
+        r2.addCollection(c4);
+        assertEquals(r2, c4.getRepository());
+        assertFalse(Iterables.contains(r1.getAllCollections(), c4));
+
+        // Move c2, and therefore c3, from c1 to c4.
+        c4.addChild(c2);
+        assertEquals(Lists.newArrayList(c2, c4), Lists.newArrayList(c3.getAncestors()));
+        assertEquals(r2, c3.getRepository());
+        assertTrue(Iterables.contains(c4.getAllChildren(), c3));
+        assertFalse(Iterables.contains(c1.getAllChildren(), c3));
+        assertTrue(Iterables.contains(r2.getAllCollections(), c3));
+        assertFalse(Iterables.contains(r1.getAllCollections(), c3));
+        assertEquals(0L, hierarchy.rebuild());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        manager.deleteVertex(c2.asVertex());
+        assertTrue(Lists.newArrayList(c3.getAncestors()).isEmpty());
+        assertNull(c3.getRepository());
+        assertTrue(Lists.newArrayList(c1.getAllChildren()).isEmpty());
+        assertFalse(Iterables.contains(r1.getAllCollections(), c3));
+        assertEquals(0L, hierarchy.rebuild());
+    }
+
+    @Test
+    public void testRename() throws Exception {
+        manager.renameVertex(c2.asVertex(), "c2", "c2-renamed");
+        assertEquals(Lists.newArrayList("c2-renamed", "c1", "r1"),
+                hierarchy.getAncestorIds(c3.asVertex()));
+        assertEquals(Lists.newArrayList(c3),
+                Lists.newArrayList(c2.getAllChildren()));
+        assertEquals(0L, hierarchy.rebuild());
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        // Edges added directly leave the stored ancestors stale.
+        DocumentaryUnit unit = createUnit("direct");
+        unit.asVertex().addEdge(Ontology.DOC_IS_CHILD_OF, c3.asVertex());
+        assertFalse(Iterables.contains(c1.getAllChildren(), unit));
+
+        assertEquals(1L, hierarchy.rebuild());
+        assertEquals(Lists.newArrayList("c3", "c2", "c1", "r1"),
+                hierarchy.getAncestorIds(unit.asVertex()));
+        assertTrue(Iterables.contains(c1.getAllChildren(), unit));
+
+        // Rebuilding the manager's index keeps the closure.
+        manager.rebuildIndex();
+        assertTrue(Iterables.contains(c1.getAllChildren(), unit));
+        assertEquals(r1, unit.getRepository());
+    }
+
+    @Test
+    public void testDescendantsBeforeClosureIsBuilt() throws Exception {
+        // Simulate a database created before the closure was stored...
+        manager.getVertex(ActionManager.GLOBAL_EVENT_ROOT).removeProperty(HierarchyIndex.BUILT_KEY);
+        for (EntityClass type : Lists.newArrayList(EntityClass.DOCUMENTARY_UNIT,
+                EntityClass.VIRTUAL_UNIT)) {
+            for (Vertex vertex : Lists.newArrayList(manager.getVertices(type))) {
+                hierarchy.remove(vertex);
+            }
+        }
+        assertFalse(hierarchy.isBuilt());
+        assertEquals(Sets.newHashSet(c2, c3), Sets.newHashSet(c1.getAllChildren()));
+        assertTrue(Iterables.contains(r1.getAllCollections(), c3));
+        assertEquals(Lists.newArrayList(c2, c1), Lists.newArrayList(c3.getAncestors()));
+
+        hierarchy.rebuild();
+        assertTrue(hierarchy.isBuilt());
+        assertEquals(Sets.newHashSet(c2, c3), Sets.newHashSet(c1.getAllChildren()));
+        assertTrue(Iterables.contains(r1.getAllCollections(), c3));
+    }
+
+    @Test
+    public void testVirtualUnitWithSeveralParents() throws Exception {
+        VirtualUnit vc1 = manager.getFrame("vc1", VirtualUnit.class);
+        VirtualUnit vu1 = manager.getFrame("vu1", VirtualUnit.class);
+        VirtualUnit vu2 = manager.getFrame("vu2", VirtualUnit.class);
+        VirtualUnit other = createVirtualUnit("other");
+        other.addChild(vu2);
+        assertEquals(Lists.newArrayList(vu1, vc1, other),
+                Lists.newArrayList(vu2.getAncestors()));
+        assertTrue(Iterables.contains(other.getAllChildren(), vu2));
+
+        // Loops are not allowed.
+        assertFalse(vu2.addChild(vc1));
+
+        assertTrue(other.removeChild(vu2));
+        assertEquals(Lists.newArrayList(vu1, vc1),
+                Lists.newArrayList(vu2.getAncestors()));
+        assertFalse(Iterables.contains(other.getAllChildren(), vu2));
+        assertEquals(0L, hierarchy.rebuild());
+    }
+
+    @Test
+    public void testDeepHierarchy() throws Exception {
+        int depth = 50;
+        List<DocumentaryUnit> units = Lists.newArrayList();
+        DocumentaryUnit parent = c3;
+        for (int i = 0; i < depth; i++) {
+            DocumentaryUnit unit = createUnit("deep" + i);
+            parent.addChild(unit);
+            units.add(unit);
+            parent = unit;
+        }
+        DocumentaryUnit deepest = units.get(depth - 1);
+        assertEquals(depth + 2, Iterables.size(deepest.getAncestors()));
+        assertEquals(r1, deepest.getRepository());
+        assertEquals(depth, Iterables.size(c3.getAllChildren()));
+        assertEquals(depth + 2, Iterables.size(c1.getAllChildren()));
+
+        // Move the whole chain to another repository.
+        Repository r2 = manager.getFrame("r2", Repository.class);
+        DocumentaryUnit c4 = manager.getFrame("c4", DocumentaryUnit.class);
+        r2.addCollection(c4);
+        c4.addChild(units.get(0));
+        assertEquals(r2, deepest.getRepository());
+        assertEquals(depth, Iterables.size(deepest.getAncestors()));
+        assertEquals(2, Iterables.size(c1.getAllChildren()));
+        assertTrue(Iterables.contains(r2.getAllCollections(), deepest));
+        assertEquals(0L, hierarchy.rebuild());
+    }
+
+    @Test
+    public void testWideHierarchy() throws Exception {
+        int width = 10000;
+        for (int i = 0; i < width; i++) {
+            c3.addChild(createUnit("wide" + i));
+        }
+        assertEquals(width, Iterables.size(c3.getAllChildren()));
+        assertEquals(width + 2, Iterables.size(c1.getAllChildren()));
+        DocumentaryUnit last = manager.getFrame("wide" + (width - 1), DocumentaryUnit.class);
+        assertEquals(r1, last.getRepository());
+
+        // Deleting c3's parent, and moving c3 to another
+        // repository, updates all of its children.
+        manager.deleteVertex(c2.asVertex());
+        assertNull(last.getRepository());
+        assertTrue(Lists.newArrayList(c1.getAllChildren()).isEmpty());
+
+        Repository r2 = manager.getFrame("r2", Repository.class);
+        int r2Count = Iterables.size(r2.getAllCollections());
+        r2.addCollection(c3);
+        assertEquals(r2, last.getRepository());
+        assertEquals(Lists.newArrayList("c3", "r2"), hierarchy.getAncestorIds(last.asVertex()));
+        assertEquals(r2Count + width + 1, Iterables.size(r2.getAllCollections()));
+        assertEquals(0L, hierarchy.rebuild());
+    }
+
+    private DocumentaryUnit createUnit(String id) throws Exception {
+        Map<String, Object> data = Maps.newHashMap();
+        data.put(Ontology.IDENTIFIER_KEY, id);
+        Vertex vertex = manager.createVertex(id, EntityClass.DOCUMENTARY_UNIT, data);
+        return graph.frame(vertex, DocumentaryUnit.class);
+    }
+
+    private VirtualUnit createVirtualUnit(String id) throws Exception {
+        Map<String, Object> data = Maps.newHashMap();
+        data.put(Ontology.IDENTIFIER_KEY, id);
+        Vertex vertex = manager.createVertex(id, EntityClass.VIRTUAL_UNIT, data);
+        return graph.frame(vertex, VirtualUnit.class);
+    }
+}
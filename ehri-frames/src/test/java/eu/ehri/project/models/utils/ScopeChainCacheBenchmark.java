@@ -0,0 +1,84 @@
+package eu.ehri.project.models.utils;
+
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.base.PermissionScope;
+import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.BundleDAO;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Timing of importing many items under a deeply-nested scope, and
+ * of reading their scope chains within a transaction, where they are
+ * memoized, and outside one, where they are not. This is excluded
+ * from the default test run; to run it:
+ * <p/>
+ * mvn test -pl ehri-frames -Dtest=ScopeChainCacheBenchmark
+ */
+public class ScopeChainCacheBenchmark extends AbstractFixtureTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScopeChainCacheBenchmark.class);
+
+    private static final int DEPTH = 20;
+    private static final int COUNT = 10000;
+
+    @Test
+    public void benchmarkImportUnderDeepScope() throws Exception {
+        DocumentaryUnit scope = manager.getFrame("c3", DocumentaryUnit.class);
+        for (int i = 0; i < DEPTH; i++) {
+            DocumentaryUnit unit = createUnit(scope, "level" + i);
+            scope.addChild(unit);
+            scope = unit;
+        }
+
+        long start = System.currentTimeMillis();
+        BundleDAO persister = new BundleDAO(graph, scope.idPath());
+        DocumentaryUnit last = null;
+        for (int i = 0; i < COUNT; i++) {
+            last = createUnit(persister, scope, "child" + i);
+        }
+        logger.info("Import of {} items at depth {}: {}ms", COUNT, DEPTH,
+                System.currentTimeMillis() - start);
+        assertEquals(DEPTH + 6, last.idPath().size());
+
+        start = System.currentTimeMillis();
+        readPaths(scope);
+        logger.info("Scope chains read {} times in a transaction: {}ms", COUNT,
+                System.currentTimeMillis() - start);
+
+        graph.getBaseGraph().commit();
+        start = System.currentTimeMillis();
+        readPaths(scope);
+        logger.info("Scope chains read {} times outside a transaction: {}ms", COUNT,
+                System.currentTimeMillis() - start);
+    }
+
+    private void readPaths(DocumentaryUnit scope) {
+        for (int i = 0; i < COUNT; i++) {
+            List<String> path = ScopeChainCache.getIdPath(graph, scope.asVertex());
+            assertEquals(DEPTH + 5, path.size());
+        }
+    }
+
+    private DocumentaryUnit createUnit(PermissionScope scope, String identifier) throws Exception {
+        return createUnit(new BundleDAO(graph, scope.idPath()), scope, identifier);
+    }
+
+    private DocumentaryUnit createUnit(BundleDAO persister, PermissionScope scope,
+            String identifier) throws Exception {
+        Bundle bundle = Bundle.Builder.withClass(EntityClass.DOCUMENTARY_UNIT)
+                .addDataValue(Ontology.IDENTIFIER_KEY, identifier)
+                .build();
+        DocumentaryUnit unit = persister.create(bundle, DocumentaryUnit.class);
+        unit.setPermissionScope(scope);
+        return unit;
+    }
+}
@@ -0,0 +1,133 @@
+package eu.ehri.project.models.utils;
+
+import com.google.common.collect.Lists;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.base.PermissionScope;
+import eu.ehri.project.models.idgen.IdGeneratorUtils;
+import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.BundleDAO;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class ScopeChainCacheTest extends AbstractFixtureTest {
+
+    @Test
+    public void testScopeChains() throws Exception {
+        DocumentaryUnit c3 = manager.getFrame("c3", DocumentaryUnit.class);
+        assertEquals(Lists.newArrayList(
+                manager.getFrame("c2", PermissionScope.class),
+                manager.getFrame("c1", PermissionScope.class),
+                manager.getFrame("r1", PermissionScope.class),
+                manager.getFrame("nl", PermissionScope.class)),
+                Lists.newArrayList(c3.getPermissionScopes()));
+        assertEquals(Lists.newArrayList("nl", "r1", "c1", "c2", "c3"), c3.idPath());
+        // Within a transaction chains are memoized.
+        c3.asVertex().setProperty("test", "value");
+        assertSame(ScopeChainCache.getIdPath(graph, c3.asVertex()),
+                ScopeChainCache.getIdPath(graph, c3.asVertex()));
+    }
+
+    @Test
+    public void testInvalidatedWhenScopeChanges() throws Exception {
+        DocumentaryUnit c1 = manager.getFrame("c1", DocumentaryUnit.class);
+        DocumentaryUnit c2 = manager.getFrame("c2", DocumentaryUnit.class);
+        DocumentaryUnit c3 = manager.getFrame("c3", DocumentaryUnit.class);
+        assertEquals(Lists.newArrayList("nl", "r1", "c1", "c2", "c3"), c3.idPath());
+        c3.setPermissionScope(c1);
+        assertEquals(Lists.newArrayList("nl", "r1", "c1", "c3"), c3.idPath());
+
+        // Changing the scope of an item that is itself a
+        // scope changes the chains of the items below it.
+        c2.setPermissionScope(c3);
+        c3.setPermissionScope(manager.getFrame("r1", PermissionScope.class));
+        assertEquals(Lists.newArrayList("nl", "r1", "c3", "c2"), c2.idPath());
+    }
+
+    @Test
+    public void testInvalidatedWhenIdentifierChanges() throws Exception {
+        DocumentaryUnit c3 = manager.getFrame("c3", DocumentaryUnit.class);
+        PermissionScope r1 = manager.getFrame("r1", PermissionScope.class);
+        assertEquals(Lists.newArrayList("nl", "r1", "c1", "c2", "c3"), c3.idPath());
+        manager.setProperty(r1.asVertex(), Ontology.IDENTIFIER_KEY, "changed");
+        assertEquals(Lists.newArrayList("nl", "changed", "c1", "c2", "c3"), c3.idPath());
+    }
+
+    @Test
+    public void testDiscardedOnRollback() throws Exception {
+        DocumentaryUnit c3 = manager.getFrame("c3", DocumentaryUnit.class);
+        c3.setPermissionScope(manager.getFrame("r1", PermissionScope.class));
+        assertEquals(Lists.newArrayList("nl", "r1", "c3"), c3.idPath());
+        graph.getBaseGraph().rollback();
+        assertEquals(Lists.newArrayList("nl", "r1", "c1", "c2", "c3"), c3.idPath());
+    }
+
+    @Test
+    public void testOnlyMemoizedWithinTransactions() throws Exception {
+        DocumentaryUnit c3 = manager.getFrame("c3", DocumentaryUnit.class);
+        graph.getBaseGraph().commit();
+        assertNotSame(ScopeChainCache.getIdPath(graph, c3.asVertex()),
+                ScopeChainCache.getIdPath(graph, c3.asVertex()));
+
+        // Writing starts a transaction...
+        c3.asVertex().setProperty("test", "value");
+        List<String> path = ScopeChainCache.getIdPath(graph, c3.asVertex());
+        assertSame(path, ScopeChainCache.getIdPath(graph, c3.asVertex()));
+        // ...and its memos are not used by the next one.
+        graph.getBaseGraph().commit();
+        c3.asVertex().setProperty("test", "other");
+        assertNotSame(path, ScopeChainCache.getIdPath(graph, c3.asVertex()));
+        assertEquals(path, ScopeChainCache.getIdPath(graph, c3.asVertex()));
+    }
+
+    @Test
+    public void testImportUnderDeepScope() throws Exception {
+        int depth = 5;
+        int count = 10;
+        DocumentaryUnit scope = manager.getFrame("c3", DocumentaryUnit.class);
+        for (int i = 0; i < depth; i++) {
+            DocumentaryUnit unit = createUnit(scope, "level" + i);
+            scope.addChild(unit);
+            scope = unit;
+        }
+        List<String> path = ScopeChainCache.getIdPath(graph, scope.asVertex());
+        assertEquals(depth + 5, path.size());
+
+        DocumentaryUnit first = createUnit(scope, "child0");
+        DocumentaryUnit last = first;
+        for (int i = 1; i < count; i++) {
+            last = createUnit(scope, "child" + i);
+        }
+
+        // Adding items to the scope has not invalidated its chain...
+        assertSame(path, ScopeChainCache.getIdPath(graph, scope.asVertex()));
+        assertEquals(depth + 6, last.idPath().size());
+        assertEquals(IdGeneratorUtils.joinPath(last.idPath()), last.getId());
+
+        // ...but changing the scope of the scope itself does.
+        scope.setPermissionScope(manager.getFrame("r1", PermissionScope.class));
+        assertNotSame(path, ScopeChainCache.getIdPath(graph, scope.asVertex()));
+        assertEquals(Lists.newArrayList("nl", "r1", "level" + (depth - 1), "child0"),
+                first.idPath());
+    }
+
+    private DocumentaryUnit createUnit(PermissionScope scope, String identifier) throws Exception {
+        Bundle bundle = Bundle.Builder.withClass(EntityClass.DOCUMENTARY_UNIT)
+                .addDataValue(Ontology.IDENTIFIER_KEY, identifier)
+                .build();
+        DocumentaryUnit unit = new BundleDAO(graph, scope.idPath())
+                .create(bundle, DocumentaryUnit.class);
+        unit.setPermissionScope(scope);
+        return unit;
+    }
+}
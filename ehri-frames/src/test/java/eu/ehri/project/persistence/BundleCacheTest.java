@@ -0,0 +1,250 @@
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.Lists;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.RepositoryDescription;
+import eu.ehri.project.models.base.ItemHolder;
+import eu.ehri.project.persistence.utils.BundleUtils;
+import eu.ehri.project.test.AbstractFixtureTest;
+import eu.ehri.project.utils.TxCheckedNeo4jGraph;
+import org.junit.Test;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class BundleCacheTest extends AbstractFixtureTest {
+
+    private static Bundle bundle(String id, Bundle... related) {
+        Bundle.Builder builder = Bundle.Builder.withClass(EntityClass.DOCUMENTARY_UNIT)
+                .setId(id);
+        for (Bundle other : related) {
+            builder.addRelation(Ontology.DOC_IS_CHILD_OF, other);
+        }
+        return builder.build();
+    }
+
+    private static BundleCache.Key key(String id) {
+        return new BundleCache.Key(id, 1, 10, false);
+    }
+
+    @Test
+    public void testSerializerUsesCache() throws Exception {
+        BundleCache cache = new BundleCache(1000);
+        Serializer serializer = new Serializer.Builder(graph).withCache(cache).build();
+        Bundle first = serializer.vertexFrameToBundle(item);
+        assertEquals(0L, cache.stats().hitCount());
+        assertTrue(cache.size() > 0);
+        Bundle second = serializer.vertexFrameToBundle(item);
+        assertEquals(first, second);
+        assertTrue(cache.stats().hitCount() > 0);
+        assertTrue(cache.stats().hitRate() > 0.0);
+    }
+
+    @Test
+    public void testCacheKeysIncludeSerializerOptions() throws Exception {
+        BundleCache cache = new BundleCache(1000);
+        Bundle full = new Serializer.Builder(graph).withCache(cache).build()
+                .vertexFrameToBundle(item);
+        Bundle lite = new Serializer.Builder(graph).withCache(cache).withLiteMode(true).build()
+                .vertexFrameToBundle(item);
+        assertEquals(full, new Serializer(graph).vertexFrameToBundle(item));
+        assertEquals(lite, new Serializer.Builder(graph).withLiteMode(true).build()
+                .vertexFrameToBundle(item));
+    }
+
+    @Test
+    public void testInvalidationOfContainingBundles() throws Exception {
+        BundleCache cache = new BundleCache(1000);
+        cache.put(key("a"), bundle("a", bundle("b")), cache.getGeneration());
+        cache.put(key("c"), bundle("c"), cache.getGeneration());
+        assertNotNull(cache.get(key("a")));
+        cache.invalidate("b");
+        assertNull(cache.get(key("a")));
+        assertNotNull(cache.get(key("c")));
+    }
+
+    @Test
+    public void testStalePutIsIgnored() throws Exception {
+        BundleCache cache = new BundleCache(1000);
+        long generation = cache.getGeneration();
+        cache.invalidate("a");
+        cache.put(key("a"), bundle("a"), generation);
+        assertNull(cache.get(key("a")));
+        cache.put(key("a"), bundle("a"), cache.getGeneration());
+        assertNotNull(cache.get(key("a")));
+    }
+
+    @Test
+    public void testWeightIsBounded() throws Exception {
+        BundleCache cache = new BundleCache(5);
+        for (int i = 0; i < 10; i++) {
+            String id = "item" + i;
+            cache.put(key(id), bundle(id, bundle(id + "-child")), cache.getGeneration());
+        }
+        assertTrue(cache.size() <= 2);
+        assertTrue(cache.stats().evictionCount() >= 8);
+    }
+
+    @Test
+    public void testBundleDAOUpdateInvalidatesCache() throws Exception {
+        System.setProperty(BundleCache.ENABLED_PROPERTY, "true");
+        try {
+            Serializer serializer = new Serializer.Builder(graph).withCache().build();
+            Bundle before = serializer.vertexFrameToBundle(item);
+            assertEquals("NIOD Description",
+                    BundleUtils.get(before, "heldBy[0]/describes[0]/name"));
+
+            RepositoryDescription rd1 = manager.getFrame("rd1", RepositoryDescription.class);
+            Bundle rd1Bundle = new Serializer.Builder(graph).dependentOnly().build()
+                    .vertexFrameToBundle(rd1).withDataValue(Ontology.NAME_KEY, "Changed");
+            new BundleDAO(graph).update(rd1Bundle, RepositoryDescription.class);
+
+            Bundle after = serializer.vertexFrameToBundle(item);
+            assertEquals("Changed", BundleUtils.get(after, "heldBy[0]/describes[0]/name"));
+        } finally {
+            System.clearProperty(BundleCache.ENABLED_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testBundleDAODeleteInvalidatesCache() throws Exception {
+        System.setProperty(BundleCache.ENABLED_PROPERTY, "true");
+        try {
+            Serializer serializer = new Serializer.Builder(graph).withCache().build();
+            DocumentaryUnit c2 = manager.getFrame("c2", DocumentaryUnit.class);
+            DocumentaryUnit c3 = manager.getFrame("c3", DocumentaryUnit.class);
+            assertEquals("c2", BundleUtils.get(serializer.vertexFrameToBundle(c3),
+                    "childOf[0]/identifier"));
+
+            Bundle c2Bundle = new Serializer.Builder(graph).dependentOnly().build()
+                    .vertexFrameToBundle(c2);
+            new BundleDAO(graph).delete(c2Bundle);
+
+            assertTrue(serializer.vertexFrameToBundle(c3)
+                    .getRelations(Ontology.DOC_IS_CHILD_OF).isEmpty());
+        } finally {
+            System.clearProperty(BundleCache.ENABLED_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testBundleDAODeleteInvalidatesParent() throws Exception {
+        System.setProperty(BundleCache.ENABLED_PROPERTY, "true");
+        try {
+            Serializer serializer = new Serializer.Builder(graph).withCache().build();
+            DocumentaryUnit c2 = manager.getFrame("c2", DocumentaryUnit.class);
+            DocumentaryUnit c3 = manager.getFrame("c3", DocumentaryUnit.class);
+            assertEquals(1L, serializer.vertexFrameToBundle(c2)
+                    .getMetaData().get(ItemHolder.CHILD_COUNT));
+
+            Bundle c3Bundle = new Serializer.Builder(graph).dependentOnly().build()
+                    .vertexFrameToBundle(c3);
+            new BundleDAO(graph).delete(c3Bundle);
+
+            assertEquals(0L, serializer.vertexFrameToBundle(c2)
+                    .getMetaData().get(ItemHolder.CHILD_COUNT));
+        } finally {
+            System.clearProperty(BundleCache.ENABLED_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testBundleDAOSkipsInvalidationUnlessEnabled() throws Exception {
+        BundleCache shared = BundleCache.getInstance();
+        shared.invalidateAll();
+        Serializer serializer = new Serializer.Builder(graph).withCache().build();
+        DocumentaryUnit c2 = manager.getFrame("c2", DocumentaryUnit.class);
+        serializer.vertexFrameToBundle(manager.getFrame("c3", DocumentaryUnit.class));
+        long size = shared.size();
+        assertTrue(size > 0);
+
+        Bundle c2Bundle = new Serializer.Builder(graph).dependentOnly().build()
+                .vertexFrameToBundle(c2);
+        new BundleDAO(graph).delete(c2Bundle);
+        assertEquals(size, shared.size());
+        shared.invalidateAll();
+    }
+
+    @Test
+    public void testInvalidationIsRepeatedOnCommit() throws Exception {
+        TxCheckedNeo4jGraph txGraph = new TxCheckedNeo4jGraph(new TestGraphDatabaseFactory()
+                .newImpermanentDatabaseBuilder().newGraphDatabase());
+        try {
+            BundleCache cache = new BundleCache(1000);
+            txGraph.addVertex(null);
+            cache.invalidateOnCommit(txGraph, Collections.singleton("a"));
+            // Until the change is committed other readers can
+            // still see, and cache, the prior state...
+            cache.put(key("a"), bundle("a"), cache.getGeneration());
+            assertNotNull(cache.get(key("a")));
+            txGraph.commit();
+            assertNull(cache.get(key("a")));
+        } finally {
+            txGraph.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final BundleCache cache = new BundleCache(100);
+        final Bundle shared = bundle("shared");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = Lists.newArrayList();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int i = 0; i < 2000; i++) {
+                            String id = "item" + (i % 50);
+                            Bundle cached = cache.get(key(id));
+                            if (cached == null) {
+                                cache.put(key(id), bundle(id, shared), cache.getGeneration());
+                            } else {
+                                assertEquals(id, cached.getId());
+                            }
+                            if ((i + thread) % 97 == 0) {
+                                cache.invalidate(id);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(cache.stats().hitCount() > 0);
+
+        // Every remaining entry includes the shared item, so
+        // invalidating it must clear the cache completely.
+        cache.invalidate(shared.getId());
+        for (int i = 0; i < 50; i++) {
+            assertNull(cache.get(key("item" + i)));
+        }
+    }
+
+    @Test
+    public void testSharedInstance() throws Exception {
+        assertSame(BundleCache.getInstance(), BundleCache.getInstance());
+    }
+}
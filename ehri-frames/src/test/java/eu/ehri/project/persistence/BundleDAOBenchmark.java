@@ -0,0 +1,56 @@
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.Lists;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.test.ModelTestBase;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Timing of bulk inserts with and without batching. This is
+ * excluded from the default test run; to run it:
+ * <p/>
+ * mvn test -pl ehri-frames -Dtest=BundleDAOBenchmark
+ */
+public class BundleDAOBenchmark extends ModelTestBase {
+
+    private static final Logger logger = LoggerFactory.getLogger(BundleDAOBenchmark.class);
+
+    private static final int COUNT = 100000;
+
+    @Test
+    public void benchmarkBatchedBulkInsert() throws Exception {
+        BundleDAO persister = new BundleDAO(graph, Lists.<String>newArrayList(), 1000);
+        long start = System.currentTimeMillis();
+        insert(persister, "batched");
+        persister.flush();
+        logger.info("Batched insert of {} items: {}ms", COUNT,
+                System.currentTimeMillis() - start);
+        assertEquals("batched" + (COUNT - 1), manager.getFrame("batched" + (COUNT - 1),
+                DocumentaryUnit.class).getIdentifier());
+    }
+
+    @Test
+    public void benchmarkUnbatchedBulkInsert() throws Exception {
+        BundleDAO persister = new BundleDAO(graph);
+        long start = System.currentTimeMillis();
+        insert(persister, "unbatched");
+        logger.info("Unbatched insert of {} items: {}ms", COUNT,
+                System.currentTimeMillis() - start);
+        assertEquals("unbatched" + (COUNT - 1), manager.getFrame("unbatched" + (COUNT - 1),
+                DocumentaryUnit.class).getIdentifier());
+    }
+
+    private void insert(BundleDAO persister, String prefix) throws Exception {
+        Bundle bundle = Bundle.Builder.withClass(EntityClass.DOCUMENTARY_UNIT).build();
+        for (int i = 0; i < COUNT; i++) {
+            persister.create(bundle.withDataValue(Ontology.IDENTIFIER_KEY, prefix + i),
+                    DocumentaryUnit.class);
+        }
+    }
+}
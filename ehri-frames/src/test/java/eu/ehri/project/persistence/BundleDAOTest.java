@@ -1,6 +1,15 @@
 package eu.ehri.project.persistence;
 
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.frames.FramedGraph;
+import com.tinkerpop.frames.FramedGraphFactory;
+import com.tinkerpop.frames.modules.javahandler.JavaHandlerModule;
+import eu.ehri.project.core.GraphManager;
+import eu.ehri.project.core.GraphManagerFactory;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.DeserializationError;
 import eu.ehri.project.exceptions.IntegrityError;
@@ -18,13 +27,17 @@ import eu.ehri.project.models.base.Description;
 import eu.ehri.project.persistence.utils.BundleUtils;
 import eu.ehri.project.test.ModelTestBase;
 import eu.ehri.project.test.TestData;
+import eu.ehri.project.utils.TxCheckedNeo4jGraph;
 import org.junit.Before;
 import org.junit.Test;
+import org.neo4j.test.TestGraphDatabaseFactory;
 
 import java.util.List;
 import java.util.NoSuchElementException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -212,4 +225,222 @@ public class BundleDAOTest extends ModelTestBase {
         persister.update(b1, Repository.class);
         fail("Attempting to update a non-existent bundle did not throw an error");
     }
+
+    @Test
+    public void testBatchedCreatesAndUpdates() throws Exception {
+        GraphManager direct = GraphManagerFactory.getInstance(graph);
+        BundleDAO persister = new BundleDAO(graph, Lists.<String>newArrayList(), 3);
+        assertTrue(persister.isBatched());
+
+        List<DocumentaryUnit> created = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            created.add(persister.create(Bundle.fromData(TestData.getTestDocBundle())
+                    .withDataValue(Ontology.IDENTIFIER_KEY, "batched" + i), DocumentaryUnit.class));
+        }
+        // The first three have been flushed, the last is only
+        // visible via the batch until it is.
+        assertTrue(direct.exists(created.get(2).getId()));
+        assertFalse(direct.exists(created.get(3).getId()));
+
+        // Updates and creates of the pending item see it...
+        Bundle pending = serializer.vertexFrameToBundle(created.get(3));
+        Mutation<DocumentaryUnit> unchanged = persister
+                .createOrUpdate(pending, DocumentaryUnit.class);
+        assertEquals(MutationState.UNCHANGED, unchanged.getState());
+        Mutation<DocumentaryUnit> updated = persister.update(
+                pending.withDataValue("foo", "bar"), DocumentaryUnit.class);
+        assertEquals(MutationState.UPDATED, updated.getState());
+        assertEquals(created.get(3), updated.getNode());
+        try {
+            persister.create(Bundle.fromData(TestData.getTestDocBundle())
+                    .withDataValue(Ontology.IDENTIFIER_KEY, "batched3"), DocumentaryUnit.class);
+            fail("Creating a duplicate of a pending item did not throw a ValidationError");
+        } catch (ValidationError e) {
+            // Expected
+        }
+
+        // ...as do updates to existing items.
+        DocumentaryUnit c1 = manager.getFrame(ID, DocumentaryUnit.class);
+        Mutation<DocumentaryUnit> c1redux = persister.createOrUpdate(
+                serializer.vertexFrameToBundle(c1).withDataValue("foo", "bar"),
+                DocumentaryUnit.class);
+        assertEquals(MutationState.UPDATED, c1redux.getState());
+        assertEquals(c1, c1redux.getNode());
+
+        assertTrue(persister.flush() > 0);
+        assertEquals(0, persister.flush());
+        DocumentaryUnit last = direct.getFrame(created.get(3).getId(), DocumentaryUnit.class);
+        assertEquals("bar", last.asVertex().getProperty("foo"));
+        assertFalse(toList(last.getDocumentDescriptions()).isEmpty());
+        for (Description description : last.getDescriptions()) {
+            assertTrue(direct.exists(description.getId()));
+        }
+    }
+
+    @Test
+    public void testBatchedDelete() throws Exception {
+        GraphManager direct = GraphManagerFactory.getInstance(graph);
+        BundleDAO persister = new BundleDAO(graph, Lists.<String>newArrayList(), 100);
+        DocumentaryUnit unit = persister.create(Bundle.fromData(TestData.getTestDocBundle()),
+                DocumentaryUnit.class);
+        String id = unit.getId();
+        persister.delete(serializer.vertexFrameToBundle(unit));
+        DocumentaryUnit c1 = manager.getFrame(ID, DocumentaryUnit.class);
+        persister.delete(serializer.vertexFrameToBundle(c1));
+        // Until flushed, the deleted item's index entries remain...
+        assertTrue(direct.exists(ID));
+        persister.flush();
+        assertFalse(direct.exists(ID));
+        assertFalse(direct.exists(id));
+    }
+
+    @Test
+    public void testBatchedRollback() throws Exception {
+        GraphManager direct = GraphManagerFactory.getInstance(graph);
+        BundleDAO persister = new BundleDAO(graph, Lists.<String>newArrayList(), 100);
+        DocumentaryUnit unit = persister.create(Bundle.fromData(TestData.getTestDocBundle()),
+                DocumentaryUnit.class);
+        String id = unit.getId();
+        persister.rollback();
+        assertEquals(0, persister.flush());
+        assertFalse(direct.exists(id));
+        assertTrue(direct.exists(ID));
+
+        // A write that fails after validation rolls back the batch.
+        persister.create(Bundle.fromData(TestData.getTestDocBundle()), DocumentaryUnit.class);
+        try {
+            persister.create(Bundle.fromData(TestData.getTestDocBundle())
+                    .withDataValue(Ontology.IDENTIFIER_KEY, "bad")
+                    .withDataValue("foo", Lists.newArrayList(new Object())), DocumentaryUnit.class);
+            fail("Write of an invalid property value did not fail");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+        assertEquals(0, persister.flush());
+        assertFalse(direct.exists(id));
+        assertFalse(graph.getVertices(EntityType.ID_KEY, id).iterator().hasNext());
+    }
+
+    @Test
+    public void testBatchedWritesAreFlushedOnCommit() throws Exception {
+        TxCheckedNeo4jGraph txGraph = new TxCheckedNeo4jGraph(new TestGraphDatabaseFactory()
+                .newImpermanentDatabaseBuilder().newGraphDatabase());
+        try {
+            FramedGraph<TxCheckedNeo4jGraph> txFramed = new FramedGraphFactory(
+                    new JavaHandlerModule()).create(txGraph);
+            BundleDAO persister = new BundleDAO(txFramed, Lists.<String>newArrayList(), 100);
+            Bundle bundle = Bundle.fromData(TestData.getTestDocBundle());
+            for (int i = 0; i < 2; i++) {
+                for (int j = 0; j < 3; j++) {
+                    persister.create(bundle.withDataValue(Ontology.IDENTIFIER_KEY,
+                            "tx" + i + "-" + j), DocumentaryUnit.class);
+                }
+                // Commit without flushing...
+                txGraph.commit();
+            }
+            GraphManager direct = GraphManagerFactory.getInstance(txFramed);
+            for (int i = 0; i < 2; i++) {
+                for (int j = 0; j < 3; j++) {
+                    assertTrue(direct.exists("tx" + i + "-" + j));
+                }
+            }
+            txGraph.commit();
+        } finally {
+            txGraph.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchedInsertMatchesUnbatched() throws Exception {
+        int count = 250;
+        BundleDAO batched = new BundleDAO(graph, Lists.<String>newArrayList(), 100);
+        BundleDAO unbatched = new BundleDAO(graph);
+        Bundle bundle = Bundle.fromData(TestData.getTestDocBundle());
+        for (int i = 0; i < count; i++) {
+            batched.create(bundle.withDataValue(Ontology.IDENTIFIER_KEY, "batched" + i),
+                    DocumentaryUnit.class);
+            unbatched.create(bundle.withDataValue(Ontology.IDENTIFIER_KEY, "unbatched" + i),
+                    DocumentaryUnit.class);
+        }
+        batched.flush();
+        GraphManager direct = GraphManagerFactory.getInstance(graph);
+        for (int i = 0; i < count; i++) {
+            Bundle fromBatch = serializer.vertexFrameToBundle(
+                    direct.getFrame("batched" + i, DocumentaryUnit.class));
+            Bundle fromUnbatched = serializer.vertexFrameToBundle(
+                    direct.getFrame("unbatched" + i, DocumentaryUnit.class));
+            assertEquals(fromUnbatched.withDataValue(Ontology.IDENTIFIER_KEY, "batched" + i),
+                    fromBatch);
+            for (Bundle description : fromBatch.getRelations(Ontology.DESCRIPTION_FOR_ENTITY)) {
+                assertTrue(direct.exists(description.getId()));
+            }
+        }
+    }
+
+    @Test
+    public void testUnchangedUpdateWithReorderedRelations() throws Exception {
+        DocumentaryUnit c1 = manager.getFrame(ID, DocumentaryUnit.class);
+        Bundle bundle = new Serializer.Builder(graph).dependentOnly().build()
+                .vertexFrameToBundle(c1);
+        assertHashesStored(c1.asVertex(), bundle);
+
+        BundleDAO persister = new BundleDAO(graph);
+        Mutation<DocumentaryUnit> mutation = persister
+                .update(reverseRelations(bundle), DocumentaryUnit.class);
+        assertEquals(MutationState.UNCHANGED, mutation.getState());
+    }
+
+    @Test
+    public void testUpdateOfNestedDependentAfterHashCleared() throws Exception {
+        DocumentaryUnit c1 = manager.getFrame(ID, DocumentaryUnit.class);
+        Bundle bundle = new Serializer.Builder(graph).dependentOnly().build()
+                .vertexFrameToBundle(c1);
+        DatePeriod dp = manager.getFrame("c1-dp2", DatePeriod.class);
+        manager.setProperty(dp.asVertex(), Ontology.DATE_PERIOD_START_DATE, "1940-01-01");
+        assertNull(dp.asVertex().getProperty(EntityType.HASH_KEY));
+
+        BundleDAO persister = new BundleDAO(graph);
+        Mutation<DocumentaryUnit> mutation = persister.update(bundle, DocumentaryUnit.class);
+        assertEquals(MutationState.UPDATED, mutation.getState());
+        assertEquals("1939-01-01", manager.getFrame("c1-dp2", DatePeriod.class)
+                .asVertex().getProperty(Ontology.DATE_PERIOD_START_DATE));
+        assertHashesStored(c1.asVertex(), bundle);
+        assertEquals(MutationState.UNCHANGED, persister
+                .update(bundle, DocumentaryUnit.class).getState());
+    }
+
+    @Test
+    public void testHashesStoredForEquivalentBundle() throws Exception {
+        DocumentaryUnit c1 = manager.getFrame(ID, DocumentaryUnit.class);
+        Bundle bundle = new Serializer.Builder(graph).dependentOnly().build()
+                .vertexFrameToBundle(c1);
+        for (Vertex v : graph.getVertices()) {
+            v.removeProperty(EntityType.HASH_KEY);
+        }
+        BundleDAO persister = new BundleDAO(graph);
+        assertEquals(MutationState.UNCHANGED, persister
+                .update(bundle, DocumentaryUnit.class).getState());
+        assertHashesStored(c1.asVertex(), bundle);
+    }
+
+    private void assertHashesStored(Vertex vertex, Bundle bundle) {
+        assertEquals(bundle.getDataHash(), vertex.getProperty(EntityType.HASH_KEY));
+        for (Bundle child : bundle.getRelations().values()) {
+            try {
+                assertHashesStored(manager.getVertex(child.getId()), child);
+            } catch (ItemNotFound e) {
+                fail("Dependent item not found: " + child.getId());
+            }
+        }
+    }
+
+    private Bundle reverseRelations(Bundle bundle) {
+        Multimap<String, Bundle> relations = ArrayListMultimap.create();
+        for (String relation : Lists.reverse(Lists.newArrayList(bundle.getRelations().keySet()))) {
+            for (Bundle child : Lists.reverse(bundle.getRelations(relation))) {
+                relations.put(relation, reverseRelations(child));
+            }
+        }
+        return bundle.replaceRelations(relations);
+    }
 }
@@ -293,4 +293,52 @@ public class BundleTest {
         assertNotNull(desc.getId());
         assertEquals("test-foobar-en", desc.getId());
     }
+
+    @Test
+    public void testDataHashIgnoresKeyOrder() throws Exception {
+        Map<String, Object> nested1 = Maps.newLinkedHashMap();
+        nested1.put("a", 1);
+        nested1.put("b", Lists.newArrayList("x", "y"));
+        Map<String, Object> data1 = Maps.newLinkedHashMap();
+        data1.put(Ontology.IDENTIFIER_KEY, "foobar");
+        data1.put(Ontology.NAME_KEY, "Foobar");
+        data1.put("nested", nested1);
+
+        Map<String, Object> nested2 = Maps.newLinkedHashMap();
+        nested2.put("b", new String[]{"x", "y"});
+        nested2.put("a", 1L);
+        Map<String, Object> data2 = Maps.newLinkedHashMap();
+        data2.put("nested", nested2);
+        data2.put(Ontology.NAME_KEY, "Foobar");
+        data2.put(Ontology.IDENTIFIER_KEY, "foobar");
+
+        Bundle b1 = new Bundle(EntityClass.DOCUMENTARY_UNIT, data1);
+        Bundle b2 = new Bundle(EntityClass.DOCUMENTARY_UNIT, data2);
+        assertEquals(b1.getDataHash(), b2.getDataHash());
+        assertEquals(b1.getDataHash(), new Bundle(EntityClass.DOCUMENTARY_UNIT, data1).getDataHash());
+    }
+
+    @Test
+    public void testDataHashIgnoresManagedDataAndRelations() throws Exception {
+        String hash = bundle.getDataHash();
+        assertEquals(hash, bundle.withDataValue("_managed", "foo").getDataHash());
+        assertEquals(hash, bundle.withDataValue("other", null).getDataHash());
+        assertEquals(hash, bundle.withId("foo").getDataHash());
+        assertEquals(hash, bundle.replaceRelations(
+                ImmutableListMultimap.<String, Bundle>of()).getDataHash());
+    }
+
+    @Test
+    public void testDataHashDiffers() throws Exception {
+        String hash = bundle.getDataHash();
+        assertFalse(hash.equals(bundle.withDataValue(Ontology.IDENTIFIER_KEY, "foobaz").getDataHash()));
+        assertFalse(hash.equals(bundle.withDataValue("other", "").getDataHash()));
+        assertFalse(hash.equals(new Bundle(EntityClass.REPOSITORY,
+                bundle.getData()).getDataHash()));
+        // Values of different structure do not collide.
+        assertFalse(bundle.withDataValue("other", Lists.newArrayList("a", "b")).getDataHash()
+                .equals(bundle.withDataValue("other", "[a, b]").getDataHash()));
+        assertFalse(bundle.withDataValue("other", Lists.newArrayList("a,b")).getDataHash()
+                .equals(bundle.withDataValue("other", Lists.newArrayList("a", "b")).getDataHash()));
+    }
 }
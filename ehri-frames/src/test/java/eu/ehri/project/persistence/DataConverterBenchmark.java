@@ -0,0 +1,110 @@
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.models.annotations.EntityType;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Timing and allocation of writing bundles as JSON, streaming them
+ * to the generator, against the former approach of first converting
+ * each bundle to a map, with and without pretty printing. This is
+ * excluded from the default test run; to run it:
+ * <p/>
+ * mvn test -pl ehri-frames -Dtest=DataConverterBenchmark
+ */
+public class DataConverterBenchmark extends AbstractFixtureTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(DataConverterBenchmark.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final int ROUNDS = 2000;
+
+    /**
+     * A way of writing a bundle to a generator.
+     */
+    private static interface Writer {
+        void write(Bundle bundle, JsonGenerator generator) throws IOException;
+    }
+
+    @Test
+    public void benchmarkBundleToJson() throws Exception {
+        List<Bundle> bundles = Lists.newArrayList();
+        Serializer serializer = new Serializer(graph);
+        for (Vertex vertex : graph.getVertices()) {
+            if (vertex.getProperty(EntityType.TYPE_KEY) != null) {
+                bundles.add(serializer.vertexFrameToBundle(vertex));
+            }
+        }
+        assertFalse(bundles.isEmpty());
+
+        Writer viaMap = new Writer() {
+            public void write(Bundle bundle, JsonGenerator generator) throws IOException {
+                mapper.writeValue(generator, DataConverter.bundleToData(bundle));
+            }
+        };
+        Writer streaming = new Writer() {
+            public void write(Bundle bundle, JsonGenerator generator) throws IOException {
+                DataConverter.bundleToJson(bundle, generator);
+            }
+        };
+        // The first round warms up each approach.
+        for (int round = 1; round <= 2; round++) {
+            benchmark("Via maps, pretty, round " + round, viaMap, true, bundles);
+            benchmark("Via maps, round " + round, viaMap, false, bundles);
+            benchmark("Streaming, pretty, round " + round, streaming, true, bundles);
+            benchmark("Streaming, round " + round, streaming, false, bundles);
+        }
+    }
+
+    private void benchmark(String name, Writer writer, boolean pretty, List<Bundle> bundles)
+            throws Exception {
+        long allocated = getAllocatedBytes();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < ROUNDS; i++) {
+            JsonGenerator generator = mapper.getJsonFactory()
+                    .createJsonGenerator(ByteStreams.nullOutputStream());
+            if (pretty) {
+                generator.useDefaultPrettyPrinter();
+            }
+            generator.writeStartArray();
+            for (Bundle bundle : bundles) {
+                writer.write(bundle, generator);
+            }
+            generator.writeEndArray();
+            generator.close();
+        }
+        long time = System.currentTimeMillis() - start;
+        long bytes = getAllocatedBytes() - allocated;
+        logger.info("{}, {} bundles: {}ms, {} bytes allocated per bundle", name,
+                (long) ROUNDS * bundles.size(), time,
+                allocated < 0 ? "?" : bytes / ((long) ROUNDS * bundles.size()));
+    }
+
+    /**
+     * Get the number of bytes allocated by this thread, if the
+     * JVM can report it, or -1.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1L;
+    }
+}
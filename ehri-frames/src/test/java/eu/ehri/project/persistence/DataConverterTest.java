@@ -1,14 +1,28 @@
 package eu.ehri.project.persistence;
 
+import com.tinkerpop.blueprints.Vertex;
 import eu.ehri.project.models.DocumentaryUnit;
 import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.test.AbstractFixtureTest;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.Test;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import java.io.StringReader;
+import java.io.StringWriter;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -38,4 +52,93 @@ public class DataConverterTest extends AbstractFixtureTest {
         // TODO: Check properties and relationships are serialized properly
         System.out.println(bundle.toXmlString());
     }
+
+    @Test
+    public void testStreamingJsonMatchesData() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Serializer serializer = new Serializer(graph);
+        int checked = 0;
+        for (Vertex vertex : graph.getVertices()) {
+            if (vertex.getProperty(EntityType.TYPE_KEY) == null) {
+                continue;
+            }
+            Bundle bundle = serializer.vertexFrameToBundle(vertex)
+                    .withDataValue("testarray", new String[]{"one", "two"})
+                    .withDataValue("testnumbers", new Long[]{1L, 2L})
+                    .withDataValue("testboolean", true);
+            JsonNode expected = mapper.readTree(
+                    mapper.writeValueAsString(DataConverter.bundleToData(bundle)));
+            assertEquals(expected, mapper.readTree(DataConverter.bundleToJson(bundle)));
+            assertEquals(expected, mapper.readTree(DataConverter.bundleToJson(bundle, true)));
+            checked++;
+        }
+        assertTrue(checked > 0);
+    }
+
+    @Test
+    public void testJsonIsCompactByDefault() throws Exception {
+        DocumentaryUnit c1 = manager.getFrame("c1", DocumentaryUnit.class);
+        Bundle bundle = new Serializer(graph).vertexFrameToBundle(c1);
+        assertFalse(DataConverter.bundleToJson(bundle).contains("\n"));
+        assertTrue(DataConverter.bundleToJson(bundle, true).contains("\n"));
+    }
+
+    @Test
+    public void testStreamingSerializerWritesToGenerator() throws Exception {
+        DocumentaryUnit c1 = manager.getFrame("c1", DocumentaryUnit.class);
+        Serializer serializer = new Serializer(graph);
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = new JsonFactory().createJsonGenerator(writer);
+        generator.writeStartArray();
+        serializer.vertexFrameToJson(c1, generator);
+        serializer.vertexToJson(c1.asVertex(), generator);
+        generator.writeEndArray();
+        generator.close();
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode expected = mapper.readTree(serializer.vertexFrameToJson(c1));
+        JsonNode items = mapper.readTree(writer.toString());
+        assertEquals(2, items.size());
+        assertEquals(expected, items.get(0));
+        assertEquals(expected, items.get(1));
+    }
+
+    @Test
+    public void testXmlStringMatchesDocument() throws Exception {
+        Serializer serializer = new Serializer(graph);
+        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        int checked = 0;
+        for (Vertex vertex : graph.getVertices()) {
+            if (vertex.getProperty(EntityType.TYPE_KEY) == null) {
+                continue;
+            }
+            Bundle bundle = serializer.vertexFrameToBundle(vertex)
+                    .withDataValue("testarray", new String[]{"one", "two"})
+                    .withDataValue("testempty", new String[]{})
+                    .withDataValue("testlong", 1L)
+                    .withDataValue("itemWithLt", "I should be escaped because of: <>&\"");
+            Document expected = DataConverter.bundleToXml(bundle);
+            Document actual = builder.parse(new InputSource(
+                    new StringReader(DataConverter.bundleToXmlString(bundle))));
+            assertTrue(bundle.getId(), stripWhitespace(expected)
+                    .isEqualNode(stripWhitespace(actual)));
+            checked++;
+        }
+        assertTrue(checked > 0);
+    }
+
+    private static Node stripWhitespace(Node node) {
+        NodeList children = node.getChildNodes();
+        for (int i = children.getLength() - 1; i >= 0; i--) {
+            Node child = children.item(i);
+            if (child.getNodeType() == Node.TEXT_NODE
+                    && child.getNodeValue().trim().isEmpty()) {
+                node.removeChild(child);
+            } else {
+                stripWhitespace(child);
+            }
+        }
+        node.normalize();
+        return node;
+    }
 }
@@ -0,0 +1,107 @@
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.definitions.EventTypes;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.base.AccessibleEntity;
+import eu.ehri.project.models.base.Actioner;
+import eu.ehri.project.models.events.SystemEvent;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Timing of event log time range queries against a full scan,
+ * and of logging events with and without the event chains.
+ * This is excluded from the default test run; to run it:
+ * <p/>
+ * mvn test -pl ehri-frames -Dtest=EventLogBenchmark
+ */
+public class EventLogBenchmark extends AbstractFixtureTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventLogBenchmark.class);
+
+    @Test
+    public void benchmarkTimeRangeOverManyEvents() throws Exception {
+        EventLog eventLog = new EventLog(graph);
+        // One event every two minutes for two months, of which
+        // we want those on one day.
+        int count = 30 * 24 * 61;
+        DateTime start = new DateTime(2014, 2, 1, 0, 0, DateTimeZone.UTC);
+        for (int i = 0; i < count; i++) {
+            DateTime time = start.plusMinutes(i * 2);
+            Vertex vertex = manager.createVertex("event" + i, EntityClass.SYSTEM_EVENT,
+                    ImmutableMap.<String, Object>of(
+                            Ontology.EVENT_TYPE, EventTypes.modification.toString(),
+                            Ontology.EVENT_TIMESTAMP, ISODateTimeFormat.dateTime().print(time),
+                            Ontology.EVENT_TIMESTAMP_MILLIS, time.getMillis(),
+                            Ontology.EVENT_SEQUENCE, eventLog.nextSequence()));
+            eventLog.append(graph.frame(vertex, SystemEvent.class));
+            if (i % 10000 == 0) {
+                graph.getBaseGraph().commit();
+            }
+        }
+        graph.getBaseGraph().commit();
+
+        long from = new DateTime(2014, 3, 15, 0, 0, DateTimeZone.UTC).getMillis();
+        long to = new DateTime(2014, 3, 16, 0, 0, DateTimeZone.UTC).getMillis() - 1;
+        long begin = System.currentTimeMillis();
+        int total = 0;
+        for (SystemEvent event : eventLog.getEvents()) {
+            long time = event.getTimestampMillis();
+            if (time >= from && time <= to) {
+                total++;
+            }
+        }
+        long scanned = System.currentTimeMillis() - begin;
+
+        begin = System.currentTimeMillis();
+        List<SystemEvent> day = Lists.newArrayList(eventLog.getEventsBetween(from, to));
+        long ranged = System.currentTimeMillis() - begin;
+        assertEquals(30 * 24, day.size());
+        assertEquals(total, day.size());
+        assertEquals(Long.valueOf(to - 119999), day.get(0).getTimestampMillis());
+        assertEquals(Long.valueOf(from), Iterables.getLast(day).getTimestampMillis());
+        logger.info("Events on one day from {}: range query {}ms, full scan {}ms",
+                count, ranged, scanned);
+    }
+
+    @Test
+    public void benchmarkLoggingEvents() throws Exception {
+        int count = 5000;
+        Actioner actioner = manager.getFrame("mike", Actioner.class);
+        AccessibleEntity item = manager.getFrame("c1", AccessibleEntity.class);
+        ActionManager actionManager = new ActionManager(graph);
+        for (int round = 0; round < 2; round++) {
+            for (boolean chained : new boolean[]{true, false}) {
+                System.setProperty(ActionManager.EVENT_CHAINS_PROPERTY, String.valueOf(chained));
+                try {
+                    long begin = System.currentTimeMillis();
+                    for (int i = 0; i < count; i++) {
+                        actionManager.logEvent(item, actioner, EventTypes.modification);
+                        if (i % 1000 == 0) {
+                            graph.getBaseGraph().commit();
+                        }
+                    }
+                    graph.getBaseGraph().commit();
+                    logger.info("Logging {} events, chains {}: {}ms", count,
+                            chained ? "kept" : "dropped", System.currentTimeMillis() - begin);
+                } finally {
+                    System.clearProperty(ActionManager.EVENT_CHAINS_PROPERTY);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.IndexableGraph;
+import eu.ehri.project.definitions.EventTypes;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.base.AccessibleEntity;
+import eu.ehri.project.models.base.Actioner;
+import eu.ehri.project.models.events.SystemEvent;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class EventLogTest extends AbstractFixtureTest {
+
+    private EventLog eventLog;
+    private ActionManager actionManager;
+    private Actioner mike;
+    private Actioner tim;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        eventLog = new EventLog(graph);
+        actionManager = new ActionManager(graph);
+        mike = manager.getFrame("mike", Actioner.class);
+        tim = manager.getFrame("tim", Actioner.class);
+    }
+
+    @Test
+    public void testIsBuilt() throws Exception {
+        // Graphs are initialised with a complete log.
+        assertTrue(eventLog.isBuilt());
+    }
+
+    @Test
+    public void testSequencesIncrease() throws Exception {
+        SystemEvent first = log(mike, "c1");
+        SystemEvent second = log(tim, "c2");
+        SystemEvent third = log(mike, "c1", "c2");
+        assertTrue(first.getSequence() < second.getSequence());
+        assertTrue(second.getSequence() < third.getSequence());
+        assertEquals(Lists.newArrayList(actionManager.getLatestGlobalEvents()),
+                Lists.newArrayList(eventLog.getEvents()));
+        assertEquals(Lists.newArrayList(second),
+                Lists.newArrayList(eventLog.getEvents(second.getSequence(), second.getSequence())));
+        assertEquals(Lists.newArrayList(third, second),
+                Lists.newArrayList(eventLog.getEvents(second.getSequence(), null)));
+    }
+
+    @Test
+    public void testStreams() throws Exception {
+        log(mike, "c1");
+        log(tim, "c2");
+        log(mike, "c1", "c2");
+        log(tim, "c3", "c1");
+        assertStreamsMatch();
+        assertEquals(3, Iterables.size(eventLog.getEventsForSubjects(
+                ImmutableList.of("c1", "c3"))));
+    }
+
+    @Test
+    public void testUncommittedEvents() throws Exception {
+        log(mike, "c1");
+        log(tim, "c2");
+        graph.getBaseGraph().commit();
+        log(mike, "c1");
+        log(tim, "c1", "c2");
+        assertEquals(Lists.newArrayList(actionManager.getLatestGlobalEvents()),
+                Lists.newArrayList(eventLog.getEvents()));
+        assertStreamsMatch();
+    }
+
+    @Test
+    public void testManyIds() throws Exception {
+        SystemEvent first = log(mike, "c1");
+        SystemEvent second = log(tim, "c4", "c1");
+        SystemEvent third = log(tim, "c4");
+        // Ids are looked up several hundred at a time, so an event
+        // may be found by more than one lookup.
+        List<String> ids = Lists.newArrayList("c1");
+        for (int i = 0; i < 1000; i++) {
+            ids.add("nothing" + i);
+        }
+        ids.add("c4");
+        assertEquals(Lists.newArrayList(third, second, first),
+                Lists.newArrayList(eventLog.getEventsForSubjects(ids)));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        SystemEvent first = log(mike, "c1");
+        SystemEvent second = log(tim, "c2");
+        SystemEvent third = log(tim, "c1");
+        log(mike, "c3");
+        List<CloseableIterable<SystemEvent>> streams = Lists.newArrayList(
+                eventLog.getEventsForSubjects(ImmutableList.of("c1")),
+                eventLog.getEventsByActioners(ImmutableList.of(tim.getId())));
+        assertEquals(Lists.newArrayList(third, second, first),
+                Lists.newArrayList(eventLog.merge(streams)));
+    }
+
+    @Test
+    public void testCloseMergedStreams() throws Exception {
+        log(mike, "c1");
+        log(tim, "c2");
+        log(tim, "c1");
+        final List<String> closed = Lists.newArrayList();
+        List<CloseableIterable<SystemEvent>> streams = Lists.newArrayList();
+        for (final String id : ImmutableList.of("c1", "c2")) {
+            final CloseableIterable<SystemEvent> events = eventLog
+                    .getEventsForSubjects(ImmutableList.of(id));
+            streams.add(new CloseableIterable<SystemEvent>() {
+                @Override
+                public Iterator<SystemEvent> iterator() {
+                    return events.iterator();
+                }
+
+                @Override
+                public void close() {
+                    events.close();
+                    closed.add(id);
+                }
+            });
+        }
+        CloseableIterable<SystemEvent> merged = eventLog.merge(streams);
+        // Read only part of the streams before closing them.
+        assertTrue(merged.iterator().hasNext());
+        merged.close();
+        assertEquals(Lists.newArrayList("c1", "c2"), closed);
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        // Events on a graph without a log are linked into the chains.
+        manager.getVertex(ActionManager.GLOBAL_EVENT_ROOT).removeProperty(EventLog.BUILT_KEY);
+        log(mike, "c1");
+        log(tim, "c2");
+        log(mike, "c1", "c2");
+        ((IndexableGraph) graph.getBaseGraph()).dropIndex(EventLog.INDEX_NAME);
+        assertTrue(Lists.newArrayList(eventLog.getEvents()).isEmpty());
+        assertFalse(eventLog.isBuilt());
+
+        // Commit in batches smaller than the chain.
+        assertEquals(3L, eventLog.rebuild(2));
+        assertTrue(eventLog.isBuilt());
+        List<SystemEvent> events = Lists.newArrayList(eventLog.getEvents());
+        assertEquals(Lists.newArrayList(actionManager.getLatestGlobalEvents()), events);
+        assertEquals(Long.valueOf(3L), events.get(0).getSequence());
+        assertEquals(Long.valueOf(1L), events.get(2).getSequence());
+        assertStreamsMatch();
+
+        // New events carry on from the rebuilt sequence.
+        assertEquals(Long.valueOf(4L), log(tim, "c3").getSequence());
+
+        try {
+            eventLog.rebuild();
+            fail("Rebuilding a built log did not throw an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRebuildLinksEventsDirectly() throws Exception {
+        manager.getVertex(ActionManager.GLOBAL_EVENT_ROOT).removeProperty(EventLog.BUILT_KEY);
+        SystemEvent event = log(mike, "c1", "c2");
+        // Remove the direct links, as for events logged before they were made.
+        for (Edge edge : event.asVertex().getEdges(Direction.OUT,
+                Ontology.EVENT_HAS_ACTIONER, Ontology.EVENT_HAS_SUBJECT)) {
+            graph.removeEdge(edge);
+        }
+        assertEquals(mike, event.getActioner());
+        assertEquals(2, Iterables.size(event.getSubjects()));
+
+        eventLog.rebuild();
+        assertEquals(1, Iterables.size(event.asVertex().getEdges(Direction.OUT,
+                Ontology.EVENT_HAS_ACTIONER)));
+        assertEquals(2, Iterables.size(event.asVertex().getEdges(Direction.OUT,
+                Ontology.EVENT_HAS_SUBJECT)));
+        assertEquals(mike, event.getActioner());
+        assertEquals(2, Iterables.size(event.getSubjects()));
+    }
+
+    @Test
+    public void testChainsAreNotLinkedOnceBuilt() throws Exception {
+        SystemEvent event = log(mike, "c1");
+        assertEquals(mike, event.getActioner());
+        assertEquals(manager.getFrame("c1", AccessibleEntity.class), event.getFirstSubject());
+        assertFalse(event.asVertex().getEdges(Direction.IN, Ontology.ENTITY_HAS_EVENT)
+                .iterator().hasNext());
+        assertTrue(Lists.newArrayList(actionManager.getGlobalEventChain()).isEmpty());
+        assertEquals(Lists.newArrayList(event), Lists.newArrayList(mike.getActions()));
+        assertEquals(event, actionManager.getLatestGlobalEvent());
+
+        System.setProperty(ActionManager.EVENT_CHAINS_PROPERTY, "true");
+        try {
+            SystemEvent chained = log(tim, "c1");
+            assertEquals(Lists.newArrayList(chained),
+                    Lists.newArrayList(actionManager.getGlobalEventChain()));
+            assertEquals(Lists.newArrayList(chained),
+                    Lists.newArrayList(actionManager.getActionChain(tim)));
+            assertEquals(tim, chained.getActioner());
+            assertEquals(1, Iterables.size(chained.getSubjects()));
+        } finally {
+            System.clearProperty(ActionManager.EVENT_CHAINS_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testTimeRange() throws Exception {
+        SystemEvent first = log(mike, "c1");
+        SystemEvent second = log(tim, "c1");
+        long time = first.getTimestampMillis();
+        assertTrue(time <= second.getTimestampMillis());
+        assertEquals(Lists.newArrayList(second, first),
+                Lists.newArrayList(eventLog.getEventsBetween(time, null)));
+        assertEquals(Lists.newArrayList(first),
+                Lists.newArrayList(eventLog.getEventsByActioners(
+                        ImmutableList.of(mike.getId()), time, time)));
+        assertTrue(Lists.newArrayList(eventLog.getEventsForSubjects(
+                ImmutableList.of("c1"), null, time - 1)).isEmpty());
+    }
+
+    private SystemEvent log(Actioner actioner, String... ids) throws Exception {
+        ActionManager.EventContext context = actionManager
+                .logEvent(actioner, EventTypes.modification);
+        for (String id : ids) {
+            context.addSubjects(manager.getFrame(id, AccessibleEntity.class));
+        }
+        return context.getSystemEvent();
+    }
+
+    private void assertStreamsMatch() throws Exception {
+        for (Actioner actioner : Lists.newArrayList(mike, tim)) {
+            assertEquals(Lists.newArrayList(actioner.getActions()),
+                    Lists.newArrayList(eventLog.getEventsByActioner(actioner)));
+        }
+        for (String id : Lists.newArrayList("c1", "c2", "c3")) {
+            AccessibleEntity item = manager.getFrame(id, AccessibleEntity.class);
+            assertEquals(Lists.newArrayList(item.getHistory()),
+                    Lists.newArrayList(eventLog.getEventsForSubject(item)));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.EntityType;
+import eu.ehri.project.models.base.Frame;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class SerializationPlanTest extends AbstractFixtureTest {
+
+    @Test
+    public void testPlanIsCompiledOnce() throws Exception {
+        assertSame(SerializationPlan.forType(EntityClass.DOCUMENTARY_UNIT),
+                SerializationPlan.forType(EntityClass.DOCUMENTARY_UNIT));
+    }
+
+    @Test
+    public void testRelationsMatchFramedMethods() throws Exception {
+        int checked = 0;
+        for (Vertex vertex : graph.getVertices()) {
+            String typeName = vertex.getProperty(EntityType.TYPE_KEY);
+            if (typeName == null) {
+                continue;
+            }
+            SerializationPlan plan = SerializationPlan.forType(EntityClass.withName(typeName));
+            Object frame = graph.frame(vertex, plan.getEntityClass());
+            for (SerializationPlan.Relation relation : plan.getRelations()) {
+                assertEquals(relation.toString(),
+                        getFramedVertices(relation.getMethod().invoke(frame)),
+                        relation.getVertices(graph, vertex, plan.getEntityClass()));
+                checked++;
+            }
+        }
+        assertTrue(checked > 0);
+    }
+
+    @Test
+    public void testSerializationMatchesFramedMethods() throws Exception {
+        List<Serializer.Builder> builders = Lists.newArrayList(
+                new Serializer.Builder(graph),
+                new Serializer.Builder(graph).withLiteMode(true),
+                new Serializer.Builder(graph).dependentOnly());
+        int checked = 0;
+        for (Serializer.Builder builder : builders) {
+            Serializer serializer = builder.build();
+            Serializer framed = builder.withFramedRelations().build();
+            for (Vertex vertex : graph.getVertices()) {
+                if (vertex.getProperty(EntityType.TYPE_KEY) == null) {
+                    continue;
+                }
+                assertEquals(vertex.toString(), framed.vertexToJson(vertex),
+                        serializer.vertexToJson(vertex));
+                checked++;
+            }
+        }
+        assertTrue(checked > 0);
+    }
+
+    @Test
+    public void testRelationProperties() throws Exception {
+        SerializationPlan plan = SerializationPlan.forType(EntityClass.DOCUMENTARY_UNIT);
+        SerializationPlan.Relation descriptions = getRelation(plan, "describes");
+        assertTrue(descriptions.isAdjacency());
+        assertTrue(descriptions.isDependent());
+        assertFalse(descriptions.isLite());
+        assertTrue(descriptions.shouldTraverse(1, false, true));
+
+        SerializationPlan.Relation accessors = getRelation(plan, "access");
+        assertTrue(accessors.isLite());
+        assertTrue(accessors.shouldTraverse(0, false, false));
+        assertFalse(accessors.shouldTraverse(1, false, false));
+        assertFalse(accessors.shouldTraverse(0, false, true));
+    }
+
+    private static SerializationPlan.Relation getRelation(SerializationPlan plan, String name) {
+        for (SerializationPlan.Relation relation : plan.getRelations()) {
+            if (relation.getName().equals(name)) {
+                return relation;
+            }
+        }
+        throw new AssertionError("No relation: " + name);
+    }
+
+    private static List<Vertex> getFramedVertices(Object result) {
+        List<Vertex> vertices = Lists.newArrayList();
+        if (result instanceof Iterable<?>) {
+            for (Object frame : (Iterable<?>) result) {
+                vertices.add(((Frame) frame).asVertex());
+            }
+        } else if (result != null) {
+            vertices.add(((Frame) result).asVertex());
+        }
+        return vertices;
+    }
+}
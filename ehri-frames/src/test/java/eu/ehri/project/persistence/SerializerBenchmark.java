@@ -0,0 +1,118 @@
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.Repository;
+import eu.ehri.project.models.base.ItemHolder;
+import eu.ehri.project.test.AbstractFixtureTest;
+import eu.ehri.project.views.Query;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Timing of serialization: of documentary units with descriptions,
+ * with relations read directly from edges and with them fetched by
+ * invoking framed methods, as they were before serialization plans;
+ * and of repository listings with and without computed metadata.
+ * This is excluded from the default test run; to run it:
+ * <p/>
+ * mvn test -pl ehri-frames -Dtest=SerializerBenchmark
+ */
+public class SerializerBenchmark extends AbstractFixtureTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(SerializerBenchmark.class);
+
+    private static final int COUNT = 10000;
+    private static final int REPOSITORIES = 500;
+    private static final int CHILDREN = 100;
+
+    @Test
+    public void benchmarkSerializeUnitsWithDescriptions() throws Exception {
+        BundleDAO persister = new BundleDAO(graph);
+        List<DocumentaryUnit> units = Lists.newArrayListWithCapacity(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            Bundle description = Bundle.Builder.withClass(EntityClass.DOCUMENT_DESCRIPTION)
+                    .addDataValue(Ontology.NAME_KEY, "Unit " + i)
+                    .addDataValue(Ontology.LANGUAGE_OF_DESCRIPTION, "eng")
+                    .addDataValue("scopeAndContent", "The contents of unit " + i)
+                    .build();
+            Bundle bundle = Bundle.Builder.withClass(EntityClass.DOCUMENTARY_UNIT)
+                    .addDataValue(Ontology.IDENTIFIER_KEY, "serialized" + i)
+                    .addRelation(Ontology.DESCRIPTION_FOR_ENTITY, description)
+                    .build();
+            units.add(persister.create(bundle, DocumentaryUnit.class));
+            if (i % 1000 == 0) {
+                graph.getBaseGraph().commit();
+            }
+        }
+        graph.getBaseGraph().commit();
+
+        // The first round warms up both paths.
+        for (int round = 1; round <= 2; round++) {
+            benchmark("Framed methods, round " + round, new Serializer.Builder(graph)
+                    .withFramedRelations().build(), units);
+            benchmark("Serialization plans, round " + round, new Serializer(graph), units);
+        }
+    }
+
+    @Test
+    public void benchmarkRepositoryListingMetaKeys() throws Exception {
+        for (int i = 0; i < REPOSITORIES; i++) {
+            Vertex repository = manager.createVertex("listed" + i, EntityClass.REPOSITORY,
+                    ImmutableMap.<String, Object>of(Ontology.IDENTIFIER_KEY, "listed" + i));
+            for (int j = 0; j < CHILDREN; j++) {
+                Vertex unit = manager.createVertex("listed" + i + "-" + j,
+                        EntityClass.DOCUMENTARY_UNIT,
+                        ImmutableMap.<String, Object>of(Ontology.IDENTIFIER_KEY, "c" + j));
+                graph.addEdge(null, unit, repository, Ontology.DOC_HELD_BY_REPOSITORY);
+            }
+            graph.getBaseGraph().commit();
+        }
+
+        Serializer serializer = new Serializer.Builder(graph).withLiteMode(true).build();
+        Query<Repository> query = new Query<Repository>(graph, Repository.class).setLimit(-1);
+        // The first round warms up each serializer.
+        for (int round = 1; round <= 2; round++) {
+            list("All metadata, round " + round, serializer, query);
+            list("Child counts, round " + round, serializer.withMetaKeys(
+                    ImmutableList.of(ItemHolder.CHILD_COUNT)), query);
+            list("No metadata, round " + round, serializer.withMetaKeys(
+                    ImmutableList.<String>of()), query);
+        }
+    }
+
+    private void list(String name, Serializer serializer, Query<Repository> query)
+            throws Exception {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        for (Repository repository : query.page(validUser)) {
+            serializer.vertexFrameToJson(repository);
+            count++;
+        }
+        logger.info("{}, listing of {} repositories: {}ms", name, count,
+                System.currentTimeMillis() - start);
+    }
+
+    private void benchmark(String name, Serializer serializer, List<DocumentaryUnit> units)
+            throws Exception {
+        long start = System.currentTimeMillis();
+        long chars = 0L;
+        for (DocumentaryUnit unit : units) {
+            Bundle bundle = serializer.vertexFrameToBundle(unit);
+            assertEquals(1, bundle.getRelations(Ontology.DESCRIPTION_FOR_ENTITY).size());
+            chars += serializer.vertexFrameToJson(unit).length();
+        }
+        logger.info("{}, {} units to bundles and JSON ({} chars): {}ms", name, units.size(),
+                chars, System.currentTimeMillis() - start);
+    }
+}
@@ -3,14 +3,21 @@ package eu.ehri.project.persistence;
 import com.google.common.collect.Lists;
 import eu.ehri.project.models.DocumentaryUnit;
 import eu.ehri.project.models.Link;
+import eu.ehri.project.models.Repository;
 import eu.ehri.project.models.VirtualUnit;
+import eu.ehri.project.models.base.ItemHolder;
+import eu.ehri.project.models.base.Watchable;
 import eu.ehri.project.persistence.utils.BundleUtils;
 import eu.ehri.project.test.AbstractFixtureTest;
 import org.junit.Test;
 
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -127,4 +134,33 @@ public class SerializerTest extends AbstractFixtureTest {
                 .vertexFrameToBundle(doc);
         assertNotNull(BundleUtils.get(serialized3, "describes[0]/scopeAndContent"));
     }
+
+    @Test
+    public void testMetaKeys() throws Exception {
+        Repository repo = manager.getFrame("r1", Repository.class);
+        Serializer serializer = new Serializer(graph);
+        assertFalse(serializer.getMetaKeys().isPresent());
+        Map<String, Object> meta = serializer.vertexFrameToBundle(repo).getMetaData();
+        assertEquals(3L, meta.get(ItemHolder.CHILD_COUNT));
+        assertTrue(meta.containsKey(Watchable.WATCHED_COUNT));
+        assertTrue(meta.containsKey("gid"));
+
+        Serializer childCountOnly = serializer.withMetaKeys(
+                Lists.newArrayList(ItemHolder.CHILD_COUNT));
+        Map<String, Object> meta2 = childCountOnly.vertexFrameToBundle(repo).getMetaData();
+        assertEquals(3L, meta2.get(ItemHolder.CHILD_COUNT));
+        assertFalse(meta2.containsKey(Watchable.WATCHED_COUNT));
+        assertTrue(meta2.containsKey("gid"));
+
+        // The selection applies to related items, and is
+        // preserved by cached serializers.
+        DocumentaryUnit doc = manager.getFrame("c1", DocumentaryUnit.class);
+        Serializer noMeta = serializer.withMetaKeys(Lists.<String>newArrayList()).withCache();
+        Bundle docBundle = noMeta.vertexFrameToBundle(doc);
+        assertFalse(docBundle.getMetaData().containsKey(ItemHolder.CHILD_COUNT));
+        assertFalse(BundleUtils.getBundle(docBundle, "heldBy[0]")
+                .getMetaData().containsKey(ItemHolder.CHILD_COUNT));
+        assertTrue(BundleUtils.getBundle(serializer.vertexFrameToBundle(doc), "heldBy[0]")
+                .getMetaData().containsKey(ItemHolder.CHILD_COUNT));
+    }
 }
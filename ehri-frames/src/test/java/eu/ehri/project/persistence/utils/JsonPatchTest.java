@@ -0,0 +1,78 @@
+package eu.ehri.project.persistence.utils;
+
+import com.google.common.collect.Lists;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class JsonPatchTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testDiff() throws Exception {
+        String source = "{\"a\": 1, \"b\": [1, 2, 3], \"c\": {\"d\": \"e\"}}";
+        String target = "{\"a\": 1, \"b\": [1, 4], \"c\": {\"f\": \"e\"}, \"g\": null}";
+        JsonNode patch = mapper.readTree(JsonPatch.diff(source, target));
+        assertEquals(mapper.readTree("[" +
+                "{\"op\": \"replace\", \"path\": \"/b/1\", \"value\": 4}," +
+                "{\"op\": \"remove\", \"path\": \"/b/2\"}," +
+                "{\"op\": \"remove\", \"path\": \"/c/d\"}," +
+                "{\"op\": \"add\", \"path\": \"/c/f\", \"value\": \"e\"}," +
+                "{\"op\": \"add\", \"path\": \"/g\", \"value\": null}]"), patch);
+        assertRoundTrip(source, target);
+    }
+
+    @Test
+    public void testDiffIdentical() throws Exception {
+        String source = "{\"a\": [1, {\"b\": 2}]}";
+        assertEquals("[]", JsonPatch.diff(source, source));
+    }
+
+    @Test
+    public void testRoundTrips() throws Exception {
+        assertRoundTrip("[1, 2, 3]", "[]");
+        assertRoundTrip("[]", "[1, [2], {\"3\": 4}]");
+        assertRoundTrip("{\"a\": [1, 2]}", "{\"a\": {\"b\": 1}}");
+        assertRoundTrip("{\"a/b\": 1, \"c~d\": 2}", "{\"a/b\": 2, \"c~d\": [3]}");
+        assertRoundTrip("{\"a\": 1}", "[1]");
+        assertRoundTrip("\"a\"", "null");
+    }
+
+    @Test
+    public void testApplySequence() throws Exception {
+        List<String> docs = Lists.newArrayList(
+                "{\"a\": 1}", "{\"a\": 2, \"b\": []}", "{\"b\": [\"c\"]}", "{\"b\": [\"d\", \"c\"]}");
+        List<String> patches = Lists.newArrayList();
+        for (int i = 1; i < docs.size(); i++) {
+            patches.add(JsonPatch.diff(docs.get(i - 1), docs.get(i)));
+        }
+        assertEquals(mapper.readTree(docs.get(docs.size() - 1)),
+                mapper.readTree(JsonPatch.apply(docs.get(0), patches)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyInvalidPath() throws Exception {
+        JsonPatch.apply("{\"a\": 1}", Lists.newArrayList(
+                "[{\"op\": \"replace\", \"path\": \"/b/c\", \"value\": 1}]"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyInvalidOperation() throws Exception {
+        JsonPatch.apply("{\"a\": 1}", Lists.newArrayList(
+                "[{\"op\": \"move\", \"path\": \"/a\", \"from\": \"/b\"}]"));
+    }
+
+    private void assertRoundTrip(String source, String target) throws Exception {
+        String patch = JsonPatch.diff(source, target);
+        assertEquals(mapper.readTree(target),
+                mapper.readTree(JsonPatch.apply(source, Lists.newArrayList(patch))));
+    }
+}
@@ -0,0 +1,336 @@
+package eu.ehri.project.utils;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.TransactionalGraph;
+import com.tinkerpop.frames.FramedGraph;
+import com.tinkerpop.frames.FramedGraphFactory;
+import com.tinkerpop.frames.modules.javahandler.JavaHandlerModule;
+import eu.ehri.project.definitions.EventTypes;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.Group;
+import eu.ehri.project.models.UserProfile;
+import eu.ehri.project.models.base.Accessor;
+import eu.ehri.project.models.events.SystemEvent;
+import eu.ehri.project.persistence.ActionManager;
+import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.BundleDAO;
+import eu.ehri.project.persistence.Serializer;
+import eu.ehri.project.test.AbstractFixtureTest;
+import eu.ehri.project.views.AnnotationViews;
+import eu.ehri.project.views.LinkViews;
+import eu.ehri.project.views.impl.LoggingCrudViews;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Concurrent audited writes against a transaction-checked graph.
+ *
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class TxCheckedNeo4jGraphTest extends AbstractFixtureTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(TxCheckedNeo4jGraphTest.class);
+
+    private static final int WRITERS = 4;
+    private static final int MAX_RETRIES = 20;
+
+    private TxCheckedNeo4jGraph txGraph;
+    private ExecutorService executor;
+    private List<UserProfile> users;
+
+    @Override
+    protected FramedGraph<? extends TransactionalGraph> getFramedGraph() {
+        txGraph = new TxCheckedNeo4jGraph(new TestGraphDatabaseFactory()
+                .newImpermanentDatabaseBuilder().newGraphDatabase());
+        return new FramedGraphFactory(new JavaHandlerModule()).create(txGraph);
+    }
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        // Each writer acts as a different admin user, since writes
+        // by the same user contend for the head of their action chain.
+        Group admin = manager.getFrame("admin", Group.class);
+        users = Lists.newArrayList();
+        for (int i = 0; i < WRITERS; i++) {
+            Bundle bundle = Bundle.Builder.withClass(EntityClass.USER_PROFILE)
+                    .addDataValue(Ontology.IDENTIFIER_KEY, "writer" + i)
+                    .addDataValue(Ontology.NAME_KEY, "Writer " + i)
+                    .build();
+            UserProfile user = new BundleDAO(graph).create(bundle, UserProfile.class);
+            admin.addMember(user);
+            users.add(user);
+        }
+        txGraph.commit();
+        executor = Executors.newFixedThreadPool(WRITERS);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    @Test
+    public void testWritersDoNotWaitForEventRoot() throws Exception {
+        // Events are only queued on the global event chain once the
+        // log is built if the chains are kept.
+        System.setProperty(ActionManager.EVENT_CHAINS_PROPERTY, "true");
+        try {
+            assertWritersDoNotWaitForEventRoot();
+        } finally {
+            System.clearProperty(ActionManager.EVENT_CHAINS_PROPERTY);
+        }
+    }
+
+    private void assertWritersDoNotWaitForEventRoot() throws Exception {
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> first = executor.submit(writeAndWait(update("c1", users.get(0)), written, release));
+        written.await(10, TimeUnit.SECONDS);
+
+        // A second audited write, touching different items, can commit
+        // while the first transaction is still open...
+        Future<?> second = executor.submit(inTx(link("c4", "a1", users.get(1))));
+        second.get(10, TimeUnit.SECONDS);
+        assertFalse(first.isDone());
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+
+        // ...and events are queued in commit order.
+        Iterator<SystemEvent> events = new ActionManager(graph)
+                .getGlobalEventChain().iterator();
+        assertEquals(EventTypes.modification, events.next().getEventType());
+        assertEquals(EventTypes.link, events.next().getEventType());
+    }
+
+    @Test
+    public void testGlobalEventLockSerialisesWriters() throws Exception {
+        System.setProperty(ActionManager.EVENT_CHAINS_PROPERTY, "true");
+        try {
+            assertGlobalEventLockSerialisesWriters();
+        } finally {
+            System.clearProperty(ActionManager.EVENT_CHAINS_PROPERTY);
+        }
+    }
+
+    private void assertGlobalEventLockSerialisesWriters() throws Exception {
+        txGraph.setGlobalEventLock(true);
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> first = executor.submit(writeAndWait(update("c1", users.get(0)), written, release));
+        written.await(10, TimeUnit.SECONDS);
+
+        Future<?> second = executor.submit(inTx(link("c4", "a1", users.get(1))));
+        try {
+            second.get(1, TimeUnit.SECONDS);
+            fail("Write should have waited for the first transaction");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+
+        Iterator<SystemEvent> events = new ActionManager(graph)
+                .getGlobalEventChain().iterator();
+        assertEquals(EventTypes.link, events.next().getEventType());
+        assertEquals(EventTypes.modification, events.next().getEventType());
+    }
+
+    @Test
+    public void testRolledBackEventsAreNotQueued() throws Exception {
+        int before = Iterables.size(new ActionManager(graph).getLatestGlobalEvents());
+        link("c4", "a1", users.get(0)).call();
+        txGraph.rollback();
+        assertEquals(before, Iterables.size(new ActionManager(graph).getLatestGlobalEvents()));
+        link("c4", "a1", users.get(0)).call();
+        txGraph.commit();
+        assertEquals(before + 1, Iterables.size(new ActionManager(graph).getLatestGlobalEvents()));
+    }
+
+    @Test
+    public void testAfterCommitActions() throws Exception {
+        final List<String> ran = Lists.newArrayList();
+        txGraph.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                ran.add("rolled back");
+            }
+        });
+        txGraph.rollback();
+        txGraph.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                ran.add("committed");
+            }
+        });
+        assertTrue(ran.isEmpty());
+        txGraph.commit();
+        assertEquals(Lists.newArrayList("committed"), ran);
+        txGraph.commit();
+        assertEquals(Lists.newArrayList("committed"), ran);
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        // NB: Timings are logged rather than asserted, so as not to
+        // depend on the machine running the tests.
+        int iterations = 20;
+        long single = runWriters(1, iterations);
+        long concurrent = runWriters(WRITERS, iterations);
+        logger.info("Audited writes, 1 writer: {}ms, {} writers: {}ms",
+                single, WRITERS, concurrent);
+    }
+
+    // Run a number of writers doing a mix of annotation, link and update
+    // writes, and check that no events were lost from the global queue.
+    private long runWriters(int writers, final int iterations) throws Exception {
+        ActionManager actionManager = new ActionManager(graph);
+        int before = Iterables.size(actionManager.getLatestGlobalEvents());
+        List<Callable<Void>> tasks = Lists.newArrayList();
+        for (int i = 0; i < writers; i++) {
+            final UserProfile user = users.get(i);
+            final String unitId = "c" + (i + 1);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int j = 0; j < iterations; j++) {
+                        inTx(annotate(unitId, user)).call();
+                        inTx(link(unitId, "a1", user)).call();
+                        inTx(update(unitId, user)).call();
+                    }
+                    return null;
+                }
+            });
+        }
+        long start = System.currentTimeMillis();
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            future.get();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        List<SystemEvent> events = Lists.newArrayList(actionManager.getLatestGlobalEvents());
+        assertEquals(before + writers * iterations * 3, events.size());
+        assertEquals(events.size(), Sets.newHashSet(events).size());
+        return elapsed;
+    }
+
+    private Callable<Void> annotate(final String id, final UserProfile user) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Bundle bundle = new Bundle(EntityClass.ANNOTATION)
+                        .withDataValue(Ontology.ANNOTATION_NOTES_BODY, "test");
+                new AnnotationViews(graph).createFor(id, id, bundle, user,
+                        Lists.<Accessor>newArrayList());
+                return null;
+            }
+        };
+    }
+
+    private Callable<Void> link(final String id1, final String id2, final UserProfile user) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Bundle bundle = Bundle.Builder.withClass(EntityClass.LINK)
+                        .addDataValue(Ontology.LINK_HAS_TYPE, "associative")
+                        .addDataValue(Ontology.LINK_HAS_DESCRIPTION, "test")
+                        .build();
+                new LinkViews(graph).createLink(id1, id2, Lists.<String>newArrayList(),
+                        bundle, user);
+                return null;
+            }
+        };
+    }
+
+    private Callable<Void> update(final String id, final UserProfile user) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Bundle bundle = new Serializer.Builder(graph).dependentOnly().build()
+                        .vertexFrameToBundle(manager.getFrame(id, DocumentaryUnit.class));
+                new LoggingCrudViews<DocumentaryUnit>(graph, DocumentaryUnit.class)
+                        .update(bundle.withDataValue("testValue", System.nanoTime()), user);
+                return null;
+            }
+        };
+    }
+
+    // Run a write in its own transaction, retrying if Neo4j
+    // fails it to resolve a deadlock.
+    private Callable<Void> inTx(final Callable<Void> write) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        write.call();
+                        txGraph.commit();
+                        return null;
+                    } catch (RuntimeException e) {
+                        txGraph.rollback();
+                        if (attempt == MAX_RETRIES || !isDeadlock(e)) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    private Callable<Void> writeAndWait(final Callable<Void> write,
+            final CountDownLatch written, final CountDownLatch release) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    write.call();
+                    written.countDown();
+                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                    txGraph.commit();
+                    return null;
+                } catch (Exception e) {
+                    txGraph.rollback();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    private static boolean isDeadlock(Throwable e) {
+        for (Throwable cause : Throwables.getCausalChain(e)) {
+            if (cause instanceof DeadlockDetectedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -2,21 +2,35 @@ package eu.ehri.project.views;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.IndexableGraph;
 import eu.ehri.project.definitions.EventTypes;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.DocumentaryUnit;
 import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.Group;
 import eu.ehri.project.models.UserProfile;
+import eu.ehri.project.models.base.AccessibleEntity;
+import eu.ehri.project.models.base.Watchable;
 import eu.ehri.project.models.events.SystemEvent;
 import eu.ehri.project.persistence.ActionManager;
 import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.EventLog;
+import eu.ehri.project.persistence.Serializer;
 import eu.ehri.project.test.AbstractFixtureTest;
 import eu.ehri.project.test.TestData;
 import eu.ehri.project.views.impl.LoggingCrudViews;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -162,6 +176,246 @@ public class EventViewsTest extends AbstractFixtureTest {
         assertEquals(doc1, events2.get(0).getFirstSubject());
     }
 
+    @Test
+    public void testTimeRangeAcrossTimezones() throws Exception {
+        DocumentaryUnit doc1 = createItemWithIdentifier("foo", user1);
+        Thread.sleep(10);
+        createItemWithIdentifier("bar", user1);
+        SystemEvent first = Iterables.getLast(eventViews.list(query, user1));
+        long time = first.getTimestampMillis();
+        assertEquals(time, ISODateTimeFormat.dateTimeParser()
+                .parseMillis(first.getTimestamp()));
+
+        // The same instant, however it is written, bounds the range...
+        String ahead = timestamp(time, DateTimeZone.forOffsetHours(14));
+        String behind = timestamp(time, DateTimeZone.forOffsetHours(-12));
+        List<SystemEvent> events = Lists.newArrayList(eventViews
+                .from(ahead).to(behind).list(query, user1));
+        assertEquals(Lists.newArrayList(first), events);
+        assertEquals(doc1, events.get(0).getFirstSubject());
+        assertEquals(events, Lists.newArrayList(eventViews
+                .from(behind).to(ahead).listByUser(query, user1, user1)));
+
+        // ...including when it has no offset, which means UTC.
+        String utc = ISODateTimeFormat.dateHourMinuteSecondMillis()
+                .print(new DateTime(time, DateTimeZone.UTC));
+        assertEquals(events, Lists.newArrayList(eventViews
+                .from(utc).to(utc).list(query, user1)));
+
+        // Times are compared as instants, not as strings.
+        String before = timestamp(time - 1, DateTimeZone.forOffsetHours(14));
+        assertEquals(0, Iterables.size(eventViews.to(before).list(query, user1)));
+        assertEquals(2, Iterables.size(eventViews.from(before).list(query, user1)));
+
+        // Dates mean the start of the day, in UTC.
+        LocalDate day = new DateTime(time, DateTimeZone.UTC).toLocalDate();
+        assertEquals(2, Iterables.size(eventViews.from(day.toString()).list(query, user1)));
+        assertEquals(0, Iterables.size(eventViews.to(day.toString()).list(query, user1)));
+        assertEquals(2, Iterables.size(eventViews
+                .to(day.plusDays(1).toString()).list(query, user1)));
+
+        // Invalid times are ignored.
+        assertEquals(2, Iterables.size(eventViews.from("last March").list(query, user1)));
+    }
+
+    @Test
+    public void testListAsUserBeforeLogIsBuilt() throws Exception {
+        unbuildEventLog();
+        DocumentaryUnit doc1 = createItemWithIdentifier("foo", user1);
+        createItemWithIdentifier("bar", user2);
+        user2.addWatching(doc1);
+        user2.addFollowing(user1);
+        ((IndexableGraph) graph.getBaseGraph()).dropIndex(EventLog.INDEX_NAME);
+
+        List<List<SystemEvent>> feeds = Lists.newArrayList();
+        for (EventViews.ShowType type : EventViews.ShowType.values()) {
+            List<SystemEvent> events = Lists.newArrayList(new EventViews(graph)
+                    .withShowType(type).listAsUser(query, user2, user2));
+            assertEquals(1, events.size());
+            assertEquals(doc1, events.get(0).getFirstSubject());
+            feeds.add(events);
+        }
+
+        new EventLog(graph).rebuild();
+        for (EventViews.ShowType type : EventViews.ShowType.values()) {
+            assertEquals(feeds.get(type.ordinal()), Lists.newArrayList(new EventViews(graph)
+                    .withShowType(type).listAsUser(query, user2, user2)));
+        }
+    }
+
+    @Test
+    public void testTimeRangeBeforeLogIsBuilt() throws Exception {
+        unbuildEventLog();
+        DocumentaryUnit doc1 = createItemWithIdentifier("foo", user1);
+        Thread.sleep(10);
+        String timestamp = ActionManager.getTimestamp();
+        Thread.sleep(10);
+        DocumentaryUnit doc2 = createItemWithIdentifier("bar", user1);
+        ((IndexableGraph) graph.getBaseGraph()).dropIndex(EventLog.INDEX_NAME);
+
+        // Events are found by walking the chains and comparing times.
+        EventViews views = new EventViews(graph);
+        List<SystemEvent> toList = Lists.newArrayList(views.to(timestamp).list(query, user1));
+        assertEquals(1, toList.size());
+        assertEquals(doc1, toList.get(0).getFirstSubject());
+        List<SystemEvent> fromList = Lists.newArrayList(views.from(timestamp)
+                .listByUser(query, user1, user1));
+        assertEquals(1, fromList.size());
+        assertEquals(doc2, fromList.get(0).getFirstSubject());
+    }
+
+    @Test
+    public void testEventLogParity() throws Exception {
+        // Keep the chains complete to compare them with the log.
+        System.setProperty(ActionManager.EVENT_CHAINS_PROPERTY, "true");
+        try {
+            assertEventLogParity();
+        } finally {
+            System.clearProperty(ActionManager.EVENT_CHAINS_PROPERTY);
+        }
+    }
+
+    private void assertEventLogParity() throws Exception {
+        LoggingCrudViews<DocumentaryUnit> docViews = new LoggingCrudViews<DocumentaryUnit>(
+                graph, DocumentaryUnit.class);
+        List<DocumentaryUnit> docs = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            docs.add(createItemWithIdentifier("doc" + i, i % 2 == 0 ? user1 : user2));
+        }
+        for (int i = 0; i < 10; i += 3) {
+            docViews.update(new Serializer.Builder(graph).dependentOnly().build()
+                    .vertexFrameToBundle(docs.get(i))
+                    .withDataValue("foo", "bar"), user1);
+        }
+        docViews.delete(docs.get(9).getId(), user2);
+        user2.addWatching(docs.get(0));
+        user2.addFollowing(user1);
+
+        List<EventViews> filters = Lists.newArrayList(
+                eventViews,
+                eventViews.withIds(docs.get(0).getId(), docs.get(3).getId()),
+                eventViews.withUsers(user2.getId()),
+                eventViews.withUsers(user1.getId()).withIds(docs.get(6).getId()),
+                eventViews.withEventTypes(EventTypes.modification));
+        for (EventViews views : filters) {
+            assertEquals(Lists.newArrayList(views.withEventLog(false).list(query, user1)),
+                    Lists.newArrayList(views.withEventLog(true).list(query, user1)));
+            assertEquals(Lists.newArrayList(views.withEventLog(false).listByUser(query, user1, user1)),
+                    Lists.newArrayList(views.withEventLog(true).listByUser(query, user1, user1)));
+        }
+        for (EventViews.ShowType type : EventViews.ShowType.values()) {
+            EventViews views = eventViews.withShowType(type);
+            assertEquals(Lists.newArrayList(views.withEventLog(false).listAsUser(query, user2, user2)),
+                    Lists.newArrayList(views.withEventLog(true).listAsUser(query, user2, user2)));
+        }
+        for (DocumentaryUnit doc : docs.subList(0, 9)) {
+            assertEquals(Lists.newArrayList(eventViews.withEventLog(false).listForItem(query, doc, user1)),
+                    Lists.newArrayList(eventViews.withEventLog(true).listForItem(query, doc, user1)));
+        }
+        Query<SystemEvent> page = query.setOffset(3).setLimit(4);
+        assertEquals(Lists.newArrayList(eventViews.withEventLog(false).list(page, user1)),
+                Lists.newArrayList(eventViews.withEventLog(true).list(page, user1)));
+    }
+
+    @Test
+    public void testEventChainsReadUntilLogIsBuilt() throws Exception {
+        unbuildEventLog();
+        DocumentaryUnit doc = createItemWithIdentifier("foo", user1);
+        createItemWithIdentifier("bar", user2);
+        ((IndexableGraph) graph.getBaseGraph()).dropIndex(EventLog.INDEX_NAME);
+
+        EventViews views = new EventViews(graph);
+        assertEquals(2, Iterables.size(views.list(query, user1)));
+        assertEquals(1, Iterables.size(views.listByUser(query, user1, user1)));
+        assertEquals(1, Iterables.size(views.listForItem(query, doc, user1)));
+
+        new EventLog(graph).rebuild();
+        assertEquals(Lists.newArrayList(views.list(query, user1)),
+                Lists.newArrayList(new EventViews(graph).list(query, user1)));
+    }
+
+    @Test
+    public void testListAsUserMatchesFilteredLog() throws Exception {
+        // Seed a random history of creations and updates by several
+        // users, then check each page of the feed against the whole
+        // log filtered by what user2 watches and follows.
+        Random random = new Random(42);
+        List<UserProfile> users = Lists.newArrayList(user1, user2,
+                manager.getFrame("reto", UserProfile.class),
+                manager.getFrame("linda", UserProfile.class));
+        Group admin = manager.getFrame("admin", Group.class);
+        admin.addMember(users.get(2));
+        admin.addMember(users.get(3));
+        LoggingCrudViews<DocumentaryUnit> docViews = new LoggingCrudViews<DocumentaryUnit>(
+                graph, DocumentaryUnit.class);
+        List<DocumentaryUnit> docs = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            docs.add(createItemWithIdentifier("doc" + i, users.get(random.nextInt(users.size()))));
+        }
+        for (int i = 0; i < 60; i++) {
+            DocumentaryUnit doc = docs.get(random.nextInt(docs.size()));
+            docViews.update(new Serializer.Builder(graph).dependentOnly().build()
+                    .vertexFrameToBundle(doc)
+                    .withDataValue("foo", "bar" + i), users.get(random.nextInt(users.size())));
+        }
+        for (DocumentaryUnit doc : docs) {
+            if (random.nextInt(3) == 0) {
+                user2.addWatching(doc);
+            }
+        }
+        user2.addFollowing(users.get(2));
+        user2.addFollowing(users.get(3));
+        final Set<String> watching = Sets.newHashSet();
+        for (Watchable item : user2.getWatching()) {
+            watching.add(item.getId());
+        }
+        final Set<String> following = Sets.newHashSet();
+        for (UserProfile other : user2.getFollowing()) {
+            following.add(other.getId());
+        }
+
+        List<SystemEvent> all = Lists.newArrayList(eventViews
+                .listAsUser(query.setLimit(-1), user2, user2));
+        List<Set<EventViews.ShowType>> showTypes = Lists.<Set<EventViews.ShowType>>newArrayList(
+                EnumSet.of(EventViews.ShowType.watched),
+                EnumSet.of(EventViews.ShowType.followed),
+                EnumSet.allOf(EventViews.ShowType.class));
+        for (Set<EventViews.ShowType> types : showTypes) {
+            List<SystemEvent> expected = Lists.newArrayList();
+            for (SystemEvent event : all) {
+                boolean watched = false;
+                for (AccessibleEntity subject : event.getSubjects()) {
+                    watched = watched || watching.contains(subject.getId());
+                }
+                boolean followed = event.getActioner() != null
+                        && following.contains(event.getActioner().getId());
+                if ((watched && types.contains(EventViews.ShowType.watched))
+                        || (followed && types.contains(EventViews.ShowType.followed))) {
+                    expected.add(event);
+                }
+            }
+            assertFalse(expected.isEmpty());
+            EventViews views = eventViews.withShowType(
+                    types.toArray(new EventViews.ShowType[types.size()]));
+            for (int offset = 0; offset < expected.size(); offset += 7) {
+                assertEquals(expected.subList(offset, Math.min(offset + 10, expected.size())),
+                        Lists.newArrayList(views.listAsUser(
+                                query.setOffset(offset).setLimit(10), user2, user2)));
+            }
+        }
+    }
+
+    // Make the graph look like one from before the event log, on
+    // which new events are linked into the chains.
+    private void unbuildEventLog() throws Exception {
+        ((IndexableGraph) graph.getBaseGraph()).dropIndex(EventLog.INDEX_NAME);
+        manager.getVertex(ActionManager.GLOBAL_EVENT_ROOT).removeProperty(EventLog.BUILT_KEY);
+    }
+
+    private static String timestamp(long millis, DateTimeZone zone) {
+        return ISODateTimeFormat.dateTime().print(new DateTime(millis, zone));
+    }
+
     public DocumentaryUnit createItemWithIdentifier(String id, UserProfile userProfile) throws Exception {
         LoggingCrudViews<DocumentaryUnit> docViews = new LoggingCrudViews<DocumentaryUnit>(
                 graph, DocumentaryUnit.class);
@@ -0,0 +1,64 @@
+package eu.ehri.project.views;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class PageCursorTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<Object> keys = Lists.<Object>newArrayList(
+                "foo", 10, null, new Date(0L), true, "c1");
+        PageCursor cursor = new PageCursor(keys);
+        PageCursor decoded = PageCursor.decode(cursor.encode());
+        assertEquals(keys, decoded.getKeys());
+    }
+
+    @Test
+    public void testTokenIsUrlSafe() throws Exception {
+        String token = new PageCursor(Lists.newArrayList("?&/+= ", "é")).encode();
+        assertTrue(token.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    public void testEmptyTokenIsStart() throws Exception {
+        assertSame(PageCursor.START, PageCursor.decode(null));
+        assertSame(PageCursor.START, PageCursor.decode(" "));
+        assertTrue(PageCursor.START.isStart());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedToken() throws Exception {
+        PageCursor.decode("not a cursor!");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonListToken() throws Exception {
+        PageCursor.decode(BaseEncoding.base64Url().encode("{\"a\": 1}".getBytes(Charsets.UTF_8)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullToken() throws Exception {
+        PageCursor.decode(BaseEncoding.base64Url().encode("null".getBytes(Charsets.UTF_8)));
+    }
+
+    @Test
+    public void testIdKeyIsNotConverted() throws Exception {
+        List<Object> keys = PageCursor.decode(new PageCursor(
+                Lists.newArrayList("2014-05-06", "2014-05-06")).encode()).getKeys();
+        assertTrue(keys.get(0) instanceof Date);
+        assertEquals("2014-05-06", keys.get(1));
+    }
+}
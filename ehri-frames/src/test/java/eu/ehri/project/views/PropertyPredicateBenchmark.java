@@ -0,0 +1,115 @@
+package eu.ehri.project.views;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.test.AbstractFixtureTest;
+import eu.ehri.project.views.Query.FilterPredicate;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Timing of the per-vertex cost of filter predicates compiled once
+ * per query, against the former approach of switching on the predicate
+ * and, for regular expressions, compiling the pattern for each vertex.
+ * This is excluded from the default test run; to run it:
+ * <p/>
+ * mvn test -pl ehri-frames -Dtest=PropertyPredicateBenchmark
+ */
+public class PropertyPredicateBenchmark extends AbstractFixtureTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PropertyPredicateBenchmark.class);
+
+    private static final int COUNT = 50000;
+    private static final int ROUNDS = 10;
+    private static final String KEY = "name";
+
+    @Test
+    public void benchmarkPredicates() throws Exception {
+        List<Vertex> vertices = Lists.newArrayListWithCapacity(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            vertices.add(manager.createVertex("filtered" + i, EntityClass.DOCUMENTARY_UNIT,
+                    ImmutableMap.<String, Object>of(
+                            Ontology.IDENTIFIER_KEY, "filtered" + i,
+                            KEY, "Item " + i + " of the Collection")));
+        }
+        graph.getBaseGraph().commit();
+
+        benchmark(vertices, FilterPredicate.MATCHES, "Item \\d+0 of .*", COUNT / 10 - 1);
+        benchmark(vertices, FilterPredicate.ICONTAINS, "COLLECTION", COUNT);
+        benchmark(vertices, FilterPredicate.GT, "Item 5", 5555);
+    }
+
+    private void benchmark(List<Vertex> vertices, FilterPredicate predicate,
+            String value, int expected) {
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            int count = 0;
+            for (Vertex vertex : vertices) {
+                String p = vertex.getProperty(KEY);
+                if (p != null && matches(p, value, predicate)) {
+                    count++;
+                }
+            }
+            assertEquals(expected, count);
+        }
+        long switched = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            PropertyPredicate compiled = PropertyPredicate.compile(predicate, value);
+            int count = 0;
+            for (Vertex vertex : vertices) {
+                if (compiled.apply(vertex.getProperty(KEY))) {
+                    count++;
+                }
+            }
+            assertEquals(expected, count);
+        }
+        long compiled = System.nanoTime() - start;
+
+        long tests = (long) ROUNDS * vertices.size();
+        logger.info("{} per vertex: switch {}ns, compiled {}ns", predicate,
+                switched / tests, compiled / tests);
+    }
+
+    /**
+     * The former per-vertex predicate test.
+     */
+    private static boolean matches(String a, String b, FilterPredicate predicate) {
+        switch (predicate) {
+            case EQUALS:
+                return a.equals(b);
+            case IEQUALS:
+                return a.equalsIgnoreCase(b);
+            case STARTSWITH:
+                return a.startsWith(b);
+            case ENDSWITH:
+                return a.endsWith(b);
+            case CONTAINS:
+                return a.contains(b);
+            case ICONTAINS:
+                return a.toLowerCase().contains(b.toLowerCase());
+            case MATCHES:
+                return a.matches(b);
+            case GT:
+                return a.compareTo(b) > 0;
+            case GTE:
+                return a.compareTo(b) >= 0;
+            case LT:
+                return a.compareTo(b) < 0;
+            case LTE:
+                return a.compareTo(b) <= 0;
+            default:
+                throw new RuntimeException("Unexpected filter predicate: "
+                        + predicate);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package eu.ehri.project.views;
+
+import eu.ehri.project.views.Query.FilterPredicate;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class PropertyPredicateTest {
+
+    private static boolean test(FilterPredicate predicate, String value, Object property) {
+        return PropertyPredicate.compile(predicate, value).apply(property);
+    }
+
+    @Test
+    public void testStringPredicates() throws Exception {
+        assertTrue(test(FilterPredicate.EQUALS, "foo", "foo"));
+        assertFalse(test(FilterPredicate.EQUALS, "foo", "Foo"));
+        assertTrue(test(FilterPredicate.IEQUALS, "foo", "FOO"));
+        assertFalse(test(FilterPredicate.IEQUALS, "foo", "food"));
+        assertTrue(test(FilterPredicate.STARTSWITH, "fo", "foo"));
+        assertFalse(test(FilterPredicate.STARTSWITH, "oo", "foo"));
+        assertTrue(test(FilterPredicate.ENDSWITH, "oo", "foo"));
+        assertFalse(test(FilterPredicate.ENDSWITH, "fo", "foo"));
+        assertTrue(test(FilterPredicate.CONTAINS, "ob", "foobar"));
+        assertFalse(test(FilterPredicate.CONTAINS, "OB", "foobar"));
+        assertTrue(test(FilterPredicate.ICONTAINS, "OB", "fooBar"));
+        assertFalse(test(FilterPredicate.ICONTAINS, "baz", "fooBar"));
+        assertTrue(test(FilterPredicate.MATCHES, "f.+r", "foobar"));
+        assertFalse(test(FilterPredicate.MATCHES, "f.+", "barfoo"));
+    }
+
+    @Test
+    public void testStringComparisons() throws Exception {
+        assertTrue(test(FilterPredicate.GT, "b", "c"));
+        assertFalse(test(FilterPredicate.GT, "b", "b"));
+        assertTrue(test(FilterPredicate.GTE, "b", "b"));
+        assertTrue(test(FilterPredicate.LT, "b", "a"));
+        assertFalse(test(FilterPredicate.LT, "b", "b"));
+        assertTrue(test(FilterPredicate.LTE, "b", "b"));
+        assertFalse(test(FilterPredicate.LTE, "b", "c"));
+    }
+
+    @Test
+    public void testNumericComparisons() throws Exception {
+        // As strings "10" < "9"
+        assertTrue(test(FilterPredicate.GT, "9", 10));
+        assertTrue(test(FilterPredicate.GTE, "10", 10L));
+        assertTrue(test(FilterPredicate.LT, "10", 9.5));
+        assertFalse(test(FilterPredicate.LTE, "2.5", 3));
+        // Numeric strings are compared as numbers...
+        assertFalse(test(FilterPredicate.LT, "9", "10"));
+        assertTrue(test(FilterPredicate.GT, "9", "10"));
+        assertTrue(test(FilterPredicate.GTE, "1.5", "1.50"));
+        assertTrue(test(FilterPredicate.LT, "0", "-2e3"));
+        // ...and other strings as strings
+        assertTrue(test(FilterPredicate.GT, "9", "9a"));
+        assertTrue(test(FilterPredicate.LT, "9", "10 items"));
+    }
+
+    @Test
+    public void testDateComparisons() throws Exception {
+        // 12:00 at +2 hours is before 11:00 UTC
+        assertTrue(test(FilterPredicate.LT, "2013-01-01T11:00:00Z", "2013-01-01T12:00:00+02:00"));
+        assertTrue(test(FilterPredicate.GT, "2012-12-31", "2013-01-01T00:00:00Z"));
+        assertFalse(test(FilterPredicate.GT, "2013-01-01", "2012-12-31T23:59:59Z"));
+    }
+
+    @Test
+    public void testNonStringEquality() throws Exception {
+        assertTrue(test(FilterPredicate.EQUALS, "10", 10));
+        assertTrue(test(FilterPredicate.EQUALS, "true", true));
+    }
+
+    @Test
+    public void testNullNeverMatches() throws Exception {
+        for (FilterPredicate predicate : FilterPredicate.values()) {
+            assertFalse(test(predicate, "", null));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package eu.ehri.project.views;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Ordering;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.gremlin.java.GremlinPipeline;
+import com.tinkerpop.pipes.PipeFunction;
+import com.tinkerpop.pipes.util.structures.Pair;
+import eu.ehri.project.acl.AclManager;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Timing of sorted pages of items, selecting the top items of each
+ * page while sorting by typed values, against the former approach of
+ * sorting every item by its value as a string. This is excluded from
+ * the default test run; to run it:
+ * <p/>
+ * mvn test -pl ehri-frames -Dtest=PropertyValueOrderingBenchmark
+ */
+public class PropertyValueOrderingBenchmark extends AbstractFixtureTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PropertyValueOrderingBenchmark.class);
+
+    private static final int COUNT = 100000;
+    private static final int PAGES = 5;
+    private static final int LIMIT = 20;
+    private static final String KEY = "rank";
+
+    @Test
+    public void benchmarkSortedPaging() throws Exception {
+        Random random = new Random(42L);
+        for (int i = 0; i < COUNT; i++) {
+            manager.createVertex("sorted" + i, EntityClass.DOCUMENTARY_UNIT,
+                    ImmutableMap.<String, Object>of(
+                            Ontology.IDENTIFIER_KEY, "sorted" + i,
+                            KEY, String.valueOf(random.nextInt(COUNT))));
+            if (i % 10000 == 0) {
+                graph.getBaseGraph().commit();
+            }
+        }
+        graph.getBaseGraph().commit();
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < PAGES; i++) {
+            assertEquals(LIMIT, sortAsStrings(i * LIMIT).size());
+        }
+        logger.info("Full sort by string, {} pages of {} items: {}ms", PAGES, COUNT,
+                System.currentTimeMillis() - start);
+
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph, DocumentaryUnit.class)
+                .orderBy(KEY, Query.Sort.ASC).setLimit(LIMIT).setStream(true);
+        start = System.currentTimeMillis();
+        for (int i = 0; i < PAGES; i++) {
+            assertEquals(LIMIT, toList(query.setOffset(i * LIMIT).page(validUser)).size());
+        }
+        logger.info("Top-K sort by value, {} pages of {} items: {}ms", PAGES, COUNT,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Read a page of items by sorting all of them on the string
+     * value of their sort property.
+     */
+    private List<Vertex> sortAsStrings(int offset) {
+        final Ordering<Comparable<?>> order = Ordering.natural().nullsLast();
+        CloseableIterable<Vertex> vertices = manager.getVertices(EntityClass.DOCUMENTARY_UNIT);
+        try {
+            return new GremlinPipeline<Vertex, Vertex>(vertices)
+                    .filter(new AclManager(graph).getAclFilterFunction(validUser))
+                    .order(new PipeFunction<Pair<Vertex, Vertex>, Integer>() {
+                        public Integer compute(Pair<Vertex, Vertex> pair) {
+                            String a = pair.getA().getProperty(KEY);
+                            String b = pair.getB().getProperty(KEY);
+                            return order.compare(a, b);
+                        }
+                    })
+                    .range(offset, offset + LIMIT - 1).toList();
+        } finally {
+            vertices.close();
+        }
+    }
+}
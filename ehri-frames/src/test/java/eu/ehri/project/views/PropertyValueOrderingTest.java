@@ -0,0 +1,58 @@
+package eu.ehri.project.views;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class PropertyValueOrderingTest {
+
+    private final PropertyValueOrdering ordering = PropertyValueOrdering.getInstance();
+
+    @Test
+    public void testNumbers() throws Exception {
+        assertTrue(ordering.compare(9, 10) < 0);
+        assertTrue(ordering.compare(10L, 9) > 0);
+        assertTrue(ordering.compare(2.5, 3) < 0);
+        assertTrue(ordering.compare(Long.MAX_VALUE, Long.MAX_VALUE - 1) > 0);
+        assertEquals(0, ordering.compare(1, 1L));
+    }
+
+    @Test
+    public void testBooleans() throws Exception {
+        assertTrue(ordering.compare(false, true) < 0);
+        assertEquals(0, ordering.compare(true, true));
+    }
+
+    @Test
+    public void testDates() throws Exception {
+        Object a = PropertyValueOrdering.sortKey("2013-01-01T12:00:00+02:00");
+        Object b = PropertyValueOrdering.sortKey("2013-01-01T11:00:00Z");
+        Object c = PropertyValueOrdering.sortKey("2012-12-31");
+        assertTrue(a instanceof Date);
+        assertTrue(ordering.compare(a, b) < 0);
+        assertTrue(ordering.compare(c, a) < 0);
+
+        // Strings that merely look like dates are left alone
+        assertEquals("2013-01-01 and more", PropertyValueOrdering.sortKey("2013-01-01 and more"));
+        assertEquals("c1", PropertyValueOrdering.sortKey("c1"));
+    }
+
+    @Test
+    public void testMixedTypes() throws Exception {
+        Date date = new Date(0L);
+        List<Object> values = Lists.<Object>newArrayList(
+                null, "b", date, true, 10, "a", 2.5, false, null);
+        List<Object> expected = Lists.<Object>newArrayList(
+                2.5, 10, false, true, date, "a", "b", null, null);
+        assertEquals(expected, ordering.sortedCopy(values));
+        assertEquals(Lists.reverse(expected), ordering.reverse().sortedCopy(values));
+    }
+}
@@ -0,0 +1,106 @@
+package eu.ehri.project.views;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.gremlin.java.GremlinPipeline;
+import com.tinkerpop.pipes.PipeFunction;
+import eu.ehri.project.acl.AclManager;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.test.AbstractFixtureTest;
+import eu.ehri.project.views.Query.Page;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Timing of paged index queries, reading the index hits once,
+ * against the former approach of counting with one index query
+ * and fetching the page with a second. This is excluded from the
+ * default test run; to run it:
+ * <p/>
+ * mvn test -pl ehri-frames -Dtest=QueryBenchmark
+ */
+public class QueryBenchmark extends AbstractFixtureTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryBenchmark.class);
+
+    private static final int COUNT = 50000;
+    private static final int PAGES = 20;
+    private static final int LIMIT = 20;
+    private static final String KEY = "benchmark";
+    private static final String VALUE = "paging";
+
+    @Test
+    public void benchmarkPagingIndexQueries() throws Exception {
+        for (int i = 0; i < COUNT; i++) {
+            manager.createVertex("paged" + i, EntityClass.DOCUMENTARY_UNIT,
+                    ImmutableMap.<String, Object>of(
+                            Ontology.IDENTIFIER_KEY, "paged" + i, KEY, VALUE),
+                    ImmutableList.of(KEY));
+            if (i % 10000 == 0) {
+                graph.getBaseGraph().commit();
+            }
+        }
+        graph.getBaseGraph().commit();
+
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph, DocumentaryUnit.class)
+                .setLimit(LIMIT);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < PAGES; i++) {
+            assertEquals(COUNT, countAndFetch(i * LIMIT));
+        }
+        logger.info("Two index queries, {} pages of {} items: {}ms", PAGES, COUNT,
+                System.currentTimeMillis() - start);
+
+        for (Query.CountMode mode : Query.CountMode.values()) {
+            Query<DocumentaryUnit> modeQuery = query.setCountMode(mode);
+            start = System.currentTimeMillis();
+            for (int i = 0; i < PAGES; i++) {
+                Page<DocumentaryUnit> page = modeQuery.setOffset(i * LIMIT)
+                        .page(KEY, VALUE, validUser);
+                assertEquals(LIMIT, toList(page).size());
+                if (mode != Query.CountMode.NONE) {
+                    assertEquals(COUNT, page.getTotal());
+                }
+            }
+            logger.info("One index query, count mode {}, {} pages of {} items: {}ms",
+                    mode, PAGES, COUNT, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Count the visible items with one index query and read the page
+     * window with another, returning the count.
+     */
+    private long countAndFetch(int offset) {
+        PipeFunction<Vertex, Boolean> aclFilter = new AclManager(graph)
+                .getAclFilterFunction(validUser);
+        CloseableIterable<Vertex> countQuery = manager.getVertices(KEY, VALUE,
+                EntityClass.DOCUMENTARY_UNIT);
+        try {
+            CloseableIterable<Vertex> indexQuery = manager.getVertices(KEY, VALUE,
+                    EntityClass.DOCUMENTARY_UNIT);
+            try {
+                long count = new GremlinPipeline<Vertex, Vertex>(countQuery)
+                        .filter(aclFilter).count();
+                List<Vertex> window = new GremlinPipeline<Vertex, Vertex>(indexQuery)
+                        .filter(aclFilter).range(offset, offset + LIMIT - 1).toList();
+                assertEquals(LIMIT, window.size());
+                return count;
+            } finally {
+                indexQuery.close();
+            }
+        } finally {
+            countQuery.close();
+        }
+    }
+}
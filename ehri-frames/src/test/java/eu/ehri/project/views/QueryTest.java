@@ -1,15 +1,19 @@
 package eu.ehri.project.views;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
 import eu.ehri.project.acl.AclManager;
+import eu.ehri.project.acl.AnonymousAccessor;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.DocumentaryUnit;
 import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.Repository;
+import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.base.Accessor;
 import eu.ehri.project.test.AbstractFixtureTest;
 import eu.ehri.project.views.Query.Page;
@@ -94,10 +98,99 @@ public class QueryTest extends AbstractFixtureTest {
         assertEquals(toList(allDocs).size(), page.getTotal());
     }
 
+    @Test
+    public void testPageTotalRespectsAcl() throws Exception {
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph,
+                DocumentaryUnit.class);
+        List<DocumentaryUnit> all = toList(manager.getFrames(
+                EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class));
+
+        for (Accessor accessor : Lists.<Accessor>newArrayList(validUser,
+                invalidUser, AnonymousAccessor.getInstance())) {
+            List<DocumentaryUnit> readable = Lists.newArrayList();
+            for (DocumentaryUnit doc : all) {
+                if (aclManager.canAccess(doc, accessor)) {
+                    readable.add(doc);
+                }
+            }
+            for (int offset : new int[]{0, 1, 3, 10}) {
+                for (int limit : new int[]{-1, 0, 1, 2, 20}) {
+                    Page<DocumentaryUnit> page = query.setOffset(offset)
+                            .setLimit(limit).page(accessor);
+                    assertEquals(readable.size(), page.getTotal());
+                    int from = Math.min(offset, readable.size());
+                    int to = limit < 0 ? readable.size()
+                            : Math.min(from + limit, readable.size());
+                    assertEquals(readable.subList(from, to), toList(page));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPageWithNoCount() throws Exception {
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph,
+                DocumentaryUnit.class).setCountMode(Query.CountMode.NONE);
+        Page<DocumentaryUnit> page = query.setLimit(2).page(invalidUser);
+        assertEquals(-1L, page.getTotal());
+        assertEquals(2, toList(page).size());
+    }
+
+    @Test
+    public void testPageWithEstimatedCount() throws Exception {
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph,
+                DocumentaryUnit.class);
+        Query<DocumentaryUnit> estimateQuery = query
+                .setCountMode(Query.CountMode.ESTIMATED);
+
+        // Reto can't read c1, so the exact count excludes it, but
+        // the estimate reflects the raw number of index hits.
+        Page<DocumentaryUnit> exact = query.page(
+                Ontology.IDENTIFIER_KEY, "c1", invalidUser);
+        Page<DocumentaryUnit> estimate = estimateQuery.page(
+                Ontology.IDENTIFIER_KEY, "c1", invalidUser);
+        assertEquals(0L, exact.getTotal());
+        assertEquals(1L, estimate.getTotal());
+        assertEquals(toList(exact), toList(estimate));
+
+        // For admin the estimate and the exact count agree
+        assertEquals(query.page(validUser).getTotal(),
+                estimateQuery.page(validUser).getTotal());
+        assertEquals(query.count(validUser), estimateQuery.page(invalidUser).getTotal());
+        assertTrue(estimateQuery.page(invalidUser).getTotal()
+                > query.page(invalidUser).getTotal());
+
+        // Non-index queries fall back on an exact count
+        List<DocumentaryUnit> items = toList(query.setLimit(-1).page(validUser));
+        assertEquals(query.page(items, invalidUser).getTotal(),
+                estimateQuery.page(items, invalidUser).getTotal());
+    }
+
     @Test
     public void testCount() throws Exception {
         Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph, DocumentaryUnit.class);
-        assertEquals(5, query.count());
+        assertEquals(5, query.count(validUser));
+    }
+
+    @Test
+    public void testCountMatchesPageTotal() throws Exception {
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph, DocumentaryUnit.class);
+        Query<DocumentaryUnit> filtered = query
+                .filter(Ontology.IDENTIFIER_KEY, Query.FilterPredicate.STARTSWITH, "c");
+        List<DocumentaryUnit> all = toList(query.setLimit(-1).page(validUser));
+        for (Accessor accessor : Lists.newArrayList(
+                validUser, invalidUser, AnonymousAccessor.getInstance())) {
+            assertEquals(query.page(accessor).getTotal(), query.count(accessor));
+            assertEquals(filtered.page(accessor).getTotal(), filtered.count(accessor));
+            assertEquals(query.page(all, accessor).getTotal(), query.count(all, accessor));
+            assertEquals(filtered.page(all, accessor).getTotal(), filtered.count(all, accessor));
+        }
+
+        // Reto can only read the unrestricted items, c4 and m19
+        assertEquals(5L, query.count(validUser));
+        assertEquals(2L, query.count(invalidUser));
+        assertEquals(4L, filtered.count(validUser));
+        assertEquals(1L, filtered.count(invalidUser));
     }
 
     @Test
@@ -139,6 +232,26 @@ public class QueryTest extends AbstractFixtureTest {
         assertEquals(-1L, list.getTotal());
     }
 
+    @Test
+    public void testPagesOfIndexHits() throws Exception {
+        // Bounded pages are read before the index hits are closed...
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph,
+                DocumentaryUnit.class).setCountMode(Query.CountMode.ESTIMATED);
+        Page<DocumentaryUnit> page = query.setLimit(1).page(
+                Ontology.IDENTIFIER_KEY, "c1", validUser);
+        assertEquals(1, toList(page).size());
+        assertEquals(toList(page), toList(page));
+        assertEquals(2, toList(query.setLimit(2).page(validUser)).size());
+
+        // ...and unbounded streams when they are closed.
+        Page<DocumentaryUnit> stream = query.setStream(true).setLimit(-1).page(validUser);
+        try {
+            assertEquals(query.count(validUser), toList(stream).size());
+        } finally {
+            stream.close();
+        }
+    }
+
     @Test
     public void testListWithDepthFilter() throws Exception {
         Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph,
@@ -302,6 +415,150 @@ public class QueryTest extends AbstractFixtureTest {
                 .getIterable()).get(0).getIdentifier());
     }
 
+    @Test
+    public void testListWithTypedSort() throws Exception {
+        // Give the docs a mix of integer and floating point values,
+        // which would sort differently as strings, and leave m19
+        // without one.
+        manager.getVertex("c1").setProperty("priority", 10);
+        manager.getVertex("c2").setProperty("priority", 9L);
+        manager.getVertex("c3").setProperty("priority", 100);
+        manager.getVertex("c4").setProperty("priority", 2.5);
+
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph,
+                DocumentaryUnit.class).orderBy("priority", Query.Sort.ASC);
+        Page<DocumentaryUnit> page = query.page(validUser);
+        assertEquals(5L, page.getTotal());
+        assertEquals(Lists.newArrayList("c4", "c2", "c1", "c3", "m19"),
+                getIdentifiers(page));
+
+        // Sorting with a limited page only retains offset + limit
+        // items, but should still give the same results and total.
+        Page<DocumentaryUnit> window = query.setOffset(1).setLimit(2).page(validUser);
+        assertEquals(5L, window.getTotal());
+        assertEquals(Lists.newArrayList("c2", "c1"), getIdentifiers(window));
+        assertEquals(0L, Iterables.size(query.setLimit(0).page(validUser)));
+        assertEquals(5L, query.setLimit(0).page(validUser).getTotal());
+
+        Page<DocumentaryUnit> desc = query.clearOrdering().orderBy("priority", Query.Sort.DESC)
+                .setLimit(2).page(validUser);
+        assertEquals(Lists.newArrayList("m19", "c3"), getIdentifiers(desc));
+    }
+
+    @Test
+    public void testListWithDateSort() throws Exception {
+        // Dates with different offsets sort chronologically
+        // rather than lexically.
+        manager.getVertex("c1").setProperty("date", "2013-01-01T12:00:00+02:00");
+        manager.getVertex("c2").setProperty("date", "2013-01-01T11:00:00Z");
+        manager.getVertex("c3").setProperty("date", "2012-12-31");
+
+        Page<DocumentaryUnit> page = new Query<DocumentaryUnit>(graph,
+                DocumentaryUnit.class).orderBy("date", Query.Sort.ASC)
+                .setLimit(3).page(validUser);
+        assertEquals(Lists.newArrayList("c3", "c1", "c2"), getIdentifiers(page));
+    }
+
+    @Test
+    public void testListWithNumericFilter() throws Exception {
+        manager.getVertex("c1").setProperty("priority", 10);
+        manager.getVertex("c2").setProperty("priority", 9);
+        manager.getVertex("c3").setProperty("priority", 100);
+
+        // Compared as strings, "10" and "100" would be less than "9"
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph,
+                DocumentaryUnit.class).filter("priority", Query.FilterPredicate.GT, "9")
+                .orderBy("priority", Query.Sort.ASC);
+        assertEquals(Lists.newArrayList("c1", "c3"), getIdentifiers(query.page(validUser)));
+        assertEquals(Lists.newArrayList("c1", "c3"),
+                getIdentifiers(query.setStream(true).page(validUser)));
+
+        // Numbers stored as strings are also compared numerically
+        manager.getVertex("c2").setProperty("priority", "11");
+        assertEquals(Sets.newHashSet("c1", "c2", "c3"),
+                Sets.newHashSet(getIdentifiers(query.page(validUser))));
+    }
+
+    @Test
+    public void testCursorWalkMatchesOffsetWalk() throws Exception {
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph, DocumentaryUnit.class);
+        for (Accessor accessor : Lists.newArrayList(validUser, invalidUser,
+                AnonymousAccessor.getInstance())) {
+            for (int limit = 1; limit <= 3; limit++) {
+                // Without any other order, cursor walks are ordered by ID
+                assertEquals(walkWithOffset(query.orderBy(EntityType.ID_KEY, Query.Sort.ASC)
+                        .setLimit(limit), accessor),
+                        walkWithCursor(query.setLimit(limit), accessor));
+
+                Query<DocumentaryUnit> ordered = query.setLimit(limit)
+                        .orderBy(Ontology.IDENTIFIER_KEY, Query.Sort.DESC);
+                assertEquals(walkWithOffset(ordered, accessor), walkWithCursor(ordered, accessor));
+                assertEquals(walkWithOffset(ordered.setStream(true), accessor),
+                        walkWithCursor(ordered.setStream(true), accessor));
+            }
+        }
+    }
+
+    @Test
+    public void testCursorWalkWithTies() throws Exception {
+        manager.getVertex("c1").setProperty("priority", 1);
+        manager.getVertex("c2").setProperty("priority", 2);
+        manager.getVertex("c3").setProperty("priority", 1);
+        manager.getVertex("c4").setProperty("priority", 2);
+
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph, DocumentaryUnit.class)
+                .orderBy("priority", Query.Sort.ASC).setLimit(2);
+        List<String> ids = walkWithCursor(query, validUser);
+        assertEquals(Lists.newArrayList("c1", "c3", "c2", "c4", "m19"), ids);
+
+        Page<DocumentaryUnit> page = query.setCursor(PageCursor.START).page(validUser);
+        assertTrue(page.getNextCursor().isPresent());
+        page = query.setCursor(PageCursor.decode(page.getNextCursor().get())).page(validUser);
+        assertEquals(Lists.newArrayList("c2", "c4"), getIdentifiers(page));
+    }
+
+    @Test
+    public void testCursorPagesAreNotCounted() throws Exception {
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph, DocumentaryUnit.class)
+                .setLimit(2);
+        long all = Iterables.size(manager.getVertices(EntityClass.DOCUMENTARY_UNIT));
+        for (Query<DocumentaryUnit> q : Lists.newArrayList(query,
+                query.orderBy(Ontology.IDENTIFIER_KEY, Query.Sort.DESC))) {
+            Page<DocumentaryUnit> page = q.setCursor(PageCursor.START).page(validUser);
+            assertEquals(-1L, page.getTotal());
+            assertEquals(2, Iterables.size(page));
+            // Estimated totals are taken from the index, regardless of the cursor
+            page = q.setCountMode(Query.CountMode.ESTIMATED)
+                    .setCursor(PageCursor.decode(page.getNextCursor().get())).page(validUser);
+            assertEquals(all, page.getTotal());
+            assertEquals(2, Iterables.size(page));
+        }
+    }
+
+    @Test
+    public void testCursorWalkWithDateLikeIds() throws Exception {
+        for (String id : Lists.newArrayList("2014-05-06", "2014-05-07")) {
+            manager.createVertex(id, EntityClass.DOCUMENTARY_UNIT,
+                    ImmutableMap.<String, Object>of(Ontology.IDENTIFIER_KEY, id));
+        }
+        List<String> all = Lists.newArrayList(
+                "2014-05-06", "2014-05-07", "c1", "c2", "c3", "c4", "m19");
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph, DocumentaryUnit.class)
+                .setLimit(1);
+        assertEquals(all, walkWithCursor(query, validUser));
+        assertEquals(Lists.reverse(all), walkWithCursor(
+                query.orderBy(Ontology.IDENTIFIER_KEY, Query.Sort.DESC), validUser));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCursorMustMatchOrder() throws Exception {
+        Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph, DocumentaryUnit.class)
+                .setLimit(2);
+        String next = query.setCursor(PageCursor.START).page(validUser).getNextCursor().get();
+        query.orderBy(Ontology.IDENTIFIER_KEY, Query.Sort.ASC)
+                .setCursor(PageCursor.decode(next)).page(validUser);
+    }
+
     @Test
     public void testListWithGlobFilter() throws Exception {
         Query<DocumentaryUnit> query = new Query<DocumentaryUnit>(graph,
@@ -330,4 +587,39 @@ public class QueryTest extends AbstractFixtureTest {
         assertTrue(list.isEmpty());
         assertEquals(0, list.size());
     }
+
+    private List<String> getIdentifiers(Iterable<DocumentaryUnit> items) {
+        List<String> ids = Lists.newArrayList();
+        for (DocumentaryUnit item : items) {
+            ids.add(item.getIdentifier());
+        }
+        return ids;
+    }
+
+    private List<String> walkWithCursor(Query<DocumentaryUnit> query, Accessor accessor) {
+        List<String> ids = Lists.newArrayList();
+        PageCursor cursor = PageCursor.START;
+        while (true) {
+            Page<DocumentaryUnit> page = query.setCursor(cursor).page(accessor);
+            ids.addAll(getIdentifiers(page));
+            if (!page.getNextCursor().isPresent()) {
+                return ids;
+            }
+            cursor = PageCursor.decode(page.getNextCursor().get());
+        }
+    }
+
+    private List<String> walkWithOffset(Query<DocumentaryUnit> query, Accessor accessor) {
+        List<String> ids = Lists.newArrayList();
+        int offset = 0;
+        while (true) {
+            Page<DocumentaryUnit> page = query.setOffset(offset).page(accessor);
+            List<String> items = getIdentifiers(page);
+            if (items.isEmpty()) {
+                return ids;
+            }
+            ids.addAll(items);
+            offset += page.getLimit();
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package eu.ehri.project.views;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.gremlin.java.GremlinPipeline;
+import com.tinkerpop.pipes.PipeFunction;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Timing of filtering items by the name of their repository, resolving
+ * the shared repositories once, against the former approach of running
+ * a traversal pipeline for each item. This is excluded from the default
+ * test run; to run it:
+ * <p/>
+ * mvn test -pl ehri-frames -Dtest=TraversalPathEvaluatorBenchmark
+ */
+public class TraversalPathEvaluatorBenchmark extends AbstractFixtureTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(TraversalPathEvaluatorBenchmark.class);
+
+    private static final int COUNT = 50000;
+    private static final int REPOSITORIES = 20;
+    private static final String PATH = "->heldBy<-describes.name";
+    private static final String NAME = "Repository 3";
+
+    @Test
+    public void benchmarkFilterByRepositoryName() throws Exception {
+        List<Vertex> repositories = Lists.newArrayList();
+        for (int i = 0; i < REPOSITORIES; i++) {
+            Vertex repository = manager.createVertex("repo" + i, EntityClass.REPOSITORY,
+                    ImmutableMap.<String, Object>of(Ontology.IDENTIFIER_KEY, "repo" + i));
+            Vertex description = manager.createVertex("repo" + i + "-desc",
+                    EntityClass.REPOSITORY_DESCRIPTION,
+                    ImmutableMap.<String, Object>of(Ontology.NAME_KEY, "Repository " + i,
+                            Ontology.LANGUAGE_OF_DESCRIPTION, "eng"));
+            graph.addEdge(null, description, repository, Ontology.DESCRIPTION_FOR_ENTITY);
+            repositories.add(repository);
+        }
+        List<Vertex> units = Lists.newArrayListWithCapacity(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            Vertex unit = manager.createVertex("held" + i, EntityClass.DOCUMENTARY_UNIT,
+                    ImmutableMap.<String, Object>of(Ontology.IDENTIFIER_KEY, "held" + i));
+            graph.addEdge(null, unit, repositories.get(i % REPOSITORIES),
+                    Ontology.DOC_HELD_BY_REPOSITORY);
+            units.add(unit);
+            if (i % 10000 == 0) {
+                graph.getBaseGraph().commit();
+            }
+        }
+        graph.getBaseGraph().commit();
+
+        long start = System.currentTimeMillis();
+        PipeFunction<Vertex, Boolean> hasName = new PipeFunction<Vertex, Boolean>() {
+            public Boolean compute(Vertex vertex) {
+                return NAME.equals(vertex.getProperty(Ontology.NAME_KEY));
+            }
+        };
+        int count = 0;
+        for (Vertex unit : units) {
+            if (new GremlinPipeline<Vertex, Vertex>(unit)
+                    .out(Ontology.DOC_HELD_BY_REPOSITORY).in(Ontology.DESCRIPTION_FOR_ENTITY)
+                    .filter(hasName).hasNext()) {
+                count++;
+            }
+        }
+        assertEquals(COUNT / REPOSITORIES, count);
+        logger.info("Pipeline per item, {} items: {}ms", COUNT,
+                System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        TraversalPathEvaluator evaluator = new TraversalPathEvaluator(
+                QueryUtils.getTraversalPath(PATH).get());
+        PropertyPredicate predicate = PropertyPredicate.compile(Query.FilterPredicate.EQUALS, NAME);
+        count = 0;
+        for (Vertex unit : units) {
+            if (evaluator.anyMatch(unit, predicate)) {
+                count++;
+            }
+        }
+        assertEquals(COUNT / REPOSITORIES, count);
+        logger.info("Path evaluator, {} items: {}ms", COUNT,
+                System.currentTimeMillis() - start);
+
+        start = System.currentTimeMillis();
+        Iterable<DocumentaryUnit> page = new Query<DocumentaryUnit>(graph, DocumentaryUnit.class)
+                .filter(ImmutableList.of(PATH + ":" + NAME)).setLimit(-1).page(validUser);
+        assertEquals(COUNT / REPOSITORIES, Iterables.size(page));
+        logger.info("Query traversal filter, {} items: {}ms", COUNT,
+                System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,66 @@
+package eu.ehri.project.views;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mike Bryant (http://github.com/mikesname)
+ */
+public class TraversalPathEvaluatorTest extends AbstractFixtureTest {
+
+    private TraversalPathEvaluator getEvaluator(String spec) {
+        return new TraversalPathEvaluator(QueryUtils.getTraversalPath(spec).get());
+    }
+
+    @Test
+    public void testGetValues() throws Exception {
+        TraversalPathEvaluator evaluator = getEvaluator("->heldBy<-describes.name");
+        assertEquals(Lists.<Object>newArrayList("NIOD Description"),
+                evaluator.getValues(manager.getVertex("c1")));
+        assertEquals("NIOD Description", evaluator.getFirstValue(manager.getVertex("c4")));
+
+        // c2 is a child item, so isn't held directly
+        assertTrue(evaluator.getValues(manager.getVertex("c2")).isEmpty());
+        assertNull(evaluator.getFirstValue(manager.getVertex("c2")));
+    }
+
+    @Test
+    public void testAnyMatch() throws Exception {
+        TraversalPathEvaluator evaluator = getEvaluator("<-describes.languageCode");
+        Vertex c1 = manager.getVertex("c1");
+        assertTrue(evaluator.anyMatch(c1, Predicates.<Object>equalTo("eng")));
+        assertFalse(evaluator.anyMatch(c1, Predicates.<Object>equalTo("fra")));
+    }
+
+    @Test
+    public void testSharedNodesAreResolvedOnce() throws Exception {
+        TraversalPathEvaluator evaluator = getEvaluator("->heldBy<-describes.name");
+        assertEquals("NIOD Description", evaluator.getFirstValue(manager.getVertex("c1")));
+
+        // Change the shared repository description: a fresh evaluator
+        // sees the change but this one does not walk the path again.
+        manager.getVertex("rd1").setProperty("name", "Changed");
+        assertEquals("NIOD Description", evaluator.getFirstValue(manager.getVertex("c4")));
+        assertEquals("Changed", getEvaluator("->heldBy<-describes.name")
+                .getFirstValue(manager.getVertex("c4")));
+    }
+
+    @Test
+    public void testFilterByRepositoryName() throws Exception {
+        Iterable<DocumentaryUnit> list = new Query<DocumentaryUnit>(graph, DocumentaryUnit.class)
+                .filter(ImmutableList.of("->heldBy<-describes.name:NIOD Description"))
+                .page(validUser);
+        assertEquals(3, Iterables.size(list));
+    }
+}
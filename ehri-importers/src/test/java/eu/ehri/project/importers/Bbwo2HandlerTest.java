@@ -73,7 +73,6 @@ public class Bbwo2HandlerTest extends AbstractImporterTest {
         diff.printDebug(System.out);
 
         /**
-         * null: 2
          * relationship: 4
          * documentaryUnit: 1
          * link: 1
@@ -82,7 +81,7 @@ public class Bbwo2HandlerTest extends AbstractImporterTest {
          * systemEvent: 1
          * 
          */
-        int newCount = origCount + 10;
+        int newCount = origCount + 8;
         assertEquals(newCount, getNodeCount(graph));
 
         DocumentaryUnit archdesc = graph.frame(getVertexByIdentifier(graph, ARCHDESC), DocumentaryUnit.class);
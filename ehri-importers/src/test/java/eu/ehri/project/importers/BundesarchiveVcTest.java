@@ -53,10 +53,9 @@ public class BundesarchiveVcTest extends AbstractImporterTest{
         // - 1 more DatePeriod
         // - 1 more UnknownProperties
         // - 3 more Relationships
-        // - 2 more import Event links (1 for every Unit, 1 for the User)
         // - 1 more import Event
         // - 5 more MaintenanceEvents (4 revised, 1 created)
-        int newCount = origCount + 9+1+4+1;
+        int newCount = origCount + 7+1+4+1;
 
         assertEquals(newCount, getNodeCount(graph));
         
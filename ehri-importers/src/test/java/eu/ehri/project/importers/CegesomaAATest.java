@@ -63,7 +63,6 @@ public class CegesomaAATest extends AbstractImporterTest{
 //        printGraph(graph);
         // How many new nodes will have been created? We should have
         /** 
-         * event links: 6
          * relationship: 34
          * documentaryUnit: 5
          * documentDescription: 5
@@ -71,7 +70,7 @@ public class CegesomaAATest extends AbstractImporterTest{
          * datePeriod: 4
          * maintenanceEvent: 1
          */
-        int newCount = origCount + 56;
+        int newCount = origCount + 50;
         assertEquals(newCount, getNodeCount(graph));
         
         archdesc = graph.frame(
@@ -56,7 +56,6 @@ public class CegesomaABTest extends AbstractImporterTest{
 //        printGraph(graph);
         // How many new nodes will have been created? We should have
         /** 
-         * event links: 2
          * relationship: 3
          * documentaryUnit: 1
          * documentDescription: 1
@@ -65,7 +64,7 @@ public class CegesomaABTest extends AbstractImporterTest{
          * datePeriod: 1
          * maintenanceEvent: 7
          */
-        int newCount = origCount + 17;
+        int newCount = origCount + 15;
         assertEquals(newCount, getNodeCount(graph));
         
         archdesc = graph.frame(
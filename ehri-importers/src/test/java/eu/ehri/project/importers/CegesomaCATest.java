@@ -47,10 +47,9 @@ public class CegesomaCATest extends AbstractImporterTest{
         // - 1 more DatePeriod
         // - 2 more subjectAccess nodes
         // - 1 UP
-        // - 2 more import Event links (1 for each Unit, 1 for the User)
         // - 1 more import Event
         // MaintenanceEvent 1
-        int newCount = origCount + 10;
+        int newCount = origCount + 8;
         assertEquals(newCount, getNodeCount(graph));
         
         archdesc = graph.frame(
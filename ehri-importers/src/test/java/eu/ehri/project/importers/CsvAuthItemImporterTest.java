@@ -49,10 +49,9 @@ public class CsvAuthItemImporterTest extends AbstractImporterTest{
         /*
          * 9 Item
          * 9 ItemDesc
-         * 10 more import Event links (1 for every Unit, 1 for the User)
          * 1 more import Event
          */
-        assertEquals(count+29, getNodeCount(graph));
+        assertEquals(count+19, getNodeCount(graph));
         assertEquals(voccount + 9, toList(authoritativeSet.getAuthoritativeItems()).size());
 
         // Check permission scopes are correct.
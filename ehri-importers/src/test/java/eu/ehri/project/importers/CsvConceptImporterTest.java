@@ -48,10 +48,9 @@ public class CsvConceptImporterTest extends AbstractImporterTest{
         /*
          * 18 Concept
          * 18 ConceptDesc
-         * 19 more import Event links (1 for every Unit, 1 for the User)
          * 1 more import Event
          */
-        assertEquals(count+56, getNodeCount(graph));
+        assertEquals(count+37, getNodeCount(graph));
         assertEquals(voccount + 18, toList(authoritativeSet.getAuthoritativeItems()).size());
 
         // Check permission scopes are correct.
@@ -42,7 +42,6 @@ public class CsvDossinImporterTest extends AbstractImporterTest{
        GraphDiff diff = diffGraph(graphState1, graphState2);
        diff.printDebug(System.out);
         /*
-         * null: 5
          * relationship: 4
          * documentaryUnit: 4
          * documentDescription: 4
@@ -50,7 +49,7 @@ public class CsvDossinImporterTest extends AbstractImporterTest{
          * datePeriod: 4
          */
 //        printGraph(graph);
-        assertEquals(count+22, getNodeCount(graph));
+        assertEquals(count+17, getNodeCount(graph));
 
         DocumentaryUnit unit = graph.frame(
                 getVertexByIdentifier(graph,"kd3"),
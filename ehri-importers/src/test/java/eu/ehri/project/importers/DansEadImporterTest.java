@@ -53,7 +53,6 @@ public class DansEadImporterTest extends AbstractImporterTest{
         /*
          * we should have
          * 
-         * null: 5
          * relationship: 6
          * documentaryUnit: 4
          * documentDescription: 4
@@ -61,7 +60,7 @@ public class DansEadImporterTest extends AbstractImporterTest{
          * systemEvent: 1
          * datePeriod: 5  //there are 6 unitdates in the xml, however two are identical and get merged into 1
          */
-        int newCount = origCount + 14 + 6 + 5 + 1; 
+        int newCount = origCount + 9 + 6 + 5 + 1; 
         assertEquals(newCount, getNodeCount(graph));
         
         DocumentaryUnit c1 = graph.frame(getVertexByIdentifier(graph, C1), DocumentaryUnit.class);
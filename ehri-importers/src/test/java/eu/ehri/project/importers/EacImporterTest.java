@@ -90,14 +90,13 @@ public class EacImporterTest extends AbstractImporterTest {
 //        printGraph(graph);
         /**
          * How many new nodes will have been created? We should have
-         * null: 2
          * historicalAgent: 1
          * property: 1
          * maintenanceEvent: 2
          * systemEvent: 1
          * historicalAgentDescription: 1
         **/
-        assertEquals(count + 8, getNodeCount(graph));
+        assertEquals(count + 6, getNodeCount(graph));
         
         HistoricalAgent abwehr = manager.getFrame("381", HistoricalAgent.class);
         logger.debug(abwehr.getId());
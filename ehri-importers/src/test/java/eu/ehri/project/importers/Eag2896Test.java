@@ -53,7 +53,7 @@ public class Eag2896Test extends AbstractImporterTest {
         // - 2 more linkEvents (1 for the Repository, 1 for the User)
         // - 1 more SystemEvent
 
-        int afterCount = count + 9;
+        int afterCount = count + 7;
         assertEquals(afterCount, getNodeCount(graph));
 
         Iterable<Vertex> docs = graph.getVertices(Ontology.IDENTIFIER_KEY, IMPORTED_ITEM_ID);
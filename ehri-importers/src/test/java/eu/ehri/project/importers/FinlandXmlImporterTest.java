@@ -44,7 +44,6 @@ public class FinlandXmlImporterTest extends AbstractImporterTest{
 //       diff.printDebug(System.out);
         int count_fin = getNodeCount(graph);
         /**
-         * null: 8
          * documentaryUnit: 7
          * documentDescription: 7
          * property: 1
@@ -52,7 +51,7 @@ public class FinlandXmlImporterTest extends AbstractImporterTest{
          * systemEvent: 1
          * datePeriod: 5
          */
-        assertEquals(count+30, count_fin);
+        assertEquals(count+22, count_fin);
         DocumentaryUnit c1 = graph.frame(getVertexByIdentifier(graph, C1), DocumentaryUnit.class);
         DocumentaryUnit c2 = graph.frame(getVertexByIdentifier(graph, C2), DocumentaryUnit.class);
         Iterator<DocumentDescription> i = c1.getDocumentDescriptions().iterator();
@@ -80,14 +79,13 @@ public class FinlandXmlImporterTest extends AbstractImporterTest{
        diff.printDebug(System.out);
 //        printGraph(graph);
         /**
-         * null: 8
          * property: 1
          * documentDescription: 7
          * maintenanceEvent: 1
          * systemEvent: 1
          * datePeriod: 5
          */
-       assertEquals(count_fin + 23, getNodeCount(graph));
+       assertEquals(count_fin + 15, getNodeCount(graph));
         i = c1.getDocumentDescriptions().iterator();
         nrOfDesc = 0;
         while(i.hasNext()){
@@ -127,7 +125,6 @@ public class FinlandXmlImporterTest extends AbstractImporterTest{
 
         /**
          * CREATED:
-         * null: 2
          * maintenanceEvent: 1
          * systemEvent: 1
          * datePeriod: 1
@@ -136,7 +133,7 @@ public class FinlandXmlImporterTest extends AbstractImporterTest{
          * maintenanceEvent: 1
          * datePeriod: 1
          */
-        assertEquals(count_eng + (5-2), getNodeCount(graph));
+        assertEquals(count_eng + (3-2), getNodeCount(graph));
         
     }
 
@@ -49,9 +49,8 @@ public class IcaAtomEadImporterTest extends AbstractImporterTest{
 	// - 1 more DatePeriod
         // - 1 more UnknownProperties
         // - 1 UndeterminedRelationship, from origination/name
-	// - 6 more import Event links (4 for every Unit, 1 for the User)
         // - 1 more import Event
-        int newCount = count + 20;
+        int newCount = count + 14;
         assertEquals(newCount, getNodeCount(graph));
 
         Iterable<Vertex> docs = graph.getVertices(Ontology.IDENTIFIER_KEY,
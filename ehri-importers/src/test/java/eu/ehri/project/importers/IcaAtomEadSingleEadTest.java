@@ -45,7 +45,6 @@ public class IcaAtomEadSingleEadTest extends AbstractImporterTest {
         // - 5 more UndeterminedRelationships
         //TODO: test this UP
         // - 1 more UnknownProperty
-        // - 2 more import Event links
         // - 1 more import Event
 
         Iterable<Vertex> docs = graph.getVertices("identifier", IMPORTED_ITEM_ID);
@@ -68,7 +67,7 @@ public class IcaAtomEadSingleEadTest extends AbstractImporterTest {
         assertEquals(expected, scopeContent);
 
         // Check the right nodes get created.
-        int createCount = origCount + 13;
+        int createCount = origCount + 11;
 
         // - 4 more UnderterminedRelationship nodes
 
@@ -48,10 +48,9 @@ private final String UN_REL = "HR-HDA145corporateBodyAccessCroatianStateArchive"
         // - 8 more UndeterminedRelationships (2 4 2)
         //TODO: test this UP
         // - 1 more UnknownProperty (1 1 1)
-        // - 4 more import Event links (+1)
         // - 1 more import Event
 
-        int createCount = origCount + 23;
+        int createCount = origCount + 19;
 
 
         assertEquals(createCount, getNodeCount(graph));
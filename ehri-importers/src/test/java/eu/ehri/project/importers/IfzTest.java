@@ -59,7 +59,6 @@ public class IfzTest extends AbstractImporterTest{
         printGraph(graph);
         // How many new nodes will have been created? We should have
         /** 
-         * null: 6
          * relationship: 11
          * documentaryUnit: 5
          * documentDescription: 5
@@ -67,7 +66,7 @@ public class IfzTest extends AbstractImporterTest{
          * systemEvent: 1
          * 1 date
          */
-        int newCount = origCount + 35;
+        int newCount = origCount + 29;
         assertEquals(newCount, getNodeCount(graph));
         
         archdesc = graph.frame(
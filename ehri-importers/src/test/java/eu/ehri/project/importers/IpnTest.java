@@ -61,7 +61,6 @@ public class IpnTest extends AbstractImporterTest{
         // How many new nodes will have been created? We should have
         // - 3 more VirtualUnits (archdesc, 2 children with each 2 children)
        	// - 3 more DocumentDescription
-        // - 4 more import Event links (6 for every Unit, 1 for the User)
         // - 1 more import Event
 
         // - 0 more MaintenanceEvents
@@ -100,7 +99,6 @@ public class IpnTest extends AbstractImporterTest{
 //        printGraph(graph);
         // How many new nodes will have been created? We should have
        /**
-        * null: 4
         * relationship: 4
         * documentaryUnit: 3
         * property: 1
@@ -110,7 +108,7 @@ public class IpnTest extends AbstractImporterTest{
         * datePeriod: 2
         */
 
-        int newCount = origCount + 19; 
+        int newCount = origCount + 15; 
         assertEquals(newCount, getNodeCount(graph));
         
         DocumentaryUnit archdesc = graph.frame(
@@ -194,7 +192,6 @@ public class IpnTest extends AbstractImporterTest{
 //        printGraph(graph);
         // How many new nodes will have been created? We should have
        /**
-        * null: 4
         * relationship: 5
         * documentaryUnit: 3
         * documentDescription: 3
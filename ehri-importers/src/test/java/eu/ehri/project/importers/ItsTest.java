@@ -80,14 +80,13 @@ public class ItsTest extends AbstractImporterTest {
 
         /**
          * relationship: 2
-         * null: 10 
          * documentaryUnit: 4 
          * documentDescription: 8 
          * maintenanceEvent: 8 (1+3)*2 
          * systemEvent: 2
          * date: 3 (2 ENG, 1 GER)
          */
-        int createCount = origCount + 37;
+        int createCount = origCount + 27;
         assertEquals(createCount, getNodeCount(graph));
 
         // The first import creates 4? units
@@ -170,7 +169,7 @@ public class ItsTest extends AbstractImporterTest {
 
 //               printGraph(graph);
 
-        /* null: 9
+        /*
          * relationship: 23
          * documentaryUnit: 8
          * property: 4
@@ -180,7 +179,7 @@ public class ItsTest extends AbstractImporterTest {
          * datePeriod: 6
          */
 //               printGraph(graph);
-        int createCount = origCount + 63;
+        int createCount = origCount + 54;
         assertEquals(createCount, getNodeCount(graph));
         
         DocumentaryUnit u = graph.frame(
@@ -253,7 +252,7 @@ public class ItsTest extends AbstractImporterTest {
 
 //               printGraph(graph);
 
-        /* null: 21
+        /*
          * documentaryUnit: 20
          * property: 20
          * documentDescription: 20
@@ -290,7 +289,6 @@ public class ItsTest extends AbstractImporterTest {
         diff.printDebug(System.out);
         /*
          * relationship: 1
-         * null: 5
          * documentaryUnit: 4
          * documentDescription: 4
          * property: 1
@@ -299,7 +297,7 @@ public class ItsTest extends AbstractImporterTest {
          * datePeriod: 2
          */
 
-        int createCount = origCount + 21;
+        int createCount = origCount + 16;
         assertEquals(createCount, getNodeCount(graph));
        
     }
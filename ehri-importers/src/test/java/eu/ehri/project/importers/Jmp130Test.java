@@ -50,7 +50,6 @@ public class Jmp130Test extends AbstractImporterTest {
        diff.printDebug(System.out);
 
         /**
-         * null: 2
          * relationship: 5
          * documentaryUnit: 1
          * documentDescription: 1
@@ -62,7 +61,7 @@ public class Jmp130Test extends AbstractImporterTest {
 
 
         printGraph(graph);
-        int newCount = count + 12 ;
+        int newCount = count + 10 ;
         assertEquals(newCount, getNodeCount(graph));
 
         Iterable<Vertex> docs = graph.getVertices(Ontology.IDENTIFIER_KEY, FONDS);
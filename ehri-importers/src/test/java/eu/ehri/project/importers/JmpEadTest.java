@@ -49,14 +49,13 @@ public class JmpEadTest extends AbstractImporterTest {
         // - 1 more DocumentDescription
         // - 0 more DatePeriod 0 0 1 
         // - 3 UndeterminedRelationship, 0 0 0 11
-        // - 2 more import Event links (4 for every Unit, 1 for the User)
         // - 1 more import Event
         // - 0 Annotation as resolved relationship 
         // - 1 unknownProperty
 
 
         printGraph(graph);
-        int newCount = count + 12 ;
+        int newCount = count + 10 ;
         assertEquals(newCount, getNodeCount(graph));
 
         Iterable<Vertex> docs = graph.getVertices(Ontology.IDENTIFIER_KEY, FONDS);
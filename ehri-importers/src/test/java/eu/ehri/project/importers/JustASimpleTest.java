@@ -24,7 +24,7 @@ private static final Logger logger = LoggerFactory.getLogger(JustASimpleTest.cla
         ActionManager.EventContext ctx = am.logEvent(validUser,
                 EventTypes.creation,
                 Optional.of("Doing something to lots of nodes"));
-        assertEquals(nodeCount + 2, getNodeCount(graph));
+        assertEquals(nodeCount + 1, getNodeCount(graph));
 
         assertEquals(validUser, ctx.getActioner());
         assertEquals(userActions + 1, toList(validUser.getActions()).size());
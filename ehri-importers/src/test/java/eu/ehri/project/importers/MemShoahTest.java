@@ -63,7 +63,7 @@ public class MemShoahTest extends AbstractImporterTest{
          * datePeriod: 1
          */ 
 
-        int newCount = origCount + 8;
+        int newCount = origCount + 6;
         assertEquals(newCount, getNodeCount(graph));
         
         archdesc = graph.frame(
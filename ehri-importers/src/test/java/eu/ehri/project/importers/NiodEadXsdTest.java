@@ -54,14 +54,13 @@ public class NiodEadXsdTest extends AbstractImporterTest{
 //       diff.printDebug(System.out);
 //        printGraph(graph);
        /*
-        * null: 7
         * documentaryUnit: 6
         * property: 1
         * documentDescription: 6
         * systemEvent: 1
         * datePeriod: 6
         */
-        int newCount = origCount + 27; 
+        int newCount = origCount + 20; 
         assertEquals(newCount, getNodeCount(graph));
         
         DocumentaryUnit archdesc = graph.frame(
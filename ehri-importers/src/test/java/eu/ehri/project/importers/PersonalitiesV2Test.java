@@ -51,14 +51,13 @@ public class PersonalitiesV2Test extends AbstractImporterTest {
        GraphDiff diff = diffGraph(graphState1, graphState2);
        diff.printDebug(System.out);
        /**
-        * null: 2
         * relationship: 1
         * historicalAgent: 1
         * maintenanceEvent: 1
         * systemEvent: 1
         * historicalAgentDescription: 1
         */
-        assertEquals(count+7, getNodeCount(graph));
+        assertEquals(count+5, getNodeCount(graph));
         printGraph(graph);
         HistoricalAgent person = manager.getFrame("ehri-pers-000051", HistoricalAgent.class);
         assertEquals(2, ((List)person.asVertex().getProperty(Ontology.OTHER_IDENTIFIERS)).size());
@@ -91,14 +90,13 @@ public class PersonalitiesV2Test extends AbstractImporterTest {
        GraphDiff diff = diffGraph(graphState1, graphState2);
        diff.printDebug(System.out);
        /**
-        * null: 2
         * relationship: 1
         * historicalAgent: 1
         * maintenanceEvent: 1
         * systemEvent: 1
         * historicalAgentDescription: 1
         */
-        assertEquals(count+7, getNodeCount(graph));
+        assertEquals(count+5, getNodeCount(graph));
         printGraph(graph);
         HistoricalAgent person = manager.getFrame("ehri-pers-000051", HistoricalAgent.class);
         for(Description d : person.getDescriptions()){
@@ -142,7 +140,6 @@ public class PersonalitiesV2Test extends AbstractImporterTest {
        GraphDiff diff = diffGraph(graphState1, graphState2);
        diff.printDebug(System.out);
        /**
-        * null: 2
         * relationship: 1
         * historicalAgent: 1
         * link: 1
@@ -150,7 +147,7 @@ public class PersonalitiesV2Test extends AbstractImporterTest {
         * systemEvent: 1
         * historicalAgentDescription: 1
         */
-        assertEquals(count+8, getNodeCount(graph));
+        assertEquals(count+6, getNodeCount(graph));
 //        printGraph(graph);
         HistoricalAgent person = manager.getFrame("ehri-pers-000051", HistoricalAgent.class);
         for (Description d : person.getDescriptions()) {
@@ -58,10 +58,9 @@ public class StadsarchiefAdamTest extends AbstractImporterTest{
        	// - 6 more DocumentDescription
         // - 1 more DatePeriod
         // - 6 more UnknownProperties 
-        // - 7 more import Event links (6 for every Unit, 1 for the User)
         // - 1 more import Event
         // - 3 more MaintenanceEvents
-        int newCount = origCount + 30; 
+        int newCount = origCount + 23; 
         assertEquals(newCount, getNodeCount(graph));
         
         DocumentaryUnit archdesc = graph.frame(
@@ -42,12 +42,11 @@ public class UshmmTest extends AbstractImporterTest{
         * 2 more DocumentaryUnit
         * 2 more DocumentDescription
         * 1 more DatePeriod
-        * 3 more import Event links
         * 1 more import Event
         * 17 more AccessPoints
         * 1 more MaintenanceEvent (creation)
         */
-        int createCount = origCount + 27;
+        int createCount = origCount + 24;
         assertEquals(createCount, getNodeCount(graph));
 
         // Yet we've only created 2 *logical* item...
@@ -75,9 +75,8 @@ public void setStageTest() throws PermissionDenied, ValidationError {
         // How many new nodes will have been created? We should have
         // - 2 more VirtualUnits (archdesc, 1 child (other 2 children are already existing DUs))
        	// - 2 more DocumentDescription
-        // - 3 more import Event links (4 for every Unit, 1 for the User)
         // - 1 more import Event
-        int newCount = origCount + 8; 
+        int newCount = origCount + 5; 
         assertEquals(newCount, getNodeCount(graph));
         
         VirtualUnit toplevel = graph.frame(getVertexByIdentifier(graph, ARCHDESC), VirtualUnit.class);
@@ -41,7 +41,6 @@ public class WegwijzerEadImporterTest extends AbstractImporterTest{
        GraphDiff diff = diffGraph(graphState1, graphState2);
        diff.printDebug(System.out);
        /**
-        * null: 7
         * relationship: 27
         * documentaryUnit: 6
         * documentDescription: 6
@@ -49,7 +48,7 @@ public class WegwijzerEadImporterTest extends AbstractImporterTest{
         * systemEvent: 1
         * datePeriod: 6
         */
-        assertEquals(getNodeCount(graph), origCount+54);
+        assertEquals(getNodeCount(graph), origCount+47);
 //        printGraph(graph);
        
 
@@ -85,7 +85,6 @@ public class WienerLibraryTest extends AbstractImporterTest {
         // - 1 more DatePeriod
         // - 1 more UnknownProperties
         // - 11 UndeterminedRelationship, from controlled access points
-        // - 2 more import Event links (1 for the Unit, 1 for the User)
         // - 1 more import Event
         int newCount = count + 24;
         assertEquals(newCount, getNodeCount(graph));
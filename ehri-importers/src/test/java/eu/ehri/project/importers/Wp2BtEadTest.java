@@ -83,10 +83,9 @@ public class Wp2BtEadTest extends AbstractImporterTest {
         // - 6 more DocumentDescription
         // - 1 more DatePeriod 0 0 1 
         // - 17 UndeterminedRelationship, 0 2 2 4 4 5
-        // - 7 more import Event links (6 for every Unit, 1 for the User)
         // - 1 more import Event
         // - 1 Annotation as resolved relationship 
-        int newCount = count + 39;
+        int newCount = count + 32;
         assertEquals(newCount, getNodeCount(graph));
 
         Iterable<Vertex> docs = graph.getVertices(Ontology.IDENTIFIER_KEY, FONDS);
@@ -52,13 +52,12 @@ public class Wp2JmpEadTest extends AbstractImporterTest {
         // - 7 more DocumentDescription
         // - 0 more DatePeriod 0 0 1 
         // - 3 UndeterminedRelationship, 0 0 0 11
-        // - 8 more import Event links (4 for every Unit, 1 for the User)
         // - 1 more import Event
         // - 0 Annotation as resolved relationship 
         // - 1 unknownProperty
 
 
-        int newCount = count + 27 ;
+        int newCount = count + 19 ;
         assertEquals(newCount, getNodeCount(graph));
 
         Iterable<Vertex> docs = graph.getVertices(Ontology.IDENTIFIER_KEY, FONDS);
@@ -42,11 +42,10 @@ public class Wp2PersonalitiesImporterTest extends AbstractImporterTest{
          * 16 HistAgent
          * 16 HistAgentDesc
          * -- 9 more DatePeriods not 
-         * 17 more import Event links (1 for every Unit, 1 for the User)
          * 1 more import Event
          */
         printGraph(graph);
-        assertEquals(count+50, getNodeCount(graph));
+        assertEquals(count+33, getNodeCount(graph));
         assertEquals(voccount + 16, toList(authoritativeSet.getAuthoritativeItems()).size());
 
         // Check permission scopes are correct.
@@ -79,13 +79,12 @@ public class Wp2YvEadTest extends AbstractImporterTest {
         // - 4 more DocumentDescription
         // - 1 more DatePeriod 0 0 1 
         // - 11 UndeterminedRelationship, 0 0 0 11
-        // - 5 more import Event links (4 for every Unit, 1 for the User)
         // - 1 more import Event
        
         // - 1 Link as resolved relationship 
 
 //printGraph(graph);
-        int newCount = count + 26 + 1;
+        int newCount = count + 21 + 1;
         assertEquals(newCount, getNodeCount(graph));
 
         Iterable<Vertex> docs = graph.getVertices(Ontology.IDENTIFIER_KEY, FONDS);
@@ -58,7 +58,6 @@ public class YadVashemTest extends AbstractImporterTest{
        GraphDiff diff = diffGraph(graphState1, graphState2);
        diff.printDebug(System.out);
        /**
-        * null: 4
         * relationship: 4
         * documentaryUnit: 2
         * documentDescription: 3
@@ -66,7 +65,7 @@ public class YadVashemTest extends AbstractImporterTest{
         * datePeriod: 1
         */
 
-        assertEquals(count + 15, getNodeCount(graph));
+        assertEquals(count + 11, getNodeCount(graph));
         assertEquals(2, toList(m19.getDocumentDescriptions()).size());
     }
 
@@ -94,7 +93,6 @@ public class YadVashemTest extends AbstractImporterTest{
        GraphDiff diff = diffGraph(graphState1, graphState2);
        diff.printDebug(System.out);
        /*
-        * null: 4
         * relationship: 5 (2 creator, 1 place, 1 subject, 1 geog)
         * documentaryUnit: 2
         * documentDescription: 3
@@ -102,7 +100,7 @@ public class YadVashemTest extends AbstractImporterTest{
         * systemEvent: 1
         * datePeriod: 1
         */
-        assertEquals(count + 17, getNodeCount(graph));
+        assertEquals(count + 13, getNodeCount(graph));
         //ENG also imported:
 assertEquals(2, toList(m19.getDocumentDescriptions()).size());
         DocumentaryUnit c1 = graph.frame(getVertexByIdentifier(graph, C1), DocumentaryUnit.class);
@@ -46,10 +46,9 @@ public class CampsImporterTest extends AbstractImporterTest {
         /*  How many new nodes will have been created? We should have
          * 8 more Concepts
        	 * 8 more ConceptDescription
-	 * 9 more import Event links (8 for every Unit, 1 for the User)
          * 1 more import Event
          */
-        int afterNodeCount = count + 26;
+        int afterNodeCount = count + 17;
         assertEquals(afterNodeCount, getNodeCount(graph));
         assertEquals(voccount + 8, toList(vocabulary.getConcepts()).size());
 
@@ -85,10 +84,9 @@ public class CampsImporterTest extends AbstractImporterTest {
         /*  How many new nodes will have been created? We should have
          * 8 more Concepts
        	 * 8 more ConceptDescription
-	 * 9 more import Event links (8 for every Unit, 1 for the User)
          * 1 more import Event
          */
-        int afterNodeCount = count + 26;
+        int afterNodeCount = count + 17;
         assertEquals(afterNodeCount, getNodeCount(graph));
         assertEquals(voccount + 8, toList(vocabulary.getConcepts()).size());
 
@@ -118,10 +116,9 @@ public class CampsImporterTest extends AbstractImporterTest {
         /*  How many new nodes will have been created? We should have
          * 0 new concepts, 2 modified concepts (counts as 0)
        	 * 0 new ConceptDescription, 2 modified (counts as 0)
-         * 2 more import Event links (2 for every modified Unit, 1 for the User)
          * 1 more import Event
          */
-         afterNodeCount = count + 26 + 3;
+         afterNodeCount = count + 17 + 1;
         assertEquals(afterNodeCount, getNodeCount(graph));
         assertEquals(voccount + 8, toList(vocabulary.getConcepts()).size());
 
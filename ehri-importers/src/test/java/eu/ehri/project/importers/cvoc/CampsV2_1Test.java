@@ -46,10 +46,9 @@ public class CampsV2_1Test extends AbstractImporterTest {
         /*  How many new nodes will have been created? We should have
          * 8 more Concepts
        	 * 8 more ConceptDescription
-	 * 9 more import Event links (8 for every Unit, 1 for the User)
          * 1 more import Event
          */
-        int afterNodeCount = count + 26;
+        int afterNodeCount = count + 17;
         assertEquals(afterNodeCount, getNodeCount(graph));
         assertEquals(voccount + 8, toList(vocabulary.getConcepts()).size());
 
@@ -85,10 +84,9 @@ public class CampsV2_1Test extends AbstractImporterTest {
         /*  How many new nodes will have been created? We should have
          * 8 more Concepts
        	 * 8 more ConceptDescription
-	 * 9 more import Event links (8 for every Unit, 1 for the User)
          * 1 more import Event
          */
-        int afterNodeCount = count + 26;
+        int afterNodeCount = count + 17;
         assertEquals(afterNodeCount, getNodeCount(graph));
         assertEquals(voccount + 8, toList(vocabulary.getConcepts()).size());
 
@@ -127,7 +125,6 @@ public class CampsV2_1Test extends AbstractImporterTest {
         /*  How many new nodes will have been created? We should have*/
         /**
          * CREATED:
-         * null: 3
          * cvocConceptDescription: 2
          * systemEvent: 1
          * 
@@ -135,7 +132,7 @@ public class CampsV2_1Test extends AbstractImporterTest {
          * vocConceptDescription: 2
          * 
          */
-         afterNodeCount = count + 26 + 4;
+         afterNodeCount = count + 17 + 1;
         assertEquals(afterNodeCount, getNodeCount(graph));
         assertEquals(voccount + 8, toList(vocabulary.getConcepts()).size());
 
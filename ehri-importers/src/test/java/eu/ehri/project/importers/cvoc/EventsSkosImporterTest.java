@@ -48,7 +48,6 @@ public class EventsSkosImporterTest extends AbstractImporterTest {
        diff.printDebug(System.out);
        /*
         * relationship: 5
-        * null: 2
         * cvocConceptDescription: 1
         * systemEvent: 1
         * cvocConcept: 1 
@@ -78,13 +77,12 @@ public class EventsSkosImporterTest extends AbstractImporterTest {
 
         /** How many new nodes will have been created? We should have
          * relationship: 4
-         * null: 3
          * link: 1
          * cvocConceptDescription: 2
          * systemEvent: 1
          * cvocConcept: 2
          */
-        assertEquals(count + 13, getNodeCount(graph));
+        assertEquals(count + 10, getNodeCount(graph));
         printGraph(graph);
 
         
@@ -142,12 +140,11 @@ public class EventsSkosImporterTest extends AbstractImporterTest {
         /** How many new nodes will have been created? We should have
          * link: 3
          * relationship: 2
-         * null: 3
          * cvocConceptDescription: 2
          * systemEvent: 1
          * cvocConcept: 2
          */
-        assertEquals(count + 13, getNodeCount(graph));
+        assertEquals(count + 10, getNodeCount(graph));
 //        printGraph(graph);   
         
         Concept termJR = manager.getFrame("cvoc1-tema-866", Concept.class);
@@ -40,10 +40,9 @@ public class GhettosImporterV20140831Test extends AbstractImporterTest {
          * 2 more Concepts
          * 4 more ConceptDescription
          * 4 UndeterminedRelationships
-     	 * 3 more import Event links (2 for every Unit, 1 for the User)
          * 1 more import Event
          */
-        assertEquals(count + 14, getNodeCount(graph));
+        assertEquals(count + 11, getNodeCount(graph));
         assertEquals(2, log.getCreated());
         assertEquals(voccount + 2, toList(vocabulary.getConcepts()).size());
 
@@ -80,7 +79,6 @@ public class GhettosImporterV20140831Test extends AbstractImporterTest {
        diff.printDebug(System.out);
        /*
         * CREATED:
-        * null: 3
         * cvocConceptDescription: 7
         * systemEvent: 1
         * 
@@ -88,7 +86,7 @@ public class GhettosImporterV20140831Test extends AbstractImporterTest {
         * relationship: 4
         * cvocConceptDescription: 4
         */
-       assertEquals(origCount + (11-8), getNodeCount(graph));
+       assertEquals(origCount + (8-8), getNodeCount(graph));
         printGraph(graph);
         
         Concept ghetto0v2 = manager.getFrame("cvoc1-0", Concept.class);
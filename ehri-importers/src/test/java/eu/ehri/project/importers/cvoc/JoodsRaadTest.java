@@ -58,10 +58,9 @@ public class JoodsRaadTest extends AbstractImporterTest {
         /*  How many new nodes will have been created? We should have
          * 5 more Concepts
        	 * 9 more ConceptDescription
-	 * 6 more import Event links 
          * 1 more import Event
          */
-        assertEquals(count + 21, getNodeCount(graph));
+        assertEquals(count + 15, getNodeCount(graph));
         assertEquals(voccount + 5, toList(vocabulary.getConcepts()).size());
 
         // get a top concept
@@ -121,10 +120,9 @@ public class JoodsRaadTest extends AbstractImporterTest {
          * 1 more Concepts
        	 * 1 more ConceptDescription
          * 1 more Link
-	 * 2 more import Event links (8 for every Unit, 1 for the User)
          * 1 more import Event
          */
-        assertEquals(count + 6, getNodeCount(graph));
+        assertEquals(count + 4, getNodeCount(graph));
         assertEquals(voccount + 1, toList(cvoc2.getConcepts()).size());
 
         Concept term698 = manager.getFrame("cvoc1-698", Concept.class);
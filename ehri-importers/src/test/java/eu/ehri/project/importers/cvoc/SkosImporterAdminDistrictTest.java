@@ -45,7 +45,7 @@ public class SkosImporterAdminDistrictTest extends AbstractImporterTest {
         // - 5 more ConceptDescription ( 3 de + 1 fr + 1 eng (:when no lang is given in the prefLabel:) )
         // - 4 more ImportEvents ( 3 + 1 )
         // - 1 more import Action
-        assertEquals(count + 13, getNodeCount(graph));
+        assertEquals(count + 9, getNodeCount(graph));
 
     }
 }
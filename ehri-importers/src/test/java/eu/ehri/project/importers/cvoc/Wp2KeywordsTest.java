@@ -42,11 +42,10 @@ public class Wp2KeywordsTest extends AbstractImporterTest {
        	 * 368 more english ConceptDescription
          * 29 german
          * 381 czech
-	 * 389 more import Event links (388 for every Unit, 1 for the User)
          * 1 more import Event
          */
         
-        int afterNodeCount = count + 1556;
+        int afterNodeCount = count + 1167;
         assertEquals(afterNodeCount, getNodeCount(graph));
         assertEquals(voccount + 388, toList(vocabulary.getConcepts()).size());
 
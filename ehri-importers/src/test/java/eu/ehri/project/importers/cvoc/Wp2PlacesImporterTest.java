@@ -38,10 +38,9 @@ public class Wp2PlacesImporterTest extends AbstractImporterTest {
         /*  How many new nodes will have been created? We should have
          * 2 more Concepts
          * 4 more ConceptDescription
-     	 * 3 more import Event links (2 for every Unit, 1 for the User)
          * 1 more import Event
          */
-        assertEquals(count + 10, getNodeCount(graph));
+        assertEquals(count + 7, getNodeCount(graph));
         assertEquals(2, log.getCreated());
         assertEquals(voccount + 2, toList(vocabulary.getConcepts()).size());
 